@@ -0,0 +1,176 @@
+// Speedup of TiledCanny per thread count on synthetic 720p/1080p/4K frames, and a
+// bit-exactness check of every run against a plain single-threaded Canny (and
+// cv::Canny when built with OpenCV). Exits non-zero on any mismatch.
+
+#include "tiled_canny.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <vector>
+
+#ifdef HAVE_OPENCV
+#include <opencv2/core.hpp>
+#include <opencv2/imgproc.hpp>
+#endif
+
+static const int LOW = 50, HIGH = 150;
+
+// Shapes over a gradient with sensor-like noise, so there are long edges that cross
+// band borders as well as plenty of weak, noisy maxima.
+static std::vector<uint8_t> syntheticFrame(int width, int height, unsigned seed)
+{
+    std::vector<uint8_t> img((size_t) width * height);
+    unsigned state = seed;
+    for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) {
+            int v = 40 + 120 * c / width + 40 * r / height;
+            int dx = c - width / 2, dy = r - height / 2;
+            int radius = std::min(width, height) / 3;
+            if (dx * dx + dy * dy < radius * radius) v += 60;
+            if ((c / (width / 8) + r / (height / 6)) % 3 == 0) v -= 30;
+            if (std::abs(c - r * width / height) < 3) v = 230; // diagonal line through every band
+            state = state * 1664525u + 1013904223u;
+            v += (int) ((state >> 24) % 17) - 8;
+            img[(size_t) r * width + c] = (uint8_t) std::min(255, std::max(0, v));
+        }
+    }
+    return img;
+}
+
+// Straightforward whole-image version of the same algorithm, written independently
+// of the banded one: 2D Sobel with replicated borders, then NMS and hysteresis.
+static void referenceCanny(const uint8_t *src, int width, int height, int low, int high, int aperture,
+                           uint8_t *dst)
+{
+    static const int s3[] = {1, 2, 1}, d3[] = {-1, 0, 1};
+    static const int s5[] = {1, 4, 6, 4, 1}, d5[] = {-1, -2, 0, 2, 1};
+    const int *sk = aperture == 5 ? s5 : s3, *dk = aperture == 5 ? d5 : d3;
+    const int k = aperture / 2;
+    auto at = [&](int r, int c) {
+        r = std::min(std::max(r, 0), height - 1);
+        c = std::min(std::max(c, 0), width - 1);
+        return (int) src[(size_t) r * width + c];
+    };
+    std::vector<int> dx((size_t) width * height), dy(dx.size()), mag(dx.size());
+    for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) {
+            int gx = 0, gy = 0;
+            for (int i = 0; i < aperture; i++) {
+                for (int j = 0; j < aperture; j++) {
+                    int v = at(r + i - k, c + j - k);
+                    gx += sk[i] * dk[j] * v;
+                    gy += dk[i] * sk[j] * v;
+                }
+            }
+            size_t p = (size_t) r * width + c;
+            dx[p] = gx;
+            dy[p] = gy;
+            mag[p] = std::abs(gx) + std::abs(gy);
+        }
+    }
+    auto magAt = [&](int r, int c) {
+        return r < 0 || r >= height || c < 0 || c >= width ? 0 : mag[(size_t) r * width + c];
+    };
+
+    const int shift = 15;
+    const int tg22 = (int) (0.4142135623730950488016887242097 * (1 << shift) + 0.5);
+    const int step = width + 2;
+    std::vector<uint8_t> map((size_t) step * (height + 2), 1);
+    std::vector<int> stack;
+    for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) {
+            size_t p = (size_t) r * width + c;
+            int m = mag[p];
+            bool maximum = false;
+            if (m > low) {
+                int x = std::abs(dx[p]), y = std::abs(dy[p]) << shift;
+                if (y < x * tg22) {
+                    maximum = m > magAt(r, c - 1) && m >= magAt(r, c + 1);
+                } else if (y > x * tg22 + (x << (shift + 1))) {
+                    maximum = m > magAt(r - 1, c) && m >= magAt(r + 1, c);
+                } else {
+                    int s = (dx[p] ^ dy[p]) < 0 ? -1 : 1;
+                    maximum = m > magAt(r - 1, c - s) && m > magAt(r + 1, c + s);
+                }
+            }
+            int mp = (r + 1) * step + c + 1;
+            map[mp] = !maximum ? 1 : m > high ? 2 : 0;
+            if (map[mp] == 2) stack.push_back(mp);
+        }
+    }
+    while (!stack.empty()) {
+        int mp = stack.back();
+        stack.pop_back();
+        for (int d : {-step - 1, -step, -step + 1, -1, 1, step - 1, step, step + 1}) {
+            if (!map[mp + d]) map[mp + d] = 2, stack.push_back(mp + d);
+        }
+    }
+    for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) dst[(size_t) r * width + c] = map[(r + 1) * step + c + 1] == 2 ? 255 : 0;
+    }
+}
+
+template<typename F>
+static double medianMs(int runs, F &&f)
+{
+    std::vector<double> times;
+    for (int i = 0; i < runs; i++) {
+        auto start = std::chrono::steady_clock::now();
+        f();
+        times.push_back(std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - start).count());
+    }
+    std::sort(times.begin(), times.end());
+    return times[times.size() / 2];
+}
+
+static size_t differences(const std::vector<uint8_t> &a, const std::vector<uint8_t> &b)
+{
+    size_t n = 0;
+    for (size_t i = 0; i < a.size(); i++) n += a[i] != b[i];
+    return n;
+}
+
+int main(int argc, char **argv)
+{
+    int maxThreads = argc > 1 ? std::atoi(argv[1]) : (int) std::max(1u, std::thread::hardware_concurrency());
+    int runs = argc > 2 ? std::atoi(argv[2]) : 15;
+    const int sizes[][2] = {{1280, 720}, {1920, 1080}, {3840, 2160}};
+    bool ok = true;
+
+    for (int aperture : {3, 5}) {
+        for (const auto &size : sizes) {
+            int width = size[0], height = size[1];
+            std::vector<uint8_t> src = syntheticFrame(width, height, 7u + width);
+            std::vector<uint8_t> expected(src.size()), out(src.size());
+            referenceCanny(src.data(), width, height, LOW, HIGH, aperture, expected.data());
+            std::printf("%dx%d aperture %d\n", width, height, aperture);
+
+#ifdef HAVE_OPENCV
+            cv::setNumThreads(1);
+            cv::Mat srcMat(height, width, CV_8UC1, src.data()), cvOut;
+            double cvMs = medianMs(runs, [&] { cv::Canny(srcMat, cvOut, LOW, HIGH, aperture); });
+            size_t cvDiff = differences(expected, std::vector<uint8_t>(cvOut.datastart, cvOut.dataend));
+            std::printf("  cv::Canny (1 thread) %8.2f ms  %s\n", cvMs, cvDiff ? "REFERENCE MISMATCH" : "");
+            ok &= cvDiff == 0;
+#endif
+
+            TiledCanny canny;
+            double base = 0;
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                canny.setThreads(threads);
+                double ms = medianMs(runs, [&] {
+                    canny.run(src.data(), width, out.data(), width, width, height, LOW, HIGH, aperture);
+                });
+                if (threads == 1) base = ms;
+                size_t diff = differences(expected, out);
+                std::printf("  %2d thread(s)        %8.2f ms  x%.2f  %s\n", threads, ms, base / ms,
+                            diff ? "MISMATCH" : "bit-exact");
+                ok &= diff == 0;
+            }
+        }
+    }
+    return ok ? 0 : 1;
+}
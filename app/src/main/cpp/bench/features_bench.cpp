@@ -0,0 +1,200 @@
+// EdgeFeatures on bit-packed Canny output: time per frame against a plain byte-mask
+// implementation of the same numbers (neighbour checks per pixel and a flood fill
+// for the contours), which also checks every field of the result. Exits non-zero
+// on any mismatch.
+
+#include "edge_features.h"
+#include "tiled_canny.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <vector>
+
+static const int LOW = 50, HIGH = 150, MIN_PIXELS = 8;
+
+// Gradient, a disc, a checker of soft blocks and noise, as in fused_bench
+static std::vector<uint8_t> syntheticFrame(int width, int height, unsigned seed)
+{
+    std::vector<uint8_t> img((size_t) width * height);
+    unsigned state = seed;
+    for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) {
+            int v = 40 + 120 * c / width + 40 * r / height;
+            int dx = c - width / 2, dy = r - height / 2;
+            int radius = std::min(width, height) / 3;
+            if (dx * dx + dy * dy < radius * radius) v += 60;
+            if ((c / (width / 8) + r / (height / 6)) % 3 == 0) v -= 30;
+            state = state * 1664525u + 1013904223u;
+            v += (int) ((state >> 24) % 17) - 8;
+            img[(size_t) r * width + c] = (uint8_t) std::min(255, std::max(0, v));
+        }
+    }
+    return img;
+}
+
+// Short random strokes in all directions: thousands of small contours, many of
+// them the same size, and links across word and row boundaries
+static std::vector<uint8_t> strokes(int width, int height, unsigned seed)
+{
+    std::vector<uint8_t> mask((size_t) width * height);
+    unsigned state = seed;
+    auto next = [&](unsigned n) { state = state * 1664525u + 1013904223u; return (state >> 8) % n; };
+    for (int i = 0; i < width * height / 200; i++) {
+        int x = (int) next(width), y = (int) next(height);
+        int dx = (int) next(3) - 1, dy = (int) next(3) - 1, length = 1 + (int) next(14);
+        for (int j = 0; j < length && x >= 0 && y >= 0 && x < width && y < height; j++, x += dx, y += dy) {
+            mask[(size_t) y * width + x] = 255;
+        }
+    }
+    return mask;
+}
+
+template<typename F>
+static double medianMs(int runs, F &&f)
+{
+    std::vector<double> times;
+    for (int i = 0; i < runs; i++) {
+        auto start = std::chrono::steady_clock::now();
+        f();
+        times.push_back(std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - start).count());
+    }
+    std::sort(times.begin(), times.end());
+    return times[times.size() / 2];
+}
+
+static void putFloat(int32_t *block, int index, float f)
+{
+    std::memcpy(block + index, &f, sizeof f);
+}
+
+// A 4x4 grid, as the app configures by default
+static void configure(int32_t *block)
+{
+    block[EdgeFeatures::REGION_COUNT] = 16;
+    block[EdgeFeatures::MIN_CONTOUR_PIXELS] = MIN_PIXELS;
+    for (int i = 0; i < 16; i++) {
+        putFloat(block, EdgeFeatures::REGION_X + i, (i % 4) / 4.0f);
+        putFloat(block, EdgeFeatures::REGION_Y + i, (i / 4) / 4.0f);
+        putFloat(block, EdgeFeatures::REGION_W + i, 0.25f);
+        putFloat(block, EdgeFeatures::REGION_H + i, 0.25f);
+    }
+}
+
+// The same result from a byte mask, one pixel at a time
+static void reference(const std::vector<uint8_t> &mask, int width, int height, int32_t *out)
+{
+    auto at = [&](int x, int y) { return x >= 0 && y >= 0 && x < width && y < height && mask[(size_t) y * width + x]; };
+    int edges = 0, links[4] = {0, 0, 0, 0};
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+            if (!at(x, y)) continue;
+            edges++;
+            links[0] += at(x + 1, y);
+            links[1] += at(x - 1, y + 1);
+            links[2] += at(x, y + 1);
+            links[3] += at(x + 1, y + 1);
+        }
+    }
+    for (int i = 0; i < out[EdgeFeatures::REGION_COUNT]; i++) {
+        // Fractions rounded to pixels the way extract() does
+        int x0 = (int) std::lround((i % 4) / 4.0f * width), x1 = (int) std::lround(((i % 4) / 4.0f + 0.25f) * width);
+        int y0 = (int) std::lround((i / 4) / 4.0f * height), y1 = (int) std::lround(((i / 4) / 4.0f + 0.25f) * height);
+        int n = 0;
+        for (int y = y0; y < y1; y++)
+            for (int x = x0; x < x1; x++) n += at(x, y);
+        out[EdgeFeatures::REGION_EDGES + i] = n;
+        out[EdgeFeatures::REGION_PIXELS + i] = (x1 - x0) * (y1 - y0);
+    }
+
+    // Flood fill in raster order of each contour's first pixel, which is the order
+    // extract() breaks ties in
+    struct Box { int x0, y0, x1, y1, pixels, first; };
+    std::vector<Box> boxes;
+    std::vector<uint8_t> seen(mask.size());
+    std::vector<int> stack;
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+            if (!at(x, y) || seen[(size_t) y * width + x]) continue;
+            Box b = {x, y, x, y, 0, y * width + x};
+            stack.push_back(y * width + x);
+            seen[(size_t) y * width + x] = 1;
+            while (!stack.empty()) {
+                int p = stack.back();
+                stack.pop_back();
+                int px = p % width, py = p / width;
+                b.x0 = std::min(b.x0, px), b.x1 = std::max(b.x1, px);
+                b.y0 = std::min(b.y0, py), b.y1 = std::max(b.y1, py);
+                b.pixels++;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = px + dx, ny = py + dy;
+                        if (at(nx, ny) && !seen[(size_t) ny * width + nx]) {
+                            seen[(size_t) ny * width + nx] = 1;
+                            stack.push_back(ny * width + nx);
+                        }
+                    }
+                }
+            }
+            if (b.pixels >= MIN_PIXELS) boxes.push_back(b);
+        }
+    }
+    std::stable_sort(boxes.begin(), boxes.end(), [](const Box &a, const Box &b) { return a.pixels > b.pixels; });
+    int stored = std::min((int) boxes.size(), (int) EdgeFeatures::MAX_BOXES);
+    for (int i = 0; i < stored; i++) {
+        out[EdgeFeatures::BOX_X + i] = boxes[i].x0;
+        out[EdgeFeatures::BOX_Y + i] = boxes[i].y0;
+        out[EdgeFeatures::BOX_W + i] = boxes[i].x1 - boxes[i].x0 + 1;
+        out[EdgeFeatures::BOX_H + i] = boxes[i].y1 - boxes[i].y0 + 1;
+        out[EdgeFeatures::BOX_PIXELS + i] = boxes[i].pixels;
+    }
+    out[EdgeFeatures::WIDTH] = width;
+    out[EdgeFeatures::HEIGHT] = height;
+    out[EdgeFeatures::EDGE_PIXELS] = edges;
+    for (int i = 0; i < 4; i++) out[EdgeFeatures::LINKS + i] = links[i];
+    out[EdgeFeatures::CONTOUR_COUNT] = (int) boxes.size();
+    out[EdgeFeatures::BOX_COUNT] = stored;
+}
+
+int main(int argc, char **argv)
+{
+    int runs = argc > 1 ? std::atoi(argv[1]) : 15;
+    const int sizes[][2] = {{1280, 720}, {1920, 1080}, {3840, 2160}, {1283, 719}}; // odd size for the tails
+    bool ok = true;
+
+    for (int pass = 0; pass < 8; pass++) {
+        int width = sizes[pass % 4][0], height = sizes[pass % 4][1];
+        bool canny = pass < 4;
+        size_t rowBytes = (width + 7) / 8;
+        std::vector<uint8_t> mask((size_t) width * height);
+        if (canny) {
+            std::vector<uint8_t> src = syntheticFrame(width, height, 7u + width);
+            TiledCanny().run(src.data(), width, mask.data(), width, width, height, LOW, HIGH, 3);
+        } else {
+            mask = strokes(width, height, 11u + width);
+        }
+        std::vector<uint8_t> bits(rowBytes * height);
+        for (int r = 0; r < height; r++)
+            for (int c = 0; c < width; c++)
+                if (mask[(size_t) r * width + c]) bits[r * rowBytes + c / 8] |= 0x80 >> (c % 8);
+
+        std::vector<int32_t> expected(EdgeFeatures::TOTAL_INTS), actual(EdgeFeatures::TOTAL_INTS);
+        configure(expected.data());
+        configure(actual.data());
+        double referenceMs = medianMs(std::max(1, runs / 5), [&] { reference(mask, width, height, expected.data()); });
+        EdgeFeatures features;
+        double ms = medianMs(runs, [&] { features.extract(bits.data(), rowBytes, width, height, actual.data()); });
+
+        size_t diff = 0;
+        for (int i = 0; i < EdgeFeatures::TOTAL_INTS; i++) diff += expected[i] != actual[i];
+        std::printf("%dx%d %s: %d edge pixels, %d contours of %d+ pixels\n", width, height, canny ? "Canny" : "strokes",
+                    actual[EdgeFeatures::EDGE_PIXELS], actual[EdgeFeatures::CONTOUR_COUNT], MIN_PIXELS);
+        std::printf("  %-22s %7.2f ms\n", "byte mask reference", referenceMs);
+        std::printf("  %-22s %7.2f ms  %s\n", "EdgeFeatures on bits", ms, diff ? "MISMATCH" : "identical");
+        ok &= diff == 0;
+    }
+    return ok ? 0 : 1;
+}
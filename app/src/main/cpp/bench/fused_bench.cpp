@@ -0,0 +1,175 @@
+// FusedEdges (luma -> Canny -> RGBA in one kernel) per instruction set against the
+// composed path it replaces, Canny into an 8-bit edge image and then a GRAY2RGBA
+// conversion: time per frame, bytes moved to or from memory per frame and the
+// bandwidth that works out to. Every run is checked against the composed output
+// (cv::Canny + cv::cvtColor when built with OpenCV), and TiledCanny's banded bits
+// against the fused kernel's; exits non-zero on any mismatch.
+
+#include "fused_edges.h"
+#include "tiled_canny.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+#ifdef HAVE_OPENCV
+#include <opencv2/core.hpp>
+#include <opencv2/imgproc.hpp>
+#endif
+
+static const int LOW = 50, HIGH = 150;
+
+// Gradient, a disc, a checker of soft blocks and noise: long edges plus many weak
+// maxima for hysteresis to sort out.
+static std::vector<uint8_t> syntheticFrame(int width, int height, unsigned seed)
+{
+    std::vector<uint8_t> img((size_t) width * height);
+    unsigned state = seed;
+    for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) {
+            int v = 40 + 120 * c / width + 40 * r / height;
+            int dx = c - width / 2, dy = r - height / 2;
+            int radius = std::min(width, height) / 3;
+            if (dx * dx + dy * dy < radius * radius) v += 60;
+            if ((c / (width / 8) + r / (height / 6)) % 3 == 0) v -= 30;
+            state = state * 1664525u + 1013904223u;
+            v += (int) ((state >> 24) % 17) - 8;
+            img[(size_t) r * width + c] = (uint8_t) std::min(255, std::max(0, v));
+        }
+    }
+    return img;
+}
+
+template<typename F>
+static double medianMs(int runs, F &&f)
+{
+    std::vector<double> times;
+    for (int i = 0; i < runs; i++) {
+        auto start = std::chrono::steady_clock::now();
+        f();
+        times.push_back(std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - start).count());
+    }
+    std::sort(times.begin(), times.end());
+    return times[times.size() / 2];
+}
+
+static size_t differences(const std::vector<uint8_t> &a, const std::vector<uint8_t> &b)
+{
+    size_t n = 0;
+    for (size_t i = 0; i < a.size(); i++) n += a[i] != b[i];
+    return n;
+}
+
+static void grayToRgba(const uint8_t *gray, uint8_t *rgba, size_t pixels)
+{
+    for (size_t i = 0; i < pixels; i++) {
+        rgba[4 * i] = rgba[4 * i + 1] = rgba[4 * i + 2] = gray[i];
+        rgba[4 * i + 3] = 255;
+    }
+}
+
+// The app's EdgeFrame layout: MSB first, (width + 7) / 8 bytes per row
+static std::vector<uint8_t> packBits(const uint8_t *edges, int width, int height)
+{
+    size_t rowBytes = (width + 7) / 8;
+    std::vector<uint8_t> bits(rowBytes * height);
+    for (int r = 0; r < height; r++)
+        for (int c = 0; c < width; c++)
+            if (edges[(size_t) r * width + c]) bits[r * rowBytes + c / 8] |= 0x80 >> (c % 8);
+    return bits;
+}
+
+static void report(const char *label, double ms, size_t bytes, size_t diff)
+{
+    std::printf("  %-22s %7.2f ms  %6.1f MB/frame  %6.2f GB/s  %s\n", label, ms, bytes / 1e6,
+                bytes / (ms * 1e6), diff ? "MISMATCH" : "identical");
+}
+
+int main(int argc, char **argv)
+{
+    int runs = argc > 1 ? std::atoi(argv[1]) : 15;
+    const int sizes[][2] = {{1280, 720}, {1920, 1080}, {3840, 2160}, {1283, 719}}; // odd size for the tails
+    bool ok = true;
+
+    for (const auto &size : sizes) {
+        int width = size[0], height = size[1];
+        size_t pixels = (size_t) width * height;
+        std::vector<uint8_t> src = syntheticFrame(width, height, 7u + width);
+        std::vector<uint8_t> edges(pixels), expected(4 * pixels), out(4 * pixels);
+        std::printf("%dx%d\n", width, height);
+
+        // Composed: Canny's own source read and map, then the edge image written
+        // and read back for the conversion
+        size_t composedBytes = FusedEdges::frameBytes(width, height) + 2 * pixels;
+        TiledCanny canny;
+        double composedMs = medianMs(runs, [&] {
+            canny.run(src.data(), width, edges.data(), width, width, height, LOW, HIGH, 3);
+            grayToRgba(edges.data(), expected.data(), pixels);
+        });
+        report("Canny + GRAY2RGBA", composedMs, composedBytes, 0);
+
+#ifdef HAVE_OPENCV
+        cv::setNumThreads(1);
+        cv::Mat srcMat(height, width, CV_8UC1, src.data()), cvEdges, cvRgba;
+        double cvMs = medianMs(runs, [&] {
+            cv::Canny(srcMat, cvEdges, LOW, HIGH, 3);
+            cv::cvtColor(cvEdges, cvRgba, cv::COLOR_GRAY2RGBA);
+        });
+        size_t cvDiff = differences(expected, std::vector<uint8_t>(cvRgba.datastart, cvRgba.dataend));
+        report("cv::Canny + cvtColor", cvMs, composedBytes, cvDiff);
+        ok &= cvDiff == 0;
+#endif
+
+        for (FusedEdges::Isa isa : {FusedEdges::SCALAR, FusedEdges::SSE2, FusedEdges::AVX2, FusedEdges::NEON}) {
+            if (!FusedEdges::supported(isa)) continue;
+            FusedEdges fused;
+            fused.setIsa(isa);
+            std::fill(out.begin(), out.end(), 0x5a);
+            double ms = medianMs(runs, [&] {
+                fused.run(src.data(), width, out.data(), 4 * (size_t) width, width, height, LOW, HIGH);
+            });
+            size_t diff = differences(expected, out);
+            char label[32];
+            std::snprintf(label, sizeof label, "fused %s", FusedEdges::name(isa));
+            report(label, ms, FusedEdges::frameBytes(width, height), diff);
+            ok &= diff == 0;
+
+            // Bit-packed output: source and map as above, then 1 bit per pixel out
+            std::vector<uint8_t> expectedBits = packBits(edges.data(), width, height), bits(expectedBits.size(), 0x5a);
+            size_t rowBytes = (width + 7) / 8;
+            ms = medianMs(runs, [&] {
+                fused.runBits(src.data(), width, bits.data(), rowBytes, width, height, LOW, HIGH);
+            });
+            diff = differences(expectedBits, bits);
+            std::snprintf(label, sizeof label, "fused %s bits", FusedEdges::name(isa));
+            report(label, ms, FusedEdges::frameBytes(width, height) - 4 * pixels + bits.size(), diff);
+            ok &= diff == 0;
+        }
+
+        // What the app runs on more than one Canny thread: the same bits band by band,
+        // through a video-range table, against the single-threaded kernel
+        uint8_t table[256];
+        for (int v = 0; v < 256; v++) table[v] = (uint8_t) std::min(255, std::max(0, v - 16) * 255 / 219);
+        size_t rowBytes = (width + 7) / 8;
+        std::vector<uint8_t> expectedBits(rowBytes * height, 0x5a), bits(rowBytes * height, 0x5a);
+        FusedEdges fused;
+        fused.setSourceTable(table);
+        fused.runBits(src.data(), width, expectedBits.data(), rowBytes, width, height, LOW, HIGH);
+        for (int threads : {1, 2, 4}) {
+            TiledCanny banded;
+            banded.setThreads(threads);
+            std::fill(bits.begin(), bits.end(), 0x5a);
+            double ms = medianMs(runs, [&] {
+                banded.runBits(src.data(), width, table, bits.data(), rowBytes, width, height, LOW, HIGH);
+            });
+            size_t diff = differences(expectedBits, bits);
+            char label[32];
+            std::snprintf(label, sizeof label, "tiled bits, %d thread%s", threads, threads > 1 ? "s" : "");
+            report(label, ms, FusedEdges::frameBytes(width, height) - 4 * pixels + bits.size(), diff);
+            ok &= diff == 0;
+        }
+    }
+    return ok ? 0 : 1;
+}
@@ -0,0 +1,88 @@
+// IncrementalCanny against full-frame Canny on a static scene with sensor noise and
+// none, one or four moving objects: time per frame, share of tiles recomputed, and how many edge
+// pixels differ from running Canny on the whole frame (next to how many flip
+// between consecutive full-frame results from noise alone). With the change threshold
+// at 0 the output must be bit-exact; exits non-zero otherwise.
+
+#include "incremental_canny.h"
+#include "tiled_canny.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <vector>
+
+static const int LOW = 50, HIGH = 150, APERTURE = 3;
+
+// Shelves and a door frame, 120 px boxes sliding across at different heights, and
+// +-3 grey levels of per-frame noise.
+static void renderFrame(int width, int height, int frame, int boxes, unsigned &noise, std::vector<uint8_t> &img)
+{
+    for (int r = 0; r < height; r++) {
+        for (int c = 0; c < width; c++) {
+            int v = 70 + 60 * c / width;
+            if (r % (height / 5) < 6) v = 180;                 // shelves
+            if (std::abs(c - width * 3 / 4) < 10) v = 30;      // door frame
+            for (int b = 0; b < boxes; b++) {
+                int boxX = (frame * 12 + b * width / 4) % (width - 120), boxY = height * (b + 1) / (boxes + 2);
+                if (c >= boxX && c < boxX + 120 && r >= boxY && r < boxY + 120) v = 220;
+            }
+            noise = noise * 1664525u + 1013904223u;
+            v += (int) ((noise >> 24) % 7) - 3;
+            img[(size_t) r * width + c] = (uint8_t) std::min(255, std::max(0, v));
+        }
+    }
+}
+
+int main(int argc, char **argv)
+{
+    int frames = argc > 1 ? std::atoi(argv[1]) : 60;
+    const int sizes[][2] = {{1280, 720}, {1920, 1080}};
+    bool ok = true;
+
+    for (const auto &size : sizes) {
+        int width = size[0], height = size[1];
+        std::vector<uint8_t> src((size_t) width * height), full(src.size()), previous(src.size()), out(src.size());
+        TiledCanny canny;
+        IncrementalCanny::Detector detect = [&](const uint8_t *s, size_t sStep, uint8_t *d, size_t dStep, int w, int h) {
+            canny.run(s, sStep, d, dStep, w, h, LOW, HIGH, APERTURE);
+        };
+        for (int boxes : {0, 1, 4}) {
+            std::printf("%dx%d, %d frames, %d moving box%s\n", width, height, frames, boxes, boxes == 1 ? "" : "es");
+
+            for (float threshold : {0.0f, 2.0f, 4.0f}) {
+                IncrementalCanny incremental;
+                incremental.setChangeThreshold(threshold);
+                unsigned noise = 11;
+                double fullMs = 0, incrementalMs = 0;
+                size_t differing = 0, flicker = 0;
+                for (int f = 0; f < frames; f++) {
+                    renderFrame(width, height, f, boxes, noise, src);
+                    auto t0 = std::chrono::steady_clock::now();
+                    canny.run(src.data(), width, full.data(), width, width, height, LOW, HIGH, APERTURE);
+                    auto t1 = std::chrono::steady_clock::now();
+                    incremental.run(src.data(), width, out.data(), width, width, height, 1, detect);
+                    auto t2 = std::chrono::steady_clock::now();
+                    if (f > 0) { // the first frame is always computed in full
+                        fullMs += std::chrono::duration<double, std::milli>(t1 - t0).count();
+                        incrementalMs += std::chrono::duration<double, std::milli>(t2 - t1).count();
+                    }
+                    for (size_t i = 0; i < src.size(); i++) {
+                        differing += full[i] != out[i];
+                        flicker += f > 0 && full[i] != previous[i];
+                    }
+                    previous.swap(full);
+                }
+                double share = 100.0 * incremental.tilesComputed() / incremental.tilesSeen();
+                double diff = 100.0 * differing / ((double) src.size() * frames);
+                double flips = 100.0 * flicker / ((double) src.size() * (frames - 1));
+                std::printf("  threshold %.0f: full %6.2f ms, incremental %6.2f ms, %5.1f%% of tiles, "
+                            "%.3f%% pixels differ (full-frame flicker %.3f%%)\n",
+                            threshold, fullMs / (frames - 1), incrementalMs / (frames - 1), share, diff, flips);
+                if (threshold == 0) ok &= differing == 0;
+            }
+        }
+    }
+    return ok ? 0 : 1;
+}
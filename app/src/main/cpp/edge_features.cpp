@@ -0,0 +1,188 @@
+#include "edge_features.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstring>
+
+static inline int popcount(uint64_t v)
+{
+    return __builtin_popcountll(v);
+}
+
+// Edge pixels of words[1..] (pixel 0 in bit 63 of words[1]) in columns [x0, x1)
+static int countRange(const uint64_t *words, int x0, int x1)
+{
+    if (x0 >= x1) return 0;
+    int first = x0 >> 6, last = (x1 - 1) >> 6;
+    uint64_t head = ~0ULL >> (x0 & 63);
+    uint64_t tail = ~0ULL << (63 - ((x1 - 1) & 63));
+    if (first == last) return popcount(words[1 + first] & head & tail);
+    int n = popcount(words[1 + first] & head) + popcount(words[1 + last] & tail);
+    for (int i = first + 1; i < last; i++) n += popcount(words[1 + i]);
+    return n;
+}
+
+// First column at or after x whose bit is `set`. The zero word after the row ends a
+// search for a clear bit; a search for a set bit that finds none returns a column
+// past the row.
+static int nextBit(const uint64_t *words, int count, int x, bool set)
+{
+    int i = x >> 6;
+    uint64_t w = (set ? words[1 + i] : ~words[1 + i]) & (~0ULL >> (x & 63));
+    while (!w) {
+        if (++i > count) return (count + 1) * 64;
+        w = set ? words[1 + i] : ~words[1 + i];
+    }
+    return i * 64 + __builtin_clzll(w);
+}
+
+// The region rectangles are floats in the int32 block
+static float floatAt(const int32_t *block, int index)
+{
+    float f;
+    std::memcpy(&f, block + index, sizeof f);
+    return f;
+}
+
+// Fraction f of size, rounded to a pixel boundary inside 0..size
+static int pixelAt(float f, int size)
+{
+    return std::min(std::max((int) std::lround(f * size), 0), size);
+}
+
+void EdgeFeatures::loadRow(const uint8_t *bits, int y, uint64_t *row) const
+{
+    row[0] = row[words + 1] = 0;
+    if (y < 0 || y >= height) {
+        std::fill(row + 1, row + 1 + words, 0);
+        return;
+    }
+    const uint8_t *src = bits + (size_t) y * rowBytes;
+    size_t used = (width + 7) / 8;
+    for (int i = 0; i < words; i++) {
+        size_t at = (size_t) i * 8;
+        uint64_t v = 0;
+        if (at + 8 <= used) {
+            std::memcpy(&v, src + at, 8);
+#if __BYTE_ORDER__ == __ORDER_LITTLE_ENDIAN__
+            v = __builtin_bswap64(v);
+#endif
+        } else {
+            for (size_t b = 0; b < 8; b++) v = v << 8 | (at + b < used ? src[at + b] : 0);
+        }
+        row[1 + i] = v;
+    }
+}
+
+int EdgeFeatures::find(int run)
+{
+    while (parent[run] != run) {
+        parent[run] = parent[parent[run]];
+        run = parent[run];
+    }
+    return run;
+}
+
+void EdgeFeatures::extract(const uint8_t *bits, size_t stride, int w, int h, int32_t *out)
+{
+    rowBytes = stride;
+    width = std::max(w, 0);
+    height = std::max(h, 0);
+    words = (width + 63) / 64;
+    rowWords.resize(2 * (size_t) (words + 2));
+    uint64_t *cur = rowWords.data(), *below = cur + words + 2;
+
+    int regionCount = std::min(std::max(out[REGION_COUNT], 0), (int) MAX_REGIONS);
+    int regionX0[MAX_REGIONS], regionX1[MAX_REGIONS], regionY0[MAX_REGIONS], regionY1[MAX_REGIONS];
+    for (int i = 0; i < regionCount; i++) {
+        float x = floatAt(out, REGION_X + i), y = floatAt(out, REGION_Y + i);
+        regionX0[i] = pixelAt(x, width);
+        regionY0[i] = pixelAt(y, height);
+        regionX1[i] = pixelAt(x + floatAt(out, REGION_W + i), width);
+        regionY1[i] = pixelAt(y + floatAt(out, REGION_H + i), height);
+        out[REGION_EDGES + i] = 0;
+        out[REGION_PIXELS + i] = std::max(regionX1[i] - regionX0[i], 0) * std::max(regionY1[i] - regionY0[i], 0);
+    }
+
+    long edges = 0, links[4] = {0, 0, 0, 0};
+    runs.clear();
+    size_t prevStart = 0, prevEnd = 0;
+    loadRow(bits, 0, below);
+    for (int y = 0; y < height; y++) {
+        std::swap(cur, below);
+        loadRow(bits, y + 1, below);
+
+        for (int i = 1; i <= words; i++) {
+            uint64_t c = cur[i];
+            if (!c) continue;
+            edges += popcount(c);
+            links[0] += popcount(c & (c << 1 | cur[i + 1] >> 63));              // (x+1, y)
+            links[1] += popcount(c & (below[i] >> 1 | below[i - 1] << 63));    // (x-1, y+1)
+            links[2] += popcount(c & below[i]);                                 // (x, y+1)
+            links[3] += popcount(c & (below[i] << 1 | below[i + 1] >> 63));    // (x+1, y+1)
+        }
+        for (int i = 0; i < regionCount; i++) {
+            if (y >= regionY0[i] && y < regionY1[i]) out[REGION_EDGES + i] += countRange(cur, regionX0[i], regionX1[i]);
+        }
+
+        // Runs of this row, each joined to the runs above it that touch it, diagonals included
+        size_t start = runs.size();
+        size_t j = prevStart;
+        for (int x = nextBit(cur, words, 0, true); x < width; ) {
+            int end = nextBit(cur, words, x, false);
+            Run run = {x, end - 1, y};
+            int index = (int) runs.size();
+            runs.push_back(run);
+            if (parent.size() < runs.size()) parent.resize(runs.size() * 2);
+            parent[index] = index;
+            while (j < prevEnd && runs[j].x1 < run.x0 - 1) j++;
+            for (size_t k = j; k < prevEnd && runs[k].x0 <= run.x1 + 1; k++) {
+                int a = find((int) k), b = find(index);
+                if (a != b) parent[std::max(a, b)] = std::min(a, b);
+            }
+            x = nextBit(cur, words, end, true);
+        }
+        prevStart = start;
+        prevEnd = runs.size();
+    }
+
+    // A contour's root is its lowest run, so it is met before the rest of it
+    contours.resize(runs.size());
+    order.clear();
+    int minPixels = std::max(out[MIN_CONTOUR_PIXELS], 1);
+    for (size_t i = 0; i < runs.size(); i++) {
+        const Run &r = runs[i];
+        int root = find((int) i);
+        Contour &c = contours[root];
+        if (root == (int) i) {
+            c = {r.x0, r.y, r.x1, r.y, 0};
+        } else {
+            c.x0 = std::min(c.x0, r.x0);
+            c.x1 = std::max(c.x1, r.x1);
+            c.y1 = r.y;
+        }
+        c.pixels += r.x1 - r.x0 + 1;
+    }
+    for (size_t i = 0; i < runs.size(); i++) {
+        if (parent[i] == (int) i && contours[i].pixels >= minPixels) order.push_back((int) i);
+    }
+    size_t boxes = std::min(order.size(), (size_t) MAX_BOXES);
+    std::partial_sort(order.begin(), order.begin() + boxes, order.end(), [this](int a, int b) {
+        return contours[a].pixels != contours[b].pixels ? contours[a].pixels > contours[b].pixels : a < b;
+    });
+    for (size_t i = 0; i < boxes; i++) {
+        const Contour &c = contours[order[i]];
+        out[BOX_X + i] = c.x0;
+        out[BOX_Y + i] = c.y0;
+        out[BOX_W + i] = c.x1 - c.x0 + 1;
+        out[BOX_H + i] = c.y1 - c.y0 + 1;
+        out[BOX_PIXELS + i] = c.pixels;
+    }
+
+    out[WIDTH] = width;
+    out[HEIGHT] = height;
+    out[EDGE_PIXELS] = (int32_t) edges;
+    for (int i = 0; i < 4; i++) out[LINKS + i] = (int32_t) links[i];
+    out[CONTOUR_COUNT] = (int32_t) order.size();
+    out[BOX_COUNT] = (int32_t) boxes;
+}
@@ -0,0 +1,69 @@
+#pragma once
+
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+// Numbers from a bit-packed edge map (the app's EdgeFrame: 1 bit per pixel, MSB
+// first, padding bits 0) instead of a picture: edge density per region of interest,
+// the orientation of the edge lines and the connected edge contours with their
+// bounding boxes. Works on the packed words directly, 64 pixels at a time for the
+// counts and a run per contour segment for the labelling.
+//
+// Results go into a caller-owned block of int32 laid out as struct of arrays (see
+// the offsets below, mirrored by EdgeFeatures.java), which also carries the region
+// rectangles and the contour size cut-off the Java side configures.
+//
+// Free of OpenCV types so it can be built and checked on the host (see bench/).
+// Not reentrant: use one instance per calling thread.
+class EdgeFeatures {
+public:
+    static const int MAX_REGIONS = 16;
+    static const int MAX_BOXES = 64;
+
+    // int32 offsets into the block; R is written by extract(), W by Java
+    enum Layout {
+        WIDTH = 0,              // R
+        HEIGHT,                 // R
+        EDGE_PIXELS,            // R
+        REGION_COUNT,           // W
+        LINKS,                  // R, 4 bins: neighbouring edge pixel pairs at 0, 45, 90, 135 degrees
+        CONTOUR_COUNT = LINKS + 4, // R, contours of at least MIN_CONTOUR_PIXELS
+        BOX_COUNT,              // R, boxes stored, the largest contours first
+        MIN_CONTOUR_PIXELS,     // W
+        HEADER_INTS = 16,       // the rest of the header is Java's (sequence, timestamp)
+        REGION_X = HEADER_INTS, // W, float, fractions of the frame
+        REGION_Y = REGION_X + MAX_REGIONS,
+        REGION_W = REGION_Y + MAX_REGIONS,
+        REGION_H = REGION_W + MAX_REGIONS,
+        REGION_EDGES = REGION_H + MAX_REGIONS,     // R
+        REGION_PIXELS = REGION_EDGES + MAX_REGIONS, // R, area the region covers in this frame
+        BOX_X = REGION_PIXELS + MAX_REGIONS,        // R
+        BOX_Y = BOX_X + MAX_BOXES,
+        BOX_W = BOX_Y + MAX_BOXES,
+        BOX_H = BOX_W + MAX_BOXES,
+        BOX_PIXELS = BOX_H + MAX_BOXES,
+        TOTAL_INTS = BOX_PIXELS + MAX_BOXES
+    };
+
+    void extract(const uint8_t *bits, size_t rowBytes, int width, int height, int32_t *out);
+
+private:
+    struct Run {
+        int x0, x1, y; // inclusive
+    };
+    struct Contour {
+        int x0, y0, x1, y1, pixels;
+    };
+
+    void loadRow(const uint8_t *bits, int y, uint64_t *words) const;
+    int find(int run);
+
+    size_t rowBytes = 0;
+    int words = 0, width = 0, height = 0;
+    std::vector<uint64_t> rowWords;    // 2 rows of words + 1 zero word either side
+    std::vector<Run> runs;
+    std::vector<int> parent;
+    std::vector<Contour> contours;     // indexed by root run
+    std::vector<int> order;
+};
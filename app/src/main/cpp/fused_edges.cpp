@@ -0,0 +1,344 @@
+#include "fused_edges.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstdlib>
+#include <cstring>
+
+#if defined(__x86_64__) || defined(_M_X64)
+#define FUSED_X86 1
+#include <immintrin.h>
+#endif
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#define FUSED_NEON 1
+#include <arm_neon.h>
+#endif
+
+// Same fixed point tangent test as OpenCV's Canny
+static const int CANNY_SHIFT = 15;
+static const int TG22 = (int) (0.4142135623730950488016887242097 * (1 << CANNY_SHIFT) + 0.5);
+
+// Sobel 3x3 dx/dy and their L1 magnitude for one row. r0..r2 are the rows above, at
+// and below it, each with one replicated column either side (r[c + 1] is column c).
+// |dx| + |dy| <= 2040, so everything fits in 16 bits.
+using SobelRow = void (*)(const uint8_t *r0, const uint8_t *r1, const uint8_t *r2,
+                          short *dx, short *dy, short *mag, int width, int from);
+// Map row to RGBA: 2 (edge) becomes (255, 255, 255, 255), anything else (0, 0, 0, 255).
+using ExpandRow = void (*)(const uint8_t *map, uint8_t *rgba, int width, int from);
+
+static void sobelScalar(const uint8_t *r0, const uint8_t *r1, const uint8_t *r2,
+                        short *dx, short *dy, short *mag, int width, int from)
+{
+    for (int c = from; c < width; c++) {
+        int gx = (r0[c + 2] - r0[c]) + 2 * (r1[c + 2] - r1[c]) + (r2[c + 2] - r2[c]);
+        int gy = (r2[c] + 2 * r2[c + 1] + r2[c + 2]) - (r0[c] + 2 * r0[c + 1] + r0[c + 2]);
+        dx[c] = (short) gx;
+        dy[c] = (short) gy;
+        mag[c] = (short) (std::abs(gx) + std::abs(gy));
+    }
+}
+
+static void expandScalar(const uint8_t *map, uint8_t *rgba, int width, int from)
+{
+    for (int c = from; c < width; c++) {
+        uint8_t v = (uint8_t) -(map[c] >> 1);
+        uint8_t *p = rgba + 4 * c;
+        p[0] = p[1] = p[2] = v;
+        p[3] = 255;
+    }
+}
+
+#ifdef FUSED_X86
+static void sobelSse2(const uint8_t *r0, const uint8_t *r1, const uint8_t *r2,
+                      short *dx, short *dy, short *mag, int width, int)
+{
+    const __m128i zero = _mm_setzero_si128();
+    auto load = [&](const uint8_t *p) { return _mm_unpacklo_epi8(_mm_loadl_epi64((const __m128i *) p), zero); };
+    int c = 0;
+    for (; c + 8 <= width; c += 8) {
+        __m128i a0 = load(r0 + c), a1 = load(r0 + c + 1), a2 = load(r0 + c + 2);
+        __m128i b0 = load(r1 + c), b2 = load(r1 + c + 2);
+        __m128i c0 = load(r2 + c), c1 = load(r2 + c + 1), c2 = load(r2 + c + 2);
+        __m128i db = _mm_sub_epi16(b2, b0);
+        __m128i gx = _mm_add_epi16(_mm_add_epi16(_mm_sub_epi16(a2, a0), _mm_sub_epi16(c2, c0)),
+                                   _mm_add_epi16(db, db));
+        __m128i top = _mm_add_epi16(_mm_add_epi16(a0, a2), _mm_add_epi16(a1, a1));
+        __m128i bottom = _mm_add_epi16(_mm_add_epi16(c0, c2), _mm_add_epi16(c1, c1));
+        __m128i gy = _mm_sub_epi16(bottom, top);
+        // SSE2 has no abs_epi16: max(x, -x)
+        __m128i ax = _mm_max_epi16(gx, _mm_sub_epi16(zero, gx));
+        __m128i ay = _mm_max_epi16(gy, _mm_sub_epi16(zero, gy));
+        _mm_storeu_si128((__m128i *) (dx + c), gx);
+        _mm_storeu_si128((__m128i *) (dy + c), gy);
+        _mm_storeu_si128((__m128i *) (mag + c), _mm_add_epi16(ax, ay));
+    }
+    sobelScalar(r0, r1, r2, dx, dy, mag, width, c);
+}
+
+__attribute__((target("avx2")))
+static inline __m256i loadAvx2(const uint8_t *p)
+{
+    return _mm256_cvtepu8_epi16(_mm_loadu_si128((const __m128i *) p));
+}
+
+// AVX2 is only checked for at run time, so this is compiled for it on its own
+__attribute__((target("avx2")))
+static void sobelAvx2(const uint8_t *r0, const uint8_t *r1, const uint8_t *r2,
+                      short *dx, short *dy, short *mag, int width, int)
+{
+    int c = 0;
+    for (; c + 16 <= width; c += 16) {
+        __m256i a0 = loadAvx2(r0 + c), a1 = loadAvx2(r0 + c + 1), a2 = loadAvx2(r0 + c + 2);
+        __m256i b0 = loadAvx2(r1 + c), b2 = loadAvx2(r1 + c + 2);
+        __m256i c0 = loadAvx2(r2 + c), c1 = loadAvx2(r2 + c + 1), c2 = loadAvx2(r2 + c + 2);
+        __m256i db = _mm256_sub_epi16(b2, b0);
+        __m256i gx = _mm256_add_epi16(_mm256_add_epi16(_mm256_sub_epi16(a2, a0), _mm256_sub_epi16(c2, c0)),
+                                      _mm256_add_epi16(db, db));
+        __m256i top = _mm256_add_epi16(_mm256_add_epi16(a0, a2), _mm256_add_epi16(a1, a1));
+        __m256i bottom = _mm256_add_epi16(_mm256_add_epi16(c0, c2), _mm256_add_epi16(c1, c1));
+        __m256i gy = _mm256_sub_epi16(bottom, top);
+        _mm256_storeu_si256((__m256i *) (dx + c), gx);
+        _mm256_storeu_si256((__m256i *) (dy + c), gy);
+        _mm256_storeu_si256((__m256i *) (mag + c),
+                            _mm256_add_epi16(_mm256_abs_epi16(gx), _mm256_abs_epi16(gy)));
+    }
+    sobelScalar(r0, r1, r2, dx, dy, mag, width, c);
+}
+
+// Also used with AVX2: the expansion is bound by the RGBA stores, not by lane count
+static void expandSse2(const uint8_t *map, uint8_t *rgba, int width, int)
+{
+    const __m128i two = _mm_set1_epi8(2);
+    const __m128i alpha = _mm_set1_epi32((int) 0xff000000u);
+    int c = 0;
+    for (; c + 16 <= width; c += 16) {
+        __m128i v = _mm_cmpeq_epi8(_mm_loadu_si128((const __m128i *) (map + c)), two);
+        __m128i lo = _mm_unpacklo_epi8(v, v), hi = _mm_unpackhi_epi8(v, v);
+        __m128i *out = (__m128i *) (rgba + 4 * c);
+        _mm_storeu_si128(out, _mm_or_si128(_mm_unpacklo_epi16(lo, lo), alpha));
+        _mm_storeu_si128(out + 1, _mm_or_si128(_mm_unpackhi_epi16(lo, lo), alpha));
+        _mm_storeu_si128(out + 2, _mm_or_si128(_mm_unpacklo_epi16(hi, hi), alpha));
+        _mm_storeu_si128(out + 3, _mm_or_si128(_mm_unpackhi_epi16(hi, hi), alpha));
+    }
+    expandScalar(map, rgba, width, c);
+}
+#endif
+
+#ifdef FUSED_NEON
+static void sobelNeon(const uint8_t *r0, const uint8_t *r1, const uint8_t *r2,
+                      short *dx, short *dy, short *mag, int width, int)
+{
+    auto load = [](const uint8_t *p) { return vreinterpretq_s16_u16(vmovl_u8(vld1_u8(p))); };
+    int c = 0;
+    for (; c + 8 <= width; c += 8) {
+        int16x8_t a0 = load(r0 + c), a1 = load(r0 + c + 1), a2 = load(r0 + c + 2);
+        int16x8_t b0 = load(r1 + c), b2 = load(r1 + c + 2);
+        int16x8_t c0 = load(r2 + c), c1 = load(r2 + c + 1), c2 = load(r2 + c + 2);
+        int16x8_t gx = vaddq_s16(vsubq_s16(a2, a0), vsubq_s16(c2, c0));
+        gx = vaddq_s16(gx, vshlq_n_s16(vsubq_s16(b2, b0), 1));
+        int16x8_t top = vaddq_s16(vaddq_s16(a0, a2), vshlq_n_s16(a1, 1));
+        int16x8_t bottom = vaddq_s16(vaddq_s16(c0, c2), vshlq_n_s16(c1, 1));
+        int16x8_t gy = vsubq_s16(bottom, top);
+        vst1q_s16(dx + c, gx);
+        vst1q_s16(dy + c, gy);
+        vst1q_s16(mag + c, vaddq_s16(vabsq_s16(gx), vabsq_s16(gy)));
+    }
+    sobelScalar(r0, r1, r2, dx, dy, mag, width, c);
+}
+
+static void expandNeon(const uint8_t *map, uint8_t *rgba, int width, int)
+{
+    const uint8x16_t two = vdupq_n_u8(2);
+    int c = 0;
+    for (; c + 16 <= width; c += 16) {
+        uint8x16_t v = vceqq_u8(vld1q_u8(map + c), two);
+        uint8x16x4_t px = {{v, v, v, vdupq_n_u8(255)}};
+        vst4q_u8(rgba + 4 * c, px);
+    }
+    expandScalar(map, rgba, width, c);
+}
+#endif
+
+bool FusedEdges::supported(Isa isa)
+{
+    switch (isa) {
+        case SCALAR:
+            return true;
+#ifdef FUSED_X86
+        case SSE2:
+            return true;
+        case AVX2:
+            return __builtin_cpu_supports("avx2");
+#endif
+#ifdef FUSED_NEON
+        case NEON:
+            return true;
+#endif
+        default:
+            return false;
+    }
+}
+
+FusedEdges::Isa FusedEdges::bestIsa()
+{
+    for (Isa isa : {NEON, AVX2, SSE2}) {
+        if (supported(isa)) return isa;
+    }
+    return SCALAR;
+}
+
+const char *FusedEdges::name(Isa isa)
+{
+    switch (isa) {
+        case SSE2: return "SSE2";
+        case AVX2: return "AVX2";
+        case NEON: return "NEON";
+        default: return "scalar";
+    }
+}
+
+size_t FusedEdges::frameBytes(int width, int height)
+{
+    return (size_t) width * height * 5 + (size_t) 2 * (width + 2) * (height + 2);
+}
+
+void FusedEdges::run(const uint8_t *src, size_t srcStep, uint8_t *rgba, size_t rgbaStep,
+                     int width, int height, double lowThresh, double highThresh)
+{
+    if (width <= 0 || height <= 0) return;
+    detect(src, srcStep, width, height, lowThresh, highThresh);
+    ExpandRow expand = expandScalar;
+#ifdef FUSED_X86
+    if (isa == SSE2 || isa == AVX2) expand = expandSse2;
+#endif
+#ifdef FUSED_NEON
+    if (isa == NEON) expand = expandNeon;
+#endif
+    for (int r = 0; r < height; r++) expand(&map[(r + 1) * mapStep + 1], rgba + r * rgbaStep, width, 0);
+}
+
+void FusedEdges::runBits(const uint8_t *src, size_t srcStep, uint8_t *bits, size_t bitsStep,
+                         int width, int height, double lowThresh, double highThresh)
+{
+    if (width <= 0 || height <= 0) return;
+    detect(src, srcStep, width, height, lowThresh, highThresh);
+    for (int r = 0; r < height; r++) packMapRow(&map[(r + 1) * mapStep + 1], bits + r * bitsStep, width);
+}
+
+void FusedEdges::detect(const uint8_t *src, size_t srcStep, int width, int height,
+                        double lowThresh, double highThresh)
+{
+    if (lowThresh > highThresh) std::swap(lowThresh, highThresh);
+    const size_t rowStep = width + 2;
+    if (mapStep != rowStep || mapHeight != height + 2) {
+        mapStep = rowStep;
+        mapHeight = height + 2;
+        map.assign(mapStep * mapHeight, 1); // the ring stays 1 and stops hysteresis at the border
+    }
+    stack.clear();
+    suppressRows(src, srcStep, width, height, 0, height, (int) std::floor(lowThresh), (int) std::floor(highThresh),
+                 map.data(), mapStep, stack);
+
+    // Hysteresis: weak pixels connected to a strong one become edges
+    const ptrdiff_t step = (ptrdiff_t) mapStep;
+    while (!stack.empty()) {
+        uint8_t *m = stack.back();
+        stack.pop_back();
+        if (!m[-step - 1]) m[-step - 1] = 2, stack.push_back(m - step - 1);
+        if (!m[-step])     m[-step] = 2, stack.push_back(m - step);
+        if (!m[-step + 1]) m[-step + 1] = 2, stack.push_back(m - step + 1);
+        if (!m[-1])        m[-1] = 2, stack.push_back(m - 1);
+        if (!m[1])         m[1] = 2, stack.push_back(m + 1);
+        if (!m[step - 1])  m[step - 1] = 2, stack.push_back(m + step - 1);
+        if (!m[step])      m[step] = 2, stack.push_back(m + step);
+        if (!m[step + 1])  m[step + 1] = 2, stack.push_back(m + step + 1);
+    }
+}
+
+void FusedEdges::suppressRows(const uint8_t *src, size_t srcStep, int width, int height, int r0, int r1,
+                              int low, int high, uint8_t *map, size_t mapStep, std::vector<uint8_t *> &strong)
+{
+    SobelRow sobel = sobelScalar;
+    switch (isa) {
+#ifdef FUSED_X86
+        case SSE2: sobel = sobelSse2; break;
+        case AVX2: sobel = sobelAvx2; break;
+#endif
+#ifdef FUSED_NEON
+        case NEON: sobel = sobelNeon; break;
+#endif
+        default: break;
+    }
+
+    const size_t rowStep = width + 2;
+    rows.resize(3 * rowStep);
+    dx.resize(3 * (size_t) width);
+    dy.resize(3 * (size_t) width);
+    mag.assign(4 * rowStep, 0); // row 3 stays zero: magnitude outside the image, as in OpenCV
+
+    auto source = [&](int r) { return &rows[(r % 3) * rowStep]; };
+    auto magRow = [&](int r) { return &mag[(r < 0 || r >= height ? 3 : r % 3) * rowStep + 1]; };
+    auto load = [&](int r) {
+        uint8_t *row = source(r);
+        const uint8_t *in = src + r * srcStep;
+        if (sourceTable) {
+            for (int c = 0; c < width; c++) row[c + 1] = sourceTable[in[c]];
+        } else {
+            memcpy(row + 1, in, width);
+        }
+        row[0] = row[1];
+        row[width + 1] = row[width];
+    };
+    auto gradients = [&](int r) {
+        // Rows above and below the image replicate the border row
+        size_t slot = (size_t) (r % 3) * width;
+        sobel(source(std::max(r - 1, 0)), source(r), source(std::min(r + 1, height - 1)),
+              &dx[slot], &dy[slot], magRow(r), width, 0);
+    };
+
+    // Gradients run a row ahead of suppression, and each source row is loaded just
+    // before the gradients that first need it; loading overwrites the row three back.
+    int next = std::max(r0 - 1, 0);         // next row to compute gradients for
+    int loaded = std::max(next - 1, 0) - 1; // last source row loaded
+    for (int r = r0; r < r1; r++) {
+        for (int ahead = std::min(r + 1, height - 1); next <= ahead; next++) {
+            while (loaded < std::min(next + 1, height - 1)) load(++loaded);
+            gradients(next);
+        }
+        // Non-maximum suppression, as OpenCV does it: strong maxima become 2 and are
+        // queued, weak maxima 0, everything else 1.
+        const short *magP = magRow(r - 1), *magA = magRow(r), *magN = magRow(r + 1);
+        const short *gx = &dx[(size_t) (r % 3) * width], *gy = &dy[(size_t) (r % 3) * width];
+        uint8_t *pmap = map + (r + 1) * mapStep + 1;
+        for (int j = 0; j < width; j++) {
+            int m = magA[j];
+            bool maximum = false;
+            if (m > low) {
+                int xs = gx[j];
+                int ys = gy[j];
+                int x = std::abs(xs);
+                int y = std::abs(ys) << CANNY_SHIFT;
+                int tg22x = x * TG22;
+                if (y < tg22x) {
+                    maximum = m > magA[j - 1] && m >= magA[j + 1];
+                } else {
+                    int tg67x = tg22x + (x << (CANNY_SHIFT + 1));
+                    if (y > tg67x) {
+                        maximum = m > magP[j] && m >= magN[j];
+                    } else {
+                        int s = (xs ^ ys) < 0 ? -1 : 1;
+                        maximum = m > magP[j - s] && m > magN[j + s];
+                    }
+                }
+            }
+            if (!maximum) {
+                pmap[j] = 1;
+            } else if (m > high) {
+                pmap[j] = 2;
+                strong.push_back(pmap + j);
+            } else {
+                pmap[j] = 0;
+            }
+        }
+    }
+}
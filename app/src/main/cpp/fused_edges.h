@@ -0,0 +1,88 @@
+#pragma once
+
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+// Packs one row of a Canny map (0 weak, 1 not an edge, 2 edge) 1 bit per pixel, MSB
+// first, with the padding bits of the last byte 0: the app's EdgeFrame layout.
+inline void packMapRow(const uint8_t *map, uint8_t *bits, int width)
+{
+    int c = 0;
+    for (; c + 8 <= width; c += 8) {
+        // Map values are 0, 1 or 2; bit 1 is the edge
+        *bits++ = (uint8_t) ((map[c] & 2) << 6 | (map[c + 1] & 2) << 5 | (map[c + 2] & 2) << 4
+                             | (map[c + 3] & 2) << 3 | (map[c + 4] & 2) << 2 | (map[c + 5] & 2) << 1
+                             | (map[c + 6] & 2) | (map[c + 7] & 2) >> 1);
+    }
+    if (c < width) {
+        uint8_t b = 0;
+        for (int i = 0; c + i < width; i++) b |= (uint8_t) ((map[c + i] >> 1) << (7 - i));
+        *bits = b;
+    }
+}
+
+// Luma to an RGBA edge image in as few passes over memory as possible: the output
+// equals cvtColor(Canny(src, low, high, 3, false), COLOR_GRAY2RGBA).
+//
+// Source rows are read once into a rolling window of three; Sobel dx/dy and the L1
+// magnitude are computed a row ahead into three row buffers and non-maximum
+// suppression writes the byte map (0 weak, 1 not an edge, 2 edge) one row behind,
+// so no full-size gradient images exist. Hysteresis runs on the map, and the map is
+// expanded straight into RGBA; there is no 8-bit edge image in between. Per frame
+// that is the source read, the map written and read back, and the RGBA write.
+//
+// Sobel/magnitude and the RGBA expansion have NEON (ARM), SSE2 and AVX2 (x86_64)
+// versions next to the portable scalar one; all produce identical output.
+//
+// Free of OpenCV types so it can be built and checked on the host (see bench/).
+// Not reentrant: use one instance per calling thread.
+class FusedEdges {
+public:
+    enum Isa { SCALAR, SSE2, AVX2, NEON };
+
+    // Best version for this CPU; the one used unless setIsa() picked another.
+    static Isa bestIsa();
+    static bool supported(Isa isa);
+    static const char *name(Isa isa);
+
+    // Falls back to SCALAR if the CPU can't run isa.
+    void setIsa(Isa isa) { this->isa = supported(isa) ? isa : SCALAR; }
+    Isa currentIsa() const { return isa; }
+
+    // Maps every source pixel through a 256-entry table as its row is read, e.g.
+    // video-range luma to full range; null reads the source as it is.
+    void setSourceTable(const uint8_t *table) { sourceTable = table; }
+
+    void run(const uint8_t *src, size_t srcStep, uint8_t *rgba, size_t rgbaStep,
+             int width, int height, double lowThresh, double highThresh);
+
+    // Same edges packed 1 bit per pixel, MSB first, (width + 7) / 8 bytes per row with
+    // the padding bits 0: the app's EdgeFrame layout. 32 times less to write than RGBA.
+    void runBits(const uint8_t *src, size_t srcStep, uint8_t *bits, size_t bitsStep,
+                 int width, int height, double lowThresh, double highThresh);
+
+    // Non-maximum suppression alone for rows r0 .. r1 - 1 into a map laid out like the
+    // one run() uses (row r at map + (r + 1) * mapStep + 1, the caller's ring of 1s),
+    // queueing strong pixels on strong. Thresholds are already floored. Reads source
+    // rows r0 - 2 .. r1 + 1 only, so TiledCanny runs it band by band.
+    void suppressRows(const uint8_t *src, size_t srcStep, int width, int height, int r0, int r1,
+                      int low, int high, uint8_t *map, size_t mapStep, std::vector<uint8_t *> &strong);
+
+    // Bytes that go to or from memory for one width x height frame: source, map
+    // written and read, RGBA. The row buffers stay in cache and aren't counted.
+    static size_t frameBytes(int width, int height);
+
+private:
+    // Fills map with the frame's final edge classification
+    void detect(const uint8_t *src, size_t srcStep, int width, int height, double lowThresh, double highThresh);
+
+    Isa isa = bestIsa();
+    const uint8_t *sourceTable = nullptr;
+    std::vector<uint8_t> rows;          // 3 source rows of width + 2, columns replicated
+    std::vector<short> dx, dy, mag;     // 3 rows each; mag rows have a zero column either side
+    std::vector<uint8_t> map;           // (height + 2) x (width + 2), outer ring 1
+    size_t mapStep = 0;
+    int mapHeight = 0;
+    std::vector<uint8_t *> stack;
+};
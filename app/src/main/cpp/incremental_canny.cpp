@@ -0,0 +1,175 @@
+#include "incremental_canny.h"
+
+#include <algorithm>
+#include <cstdlib>
+#include <cstring>
+
+void IncrementalCanny::run(const uint8_t *src, size_t srcStep, uint8_t *dst, size_t dstStep,
+                           int w, int h, uint32_t newSettings, const Detector &detect)
+{
+    if (w != width || h != height) {
+        width = w;
+        height = h;
+        tileCols = (w + TILE - 1) / TILE;
+        tileRows = (h + TILE - 1) / TILE;
+        blockCols = (w + BLOCK - 1) / BLOCK;
+        blockRows = (h + BLOCK - 1) / BLOCK;
+        blocks.assign((size_t) blockCols * blockRows, 0);
+        reference.assign(blocks.size(), 0);
+        dirty.assign((size_t) tileCols * tileRows, 1);
+        refreshTile = 0;
+        valid = false;
+    }
+    if (dst != output || dstStep != outputStep) {
+        output = dst;
+        outputStep = dstStep;
+        valid = false;
+    }
+    if (newSettings != settings) {
+        settings = newSettings;
+        valid = false;
+    }
+    int total = tileCols * tileRows;
+    seen += total;
+
+    int dirtyCount = total;
+    if (changeThreshold > 0) {
+        downsample(src, srcStep);
+        if (valid) {
+            markDirty();
+            dirtyCount = 0;
+            for (uint8_t d : dirty) dirtyCount += d;
+        }
+    } else {
+        valid = false; // reference isn't kept up to date; rebase when re-enabled
+    }
+
+    // Past this point the halos cost more than the clean tiles save
+    if (dirtyCount * 4 >= total * 3) {
+        detect(src, srcStep, dst, dstStep, width, height);
+        reference = blocks;
+        valid = changeThreshold > 0;
+        computed += total;
+    } else {
+        for (int r = 0; r < tileRows; r++) {
+            uint8_t *row = &dirty[(size_t) r * tileCols];
+            for (int c = 0; c < tileCols;) {
+                if (!row[c]) {
+                    c++;
+                    continue;
+                }
+                int c1 = c;
+                while (c1 < tileCols && row[c1]) c1++;
+                // Extend down while the rows below have exactly the same run
+                int r1 = r + 1;
+                while (r1 < tileRows) {
+                    uint8_t *below = &dirty[(size_t) r1 * tileCols];
+                    bool same = (c == 0 || !below[c - 1]) && (c1 == tileCols || !below[c1]);
+                    for (int k = c; same && k < c1; k++) same = below[k] != 0;
+                    if (!same) break;
+                    std::memset(below + c, 0, c1 - c);
+                    r1++;
+                }
+                detectRect(src, srcStep, dst, dstStep, c, c1, r, r1, detect);
+                c = c1;
+            }
+        }
+    }
+}
+
+// Sums of byte pairs: bytes 0+1, 2+3, 4+5 and 6+7 of 8 pixels in four 16-bit lanes
+static inline uint64_t pairSums(const uint8_t *p)
+{
+    uint64_t v;
+    std::memcpy(&v, p, sizeof v);
+    return (v & 0x00ff00ff00ff00ffull) + ((v >> 8) & 0x00ff00ff00ff00ffull);
+}
+
+// Mean of the block at (bc, br), however much of it lies inside the frame.
+uint8_t IncrementalCanny::blockMean(const uint8_t *src, size_t srcStep, int bc, int br) const
+{
+    int x0 = bc * BLOCK, x1 = std::min(width, x0 + BLOCK);
+    int y0 = br * BLOCK, y1 = std::min(height, y0 + BLOCK);
+    int sum = 0;
+    for (int y = y0; y < y1; y++) {
+        for (int x = x0; x < x1; x++) sum += src[y * srcStep + x];
+    }
+    int pixels = (x1 - x0) * (y1 - y0);
+    return (uint8_t) ((sum + pixels / 2) / pixels);
+}
+
+// Block means of src into blocks. Whole blocks are summed two at a time: a 64-bit
+// word holds 8 pixels of a row as four lanes of pixel pairs, at most 2040 each after
+// four rows, and the mean of 16 pixels is a shift. Only the frame's right and bottom
+// edges may leave partial blocks for blockMean().
+void IncrementalCanny::downsample(const uint8_t *src, size_t srcStep)
+{
+    static_assert(BLOCK == 4, "downsample() sums 4 x 4 blocks in 16-bit lanes");
+    const int wholeCols = width / BLOCK, wholeRows = height / BLOCK;
+    for (int br = 0; br < wholeRows; br++) {
+        const uint8_t *p0 = src + br * BLOCK * srcStep, *p1 = p0 + srcStep, *p2 = p1 + srcStep, *p3 = p2 + srcStep;
+        uint8_t *out = &blocks[(size_t) br * blockCols];
+        int bc = 0;
+        for (; bc + 2 <= wholeCols; bc += 2) {
+            int x = bc * BLOCK;
+            uint64_t sum = pairSums(p0 + x) + pairSums(p1 + x) + pairSums(p2 + x) + pairSums(p3 + x);
+            out[bc] = (uint8_t) (((sum & 0xffff) + ((sum >> 16) & 0xffff) + 8) >> 4);
+            out[bc + 1] = (uint8_t) ((((sum >> 32) & 0xffff) + (sum >> 48) + 8) >> 4);
+        }
+        for (; bc < blockCols; bc++) out[bc] = blockMean(src, srcStep, bc, br);
+    }
+    for (int br = wholeRows; br < blockRows; br++) {
+        for (int bc = 0; bc < blockCols; bc++) blocks[(size_t) br * blockCols + bc] = blockMean(src, srcStep, bc, br);
+    }
+}
+
+// Flags tiles whose block means moved by more than the threshold since they were
+// last computed, plus this frame's share of the refresh.
+void IncrementalCanny::markDirty()
+{
+    const int perTile = TILE / BLOCK;
+    for (int tr = 0; tr < tileRows; tr++) {
+        int br0 = tr * perTile, br1 = std::min(blockRows, br0 + perTile);
+        for (int tc = 0; tc < tileCols; tc++) {
+            int bc0 = tc * perTile, bc1 = std::min(blockCols, bc0 + perTile);
+            int sad = 0;
+            for (int br = br0; br < br1; br++) {
+                const uint8_t *cur = &blocks[(size_t) br * blockCols];
+                const uint8_t *ref = &reference[(size_t) br * blockCols];
+                for (int bc = bc0; bc < bc1; bc++) sad += std::abs(cur[bc] - ref[bc]);
+            }
+            dirty[(size_t) tr * tileCols + tc] = sad > changeThreshold * (float) ((br1 - br0) * (bc1 - bc0));
+        }
+    }
+    // A run of tiles in raster order, so it is detected as one or two rectangles
+    int total = tileCols * tileRows;
+    int refresh = std::min(total, (tileCols + REFRESH_SHARE - 1) / REFRESH_SHARE);
+    for (int i = 0; i < refresh; i++) dirty[(refreshTile + i) % total] = 1;
+    refreshTile = (refreshTile + refresh) % total;
+}
+
+// Runs the detector over tiles [tileCol0, tileCol1) x [tileRow0, tileRow1) plus the
+// halo, and keeps the result for the tiles themselves.
+void IncrementalCanny::detectRect(const uint8_t *src, size_t srcStep, uint8_t *dst, size_t dstStep, int tileCol0,
+                                  int tileCol1, int tileRow0, int tileRow1, const Detector &detect)
+{
+    int x0 = tileCol0 * TILE, x1 = std::min(width, tileCol1 * TILE);
+    int y0 = tileRow0 * TILE, y1 = std::min(height, tileRow1 * TILE);
+    int px0 = std::max(0, x0 - HALO), px1 = std::min(width, x1 + HALO);
+    int py0 = std::max(0, y0 - HALO), py1 = std::min(height, y1 + HALO);
+    int pw = px1 - px0, ph = py1 - py0;
+    if (scratch.size() < (size_t) pw * ph) scratch.resize((size_t) pw * ph);
+
+    detect(src + py0 * srcStep + px0, srcStep, scratch.data(), (size_t) pw, pw, ph);
+    for (int y = y0; y < y1; y++) {
+        std::memcpy(dst + y * dstStep + x0, &scratch[(size_t) (y - py0) * pw + (x0 - px0)], x1 - x0);
+    }
+
+    const int perTile = TILE / BLOCK;
+    int bc0 = tileCol0 * perTile, bc1 = std::min(blockCols, tileCol1 * perTile);
+    for (int br = tileRow0 * perTile; br < std::min(blockRows, tileRow1 * perTile); br++) {
+        size_t o = (size_t) br * blockCols;
+        std::memcpy(&reference[o + bc0], &blocks[o + bc0], bc1 - bc0);
+    }
+    computed += (long long) (tileCol1 - tileCol0) * (tileRow1 - tileRow0);
+}
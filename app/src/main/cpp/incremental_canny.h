@@ -0,0 +1,79 @@
+#pragma once
+
+#include <cstddef>
+#include <cstdint>
+#include <functional>
+#include <vector>
+
+// Reruns an edge detector only where the input changed since the tile was last
+// computed, reusing the cached edges everywhere else.
+//
+// The frame is split into TILE x TILE tiles. Each tile is compared against the
+// input it was last computed from on a BLOCK x BLOCK downsampled copy (block
+// means, summed eight pixels to a word), which is cheap and ignores per-pixel
+// sensor noise; a tile is dirty when
+// the mean absolute difference exceeds the change threshold. Runs of dirty tiles
+// are detected as one rectangle padded by HALO pixels, so the gradients and
+// non-maximum suppression inside the run are exact. Hysteresis is the only
+// non-local step: an edge chain that leaves a changed run is followed as far as
+// the halo. A quarter of a tile row (REFRESH_SHARE) is recomputed every frame in
+// rotation so clean tiles never stay stale for more than REFRESH_SHARE frames per
+// tile row.
+//
+// dst doubles as the cache: only the rectangles recomputed this frame are written,
+// so nothing else may write into it between runs. CPU time then follows the share
+// of tiles that changed, plus the downsample's one read of the source.
+//
+// Free of OpenCV types so it can be built and checked on the host (see bench/).
+// Not reentrant: use one instance per stage.
+class IncrementalCanny {
+public:
+    static const int TILE = 32;
+    static const int BLOCK = 4;
+    static const int HALO = 8;
+    // A tile row is refreshed over this many frames
+    static const int REFRESH_SHARE = 4;
+
+    // Runs the detector over a width x height rectangle; src and dst point at its top-left pixel.
+    using Detector = std::function<void(const uint8_t *src, size_t srcStep, uint8_t *dst, size_t dstStep,
+                                        int width, int height)>;
+
+    // Mean absolute difference, in grey levels per pixel, above which a tile counts as
+    // changed. 0 or less recomputes every tile each frame.
+    void setChangeThreshold(float threshold) { changeThreshold = threshold; }
+
+    // Forgets the cached edges, so the next run() computes every tile.
+    void reset() { valid = false; }
+
+    // Writes the edges of src into dst where they may have changed. dst must be the
+    // buffer the previous run() wrote, untouched since; another dst (or step)
+    // recomputes all tiles, as does a change in settings, which identifies everything
+    // the detector's output depends on besides src (thresholds, aperture).
+    void run(const uint8_t *src, size_t srcStep, uint8_t *dst, size_t dstStep,
+             int width, int height, uint32_t settings, const Detector &detect);
+
+    // Tiles recomputed and tiles seen, summed over every run() so far.
+    long long tilesComputed() const { return computed; }
+    long long tilesSeen() const { return seen; }
+
+private:
+    void downsample(const uint8_t *src, size_t srcStep);
+    uint8_t blockMean(const uint8_t *src, size_t srcStep, int bc, int br) const;
+    void markDirty();
+    void detectRect(const uint8_t *src, size_t srcStep, uint8_t *dst, size_t dstStep, int tileCol0,
+                    int tileCol1, int tileRow0, int tileRow1, const Detector &detect);
+
+    float changeThreshold = 0;
+    int width = 0, height = 0, tileCols = 0, tileRows = 0, blockCols = 0, blockRows = 0;
+    uint32_t settings = 0;
+    bool valid = false;
+    int refreshTile = 0;            // next tile to refresh, in raster order
+    const uint8_t *output = nullptr; // dst of the last run(), which holds the cached edges
+    size_t outputStep = 0;
+
+    std::vector<uint8_t> blocks;    // block means of the current frame
+    std::vector<uint8_t> reference; // block means each tile was last computed from
+    std::vector<uint8_t> dirty;     // tileRows x tileCols
+    std::vector<uint8_t> scratch;   // detector output for one padded rectangle
+    long long computed = 0, seen = 0;
+};
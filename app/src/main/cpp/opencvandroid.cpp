@@ -1,21 +1,524 @@
 #include "jni.h"
+#include "edge_features.h"
+#include "fused_edges.h"
+#include "incremental_canny.h"
+#include "tiled_canny.h"
 #include <opencv2/core.hpp>
 #include <opencv2/imgproc.hpp>
+#include <algorithm>
+#include <atomic>
+#include <chrono>
+#include <cstring>
 #include <vector>
 #include <string>
 
 using namespace cv;
 
+// Must match FrameProcessors.MAX_PYRAMID_LEVELS
+static const int MAX_PYRAMID_LEVELS = 4;
+
+// Mats that persist across frames. Storage is only reallocated when a frame
+// arrives with a different size/type, so steady-state frames do no malloc/free.
+struct FrameArena {
+    Mat edges;
+    Mat gray;
+    Mat lut;                 // videoRangeLuma's table as a 1x256 Mat header
+    Mat yuv;
+    Mat rgba;                // full-size colour on the way to gray when filtering
+    Mat pyramid[MAX_PYRAMID_LEVELS]; // pyrDown levels above the one an OP_PYR_DOWN stage outputs
+    Mat stages[2];           // ping-pong between fused pipeline stages
+    Mat sobelX, sobelY, sobelAbs;
+    Mat kernel;
+    std::vector<std::vector<Point>> contours;
+    std::atomic<long long> allocations{0};
+    std::atomic<long long> reuses{0};
+
+    Mat &obtain(Mat &m, int rows, int cols, int type) {
+        if (m.rows == rows && m.cols == cols && m.type() == type) {
+            reuses++;
+        } else {
+            m.create(rows, cols, type);
+            allocations++;
+        }
+        return m;
+    }
+};
+
+static FrameArena arena;
+
+// Band-parallel Canny used by OP_CANNY once more than one thread is configured
+static TiledCanny tiledCanny;
+
+// Luma -> Canny -> EdgeFrame bits in one kernel for the luma-direct path on one
+// Canny thread (see fusedCanny)
+static FusedEdges fusedEdges;
+
+// Gray level of COLOR_YUV2RGBA_NV21 + COLOR_RGBA2GRAY from Y alone, as VideoRangeLuma:
+// BT.601 video range stretched to full range in OpenCV's fixed point. The luma-direct
+// paths filter Y through it so they see the gray image the colour path would.
+static struct VideoRangeLuma {
+    uchar table[256];
+
+    VideoRangeLuma() {
+        for (int y = 0; y < 256; y++) {
+            table[y] = (uchar) std::min(255, (std::max(0, y - 16) * 1220542 + (1 << 19)) >> 20);
+        }
+    }
+} videoRangeLuma;
+
+// Statistics of the vision stage's EdgeFrames; edgeBits packs byte masks for it
+static EdgeFeatures edgeFeatures;
+static std::vector<uchar> edgeBits;
+
+// Writes height/2 rows of interleaved V/U from YUV_420_888 chroma planes. When the
+// planes are views into one VU block (NV21 HALs) the rows are copied as-is.
+static void packVu(const uchar *uPtr, const uchar *vPtr, int uvRowStride, int uvPixelStride,
+                   int width, int height, uchar *dst)
+{
+    bool interleaved = uvPixelStride == 2 && vPtr + 1 == uPtr;
+    for (int row = 0; row < height / 2; row++) {
+        const uchar *u = uPtr + row * uvRowStride;
+        const uchar *v = vPtr + row * uvRowStride;
+        if (interleaved) {
+            memcpy(dst, v, width);
+            dst += width;
+            continue;
+        }
+        for (int col = 0; col < width / 2; col++) {
+            *dst++ = v[col * uvPixelStride];
+            *dst++ = u[col * uvPixelStride];
+        }
+    }
+}
+
+// Must match FrameProcessors.OP_* and FramePipeline's limits, and the parameters in the
+// comments DesktopStageRunner.paramCount; batch/ NativeOpTableTest checks all three
+enum StageOp {
+    OP_GAUSSIAN_BLUR = 1, // ksize, sigma
+    OP_SOBEL = 2,         // ksize
+    OP_THRESHOLD = 3,     // value, otsu
+    OP_MORPHOLOGY = 4,    // morph op, ksize, iterations
+    OP_CANNY = 5,         // low, high, aperture, change threshold (0: whole frame)
+    OP_CONTOURS = 6,      // thickness
+    OP_PYR_DOWN = 7       // levels
+};
+static const int MAX_STAGES = 16;
+static const int PARAMS_PER_STAGE = 4;
+
+// OP_CANNY stages with a change threshold, indexed by the stage's position in the
+// whole Java-side program, and the program they were computed for. Each writes into
+// its own Mat, which holds its cached edges and which nothing else writes.
+static IncrementalCanny incrementalCanny[MAX_STAGES];
+static Mat incrementalEdges[MAX_STAGES];
+static jint incrementalProgram = 0;
+
+// Everything an OP_CANNY result depends on besides the input
+static uint32_t cannySettings(const jfloat *p)
+{
+    uint32_t key = 2166136261u;
+    for (int i = 0; i < 3; i++) {
+        uint32_t bits;
+        memcpy(&bits, &p[i], sizeof bits);
+        key = (key ^ bits) * 16777619u;
+    }
+    return key;
+}
+
+// cv::Canny, or the band-parallel version once more than one thread is configured
+static void cannyRect(const jfloat *p, const uchar *src, size_t srcStep, uchar *dst, size_t dstStep,
+                      int width, int height)
+{
+    int aperture = (int) p[2];
+    if (tiledCanny.threads() > 1 && TiledCanny::supports(aperture)) {
+        tiledCanny.run(src, srcStep, dst, dstStep, width, height, p[0], p[1], aperture);
+    } else {
+        Mat in(height, width, CV_8UC1, (void *) src, srcStep);
+        Mat out(height, width, CV_8UC1, dst, dstStep);
+        Canny(in, out, p[0], p[1], aperture);
+    }
+}
+
+// Size after an op: OP_PYR_DOWN halves it per level, rounding up; the rest keep it
+static Size stageOutputSize(int op, const jfloat *p, Size in)
+{
+    if (op != OP_PYR_DOWN) return in;
+    int levels = std::min(std::max((int) p[0], 0), MAX_PYRAMID_LEVELS);
+    for (int i = 0; i < levels; i++) in = Size((in.width + 1) / 2, (in.height + 1) / 2);
+    return in;
+}
+
+// A pipeline program copied out of the Java arrays onto the stack: the stages from
+// `first` on of the Java program `id`, which Java stages may split into several calls.
+struct StageProgram {
+    jint ops[MAX_STAGES];
+    jfloat params[MAX_STAGES * PARAMS_PER_STAGE];
+    jlong nanos[MAX_STAGES];
+    int count;
+    int first;
+    jint id;
+
+    StageProgram(JNIEnv *env, jintArray opsArr, jfloatArray paramsArr, jint firstStage, jint programId) {
+        count = std::min((int) env->GetArrayLength(opsArr), MAX_STAGES);
+        first = std::min(std::max((int) firstStage, 0), MAX_STAGES - count);
+        id = programId;
+        env->GetIntArrayRegion(opsArr, 0, count, ops);
+        env->GetFloatArrayRegion(paramsArr, 0, count * PARAMS_PER_STAGE, params);
+    }
+
+    void writeTimes(JNIEnv *env, jlongArray out) const {
+        env->SetLongArrayRegion(out, 0, count, nanos);
+    }
+
+    // Size of the last stage's output for an input of the given size
+    Size outputSize(int width, int height) const {
+        Size size(width, height);
+        for (int i = 0; i < count; i++) size = stageOutputSize(ops[i], params + i * PARAMS_PER_STAGE, size);
+        return size;
+    }
+};
+
+// One 8-bit single-channel stage; dst is preallocated at stageOutputSize.
+static void applyStage(int op, const jfloat *p, const Mat &src, Mat &dst)
+{
+    switch (op) {
+        case OP_GAUSSIAN_BLUR: {
+            int k = (int) p[0] | 1;
+            GaussianBlur(src, dst, Size(k, k), p[1]);
+            break;
+        }
+        case OP_SOBEL: {
+            // L1 magnitude, as Canny uses by default
+            Mat &dx = arena.obtain(arena.sobelX, src.rows, src.cols, CV_16SC1);
+            Mat &dy = arena.obtain(arena.sobelY, src.rows, src.cols, CV_16SC1);
+            Mat &absY = arena.obtain(arena.sobelAbs, src.rows, src.cols, CV_8UC1);
+            Sobel(src, dx, CV_16S, 1, 0, (int) p[0]);
+            Sobel(src, dy, CV_16S, 0, 1, (int) p[0]);
+            convertScaleAbs(dx, dst);
+            convertScaleAbs(dy, absY);
+            add(dst, absY, dst);
+            break;
+        }
+        case OP_THRESHOLD:
+            threshold(src, dst, p[0], 255, p[1] != 0 ? THRESH_BINARY | THRESH_OTSU : THRESH_BINARY);
+            break;
+        case OP_MORPHOLOGY: {
+            int k = (int) p[1];
+            if (arena.kernel.rows != k) arena.kernel = getStructuringElement(MORPH_RECT, Size(k, k));
+            morphologyEx(src, dst, (int) p[0], arena.kernel, Point(-1, -1), std::max(1, (int) p[2]));
+            break;
+        }
+        case OP_CANNY:
+            cannyRect(p, src.ptr(), src.step, dst.ptr(), dst.step, src.cols, src.rows);
+            break;
+        case OP_PYR_DOWN: {
+            // The levels in between stay allocated for the next frame
+            int levels = std::min(std::max((int) p[0], 1), MAX_PYRAMID_LEVELS);
+            const Mat *level = &src;
+            for (int i = 0; i < levels - 1; i++) {
+                Mat &next = arena.obtain(arena.pyramid[i], (level->rows + 1) / 2, (level->cols + 1) / 2, CV_8UC1);
+                pyrDown(*level, next, next.size());
+                level = &next;
+            }
+            pyrDown(*level, dst, dst.size());
+            break;
+        }
+        case OP_CONTOURS:
+            // contours keeps its capacity across frames
+            findContours(src, arena.contours, RETR_EXTERNAL, CHAIN_APPROX_SIMPLE);
+            dst.setTo(Scalar::all(0));
+            drawContours(dst, arena.contours, -1, Scalar::all(255), (int) p[0]);
+            break;
+        default:
+            src.copyTo(dst);
+    }
+}
+
+// OP_CANNY with a change threshold at position stage of the whole program: only the
+// tiles whose input changed are recomputed into the stage's own Mat, which is returned.
+static const Mat &incrementalStage(int stage, const jfloat *p, const Mat &src)
+{
+    Mat &edges = arena.obtain(incrementalEdges[stage], src.rows, src.cols, CV_8UC1);
+    IncrementalCanny &canny = incrementalCanny[stage];
+    canny.setChangeThreshold(p[3]);
+    canny.run(src.ptr(), src.step, edges.ptr(), edges.step, src.cols, src.rows, cannySettings(p),
+              [p](const uchar *s, size_t sStep, uchar *d, size_t dStep, int w, int h) {
+                  cannyRect(p, s, sStep, d, dStep, w, h);
+              });
+    return edges;
+}
+
+// Runs the whole program in one go, stage outputs alternating between two arena
+// Mats and the last one landing in dst. Returns the Mat holding the output: dst,
+// unless the last stage is an incremental Canny, whose own Mat is returned instead
+// so that only its changed tiles are written. Callers that need dst copy it.
+static const Mat &runStages(const Mat &src, Mat &dst, StageProgram &program)
+{
+    if (program.count == 0) {
+        src.copyTo(dst);
+        return dst;
+    }
+    if (program.id != incrementalProgram) {
+        // The cached edges are another chain's, whatever stage index they sit at
+        for (IncrementalCanny &canny : incrementalCanny) canny.reset();
+        incrementalProgram = program.id;
+    }
+    dst.create(program.outputSize(src.cols, src.rows), CV_8UC1); // no-op for the callers' preallocated Mats
+    const Mat *in = &src;
+    for (int i = 0; i < program.count; i++) {
+        const jfloat *p = program.params + i * PARAMS_PER_STAGE;
+        auto start = std::chrono::steady_clock::now();
+        if (program.ops[i] == OP_CANNY && p[3] > 0) {
+            in = &incrementalStage(program.first + i, p, *in);
+        } else {
+            Size size = stageOutputSize(program.ops[i], p, in->size());
+            Mat &out = i == program.count - 1
+                       ? dst
+                       : arena.obtain(arena.stages[i & 1], size.height, size.width, CV_8UC1);
+            applyStage(program.ops[i], p, *in, out);
+            in = &out;
+        }
+        program.nanos[i] = std::chrono::duration_cast<std::chrono::nanoseconds>(
+                std::chrono::steady_clock::now() - start).count();
+    }
+    return *in;
+}
+
+// The gray image the colour path would filter, from the Y plane: one table lookup per
+// pixel into the arena's gray Mat instead of two colour conversions.
+static const Mat &fullRangeLuma(const Mat &y)
+{
+    if (arena.lut.empty()) arena.lut = Mat(1, 256, CV_8UC1, videoRangeLuma.table);
+    Mat &gray = arena.obtain(arena.gray, y.rows, y.cols, CV_8UC1);
+    LUT(y, arena.lut, gray);
+    return gray;
+}
+
+// Packs a binary mask into the app's EdgeFrame layout: 1 bit per pixel, MSB first,
+// (cols + 7) / 8 bytes per row, padding bits 0.
+static void packEdgeBits(const Mat &mask, uchar *out)
+{
+    size_t rowBytes = (mask.cols + 7) / 8;
+    for (int r = 0; r < mask.rows; r++, out += rowBytes) {
+        const uchar *m = mask.ptr(r);
+        std::fill(out, out + rowBytes, 0);
+        for (int c = 0; c < mask.cols; c++) out[c >> 3] |= (uchar) ((m[c] & 0x80) >> (c & 7));
+    }
+}
+
+// Fills the EdgeFeatures block behind the direct buffer `features` (null: none wanted)
+// from an EdgeFrame.
+static void extractFeatures(JNIEnv *jniEnv, jobject features, const uchar *bits, int width, int height)
+{
+    if (!features) return;
+    auto *block = (int32_t *) jniEnv->GetDirectBufferAddress(features);
+    if (!block || jniEnv->GetDirectBufferCapacity(features) < (jlong) (EdgeFeatures::TOTAL_INTS * sizeof(int32_t))) return;
+    edgeFeatures.extract(bits, (width + 7) / 8, width, height, block);
+}
+
+// Address of a direct buffer holding at least `bytes`. Otherwise throws
+// IllegalArgumentException and returns null, and the caller returns straight away.
+static uchar *directBuffer(JNIEnv *env, jobject buffer, jlong bytes, const char *name)
+{
+    auto *ptr = buffer ? (uchar *) env->GetDirectBufferAddress(buffer) : nullptr;
+    std::string problem;
+    if (!ptr) {
+        problem = std::string(name) + " is not a direct buffer";
+    } else if (env->GetDirectBufferCapacity(buffer) < bytes) {
+        problem = std::string(name) + " holds " + std::to_string(env->GetDirectBufferCapacity(buffer))
+                  + " bytes, " + std::to_string(bytes) + " needed";
+    } else {
+        return ptr;
+    }
+    env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), problem.c_str());
+    return nullptr;
+}
+
+// Bytes a YUV_420_888 plane spans; Android trims the padding after its last row
+static jlong planeBytes(int rowStride, int pixelStride, int width, int rows)
+{
+    return (jlong) rowStride * (rows - 1) + (jlong) (width - 1) * pixelStride + 1;
+}
+
+// A program that is just a whole-frame 3x3 Canny can skip the 8-bit edge image and
+// the mapped luma: fusedEdges writes the EdgeFrame bits directly on one Canny thread,
+// tiledCanny.runBits does the same band by band on more.
+static bool fusedCanny(const StageProgram &program)
+{
+    const jfloat *p = program.params;
+    return program.count == 1 && program.ops[0] == OP_CANNY && (int) p[2] == 3 && p[3] <= 0;
+}
+
 extern "C" {
-JNIEXPORT void JNICALL Java_com_wintershade_opencvandroid_MainActivity_FindFeatures(JNIEnv * jniEnv, jobject, jlong addrGray, jlong addrRGBA)
+// Runs a fused run of pipeline stages between two Java-side Mats.
+JNIEXPORT void JNICALL Java_com_wintershade_opencvandroid_MainActivity_RunStages(JNIEnv * jniEnv, jclass,
+        jlong addrSrc, jlong addrDst, jintArray ops, jfloatArray params, jlongArray stageNanos,
+        jint firstStage, jint programId)
 {
-    Mat* mGray = (Mat*)addrGray;
-    Mat* mRGBA = (Mat*)addrRGBA;
+    Mat* src = (Mat*)addrSrc;
+    Mat* dst = (Mat*)addrDst;
 
-    Mat edges;
+    StageProgram program(jniEnv, ops, params, firstStage, programId);
+    const Mat &result = runStages(*src, *dst, program);
+    if (&result != dst) result.copyTo(*dst);
+    program.writeTimes(jniEnv, stageNanos);
+}
+
+// Converts YUV_420_888 planes straight from the Image's direct buffers into the
+// caller's RGBA buffer. Planes are wrapped as Mat headers; the only pixel copy is
+// the conversion write into out (plus a repack for layouts OpenCV can't read).
+// With a pipeline program out instead receives the filter output as a bit-packed
+// EdgeFrame, at the program's pyramid level; a lone Canny on the luma-direct path
+// writes it straight from the fused kernel. The EdgeFrame's statistics go into the
+// EdgeFeatures block behind `features` in the same call, unless it is null.
+JNIEXPORT void JNICALL Java_com_wintershade_opencvandroid_MainActivity_ProcessYuvPlanes(JNIEnv * jniEnv, jclass,
+        jobject yBuf, jint yRowStride, jobject uBuf, jobject vBuf, jint uvRowStride, jint uvPixelStride,
+        jint width, jint height, jintArray ops, jfloatArray params, jlongArray stageNanos, jint programId,
+        jboolean lumaDirect, jobject out, jobject features)
+{
+    StageProgram program(jniEnv, ops, params, 0, programId);
+    Size outSize = program.outputSize(width, height);
+    jlong outBytes = program.count > 0 ? (jlong) (outSize.width + 7) / 8 * outSize.height
+                                       : (jlong) outSize.width * outSize.height * 4;
+    jlong chromaBytes = planeBytes(uvRowStride, uvPixelStride, width / 2, height / 2);
+    uchar *yPtr, *uPtr, *vPtr, *outPtr;
+    if (!(yPtr = directBuffer(jniEnv, yBuf, planeBytes(yRowStride, 1, width, height), "Y plane"))
+        || !(uPtr = directBuffer(jniEnv, uBuf, chromaBytes, "U plane"))
+        || !(vPtr = directBuffer(jniEnv, vBuf, chromaBytes, "V plane"))
+        || !(outPtr = directBuffer(jniEnv, out, outBytes, "out"))) return;
+
+    Mat y(height, width, CV_8UC1, yPtr, yRowStride);
 
-    Canny(*mGray, edges, 50, 150, 3);
+    // The Y plane, stretched to full range, is the grayscale image; the filtered
+    // output needs no colour at all, so skip both conversions.
+    if (program.count > 0 && lumaDirect) {
+        if (fusedCanny(program)) {
+            auto start = std::chrono::steady_clock::now();
+            if (tiledCanny.threads() > 1) {
+                tiledCanny.runBits(yPtr, yRowStride, videoRangeLuma.table, outPtr, (width + 7) / 8,
+                                   width, height, program.params[0], program.params[1]);
+            } else {
+                fusedEdges.setSourceTable(videoRangeLuma.table);
+                fusedEdges.runBits(yPtr, yRowStride, outPtr, (width + 7) / 8, width, height,
+                                   program.params[0], program.params[1]);
+            }
+            program.nanos[0] = std::chrono::duration_cast<std::chrono::nanoseconds>(
+                    std::chrono::steady_clock::now() - start).count();
+            program.writeTimes(jniEnv, stageNanos);
+            extractFeatures(jniEnv, features, outPtr, width, height);
+            return;
+        }
+        Mat &edges = arena.obtain(arena.edges, outSize.height, outSize.width, CV_8UC1);
+        packEdgeBits(runStages(fullRangeLuma(y), edges, program), outPtr);
+        program.writeTimes(jniEnv, stageNanos);
+        extractFeatures(jniEnv, features, outPtr, outSize.width, outSize.height);
+        return;
+    }
 
-    cvtColor(edges, *mRGBA, COLOR_GRAY2RGBA);
+    // With filters the colour image is only an intermediate
+    Mat rgbaOut;
+    if (program.count == 0) rgbaOut = Mat(outSize, CV_8UC4, outPtr);
+    Mat &rgba = program.count == 0 ? rgbaOut : arena.obtain(arena.rgba, height, width, CV_8UC4);
+
+    // Older OpenCV releases read both planes with the Y step, so only take the
+    // two-plane path when the strides agree.
+    bool sharedStride = uvRowStride == yRowStride;
+    if (uvPixelStride == 2 && sharedStride && vPtr + 1 == uPtr) {
+        Mat vu(height / 2, width / 2, CV_8UC2, vPtr, uvRowStride);
+        cvtColorTwoPlane(y, vu, rgba, COLOR_YUV2RGBA_NV21);
+    } else if (uvPixelStride == 2 && sharedStride && uPtr + 1 == vPtr) {
+        Mat uv(height / 2, width / 2, CV_8UC2, uPtr, uvRowStride);
+        cvtColorTwoPlane(y, uv, rgba, COLOR_YUV2RGBA_NV12);
+    } else {
+        Mat &nv21 = arena.obtain(arena.yuv, height * 3 / 2, width, CV_8UC1);
+        y.copyTo(nv21.rowRange(0, height));
+        packVu(uPtr, vPtr, uvRowStride, uvPixelStride, width, height, nv21.ptr(height));
+        cvtColor(nv21, rgba, COLOR_YUV2RGBA_NV21);
+    }
+
+    if (program.count > 0) {
+        Mat &gray = arena.obtain(arena.gray, height, width, CV_8UC1);
+        Mat &edges = arena.obtain(arena.edges, outSize.height, outSize.width, CV_8UC1);
+        cvtColor(rgba, gray, COLOR_RGBA2GRAY);
+        packEdgeBits(runStages(gray, edges, program), outPtr);
+        program.writeTimes(jniEnv, stageNanos);
+        extractFeatures(jniEnv, features, outPtr, outSize.width, outSize.height);
+    }
+}
+
+// Packs the planes as tight NV21 into out for colour conversion on the GPU. With a
+// non-empty pipeline program, its output computed from the Y plane follows the
+// NV21 data as the overlay mask, at the program's pyramid level.
+JNIEXPORT void JNICALL Java_com_wintershade_opencvandroid_MainActivity_PackNv21Frame(JNIEnv * jniEnv, jclass,
+        jobject yBuf, jint yRowStride, jobject uBuf, jobject vBuf, jint uvRowStride, jint uvPixelStride,
+        jint width, jint height, jintArray ops, jfloatArray params, jlongArray stageNanos, jint programId,
+        jobject out)
+{
+    StageProgram program(jniEnv, ops, params, 0, programId);
+    Size maskSize = program.outputSize(width, height);
+    jlong outBytes = (jlong) width * height * 3 / 2 + (program.count > 0 ? (jlong) maskSize.area() : 0);
+    jlong chromaBytes = planeBytes(uvRowStride, uvPixelStride, width / 2, height / 2);
+    uchar *yPtr, *uPtr, *vPtr, *outPtr;
+    if (!(yPtr = directBuffer(jniEnv, yBuf, planeBytes(yRowStride, 1, width, height), "Y plane"))
+        || !(uPtr = directBuffer(jniEnv, uBuf, chromaBytes, "U plane"))
+        || !(vPtr = directBuffer(jniEnv, vBuf, chromaBytes, "V plane"))
+        || !(outPtr = directBuffer(jniEnv, out, outBytes, "out"))) return;
+
+    Mat y(height, width, CV_8UC1, yPtr, yRowStride);
+    Mat yOut(height, width, CV_8UC1, outPtr);
+    y.copyTo(yOut);
+    packVu(uPtr, vPtr, uvRowStride, uvPixelStride, width, height, outPtr + width * height);
+
+    if (program.count > 0) {
+        Mat mask(maskSize, CV_8UC1, outPtr + width * height * 3 / 2);
+        const Mat &result = runStages(fullRangeLuma(y), mask, program);
+        if (&result != &mask) result.copyTo(mask);
+        program.writeTimes(jniEnv, stageNanos);
+    }
+}
+
+// EdgeFeatures for filter output produced elsewhere: an EdgeFrame at offset, or with
+// packed false a byte mask (edges 128 and up) such as PackNv21Frame's. edges must
+// hold the whole frame past offset, as every other entry point checks its buffers.
+JNIEXPORT void JNICALL Java_com_wintershade_opencvandroid_MainActivity_ExtractEdgeFeatures(JNIEnv * jniEnv, jclass,
+        jobject edges, jint offset, jboolean packed, jint width, jint height, jobject features)
+{
+    if (offset < 0 || width < 0 || height < 0) {
+        jniEnv->ThrowNew(jniEnv->FindClass("java/lang/IllegalArgumentException"),
+                         "negative edges offset or size");
+        return;
+    }
+    jlong bytes = packed ? (jlong) (width + 7) / 8 * height : (jlong) width * height;
+    uchar *ptr = directBuffer(jniEnv, edges, offset + bytes, "edges");
+    if (!ptr) return;
+    ptr += offset;
+    if (!packed) {
+        edgeBits.resize((size_t) (width + 7) / 8 * height);
+        packEdgeBits(Mat(height, width, CV_8UC1, ptr), edgeBits.data());
+        ptr = edgeBits.data();
+    }
+    extractFeatures(jniEnv, features, ptr, width, height);
+}
+
+// Threads for OP_CANNY; 1 keeps the plain cv::Canny call. Applies from the next frame.
+JNIEXPORT void JNICALL Java_com_wintershade_opencvandroid_MainActivity_SetCannyThreads(JNIEnv * jniEnv, jclass, jint threads)
+{
+    tiledCanny.setThreads(threads);
+}
+
+// out[0] = tiles recomputed, out[1] = tiles seen by OP_CANNY stages with a change threshold
+JNIEXPORT void JNICALL Java_com_wintershade_opencvandroid_MainActivity_GetCannyTileStats(JNIEnv * jniEnv, jclass, jlongArray out)
+{
+    jlong stats[2] = {0, 0};
+    for (const IncrementalCanny &canny : incrementalCanny) {
+        stats[0] += canny.tilesComputed();
+        stats[1] += canny.tilesSeen();
+    }
+    jniEnv->SetLongArrayRegion(out, 0, 2, stats);
+}
+
+JNIEXPORT void JNICALL Java_com_wintershade_opencvandroid_MainActivity_GetNativeArenaStats(JNIEnv * jniEnv, jclass, jlongArray out)
+{
+    jlong stats[2] = { (jlong) arena.allocations.load(), (jlong) arena.reuses.load() };
+    jniEnv->SetLongArrayRegion(out, 0, 2, stats);
+}
 }
-}
\ No newline at end of file
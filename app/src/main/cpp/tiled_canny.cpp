@@ -0,0 +1,326 @@
+#include "tiled_canny.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstdlib>
+#include <cstring>
+
+WorkerPool::WorkerPool(int size) {
+    resize(size);
+}
+
+WorkerPool::~WorkerPool() {
+    stopWorkers();
+}
+
+void WorkerPool::resize(int size) {
+    stopWorkers();
+    for (int i = 1; i < size; i++) workers.emplace_back(&WorkerPool::workerLoop, this);
+}
+
+void WorkerPool::stopWorkers() {
+    {
+        std::lock_guard<std::mutex> lock(mutex);
+        stopping = true;
+    }
+    wake.notify_all();
+    for (std::thread &worker : workers) worker.join();
+    workers.clear();
+    stopping = false;
+}
+
+void WorkerPool::run(int count, const std::function<void(int)> &fn) {
+    if (workers.empty() || count <= 1) {
+        for (int i = 0; i < count; i++) fn(i);
+        return;
+    }
+    std::unique_lock<std::mutex> lock(mutex);
+    task = &fn;
+    taskCount = count;
+    nextTask = 0;
+    pending = count;
+    generation++;
+    wake.notify_all();
+    drain(lock);
+    done.wait(lock, [this] { return pending == 0; });
+    task = nullptr;
+}
+
+// Takes tasks of the current batch until none are left. Called with the lock held.
+void WorkerPool::drain(std::unique_lock<std::mutex> &lock) {
+    while (nextTask < taskCount) {
+        int i = nextTask++;
+        const std::function<void(int)> &fn = *task;
+        lock.unlock();
+        fn(i);
+        lock.lock();
+        if (--pending == 0) done.notify_all();
+    }
+}
+
+void WorkerPool::workerLoop() {
+    std::unique_lock<std::mutex> lock(mutex);
+    unsigned long long seen = generation;
+    for (;;) {
+        wake.wait(lock, [&] { return stopping || generation != seen; });
+        if (stopping) return;
+        seen = generation;
+        drain(lock);
+    }
+}
+
+// Same fixed point tangent test as OpenCV's Canny
+static const int CANNY_SHIFT = 15;
+static const int TG22 = (int) (0.4142135623730950488016887242097 * (1 << CANNY_SHIFT) + 0.5);
+
+static const int SMOOTH3[] = {1, 2, 1};
+static const int DERIV3[] = {-1, 0, 1};
+static const int SMOOTH5[] = {1, 4, 6, 4, 1};
+static const int DERIV5[] = {-1, -2, 0, 2, 1};
+
+// Bands shorter than this cost more in halo rows and stitching than they save
+static const int MIN_BAND_ROWS = 16;
+
+void TiledCanny::run(const uint8_t *src, size_t srcStep, uint8_t *dst, size_t dstStep,
+                     int width, int height, double lowThresh, double highThresh, int aperture)
+{
+    if (width <= 0 || height <= 0) return;
+    int count = detect(src, srcStep, nullptr, width, height, lowThresh, highThresh, aperture);
+    pool.run(count, [&](int i) {
+        for (int r = bands[i].r0; r < bands[i].r1; r++) {
+            const uint8_t *m = &map[(r + 1) * mapStep + 1];
+            uint8_t *d = dst + r * dstStep;
+            for (int c = 0; c < width; c++) d[c] = (uint8_t) -(m[c] >> 1);
+        }
+    });
+}
+
+void TiledCanny::runBits(const uint8_t *src, size_t srcStep, const uint8_t *table, uint8_t *bits, size_t bitsStep,
+                         int width, int height, double lowThresh, double highThresh)
+{
+    if (width <= 0 || height <= 0) return;
+    int count = detect(src, srcStep, table, width, height, lowThresh, highThresh, 3);
+    pool.run(count, [&](int i) {
+        for (int r = bands[i].r0; r < bands[i].r1; r++) {
+            packMapRow(&map[(r + 1) * mapStep + 1], bits + r * bitsStep, width);
+        }
+    });
+}
+
+int TiledCanny::detect(const uint8_t *src, size_t srcStep, const uint8_t *table, int width, int height,
+                       double lowThresh, double highThresh, int aperture)
+{
+    if (lowThresh > highThresh) std::swap(lowThresh, highThresh);
+    int low = (int) std::floor(lowThresh);
+    int high = (int) std::floor(highThresh);
+
+    int threads = requestedThreads;
+    if (pool.size() != threads) pool.resize(threads);
+    int count = std::max(1, std::min(threads, height / MIN_BAND_ROWS));
+    bands.resize(count);
+    for (int i = 0; i < count; i++) {
+        bands[i].r0 = (int) ((long long) height * i / count);
+        bands[i].r1 = (int) ((long long) height * (i + 1) / count);
+    }
+
+    // The outer ring stays 1 (not an edge) and stops hysteresis at the image border
+    if (mapStep != (size_t) width + 2 || mapHeight != height + 2) {
+        mapStep = width + 2;
+        mapHeight = height + 2;
+        map.assign(mapStep * mapHeight, 1);
+    }
+
+    pool.run(count, [&](int i) {
+        Band &band = bands[i];
+        band.stack.clear();
+        if (aperture == 3) {
+            band.fused.setSourceTable(table);
+            band.fused.suppressRows(src, srcStep, width, height, band.r0, band.r1, low, high,
+                                    map.data(), mapStep, band.stack);
+        } else {
+            gradients(band, src, srcStep, width, height, aperture);
+            suppress(band, width, low, high);
+        }
+        followWithin(band);
+    });
+    if (count > 1) stitch(width);
+    return count;
+}
+
+// One Sobel row at a fixed aperture, so the compiler can unroll and vectorize.
+// vs/vd are scratch rows of width + aperture - 1.
+template<int APERTURE>
+static void sobelRow(const uint8_t *const *srcRows, int width, int *vs, int *vd,
+                     short *dx, short *dy, int *mag)
+{
+    const int k = APERTURE / 2;
+    const int *smoothK = APERTURE == 5 ? SMOOTH5 : SMOOTH3;
+    const int *derivK = APERTURE == 5 ? DERIV5 : DERIV3;
+
+    // Vertical pass; srcRows already replicate rows at the image border
+    for (int c = 0; c < width; c++) {
+        int s = 0, d = 0;
+        for (int t = 0; t < APERTURE; t++) {
+            int v = srcRows[t][c];
+            s += smoothK[t] * v;
+            d += derivK[t] * v;
+        }
+        vs[c + k] = s;
+        vd[c + k] = d;
+    }
+    // ...and replicate columns
+    for (int c = 0; c < k; c++) {
+        vs[c] = vs[k];
+        vd[c] = vd[k];
+        vs[width + k + c] = vs[width + k - 1];
+        vd[width + k + c] = vd[width + k - 1];
+    }
+    for (int c = 0; c < width; c++) {
+        int gx = 0, gy = 0;
+        for (int t = 0; t < APERTURE; t++) {
+            gx += derivK[t] * vs[c + t];
+            gy += smoothK[t] * vd[c + t];
+        }
+        dx[c] = (short) gx;
+        dy[c] = (short) gy;
+        mag[c] = std::abs(gx) + std::abs(gy);
+    }
+}
+
+// Sobel dx/dy and L1 magnitude for the band's rows and one halo row either side.
+// Rows outside the image get zero magnitude, as in OpenCV.
+void TiledCanny::gradients(Band &band, const uint8_t *src, size_t srcStep, int width, int height, int aperture)
+{
+    const int k = aperture / 2;
+    const int rows = band.r1 - band.r0 + 2;
+    const size_t magStep = width + 2;
+
+    band.dx.resize((size_t) rows * width);
+    band.dy.resize((size_t) rows * width);
+    band.mag.resize((size_t) rows * magStep);
+    band.smooth.resize(width + 2 * k);
+    band.deriv.resize(width + 2 * k);
+
+    for (int lr = 0; lr < rows; lr++) {
+        int r = band.r0 - 1 + lr;
+        int *mag = &band.mag[lr * magStep];
+        if (r < 0 || r >= height) {
+            std::fill(mag, mag + magStep, 0);
+            continue;
+        }
+        const uint8_t *srcRows[5];
+        for (int t = 0; t < aperture; t++) {
+            srcRows[t] = src + std::min(std::max(r + t - k, 0), height - 1) * srcStep;
+        }
+        mag[0] = mag[width + 1] = 0;
+        short *dx = &band.dx[lr * width];
+        short *dy = &band.dy[lr * width];
+        if (aperture == 5) {
+            sobelRow<5>(srcRows, width, band.smooth.data(), band.deriv.data(), dx, dy, mag + 1);
+        } else {
+            sobelRow<3>(srcRows, width, band.smooth.data(), band.deriv.data(), dx, dy, mag + 1);
+        }
+    }
+}
+
+// Non-maximum suppression for the band's own rows, as OpenCV does it: strong
+// maxima become 2 and are queued, weak maxima 0, everything else 1.
+void TiledCanny::suppress(Band &band, int width, int low, int high)
+{
+    const size_t magStep = width + 2;
+    for (int r = band.r0; r < band.r1; r++) {
+        int lr = r - band.r0 + 1;
+        const int *magP = &band.mag[(lr - 1) * magStep + 1];
+        const int *magA = &band.mag[lr * magStep + 1];
+        const int *magN = &band.mag[(lr + 1) * magStep + 1];
+        const short *dx = &band.dx[lr * width];
+        const short *dy = &band.dy[lr * width];
+        uint8_t *pmap = &map[(r + 1) * mapStep + 1];
+        pmap[-1] = pmap[width] = 1;
+
+        for (int j = 0; j < width; j++) {
+            int m = magA[j];
+            bool maximum = false;
+            if (m > low) {
+                int xs = dx[j];
+                int ys = dy[j];
+                int x = std::abs(xs);
+                int y = std::abs(ys) << CANNY_SHIFT;
+                int tg22x = x * TG22;
+                if (y < tg22x) {
+                    maximum = m > magA[j - 1] && m >= magA[j + 1];
+                } else {
+                    int tg67x = tg22x + (x << (CANNY_SHIFT + 1));
+                    if (y > tg67x) {
+                        maximum = m > magP[j] && m >= magN[j];
+                    } else {
+                        int s = (xs ^ ys) < 0 ? -1 : 1;
+                        maximum = m > magP[j - s] && m > magN[j + s];
+                    }
+                }
+            }
+            if (!maximum) {
+                pmap[j] = 1;
+            } else if (m > high) {
+                pmap[j] = 2;
+                band.stack.push_back(pmap + j);
+            } else {
+                pmap[j] = 0;
+            }
+        }
+    }
+}
+
+// Hysteresis that never leaves the band's rows, so bands can run concurrently.
+void TiledCanny::followWithin(Band &band)
+{
+    const ptrdiff_t step = (ptrdiff_t) mapStep;
+    uint8_t *first = &map[(band.r0 + 1) * mapStep];
+    uint8_t *last = &map[band.r1 * mapStep]; // start of the band's last row
+    std::vector<uint8_t *> &stack = band.stack;
+    while (!stack.empty()) {
+        uint8_t *m = stack.back();
+        stack.pop_back();
+        if (m >= first + step) {
+            if (!m[-step - 1]) m[-step - 1] = 2, stack.push_back(m - step - 1);
+            if (!m[-step])     m[-step] = 2, stack.push_back(m - step);
+            if (!m[-step + 1]) m[-step + 1] = 2, stack.push_back(m - step + 1);
+        }
+        if (!m[-1]) m[-1] = 2, stack.push_back(m - 1);
+        if (!m[1])  m[1] = 2, stack.push_back(m + 1);
+        if (m < last) {
+            if (!m[step - 1]) m[step - 1] = 2, stack.push_back(m + step - 1);
+            if (!m[step])     m[step] = 2, stack.push_back(m + step);
+            if (!m[step + 1]) m[step + 1] = 2, stack.push_back(m + step + 1);
+        }
+    }
+}
+
+// Carries edges over each band border, then finishes hysteresis over the whole map.
+void TiledCanny::stitch(int width)
+{
+    const ptrdiff_t step = (ptrdiff_t) mapStep;
+    stack.clear();
+    for (size_t i = 0; i + 1 < bands.size(); i++) {
+        uint8_t *above = &map[bands[i].r1 * mapStep + 1]; // last row of band i
+        uint8_t *below = above + step;                     // first row of band i + 1
+        for (int j = 0; j < width; j++) {
+            for (int d = -1; d <= 1; d++) {
+                if (above[j] == 2 && !below[j + d]) below[j + d] = 2, stack.push_back(below + j + d);
+                if (below[j] == 2 && !above[j + d]) above[j + d] = 2, stack.push_back(above + j + d);
+            }
+        }
+    }
+    while (!stack.empty()) {
+        uint8_t *m = stack.back();
+        stack.pop_back();
+        if (!m[-step - 1]) m[-step - 1] = 2, stack.push_back(m - step - 1);
+        if (!m[-step])     m[-step] = 2, stack.push_back(m - step);
+        if (!m[-step + 1]) m[-step + 1] = 2, stack.push_back(m - step + 1);
+        if (!m[-1])        m[-1] = 2, stack.push_back(m - 1);
+        if (!m[1])         m[1] = 2, stack.push_back(m + 1);
+        if (!m[step - 1])  m[step - 1] = 2, stack.push_back(m + step - 1);
+        if (!m[step])      m[step] = 2, stack.push_back(m + step);
+        if (!m[step + 1])  m[step + 1] = 2, stack.push_back(m + step + 1);
+    }
+}
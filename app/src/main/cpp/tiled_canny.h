@@ -0,0 +1,97 @@
+#pragma once
+
+#include <atomic>
+#include <condition_variable>
+#include <cstddef>
+#include <cstdint>
+#include <functional>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+#include "fused_edges.h"
+
+// Fixed set of worker threads that runs one batch of indexed tasks at a time. The
+// calling thread works on the batch too, so a pool of size n has n - 1 threads.
+class WorkerPool {
+public:
+    explicit WorkerPool(int size = 1);
+    ~WorkerPool();
+
+    void resize(int size);
+    int size() const { return (int) workers.size() + 1; }
+
+    // Runs task(i) for every i in [0, count) and returns once all have finished.
+    void run(int count, const std::function<void(int)> &task);
+
+private:
+    void workerLoop();
+    void drain(std::unique_lock<std::mutex> &lock);
+    void stopWorkers();
+
+    std::vector<std::thread> workers;
+    std::mutex mutex;
+    std::condition_variable wake, done;
+    const std::function<void(int)> *task = nullptr;
+    int taskCount = 0, nextTask = 0, pending = 0;
+    unsigned long long generation = 0;
+    bool stopping = false;
+};
+
+// Canny split into horizontal bands that are processed in parallel, with output
+// identical to single-threaded cv::Canny(src, dst, low, high, aperture, false).
+//
+// Each band computes the Sobel gradients for its rows plus a one-row halo on each
+// side (read straight from the source, replicating at the image border), does
+// non-maximum suppression for its own rows, and follows hysteresis only within
+// itself; at aperture 3 the first two steps are FusedEdges' SIMD kernel on the
+// band's rows, which needs no band-sized gradient buffers. A serial pass then seeds the weak pixels that touch a strong one across
+// each band border and finishes hysteresis from there. Hysteresis only depends on
+// which pixels are connected, not on visiting order, so the result matches.
+//
+// Free of OpenCV types so it can be built and checked on the host (see bench/).
+// Not reentrant: use one instance per calling thread.
+class TiledCanny {
+public:
+    static bool supports(int aperture) { return aperture == 3 || aperture == 5; }
+
+    // Takes effect at the start of the next run(); safe to call from any thread.
+    void setThreads(int threads) { requestedThreads = threads < 1 ? 1 : threads; }
+    int threads() const { return requestedThreads; }
+
+    void run(const uint8_t *src, size_t srcStep, uint8_t *dst, size_t dstStep,
+             int width, int height, double lowThresh, double highThresh, int aperture);
+
+    // 3x3 edges written as packMapRow() bits, (width + 7) / 8 or more bytes per row: the
+    // banded counterpart of FusedEdges::runBits(). A non-null table maps every source
+    // pixel as its band reads it (e.g. video-range luma to full range), so neither a
+    // mapped copy of the source nor an 8-bit edge image is ever made.
+    void runBits(const uint8_t *src, size_t srcStep, const uint8_t *table, uint8_t *bits, size_t bitsStep,
+                 int width, int height, double lowThresh, double highThresh);
+
+private:
+    struct Band {
+        int r0 = 0, r1 = 0;
+        std::vector<short> dx, dy; // rows r0-1 .. r1, aperture 5
+        std::vector<int> mag;      // same rows, one zero column either side
+        std::vector<int> smooth, deriv;
+        FusedEdges fused;          // aperture 3
+        std::vector<uint8_t *> stack;
+    };
+
+    // Fills map with the final edge classification; returns the number of bands used
+    int detect(const uint8_t *src, size_t srcStep, const uint8_t *table, int width, int height,
+               double lowThresh, double highThresh, int aperture);
+    void gradients(Band &band, const uint8_t *src, size_t srcStep, int width, int height, int aperture);
+    void suppress(Band &band, int width, int low, int high);
+    void followWithin(Band &band);
+    void stitch(int width);
+
+    std::atomic<int> requestedThreads{1};
+    WorkerPool pool;
+    std::vector<Band> bands;
+    std::vector<uint8_t> map; // (height + 2) x (width + 2): 0 weak, 1 not an edge, 2 edge
+    size_t mapStep = 0;
+    int mapHeight = 0;
+    std::vector<uint8_t *> stack;
+};
@@ -0,0 +1,224 @@
+package com.wintershade.opencvandroid;
+
+import android.hardware.camera2.CameraMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Picks the camera, stream sizes and capture controls for frame processing rather
+ * than for stills: a camera and YUV size that can actually deliver the target
+ * frame rate (from the stream configuration's minimum frame durations), a fixed
+ * auto-exposure frame rate so frame intervals don't stretch in low light, and
+ * continuous-video autofocus, which moves the lens smoothly instead of hunting.
+ *
+ * Works on plain descriptions of each camera's characteristics so the selection is
+ * a pure function; {@code MainActivity} fills them in from {@code CameraCharacteristics}.
+ */
+public final class CameraConfigurator {
+
+    /** What the selection needs to know about one camera. */
+    public static final class Camera {
+        final String id;
+        final int lensFacing;        // CameraMetadata.LENS_FACING_*
+        final int hardwareLevel;     // CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_*
+        final int[][] yuvSizes;      // {width, height}
+        final long[] minFrameNanos;  // per yuvSizes entry; 0 if unknown
+        final int[][] aeFpsRanges;   // {min, max}
+        final int[] afModes;         // CameraMetadata.CONTROL_AF_MODE_*
+
+        public Camera(String id, int lensFacing, int hardwareLevel, int[][] yuvSizes, long[] minFrameNanos,
+                      int[][] aeFpsRanges, int[] afModes) {
+            if (yuvSizes.length != minFrameNanos.length) {
+                throw new IllegalArgumentException("one minimum frame duration per size");
+            }
+            this.id = id;
+            this.lensFacing = lensFacing;
+            this.hardwareLevel = hardwareLevel;
+            this.yuvSizes = yuvSizes;
+            this.minFrameNanos = minFrameNanos;
+            this.aeFpsRanges = aeFpsRanges;
+            this.afModes = afModes;
+        }
+
+        /** Highest frame rate the camera can stream {@code yuvSizes[i]} at. */
+        double maxFps(int i) {
+            return minFrameNanos[i] > 0 ? 1e9 / minFrameNanos[i] : Double.MAX_VALUE;
+        }
+    }
+
+    /** The chosen configuration. */
+    public static final class Config {
+        public final String cameraId;
+        public final int width, height;
+        /** Processing sizes the camera streams at the target rate, for {@link QualityGovernor}. */
+        public final int[][] sizes;
+        /** Second, low-resolution analysis stream; 0 x 0 when there is none. */
+        public final int analysisWidth, analysisHeight;
+        /** CONTROL_AE_TARGET_FPS_RANGE; 0 to leave the template's range. */
+        public final int fpsMin, fpsMax;
+        /** CONTROL_AF_MODE. */
+        public final int afMode;
+
+        Config(String cameraId, int width, int height, int[][] sizes, int analysisWidth, int analysisHeight,
+               int fpsMin, int fpsMax, int afMode) {
+            this.cameraId = cameraId;
+            this.width = width;
+            this.height = height;
+            this.sizes = sizes;
+            this.analysisWidth = analysisWidth;
+            this.analysisHeight = analysisHeight;
+            this.fpsMin = fpsMin;
+            this.fpsMax = fpsMax;
+            this.afMode = afMode;
+        }
+
+        public boolean hasAnalysisStream() {
+            return analysisWidth > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "camera " + cameraId + " " + width + "x" + height
+                    + (hasAnalysisStream() ? " + " + analysisWidth + "x" + analysisHeight : "")
+                    + (fpsMax > 0 ? " @" + fpsMin + "-" + fpsMax + " fps" : "") + " af " + afMode;
+        }
+    }
+
+    private final int preferredWidth, preferredHeight;
+    private final long maxPixels;
+    private final int targetFps;
+    private final long analysisPixels;
+
+    /**
+     * @param preferredWidth  the processing size to aim for; its aspect ratio is kept
+     * @param maxPixels       largest processing size allowed
+     * @param targetFps       frame rate the stream has to sustain
+     * @param analysisPixels  approximate size of the extra analysis stream; 0 for none
+     */
+    public CameraConfigurator(int preferredWidth, int preferredHeight, long maxPixels, int targetFps,
+                              long analysisPixels) {
+        this.preferredWidth = preferredWidth;
+        this.preferredHeight = preferredHeight;
+        this.maxPixels = maxPixels;
+        this.targetFps = targetFps;
+        this.analysisPixels = analysisPixels;
+    }
+
+    /** Best configuration over {@code cameras}; null if there are none. */
+    public Config select(Camera[] cameras) {
+        Camera best = null;
+        long bestScore = Long.MIN_VALUE;
+        for (Camera camera : cameras) {
+            long score = score(camera);
+            if (score > bestScore) {
+                best = camera;
+                bestScore = score;
+            }
+        }
+        return best == null ? null : configure(best);
+    }
+
+    /**
+     * Cameras that reach the target rate at some processing size first, then back
+     * cameras, then the most pixels they can do that at; the earliest listed wins ties.
+     */
+    private long score(Camera camera) {
+        long score = camera.lensFacing == CameraMetadata.LENS_FACING_BACK ? 1L << 61 : 0;
+        int[][] sizes = sustainedSizes(camera);
+        if (sizes.length > 0) score += (1L << 62) + (long) sizes[0][0] * sizes[0][1];
+        return score;
+    }
+
+    Config configure(Camera camera) {
+        int[][] sizes = sustainedSizes(camera);
+        if (sizes.length == 0) sizes = new int[][]{{preferredWidth, preferredHeight}};
+        long preferredPixels = (long) preferredWidth * preferredHeight;
+        int[] size = sizes[sizes.length - 1];
+        for (int[] s : sizes) {
+            if ((long) s[0] * s[1] <= preferredPixels) {
+                size = s;
+                break;
+            }
+        }
+
+        int[] analysis = analysisSize(camera, size);
+        // The governor may move to any of the sizes, so the range has to suit all of them
+        int[] fps = fpsRange(camera, slowestFps(camera, sizes));
+        return new Config(camera.id, size[0], size[1], sizes,
+                analysis != null ? analysis[0] : 0, analysis != null ? analysis[1] : 0,
+                fps != null ? fps[0] : 0, fps != null ? fps[1] : 0, afMode(camera));
+    }
+
+    /** {@link QualityGovernor#candidateSizes} of the sizes that stream at targetFps, largest first. */
+    int[][] sustainedSizes(Camera camera) {
+        List<int[]> fast = new ArrayList<>();
+        for (int i = 0; i < camera.yuvSizes.length; i++) {
+            if (camera.maxFps(i) >= targetFps) fast.add(camera.yuvSizes[i]);
+        }
+        int[][] sizes = QualityGovernor.candidateSizes(fast.toArray(new int[0][]),
+                preferredWidth, preferredHeight, maxPixels);
+        Arrays.sort(sizes, (a, b) -> Long.compare((long) b[0] * b[1], (long) a[0] * a[1]));
+        return sizes;
+    }
+
+    private static double slowestFps(Camera camera, int[][] sizes) {
+        double fps = Double.MAX_VALUE;
+        for (int i = 0; i < camera.yuvSizes.length; i++) {
+            for (int[] s : sizes) {
+                if (Arrays.equals(camera.yuvSizes[i], s)) fps = Math.min(fps, camera.maxFps(i));
+            }
+        }
+        return fps;
+    }
+
+    /**
+     * A fixed range [f, f] with the highest f in [targetFps, sizeFps]; otherwise the
+     * range within sizeFps reaching targetFps with the highest minimum; otherwise none.
+     */
+    int[] fpsRange(Camera camera, double sizeFps) {
+        int[] fixed = null, floating = null;
+        for (int[] r : camera.aeFpsRanges) {
+            if (r[1] < targetFps || r[1] > sizeFps) continue;
+            if (r[0] == r[1]) {
+                if (fixed == null || r[1] > fixed[1]) fixed = r;
+            } else if (floating == null || r[0] > floating[0] || (r[0] == floating[0] && r[1] > floating[1])) {
+                floating = r;
+            }
+        }
+        return fixed != null ? fixed : floating;
+    }
+
+    static int afMode(Camera camera) {
+        int mode = CameraMetadata.CONTROL_AF_MODE_OFF; // fixed-focus lenses list only OFF
+        for (int m : camera.afModes) {
+            if (m == CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO) return m;
+            if (m == CameraMetadata.CONTROL_AF_MODE_AUTO) mode = m;
+        }
+        return mode;
+    }
+
+    /**
+     * The smallest size with the stream's aspect ratio and at least analysisPixels that
+     * keeps up with targetFps; null when not wanted or LEGACY devices can't be relied
+     * on to run two YUV streams.
+     */
+    int[] analysisSize(Camera camera, int[] stream) {
+        if (analysisPixels <= 0 || camera.hardwareLevel == CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+            return null;
+        }
+        long streamPixels = (long) stream[0] * stream[1];
+        int[] best = null;
+        for (int i = 0; i < camera.yuvSizes.length; i++) {
+            int[] s = camera.yuvSizes[i];
+            long pixels = (long) s[0] * s[1];
+            if ((long) s[0] * stream[1] != (long) s[1] * stream[0]
+                    || pixels < analysisPixels || pixels >= streamPixels || camera.maxFps(i) < targetFps) {
+                continue;
+            }
+            if (best == null || pixels < (long) best[0] * best[1]) best = s;
+        }
+        return best;
+    }
+}
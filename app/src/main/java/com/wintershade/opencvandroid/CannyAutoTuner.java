@@ -0,0 +1,237 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Canny thresholds that follow the scene instead of a fixed 50/150.
+ *
+ * Each frame samples every {@link #SAMPLE_STEP}th pixel of every
+ * {@link #SAMPLE_STEP}th row of the Y plane, shifting the sampling grid by one
+ * pixel per frame so that {@code SAMPLE_STEP^2} frames cover the whole plane. Each
+ * sample is counted at its {@link VideoRangeLuma} gray level, the luma Canny actually
+ * runs on, and the samples feed a running histogram from which {@link Rule} derives
+ * the thresholds.
+ *
+ * A scene is a stretch of frames whose luma mean and spread stay within a bucket of
+ * where they started. Once a new scene's thresholds have had {@link #SETTLE_FRAMES}
+ * to settle they are kept as its profile, in an LRU cache of {@link #MAX_PROFILES}
+ * keyed by the bucketed mean and spread. When a scene recurs (the lights go back
+ * on, the camera turns back) its profile applies from the first frame instead of
+ * being tuned again. Nothing is allocated per frame.
+ *
+ * {@link #update} is called from the processing thread; {@link #low()},
+ * {@link #high()} and {@link #describe()} from anywhere.
+ */
+public class CannyAutoTuner {
+
+    public enum Rule {
+        /** The classic automatic Canny: (1 -+ 0.33) x median luma. */
+        MEDIAN,
+        /** High at the Otsu threshold of the luma histogram, low at half of it. */
+        OTSU
+    }
+
+    static final int SAMPLE_STEP = 8;
+    // Weight of the newest frame in the running histogram
+    static final float HISTOGRAM_RATE = 0.25f;
+    static final float MEDIAN_SIGMA = 0.33f;
+    static final int SETTLE_FRAMES = 2 * SAMPLE_STEP;
+    // Grey levels of mean and standard deviation that make a different scene
+    static final int MEAN_BUCKET = 16;
+    static final int SPREAD_BUCKET = 8;
+    public static final int MAX_PROFILES = 16;
+
+    // VideoRangeLuma.expand of every Y value
+    private static final int[] GRAY = new int[256];
+
+    static {
+        for (int y = 0; y < 256; y++) GRAY[y] = VideoRangeLuma.expand(y);
+    }
+
+    private final Rule rule;
+
+    // Processing thread only
+    private final int[] frameHistogram = new int[256];
+    private final float[] histogram = new float[256];
+    private long frames = 0;
+    private float sceneMean = -1, sceneSpread;
+    private int sceneKey;
+    private int sceneFrames;
+    private boolean sceneTuned;
+
+    // LRU cache: profile i is keys[i] -> (lows[i], highs[i]), last used at useTicks[i]
+    private final int[] keys = new int[MAX_PROFILES];
+    private final float[] lows = new float[MAX_PROFILES];
+    private final float[] highs = new float[MAX_PROFILES];
+    private final long[] useTicks = new long[MAX_PROFILES];
+    private volatile int profiles = 0;
+    private long tick = 0;
+
+    private volatile float low = 50, high = 150;
+    private volatile boolean cached;
+    private volatile long hits, tunes;
+
+    public CannyAutoTuner(Rule rule) {
+        this.rule = rule;
+    }
+
+    /**
+     * Samples a frame's Y plane (rows of {@code rowStride} bytes from index 0, such as
+     * an Image's Y plane or the start of an NV21 buffer) and updates the thresholds.
+     */
+    public void update(ByteBuffer luma, int rowStride, int width, int height) {
+        int phase = (int) (frames++ % (SAMPLE_STEP * SAMPLE_STEP));
+        int[] counts = frameHistogram;
+        Arrays.fill(counts, 0);
+        long sum = 0, sumSquares = 0;
+        int samples = 0;
+        for (int y = phase / SAMPLE_STEP; y < height; y += SAMPLE_STEP) {
+            int row = y * rowStride;
+            for (int x = phase % SAMPLE_STEP; x < width; x += SAMPLE_STEP) {
+                int v = GRAY[luma.get(row + x) & 0xff];
+                counts[v]++;
+                sum += v;
+                sumSquares += v * v;
+            }
+            samples += (width - 1 - phase % SAMPLE_STEP) / SAMPLE_STEP + 1;
+        }
+        if (samples == 0) return;
+        float mean = (float) sum / samples;
+        float spread = (float) Math.sqrt(Math.max(0, (double) sumSquares / samples - (double) mean * mean));
+
+        boolean newScene = sceneMean < 0 || Math.abs(mean - sceneMean) > MEAN_BUCKET
+                || Math.abs(spread - sceneSpread) > SPREAD_BUCKET;
+        if (newScene) {
+            // Start the histogram over rather than fade the old scene out
+            sceneMean = mean;
+            sceneSpread = spread;
+            sceneKey = key(mean, spread);
+            sceneFrames = 0;
+            for (int i = 0; i < 256; i++) histogram[i] = counts[i];
+            int profile = find(sceneKey);
+            sceneTuned = profile >= 0;
+            if (sceneTuned) {
+                useTicks[profile] = ++tick;
+                hits++;
+                apply(lows[profile], highs[profile], true);
+                return;
+            }
+        } else {
+            for (int i = 0; i < 256; i++) histogram[i] += HISTOGRAM_RATE * (counts[i] - histogram[i]);
+        }
+        if (sceneTuned) return;
+
+        tune();
+        if (++sceneFrames >= SETTLE_FRAMES) {
+            store(sceneKey, low, high);
+            sceneTuned = true;
+            tunes++;
+        }
+    }
+
+    private void tune() {
+        float total = 0;
+        for (float count : histogram) total += count;
+        if (rule == Rule.OTSU) {
+            int t = otsu(histogram, total);
+            apply(t / 2f, t, false);
+        } else {
+            int median = 0;
+            float below = histogram[0];
+            while (below < total / 2 && median < 255) below += histogram[++median];
+            apply(Math.max(0, (1 - MEDIAN_SIGMA) * median), Math.min(255, (1 + MEDIAN_SIGMA) * median), false);
+        }
+    }
+
+    /** Threshold that maximizes the between-class variance. */
+    static int otsu(float[] histogram, float total) {
+        float sumAll = 0;
+        for (int i = 0; i < 256; i++) sumAll += i * histogram[i];
+        float weightBelow = 0, sumBelow = 0, best = -1;
+        int threshold = 0;
+        for (int t = 0; t < 256; t++) {
+            weightBelow += histogram[t];
+            if (weightBelow == 0) continue;
+            float weightAbove = total - weightBelow;
+            if (weightAbove <= 0) break;
+            sumBelow += t * histogram[t];
+            float meanBelow = sumBelow / weightBelow;
+            float meanAbove = (sumAll - sumBelow) / weightAbove;
+            float between = weightBelow * weightAbove * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+            if (between > best) {
+                best = between;
+                threshold = t;
+            }
+        }
+        return threshold;
+    }
+
+    private void apply(float low, float high, boolean cached) {
+        // Keep a hysteresis band even in a flat, dark scene
+        this.low = Math.max(1, Math.round(low));
+        this.high = Math.max(this.low + 1, Math.round(high));
+        this.cached = cached;
+    }
+
+    static int key(float mean, float spread) {
+        return Math.round(mean / MEAN_BUCKET) << 8 | Math.round(spread / SPREAD_BUCKET);
+    }
+
+    private int find(int key) {
+        for (int i = 0; i < profiles; i++) {
+            if (keys[i] == key) return i;
+        }
+        return -1;
+    }
+
+    private void store(int key, float low, float high) {
+        int slot = find(key);
+        if (slot < 0 && profiles < MAX_PROFILES) {
+            slot = profiles++;
+        } else if (slot < 0) {
+            slot = 0; // least recently used
+            for (int i = 1; i < MAX_PROFILES; i++) {
+                if (useTicks[i] < useTicks[slot]) slot = i;
+            }
+        }
+        keys[slot] = key;
+        lows[slot] = low;
+        highs[slot] = high;
+        useTicks[slot] = ++tick;
+    }
+
+    public Rule rule() {
+        return rule;
+    }
+
+    public float low() {
+        return low;
+    }
+
+    public float high() {
+        return high;
+    }
+
+    /** Scene profiles in the cache. */
+    public int profiles() {
+        return profiles;
+    }
+
+    /** Scenes whose thresholds came from the cache. */
+    public long hits() {
+        return hits;
+    }
+
+    /** Scenes tuned from the histogram and added to the cache. */
+    public long tunes() {
+        return tunes;
+    }
+
+    /** "Canny 41/82 (cached), 3 scenes" for the overlay. */
+    public String describe() {
+        return String.format(Locale.US, "Canny %.0f/%.0f%s, %d scenes", low, high,
+                cached ? " (cached)" : "", profiles);
+    }
+}
@@ -0,0 +1,114 @@
+package com.wintershade.opencvandroid;
+
+import java.io.Closeable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands every frame's {@link EdgeFeatures} to in-process subscribers.
+ *
+ * {@link #publish} copies the block (under 2 KB) into a {@link FrameTripleBuffer}
+ * and returns; a delivery thread takes the newest block and calls each subscriber
+ * in turn with a view of it. The vision stage therefore never waits for a
+ * subscriber, and subscribers slower than the frame rate see the latest results
+ * rather than a backlog. Neither side allocates per frame.
+ */
+public class EdgeFeatureStream implements Closeable {
+
+    /** Called on the delivery thread; {@code features} is only valid during the call. */
+    public interface Subscriber {
+        void onFeatures(EdgeFeatures features);
+    }
+
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final FrameTripleBuffer blocks = new FrameTripleBuffer();
+    private final Thread deliveryThread = new Thread(this::deliverLoop, "EdgeFeatureDelivery");
+    private volatile boolean running = false;
+
+    private final EdgeFeatures staging = EdgeFeatures.view(blocks.beginWrite(EdgeFeatures.BYTES));
+    private int sequence; // producer
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public void start() {
+        running = true;
+        deliveryThread.start();
+    }
+
+    public void subscribe(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /** Cheap check so the vision stage can skip extraction while nobody listens. */
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    /**
+     * Producer (one thread): queues a copy of {@code features}, numbered and tagged
+     * with {@code timestampNanos}, replacing any the delivery thread hasn't taken.
+     */
+    public void publish(EdgeFeatures features, long timestampNanos) {
+        staging.wrap(blocks.beginWrite(EdgeFeatures.BYTES)).copyFrom(features);
+        staging.stamp(++sequence, timestampNanos);
+        blocks.publish(features.width(), features.height());
+        published.incrementAndGet();
+        LockSupport.unpark(deliveryThread);
+    }
+
+    private void deliverLoop() {
+        EdgeFeatures view = null;
+        while (running) {
+            if (!blocks.acquireLatest()) {
+                LockSupport.park(this);
+                continue;
+            }
+            view = view == null ? EdgeFeatures.view(blocks.readBuffer()) : view.wrap(blocks.readBuffer());
+            for (Subscriber subscriber : subscribers) {
+                try {
+                    subscriber.onFeatures(view);
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet(); // one bad subscriber doesn't starve the others
+                }
+            }
+            delivered.incrementAndGet();
+        }
+    }
+
+    public long published() {
+        return published.get();
+    }
+
+    /** Blocks handed to the subscribers; the rest were replaced by newer ones first. */
+    public long delivered() {
+        return delivered.get();
+    }
+
+    /** Subscriber calls that threw. */
+    public long failures() {
+        return failures.get();
+    }
+
+    /** Stops delivery and waits for the thread; a call in progress finishes first. */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(deliveryThread);
+        if (deliveryThread.getState() == Thread.State.NEW) return;
+        boolean interrupted = false;
+        while (deliveryThread.isAlive()) {
+            try {
+                deliveryThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,266 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * Numbers from one frame's edge map, for consumers that don't need the picture:
+ * edge density per region of interest, how the edge lines are oriented, and the
+ * contours (8-connected runs of edge pixels) with the bounding boxes of the largest.
+ *
+ * Native code fills a direct buffer laid out as struct of arrays, the offsets of
+ * {@code edge_features.h}; this class only reads it in place, so results cost no
+ * objects per frame. The same buffer carries the configuration the native side reads:
+ * the regions, as fractions of the frame so they hold at every pyramid level and
+ * stream size, and the smallest contour worth counting.
+ */
+public final class EdgeFeatures {
+
+    public static final int MAX_REGIONS = 16;
+    public static final int MAX_BOXES = 64;
+    /** {@link #orientationLinks} bins: 0, 45, 90 and 135 degrees, see {@link #binDegrees}. */
+    public static final int ORIENTATION_BINS = 4;
+
+    // int32 offsets, as in edge_features.h
+    static final int WIDTH = 0;
+    static final int HEIGHT = 1;
+    static final int EDGE_PIXELS = 2;
+    static final int REGION_COUNT = 3;
+    static final int LINKS = 4;
+    static final int CONTOUR_COUNT = LINKS + 4;
+    static final int BOX_COUNT = CONTOUR_COUNT + 1;
+    static final int MIN_CONTOUR_PIXELS = BOX_COUNT + 1;
+    static final int SEQUENCE = MIN_CONTOUR_PIXELS + 1;
+    static final int TIMESTAMP = 14; // long, 8-byte aligned
+    static final int HEADER_INTS = 16;
+    static final int REGION_X = HEADER_INTS;
+    static final int REGION_Y = REGION_X + MAX_REGIONS;
+    static final int REGION_W = REGION_Y + MAX_REGIONS;
+    static final int REGION_H = REGION_W + MAX_REGIONS;
+    static final int REGION_EDGES = REGION_H + MAX_REGIONS;
+    static final int REGION_PIXELS = REGION_EDGES + MAX_REGIONS;
+    static final int BOX_X = REGION_PIXELS + MAX_REGIONS;
+    static final int BOX_Y = BOX_X + MAX_BOXES;
+    static final int BOX_W = BOX_Y + MAX_BOXES;
+    static final int BOX_H = BOX_W + MAX_BOXES;
+    static final int BOX_PIXELS = BOX_H + MAX_BOXES;
+    /** Size of the block in bytes. */
+    public static final int BYTES = 4 * (BOX_PIXELS + MAX_BOXES);
+
+    private ByteBuffer block;
+
+    /** A block of its own: the whole frame as one region, contours of any size. */
+    public EdgeFeatures() {
+        block = ByteBuffer.allocateDirect(BYTES).order(ByteOrder.nativeOrder());
+        setGrid(1, 1);
+        setMinContourPixels(1);
+    }
+
+    private EdgeFeatures(ByteBuffer block) {
+        this.block = block;
+    }
+
+    /** Reads a block someone else owns, such as a stream slot; rebind with {@link #wrap}. */
+    public static EdgeFeatures view(ByteBuffer block) {
+        return new EdgeFeatures(checked(block));
+    }
+
+    /** Points this view at another block; returns this. */
+    public EdgeFeatures wrap(ByteBuffer block) {
+        this.block = checked(block);
+        return this;
+    }
+
+    private static ByteBuffer checked(ByteBuffer block) {
+        if (block.capacity() < BYTES || block.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("need " + BYTES + " bytes in native order, got " + block.capacity());
+        }
+        return block;
+    }
+
+    /** The block, for native code and for copying. */
+    ByteBuffer block() {
+        return block;
+    }
+
+    /** Regions as {@code x, y, width, height} fractions of the frame, up to {@link #MAX_REGIONS}. */
+    public void setRegions(float... rects) {
+        if (rects.length % 4 != 0 || rects.length / 4 > MAX_REGIONS) {
+            throw new IllegalArgumentException("need x, y, w, h for at most " + MAX_REGIONS + " regions");
+        }
+        int count = rects.length / 4;
+        for (int i = 0; i < count; i++) {
+            block.putFloat(4 * (REGION_X + i), rects[4 * i]);
+            block.putFloat(4 * (REGION_Y + i), rects[4 * i + 1]);
+            block.putFloat(4 * (REGION_W + i), rects[4 * i + 2]);
+            block.putFloat(4 * (REGION_H + i), rects[4 * i + 3]);
+        }
+        putInt(REGION_COUNT, count);
+    }
+
+    /** The frame cut into {@code columns x rows} equal regions, row by row. */
+    public void setGrid(int columns, int rows) {
+        if (columns < 1 || rows < 1 || columns * rows > MAX_REGIONS) {
+            throw new IllegalArgumentException("grid " + columns + "x" + rows + " is over " + MAX_REGIONS + " regions");
+        }
+        float[] rects = new float[4 * columns * rows];
+        for (int i = 0; i < columns * rows; i++) {
+            rects[4 * i] = (float) (i % columns) / columns;
+            rects[4 * i + 1] = (float) (i / columns) / rows;
+            rects[4 * i + 2] = 1f / columns;
+            rects[4 * i + 3] = 1f / rows;
+        }
+        setRegions(rects);
+    }
+
+    /** Contours with fewer pixels are neither counted nor boxed; drops sensor speckle. */
+    public void setMinContourPixels(int pixels) {
+        putInt(MIN_CONTOUR_PIXELS, Math.max(1, pixels));
+    }
+
+    /** Tags the result with the frame it came from. */
+    void stamp(int sequence, long timestampNanos) {
+        putInt(SEQUENCE, sequence);
+        block.putLong(4 * TIMESTAMP, timestampNanos);
+    }
+
+    /** Copies {@code src}'s block, configuration included, into this one. */
+    public void copyFrom(EdgeFeatures src) {
+        ByteBuffer from = src.block.duplicate();
+        from.clear().limit(BYTES);
+        ByteBuffer to = block.duplicate();
+        to.clear();
+        to.put(from);
+    }
+
+    /** Size of the edge map the results are for; pyramid levels make it smaller than the frame. */
+    public int width() {
+        return getInt(WIDTH);
+    }
+
+    public int height() {
+        return getInt(HEIGHT);
+    }
+
+    /** Publish order, as numbered by {@link EdgeFeatureStream}. */
+    public int sequence() {
+        return getInt(SEQUENCE);
+    }
+
+    /** Capture timestamp of the frame, 0 if unknown. */
+    public long timestampNanos() {
+        return block.getLong(4 * TIMESTAMP);
+    }
+
+    public int edgePixels() {
+        return getInt(EDGE_PIXELS);
+    }
+
+    /** Fraction of the whole edge map that is edge. */
+    public float density() {
+        long pixels = (long) width() * height();
+        return pixels == 0 ? 0 : (float) (edgePixels() / (double) pixels);
+    }
+
+    public int regionCount() {
+        return getInt(REGION_COUNT);
+    }
+
+    public float regionX(int region) {
+        return block.getFloat(4 * (REGION_X + region));
+    }
+
+    public float regionY(int region) {
+        return block.getFloat(4 * (REGION_Y + region));
+    }
+
+    public float regionWidth(int region) {
+        return block.getFloat(4 * (REGION_W + region));
+    }
+
+    public float regionHeight(int region) {
+        return block.getFloat(4 * (REGION_H + region));
+    }
+
+    public int regionEdges(int region) {
+        return getInt(REGION_EDGES + region);
+    }
+
+    /** Fraction of the region that is edge; 0 for a region outside the frame. */
+    public float regionDensity(int region) {
+        int pixels = getInt(REGION_PIXELS + region);
+        return pixels == 0 ? 0 : (float) regionEdges(region) / pixels;
+    }
+
+    /** Orientation of a bin in degrees, counter-clockwise from horizontal. */
+    public static int binDegrees(int bin) {
+        return 45 * bin;
+    }
+
+    /**
+     * Pairs of neighbouring edge pixels along {@link #binDegrees}{@code (bin)}: a
+     * straight edge line contributes about one per pixel of length to its own bin.
+     */
+    public int orientationLinks(int bin) {
+        return getInt(LINKS + bin);
+    }
+
+    /** Degrees of the bin with the most links, or -1 without edges. */
+    public int dominantOrientation() {
+        int best = -1, most = 0;
+        for (int bin = 0; bin < ORIENTATION_BINS; bin++) {
+            if (orientationLinks(bin) > most) {
+                most = orientationLinks(bin);
+                best = bin;
+            }
+        }
+        return best < 0 ? -1 : binDegrees(best);
+    }
+
+    /** Contours of at least the minimum size, boxed or not. */
+    public int contourCount() {
+        return getInt(CONTOUR_COUNT);
+    }
+
+    /** Contours boxed, the largest first; at most {@link #MAX_BOXES}. */
+    public int boxCount() {
+        return getInt(BOX_COUNT);
+    }
+
+    public int boxX(int box) {
+        return getInt(BOX_X + box);
+    }
+
+    public int boxY(int box) {
+        return getInt(BOX_Y + box);
+    }
+
+    public int boxWidth(int box) {
+        return getInt(BOX_W + box);
+    }
+
+    public int boxHeight(int box) {
+        return getInt(BOX_H + box);
+    }
+
+    /** Edge pixels in the contour. */
+    public int boxPixels(int box) {
+        return getInt(BOX_PIXELS + box);
+    }
+
+    /** "edges 2.4%, mostly 90&deg;, 37 contours" for overlays and logs. */
+    public String describe() {
+        int orientation = dominantOrientation();
+        return String.format(Locale.US, "edges %.1f%%, %s, %d contours", 100 * density(),
+                orientation < 0 ? "no lines" : "mostly " + orientation + "\u00b0", contourCount());
+    }
+
+    private int getInt(int index) {
+        return block.getInt(4 * index);
+    }
+
+    void putInt(int index, int value) {
+        block.putInt(4 * index, value);
+    }
+}
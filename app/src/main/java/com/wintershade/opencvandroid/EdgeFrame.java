@@ -0,0 +1,161 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Binary edge map of one frame at 1 bit per pixel: {@link #rowBytes} bytes per row,
+ * pixels MSB first. When the width is a multiple of 8, as camera and pyramid sizes
+ * are, this is exactly the {@link EdgeFrameEncoder} packing. It is what the vision
+ * stage produces for filtered frames in place of an RGBA expansion 32 times its size;
+ * the renderer uploads it as is and colours it in the shader.
+ *
+ * A view over someone else's buffer (usually the frame's output buffer), rewrapped
+ * for each frame without allocating. Not thread-safe.
+ */
+public final class EdgeFrame {
+
+    /** Receives the coordinates of each edge pixel, row by row. */
+    public interface Visitor {
+        void edge(int x, int y);
+    }
+
+    private ByteBuffer bits;
+    private int offset, width, height, rowBytes;
+
+    public static int rowBytes(int width) {
+        return (width + 7) / 8;
+    }
+
+    /** Bytes a {@code width x height} frame takes. */
+    public static int size(int width, int height) {
+        return rowBytes(width) * height;
+    }
+
+    /**
+     * Packs a {@code width x height} byte mask ({@code rowStride} bytes per row) into
+     * {@code dst} at {@code dstOffset}: a pixel is an edge where its byte is 128 or more.
+     */
+    public static void pack(ByteBuffer mask, int offset, int rowStride, int width, int height,
+                            ByteBuffer dst, int dstOffset) {
+        int rowBytes = rowBytes(width);
+        for (int row = 0; row < height; row++) {
+            int src = offset + row * rowStride;
+            int out = dstOffset + row * rowBytes;
+            int col = 0;
+            for (; col + 8 <= width; col += 8, src += 8) {
+                int b = 0;
+                for (int i = 0; i < 8; i++) b = (b << 1) | ((mask.get(src + i) & 0x80) >>> 7);
+                dst.put(out++, (byte) b);
+            }
+            if (col < width) {
+                int b = 0;
+                for (int i = 0; col + i < width; i++) b |= ((mask.get(src + i) & 0x80) >>> 7) << (7 - i);
+                dst.put(out, (byte) b);
+            }
+        }
+    }
+
+    /** Views {@link #size} bytes of {@code bits} from {@code offset}; returns this. */
+    public EdgeFrame wrap(ByteBuffer bits, int offset, int width, int height) {
+        if (width < 0 || height < 0 || offset < 0 || offset + size(width, height) > bits.capacity()) {
+            throw new IllegalArgumentException(width + "x" + height + " edge frame at " + offset
+                    + " does not fit in " + bits.capacity() + " bytes");
+        }
+        this.bits = bits;
+        this.offset = offset;
+        this.width = width;
+        this.height = height;
+        this.rowBytes = rowBytes(width);
+        return this;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public boolean get(int x, int y) {
+        return (bits.get(offset + y * rowBytes + (x >>> 3)) & (0x80 >>> (x & 7))) != 0;
+    }
+
+    /** Number of edge pixels. */
+    public int count() {
+        int n = 0, end = offset + size(width, height);
+        int i = offset;
+        for (; i + 8 <= end; i += 8) n += Long.bitCount(bits.getLong(i)); // padding bits are always 0
+        for (; i < end; i++) n += Integer.bitCount(bits.get(i) & 0xff);
+        return n;
+    }
+
+    /**
+     * Calls {@code visitor} for every edge pixel, skipping empty runs a word at a time,
+     * so the cost follows the number of edges rather than the number of pixels.
+     */
+    public void forEach(Visitor visitor) {
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * rowBytes;
+            int b = 0;
+            for (; b + 8 <= rowBytes; b += 8) {
+                long word = bits.getLong(row + b);
+                if (bits.order() != ByteOrder.BIG_ENDIAN) word = Long.reverseBytes(word);
+                while (word != 0) {
+                    int bit = Long.numberOfLeadingZeros(word);
+                    visitor.edge(8 * b + bit, y);
+                    word &= ~(Long.MIN_VALUE >>> bit);
+                }
+            }
+            for (; b < rowBytes; b++) {
+                int v = bits.get(row + b) & 0xff;
+                while (v != 0) {
+                    int bit = Integer.numberOfLeadingZeros(v) - 24;
+                    visitor.edge(8 * b + bit, y);
+                    v &= ~(0x80 >>> bit);
+                }
+            }
+        }
+    }
+
+    /** Expands to one byte per pixel, 255 on edges and 0 elsewhere, {@code width} bytes per row. */
+    public void unpack(ByteBuffer dst, int dstOffset) {
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * rowBytes;
+            int out = dstOffset + y * width;
+            for (int x = 0; x < width; x++) {
+                int v = bits.get(row + (x >>> 3)) << (x & 7);
+                dst.put(out + x, (byte) ((v & 0x80) != 0 ? 0xff : 0));
+            }
+        }
+    }
+
+    /**
+     * Writes the frame in {@link EdgeFrameEncoder}'s packing, which has no row
+     * padding: {@link EdgeFrameEncoder#packedSize} bytes into {@code dst}.
+     */
+    public void packContiguous(ByteBuffer dst) {
+        if (width % 8 == 0) { // same layout
+            ByteBuffer src = bits.duplicate();
+            src.limit(offset + size(width, height)).position(offset);
+            ByteBuffer out = dst.duplicate();
+            out.clear();
+            out.put(src);
+            return;
+        }
+        int acc = 0, count = 0, o = 0;
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * rowBytes;
+            for (int x = 0; x < width; x++) {
+                acc = (acc << 1) | ((bits.get(row + (x >>> 3)) >>> (7 - (x & 7))) & 1);
+                if (++count == 8) {
+                    dst.put(o++, (byte) acc);
+                    acc = 0;
+                    count = 0;
+                }
+            }
+        }
+        if (count > 0) dst.put(o, (byte) (acc << (8 - count)));
+    }
+}
@@ -0,0 +1,131 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses binary edge maps for streaming: 1 bit per pixel, XORed against the
+ * previous frame sent (a delta frame), then zlib-deflated. Static regions of a
+ * delta are all zero bits and deflate to almost nothing.
+ *
+ * Message layout (big-endian): version u8, type u8 ({@link #TYPE_KEY} or
+ * {@link #TYPE_DELTA}), width u16, height u16, sequence u32, then the zlib stream
+ * of {@link #packedSize} bytes. Pixels are packed row-major, MSB first.
+ *
+ * Buffers are reused across frames, so steady-state encoding does not allocate.
+ * Not thread-safe; one encoder per receiver, since deltas depend on what that
+ * receiver got last.
+ */
+public class EdgeFrameEncoder {
+
+    static final int VERSION = 1;
+    static final int TYPE_KEY = 0;
+    static final int TYPE_DELTA = 1;
+    static final int HEADER_BYTES = 10;
+    // A late joiner or a lost delta is never more than this many frames from a resync
+    static final int KEYFRAME_INTERVAL = 120;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] previous = new byte[0];
+    private byte[] delta = new byte[0];
+    private byte[] out = new byte[0];
+    private int width = -1, height = -1;
+    private int sequence = 0;
+    private int sinceKey = 0;
+    private boolean keyRequested = true;
+
+    public static int packedSize(int width, int height) {
+        return (width * height + 7) / 8;
+    }
+
+    /**
+     * Packs a {@code width x height} plane into bits, one per pixel: set where the
+     * byte is 128 or more. Pixels are {@code pixelStride} bytes apart and rows
+     * {@code rowStride} bytes apart, so an RGBA image packs straight from its R channel.
+     */
+    public static void pack(ByteBuffer src, int offset, int pixelStride, int rowStride,
+                            int width, int height, ByteBuffer dst) {
+        int bits = 0, count = 0, o = 0;
+        for (int row = 0; row < height; row++) {
+            int i = offset + row * rowStride;
+            for (int col = 0; col < width; col++, i += pixelStride) {
+                bits = (bits << 1) | ((src.get(i) & 0x80) >>> 7);
+                if (++count == 8) {
+                    dst.put(o++, (byte) bits);
+                    bits = 0;
+                    count = 0;
+                }
+            }
+        }
+        if (count > 0) dst.put(o, (byte) (bits << (8 - count)));
+    }
+
+    /** Makes the next frame a key frame, e.g. after the receiver lost track. */
+    public void requestKeyframe() {
+        keyRequested = true;
+    }
+
+    /**
+     * Encodes one packed frame ({@link #packedSize} bytes of {@code packed}).
+     *
+     * @return the message length; the message is at the start of {@link #buffer()}
+     */
+    public int encode(byte[] packed, int width, int height) {
+        int size = packedSize(width, height);
+        if (width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            previous = new byte[size];
+            delta = new byte[size];
+            // Worst case for deflate on incompressible input, plus the header
+            out = new byte[HEADER_BYTES + size + size / 16 + 64];
+            keyRequested = true;
+        }
+        boolean key = keyRequested || ++sinceKey >= KEYFRAME_INTERVAL;
+        byte[] input;
+        if (key) {
+            input = packed;
+            keyRequested = false;
+            sinceKey = 0;
+        } else {
+            for (int i = 0; i < size; i++) delta[i] = (byte) (packed[i] ^ previous[i]);
+            input = delta;
+        }
+        System.arraycopy(packed, 0, previous, 0, size);
+
+        sequence++;
+        out[0] = (byte) VERSION;
+        out[1] = (byte) (key ? TYPE_KEY : TYPE_DELTA);
+        out[2] = (byte) (width >>> 8);
+        out[3] = (byte) width;
+        out[4] = (byte) (height >>> 8);
+        out[5] = (byte) height;
+        out[6] = (byte) (sequence >>> 24);
+        out[7] = (byte) (sequence >>> 16);
+        out[8] = (byte) (sequence >>> 8);
+        out[9] = (byte) sequence;
+
+        deflater.reset();
+        deflater.setInput(input, 0, size);
+        deflater.finish();
+        int length = HEADER_BYTES;
+        while (!deflater.finished()) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        return length;
+    }
+
+    public byte[] buffer() {
+        return out;
+    }
+
+    /** Frames encoded so far; the sequence number of the last message. */
+    public int sequence() {
+        return sequence;
+    }
+
+    /** Frees the native deflate state. */
+    public void end() {
+        deflater.end();
+    }
+}
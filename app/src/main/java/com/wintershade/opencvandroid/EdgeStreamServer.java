@@ -0,0 +1,423 @@
+package com.wintershade.opencvandroid;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Minimal WebSocket (RFC 6455) server that pushes edge frames, encoded by
+ * {@link EdgeFrameEncoder}, to the web viewer as binary messages.
+ *
+ * {@link #publish} packs the frame to 1 bit per pixel and hands it over through a
+ * {@link FrameTripleBuffer}, so it never waits on the network. An encoder thread
+ * takes the newest frame and encodes it for every viewer that has finished sending
+ * its previous one; a viewer still busy is skipped and gets a later frame instead,
+ * with its delta taken against what it actually received. Each viewer has its own
+ * sender thread, so a slow connection only ever lowers its own frame rate.
+ *
+ * Viewers must present the server's token as a query parameter of the upgrade
+ * request ({@code ws://host:port/?token=...}); anything else gets a 403. Each
+ * handshake runs on its own short-lived thread, at most {@link #MAX_HANDSHAKES} at a
+ * time, so a connection that stalls mid-handshake doesn't hold up the others.
+ */
+public class EdgeStreamServer implements Closeable {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int HANDSHAKE_TIMEOUT_MS = 2000;
+    // Connections still handshaking beyond this are closed straight away
+    static final int MAX_HANDSHAKES = 4;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int TOKEN_BYTES = 16;
+
+    private final ServerSocket serverSocket;
+    private final byte[] token;
+    private final Set<Socket> handshaking = ConcurrentHashMap.newKeySet();
+    private final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<>();
+    private final FrameTripleBuffer frames = new FrameTripleBuffer();
+    private final Thread acceptThread;
+    private final Thread encoderThread;
+    private volatile boolean running = false;
+
+    // Encoder thread: the frame being sent, unpacked from the triple buffer
+    private byte[] current = new byte[0];
+
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong framesSkipped = new AtomicLong();
+    private long lastFramesSent, lastBytesSent, lastDescribeNanos = System.nanoTime();
+
+    /** Binds to {@code port} on the loopback interface only; 0 picks a free port. */
+    public EdgeStreamServer(int port, String token) throws IOException {
+        this(port, InetAddress.getLoopbackAddress(), token);
+    }
+
+    /**
+     * @param bindAddress interface to listen on; null for all of them, which lets
+     *                    anyone on the network who has the token watch
+     * @param token       what viewers must pass as the {@code token} query parameter
+     */
+    public EdgeStreamServer(int port, InetAddress bindAddress, String token) throws IOException {
+        if (token == null || token.isEmpty()) throw new IllegalArgumentException("no token");
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        serverSocket = new ServerSocket(port, 4, bindAddress);
+        acceptThread = new Thread(this::acceptLoop, "EdgeStreamAccept");
+        encoderThread = new Thread(this::encodeLoop, "EdgeStreamEncoder");
+    }
+
+    public void start() {
+        running = true;
+        acceptThread.start();
+        encoderThread.start();
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /** A random token for the constructors: 128 bits as lowercase hex. */
+    public static String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) hex.append(Character.forDigit(b >>> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+
+    public int clientCount() {
+        return clients.size();
+    }
+
+    /** Cheap check so callers can skip {@link #publish} while nobody is watching. */
+    public boolean hasClients() {
+        return !clients.isEmpty();
+    }
+
+    /**
+     * Producer (one thread): queues a frame for the viewers, replacing any frame the
+     * encoder hasn't picked up yet. Only packs bits into a preallocated slot; never
+     * blocks. See {@link EdgeFrameEncoder#pack} for the layout parameters.
+     */
+    public void publish(ByteBuffer src, int offset, int pixelStride, int rowStride, int width, int height) {
+        ByteBuffer slot = frames.beginWrite(EdgeFrameEncoder.packedSize(width, height));
+        EdgeFrameEncoder.pack(src, offset, pixelStride, rowStride, width, height, slot);
+        frames.publish(width, height, 0, System.nanoTime());
+        LockSupport.unpark(encoderThread);
+    }
+
+    /** {@link #publish} for a frame that is already bit-packed. */
+    public void publish(EdgeFrame edges) {
+        ByteBuffer slot = frames.beginWrite(EdgeFrameEncoder.packedSize(edges.width(), edges.height()));
+        edges.packContiguous(slot);
+        frames.publish(edges.width(), edges.height(), 0, System.nanoTime());
+        LockSupport.unpark(encoderThread);
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                continue; // closed, or a connection that failed before we got to it
+            }
+            if (handshaking.size() >= MAX_HANDSHAKES) {
+                closeQuietly(socket);
+                continue;
+            }
+            handshaking.add(socket);
+            new Thread(() -> admit(socket), "EdgeStreamHandshake").start();
+        }
+    }
+
+    /** Handshake thread: upgrades the connection and starts its viewer, or closes it. */
+    private void admit(Socket socket) {
+        try {
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            if (!handshake(socket, token)) {
+                socket.close();
+                return;
+            }
+            socket.setSoTimeout(0);
+            socket.setTcpNoDelay(true);
+            Client client = new Client(socket);
+            clients.add(client);
+            // close() may have gone through the viewers before this one was added
+            if (!running) {
+                client.disconnect();
+                return;
+            }
+            client.thread.start();
+        } catch (IOException e) {
+            closeQuietly(socket);
+        } finally {
+            handshaking.remove(socket);
+        }
+    }
+
+    /**
+     * Reads the HTTP upgrade request and answers it; false if it wasn't one or didn't
+     * carry {@code token}.
+     */
+    private static boolean handshake(Socket socket, byte[] token) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+        String key = null;
+        String line = in.readLine();
+        if (line == null || !line.startsWith("GET ")) return false;
+        String presented = queryParameter(line, "token");
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+                key = line.substring(colon + 1).trim();
+            }
+        }
+        OutputStream out = socket.getOutputStream();
+        if (presented == null || !MessageDigest.isEqual(token, presented.getBytes(StandardCharsets.UTF_8))) {
+            out.write("HTTP/1.1 403 Forbidden\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            return false;
+        }
+        if (key == null) {
+            out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            return false;
+        }
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        return true;
+    }
+
+    /** Value of {@code name} in the query of a request line such as "GET /?a=b HTTP/1.1", or null. */
+    static String queryParameter(String requestLine, String name) {
+        int start = requestLine.indexOf(' ') + 1;
+        int end = requestLine.indexOf(' ', start);
+        String target = requestLine.substring(start, end < 0 ? requestLine.length() : end);
+        int query = target.indexOf('?');
+        if (query < 0) return null;
+        for (String pair : target.substring(query + 1).split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) return pair.substring(eq + 1);
+        }
+        return null;
+    }
+
+    /** Sec-WebSocket-Accept for a client's Sec-WebSocket-Key. */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return base64(sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // java.util.Base64 needs API 26 and android.util.Base64 isn't on the test classpath
+    private static String base64(byte[] data) {
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder sb = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int n = (data[i] & 0xff) << 16;
+            if (i + 1 < data.length) n |= (data[i + 1] & 0xff) << 8;
+            if (i + 2 < data.length) n |= data[i + 2] & 0xff;
+            sb.append(alphabet.charAt(n >>> 18 & 63)).append(alphabet.charAt(n >>> 12 & 63));
+            sb.append(i + 1 < data.length ? alphabet.charAt(n >>> 6 & 63) : '=');
+            sb.append(i + 2 < data.length ? alphabet.charAt(n & 63) : '=');
+        }
+        return sb.toString();
+    }
+
+    private void encodeLoop() {
+        while (running) {
+            if (!frames.acquireLatest()) {
+                LockSupport.park(this);
+                continue;
+            }
+            int width = frames.readWidth(), height = frames.readHeight();
+            int size = EdgeFrameEncoder.packedSize(width, height);
+            if (current.length != size) current = new byte[size];
+            ByteBuffer packed = frames.readBuffer();
+            packed.clear();
+            packed.get(current, 0, size);
+            long publishedNanos = frames.readTimestamp();
+            for (Client client : clients) {
+                if (!client.offer(current, width, height, publishedNanos)) framesSkipped.incrementAndGet();
+            }
+        }
+    }
+
+    private final class Client {
+        final Socket socket;
+        final OutputStream out;
+        final Thread thread;
+        final EdgeFrameEncoder encoder = new EdgeFrameEncoder();
+        final byte[] frameHeader = new byte[10];
+        // Owned by the encoder thread while false, by the sender thread while true
+        volatile boolean pending = false;
+        volatile boolean open = true;
+        int length;
+        long publishedNanos;
+
+        Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+            this.thread = new Thread(this::sendLoop, "EdgeStreamSender");
+        }
+
+        /** Encoder thread: encodes the frame unless the previous one is still going out. */
+        boolean offer(byte[] packed, int width, int height, long publishedNanos) {
+            if (pending || !open) return false;
+            length = encoder.encode(packed, width, height);
+            this.publishedNanos = publishedNanos;
+            pending = true;
+            LockSupport.unpark(thread);
+            return true;
+        }
+
+        void sendLoop() {
+            try {
+                while (open) {
+                    if (!pending) {
+                        LockSupport.park(this);
+                        continue;
+                    }
+                    int headerLength = writeFrameHeader(frameHeader, OPCODE_BINARY, length);
+                    out.write(frameHeader, 0, headerLength);
+                    out.write(encoder.buffer(), 0, length);
+                    out.flush();
+                    long latency = System.nanoTime() - publishedNanos;
+                    int sent = headerLength + length;
+                    pending = false;
+                    sendLatency.record(latency);
+                    bytesSent.addAndGet(sent);
+                    framesSent.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // viewer went away
+            } finally {
+                disconnect();
+            }
+        }
+
+        void disconnect() {
+            open = false;
+            clients.remove(this);
+            closeQuietly(socket);
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /** Writes an unmasked, unfragmented server frame header; returns its length. */
+    static int writeFrameHeader(byte[] header, int opcode, int payloadLength) {
+        header[0] = (byte) (0x80 | opcode);
+        if (payloadLength < 126) {
+            header[1] = (byte) payloadLength;
+            return 2;
+        }
+        if (payloadLength < 65536) {
+            header[1] = 126;
+            header[2] = (byte) (payloadLength >>> 8);
+            header[3] = (byte) payloadLength;
+            return 4;
+        }
+        header[1] = 127;
+        for (int i = 0; i < 8; i++) header[2 + i] = (byte) ((long) payloadLength >>> (56 - 8 * i));
+        return 10;
+    }
+
+    /** Messages and bytes (WebSocket framing included) delivered so far. */
+    public long framesSent() {
+        return framesSent.get();
+    }
+
+    public long bytesSent() {
+        return bytesSent.get();
+    }
+
+    /** Per-viewer frames not sent because that viewer was still busy with the previous one. */
+    public long framesSkipped() {
+        return framesSkipped.get();
+    }
+
+    /**
+     * "N viewer(s) x KB/frame y fps, send p50/p99 ms" for the frames sent since the
+     * previous call, or null with no viewers. Send latency runs from {@link #publish}
+     * to the message being written to the socket. Call from one thread.
+     */
+    public synchronized String describe() {
+        long now = System.nanoTime();
+        long frames = framesSent.get(), bytes = bytesSent.get();
+        long sent = frames - lastFramesSent;
+        long sentBytes = bytes - lastBytesSent;
+        double seconds = (now - lastDescribeNanos) / 1e9;
+        lastFramesSent = frames;
+        lastBytesSent = bytes;
+        lastDescribeNanos = now;
+        intervalLatency.reset();
+        sendLatency.drainInto(intervalLatency);
+        int viewers = clients.size();
+        if (viewers == 0) return null;
+        return String.format("ws %d viewer%s %.1f KB/frame %.0f fps, send %.1f/%.1f ms",
+                viewers, viewers == 1 ? "" : "s",
+                sent > 0 ? sentBytes / 1024.0 / sent : 0.0,
+                seconds > 0 ? sent / seconds : 0.0,
+                intervalLatency.percentile(0.50) / 1e6, intervalLatency.percentile(0.99) / 1e6);
+    }
+
+    /** Stops accepting, disconnects every viewer and waits for the threads to exit. */
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(serverSocket);
+        join(acceptThread);
+        // Handshake threads end as soon as their socket is closed
+        for (Socket socket : handshaking.toArray(new Socket[0])) closeQuietly(socket);
+        LockSupport.unpark(encoderThread);
+        join(encoderThread);
+        for (Client client : clients.toArray(new Client[0])) {
+            client.disconnect();
+            join(client.thread);
+        }
+    }
+
+    private static void join(Thread thread) {
+        if (thread.getState() == Thread.State.NEW) return;
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
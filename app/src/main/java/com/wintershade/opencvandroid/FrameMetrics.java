@@ -0,0 +1,186 @@
+package com.wintershade.opencvandroid;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage latency histograms for the camera-to-screen path, plus frame rates
+ * measured from camera sensor timestamps rather than from callback arrival.
+ *
+ * Every record method is allocation-free and safe to call from the thread that
+ * owns the stage. {@link #snapshot()} summarizes and clears everything recorded
+ * since the previous snapshot, so each snapshot describes one reporting interval.
+ *
+ * Sensor timestamps ({@code Image.getTimestamp()}) are converted to the
+ * {@link System#nanoTime()} timebase with {@link #setSensorClockOffset}.
+ */
+public class FrameMetrics {
+
+    public enum Stage {
+        /** acquireLatestImage() call. */
+        ACQUIRE("acquire"),
+        /** Copying the Image into the {@link FrameRecorder} ring, while recording. */
+        RECORD("record"),
+        /** Packing the Image planes into NV21 for chains with Java stages. */
+        REPACK("repack"),
+        /** Colour conversion / packing around the filters. */
+        CONVERT("convert"),
+        /** The filter pipeline stages. */
+        FILTER("filter"),
+        /** Copy into the renderer's triple buffer. */
+        PUBLISH("publish"),
+        /** Packing edges for {@link EdgeStreamServer}, while a viewer is connected. */
+        STREAM("stream"),
+        /** Texture uploads for one frame on the GL thread. */
+        UPLOAD("upload"),
+        /** Draw calls for a newly uploaded frame, up to the buffer swap. */
+        PRESENT("present"),
+        /** Sensor exposure timestamp to the end of the frame's draw. */
+        SENSOR_TO_DISPLAY("sensor->display"),
+        /** Interval between consecutive acquired sensor timestamps. */
+        INPUT_INTERVAL("input interval");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final LatencyHistogram[] live = new LatencyHistogram[STAGES.length];
+    private final LatencyHistogram[] drained = new LatencyHistogram[STAGES.length];
+    private volatile long sensorClockOffsetNanos = 0;
+
+    // Camera thread only
+    private long lastSensorTimestamp = 0;
+
+    private final AtomicLong inputFrames = new AtomicLong();
+    private final AtomicLong presentedFrames = new AtomicLong();
+    private long lastSnapshotNanos;
+
+    public FrameMetrics() {
+        for (int i = 0; i < STAGES.length; i++) {
+            live[i] = new LatencyHistogram();
+            drained[i] = new LatencyHistogram();
+        }
+        lastSnapshotNanos = System.nanoTime();
+    }
+
+    /**
+     * Sets {@code System.nanoTime() - sensorClock}, where the sensor clock is the one
+     * {@code Image.getTimestamp()} uses. 0 when both are CLOCK_MONOTONIC.
+     */
+    public void setSensorClockOffset(long offsetNanos) {
+        sensorClockOffsetNanos = offsetNanos;
+    }
+
+    public void record(Stage stage, long nanos) {
+        live[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Camera thread: an Image with this sensor timestamp was acquired. Frames the
+     * reader dropped before we acquired show up as longer intervals, so the input
+     * rate is taken from the median interval, not from the count.
+     */
+    public void onSensorFrame(long sensorTimestampNanos) {
+        long last = lastSensorTimestamp;
+        lastSensorTimestamp = sensorTimestampNanos;
+        inputFrames.incrementAndGet();
+        if (last != 0 && sensorTimestampNanos > last) {
+            record(Stage.INPUT_INTERVAL, sensorTimestampNanos - last);
+        }
+    }
+
+    /** Forgets the previous timestamp, e.g. when the camera stream restarts. */
+    public void resetSensorTimeline() {
+        lastSensorTimestamp = 0;
+    }
+
+    /**
+     * GL thread: the frame captured at {@code sensorTimestampNanos} (0 if unknown)
+     * finished drawing at {@code nowNanos}.
+     */
+    public void onFramePresented(long sensorTimestampNanos, long nowNanos) {
+        presentedFrames.incrementAndGet();
+        if (sensorTimestampNanos != 0) {
+            record(Stage.SENSOR_TO_DISPLAY, nowNanos - (sensorTimestampNanos + sensorClockOffsetNanos));
+        }
+    }
+
+    /** Summary of one reporting interval. */
+    public static final class Snapshot {
+        private final long[] counts = new long[STAGES.length];
+        private final long[] p50 = new long[STAGES.length];
+        private final long[] p95 = new long[STAGES.length];
+        private final long[] p99 = new long[STAGES.length];
+        private final long[] max = new long[STAGES.length];
+        public final long intervalNanos;
+        /** Camera rate from the median sensor timestamp interval; 0 if unknown. */
+        public final double inputFps;
+        /** Images the app actually acquired per second. */
+        public final double acquiredFps;
+        /** Frames drawn per second. */
+        public final double displayFps;
+
+        Snapshot(LatencyHistogram[] histograms, long intervalNanos, long acquired, long presented) {
+            for (int i = 0; i < STAGES.length; i++) {
+                LatencyHistogram h = histograms[i];
+                counts[i] = h.count();
+                p50[i] = h.percentile(0.50);
+                p95[i] = h.percentile(0.95);
+                p99[i] = h.percentile(0.99);
+                max[i] = h.max();
+            }
+            this.intervalNanos = intervalNanos;
+            long medianInterval = p50[Stage.INPUT_INTERVAL.ordinal()];
+            inputFps = medianInterval > 0 ? 1e9 / medianInterval : 0;
+            acquiredFps = intervalNanos > 0 ? acquired * 1e9 / intervalNanos : 0;
+            displayFps = intervalNanos > 0 ? presented * 1e9 / intervalNanos : 0;
+        }
+
+        public long count(Stage stage) {
+            return counts[stage.ordinal()];
+        }
+
+        public long p50(Stage stage) {
+            return p50[stage.ordinal()];
+        }
+
+        public long p95(Stage stage) {
+            return p95[stage.ordinal()];
+        }
+
+        public long p99(Stage stage) {
+            return p99[stage.ordinal()];
+        }
+
+        public long max(Stage stage) {
+            return max[stage.ordinal()];
+        }
+
+        /** "label p50/p95/p99 ms", or null if nothing was recorded. */
+        public String describe(Stage stage) {
+            int i = stage.ordinal();
+            if (counts[i] == 0) return null;
+            return String.format("%s %.1f/%.1f/%.1f ms", stage.label, p50[i] / 1e6, p95[i] / 1e6, p99[i] / 1e6);
+        }
+    }
+
+    /**
+     * Summarizes everything recorded since the previous call and starts a new
+     * interval. Call from one thread at a time, e.g. a periodic UI refresh.
+     */
+    public synchronized Snapshot snapshot() {
+        long now = System.nanoTime();
+        for (int i = 0; i < STAGES.length; i++) {
+            drained[i].reset();
+            live[i].drainInto(drained[i]);
+        }
+        Snapshot s = new Snapshot(drained, now - lastSnapshotNanos,
+                inputFrames.getAndSet(0), presentedFrames.getAndSet(0));
+        lastSnapshotNanos = now;
+        return s;
+    }
+}
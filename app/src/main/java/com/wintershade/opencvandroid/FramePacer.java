@@ -0,0 +1,116 @@
+package com.wintershade.opencvandroid;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which processed frames reach the screen and when the view redraws.
+ *
+ * The view renders only on request, so a frame is drawn once when it's new rather
+ * than at display rate. A frame is dropped instead of shown late when more than the
+ * deadline has passed since its sensor timestamp: once when processing finishes,
+ * before it is copied to the renderer, and again when the GL thread gets to it.
+ * Frames without a timestamp (replays) are never late.
+ *
+ * {@link #admit} and {@link #onPublished} are called from one producer thread,
+ * {@link #onDrawStarted} and {@link #onDraw} from the GL thread; counters from anywhere.
+ */
+public class FramePacer {
+
+    /** Monotonic time in nanoseconds; {@link System#nanoTime()} outside tests. */
+    public interface Clock {
+        long nanoTime();
+    }
+
+    private final long deadlineNanos;
+    private final Clock clock;
+    private final Runnable requestRender;
+    private volatile long sensorClockOffsetNanos = 0;
+
+    // Set by the producer when it publishes, cleared by the GL thread before it takes the frame
+    private final AtomicBoolean renderPending = new AtomicBoolean();
+    private final AtomicLong presented = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong renderRequests = new AtomicLong();
+
+    public FramePacer(long deadlineNanos, Runnable requestRender) {
+        this(deadlineNanos, requestRender, System::nanoTime);
+    }
+
+    /** @param requestRender asks the view for one draw, e.g. {@code GLSurfaceView::requestRender} */
+    public FramePacer(long deadlineNanos, Runnable requestRender, Clock clock) {
+        if (deadlineNanos <= 0) throw new IllegalArgumentException("deadline " + deadlineNanos);
+        this.deadlineNanos = deadlineNanos;
+        this.requestRender = requestRender;
+        this.clock = clock;
+    }
+
+    /** As {@link FrameMetrics#setSensorClockOffset}: {@code nanoTime - sensor clock}. */
+    public void setSensorClockOffset(long offsetNanos) {
+        sensorClockOffsetNanos = offsetNanos;
+    }
+
+    private boolean late(long sensorTimestampNanos) {
+        if (sensorTimestampNanos == 0) return false;
+        long age = clock.nanoTime() - (sensorTimestampNanos + sensorClockOffsetNanos);
+        if (age <= deadlineNanos) return false;
+        dropped.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Producer: true if the frame is still worth publishing to the renderer; a late
+     * one is counted as dropped.
+     */
+    public boolean admit(long sensorTimestampNanos) {
+        return !late(sensorTimestampNanos);
+    }
+
+    /**
+     * Producer: a frame is waiting in the renderer's buffer. Requests a draw unless
+     * one is already pending, which will pick up this frame as well.
+     */
+    public void onPublished() {
+        if (renderPending.compareAndSet(false, true)) {
+            renderRequests.incrementAndGet();
+            requestRender.run();
+        }
+    }
+
+    /**
+     * GL thread, at the start of a draw, before taking the newest frame. Frames
+     * published from here on request another draw.
+     */
+    public void onDrawStarted() {
+        renderPending.set(false);
+    }
+
+    /**
+     * GL thread: true if the frame taken for this draw should be uploaded and shown,
+     * false if it went stale waiting and the previous one stays on screen.
+     */
+    public boolean onDraw(long sensorTimestampNanos) {
+        if (late(sensorTimestampNanos)) return false;
+        presented.incrementAndGet();
+        return true;
+    }
+
+    public long deadlineNanos() {
+        return deadlineNanos;
+    }
+
+    /** Frames uploaded and drawn. */
+    public long presented() {
+        return presented.get();
+    }
+
+    /** Frames past the deadline, whether caught before publishing or before drawing. */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /** Draws requested; with render-on-demand, every draw the view makes beyond surface changes. */
+    public long renderRequests() {
+        return renderRequests.get();
+    }
+}
@@ -0,0 +1,165 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Repacks the three planes of a YUV_420_888 image into a contiguous NV21 buffer
+ * (full Y plane followed by interleaved V/U) without allocating per frame.
+ *
+ * Output buffers come from a small fixed pool of direct buffers sized for the
+ * current resolution; the pool is only reallocated when the resolution changes.
+ * Buffers are handed out round-robin, so a caller may keep up to {@code poolSize - 1}
+ * previously packed frames alive while packing the next one.
+ *
+ * Plane access only uses bulk copies, and the source buffers' position/limit are
+ * restored afterwards. The luma rows go buffer to buffer; each chroma row is read in
+ * bulk from both planes into scratch arrays, interleaved as V/U there and written
+ * with one bulk put. The scratch arrays only grow, like the pool, when a frame needs more.
+ */
+public class FramePacker {
+
+    private final ByteBuffer[] pool;
+    private byte[] uRow = new byte[0], vRow = new byte[0], vuRow = new byte[0];
+    private int poolWidth = 0, poolHeight = 0;
+    private int nextSlot = 0;
+    private int lastSlot = -1;
+    private long allocations = 0;
+
+    public FramePacker(int poolSize) {
+        if (poolSize < 1) throw new IllegalArgumentException("poolSize must be >= 1");
+        pool = new ByteBuffer[poolSize];
+    }
+
+    /** Size in bytes of an NV21 frame of the given (even) resolution. */
+    public static int nv21Size(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Packs one frame. The returned buffer is owned by the pool: it stays valid until
+     * it is handed out again, {@code poolSize} calls later.
+     *
+     * @return a direct buffer with position 0 and limit {@link #nv21Size}
+     */
+    public ByteBuffer pack(int width, int height,
+                           ByteBuffer yPlane, int yRowStride,
+                           ByteBuffer uPlane, ByteBuffer vPlane,
+                           int uvRowStride, int uvPixelStride) {
+        ByteBuffer out = obtain(width, height);
+        int ySize = width * height;
+
+        copyPlane(yPlane, yRowStride, width, height, out, 0);
+
+        copyChroma(uPlane, vPlane, uvRowStride, uvPixelStride, width / 2, height / 2, out, ySize);
+
+        out.position(0);
+        return out;
+    }
+
+    /** Pool slot of the buffer returned by the last {@link #pack} call, or -1. */
+    public int lastSlot() {
+        return lastSlot;
+    }
+
+    public int poolSize() {
+        return pool.length;
+    }
+
+    /** Number of pool buffers allocated so far; only grows on resolution changes. */
+    public long allocations() {
+        return allocations;
+    }
+
+    private ByteBuffer obtain(int width, int height) {
+        if (width != poolWidth || height != poolHeight) {
+            int size = nv21Size(width, height);
+            for (int i = 0; i < pool.length; i++) {
+                pool[i] = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+                allocations++;
+            }
+            poolWidth = width;
+            poolHeight = height;
+            nextSlot = 0;
+        }
+        lastSlot = nextSlot;
+        nextSlot = (nextSlot + 1) % pool.length;
+        ByteBuffer out = pool[lastSlot];
+        out.clear();
+        return out;
+    }
+
+    /**
+     * Interleaves the chroma planes into NV21's V/U rows. Each plane row is one bulk
+     * get of the bytes it spans, whatever the pixel stride, so semi-planar and planar
+     * layouts take the same path.
+     */
+    private void copyChroma(ByteBuffer u, ByteBuffer v, int rowStride, int pixelStride,
+                            int chromaWidth, int chromaHeight, ByteBuffer dst, int dstOffset) {
+        int span = (chromaWidth - 1) * pixelStride + 1;
+        int rowBytes = chromaWidth * 2;
+        if (uRow.length < span) {
+            uRow = new byte[span];
+            vRow = new byte[span];
+        }
+        if (vuRow.length < rowBytes) vuRow = new byte[rowBytes];
+        int uPosition = u.position(), uLimit = u.limit();
+        int vPosition = v.position(), vLimit = v.limit();
+        try {
+            u.limit(u.capacity());
+            v.limit(v.capacity());
+            for (int row = 0; row < chromaHeight; row++) {
+                u.position(row * rowStride);
+                u.get(uRow, 0, span);
+                v.position(row * rowStride);
+                v.get(vRow, 0, span);
+                for (int col = 0, src = 0; col < chromaWidth; col++, src += pixelStride) {
+                    vuRow[2 * col] = vRow[src];
+                    vuRow[2 * col + 1] = uRow[src];
+                }
+                dst.position(dstOffset + row * rowBytes);
+                dst.put(vuRow, 0, rowBytes);
+            }
+        } finally {
+            u.limit(uLimit);
+            u.position(uPosition);
+            v.limit(vLimit);
+            v.position(vPosition);
+        }
+    }
+
+    private static void copyPlane(ByteBuffer src, int rowStride, int width, int rows,
+                                  ByteBuffer dst, int dstOffset) {
+        copyPlane(src, rowStride, width, width, rows, dst, dstOffset);
+    }
+
+    /**
+     * Copies {@code rows} rows of {@code rowBytes} bytes into {@code dst}, writing one
+     * row every {@code dstRowBytes}. Rows that are tightly packed on both sides are
+     * copied with a single bulk put.
+     */
+    private static void copyPlane(ByteBuffer src, int rowStride, int rowBytes, int dstRowBytes,
+                                  int rows, ByteBuffer dst, int dstOffset) {
+        int srcPosition = src.position();
+        int srcLimit = src.limit();
+        try {
+            if (rowStride == rowBytes && dstRowBytes == rowBytes) {
+                src.limit(rowBytes * rows);
+                src.position(0);
+                dst.position(dstOffset);
+                dst.put(src);
+                return;
+            }
+            for (int row = 0; row < rows; row++) {
+                int start = row * rowStride;
+                src.limit(start + rowBytes);
+                src.position(start);
+                dst.position(dstOffset + row * dstRowBytes);
+                dst.put(src);
+            }
+        } finally {
+            src.limit(srcLimit);
+            src.position(srcPosition);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.wintershade.opencvandroid;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ordered chain of {@link FrameProcessor}s run over a single-channel frame.
+ *
+ * The stage list is compiled into an immutable {@link Program} whenever it changes.
+ * Each run of consecutive native stages becomes one segment whose op codes and
+ * parameters go to native code in a single call, so a chain of native filters
+ * crosses JNI once. {@link #setStages} may be called from any thread; the processing
+ * thread picks the new program up on its next {@link #current()}.
+ */
+public class FramePipeline {
+
+    public static final int MAX_STAGES = 16;
+    public static final int PARAMS_PER_STAGE = 4;
+
+    /**
+     * Runs fused native stages from the Mat at {@code srcAddr} into the Mat at
+     * {@code dstAddr}, writing each stage's duration in nanoseconds to {@code stageNanos}.
+     * The stages are {@code firstStage} onwards of the program {@code programId}, so
+     * state kept per stage across frames stays with its stage when Java stages split
+     * the program, and is dropped when the program changes.
+     */
+    public interface NativeRunner {
+        void runStages(long srcAddr, long dstAddr, int[] ops, float[] params, long[] stageNanos,
+                       int firstStage, int programId);
+    }
+
+    private final NativeRunner runner;
+    private volatile Program program = Program.EMPTY;
+
+    public FramePipeline(NativeRunner runner) {
+        this.runner = runner;
+    }
+
+    public void setStages(FrameProcessor... stages) {
+        program = new Program(stages.clone());
+    }
+
+    public void setStages(List<FrameProcessor> stages) {
+        program = new Program(stages.toArray(new FrameProcessor[0]));
+    }
+
+    /** The latest compiled program; keep using the returned one for the whole frame. */
+    public Program current() {
+        return program;
+    }
+
+    /** {@code size} after {@code levels} pyrDown steps, each halving it rounding up. */
+    public static int scaledSize(int size, int levels) {
+        for (int i = 0; i < levels; i++) size = (size + 1) / 2;
+        return size;
+    }
+
+    /**
+     * Runs {@code p} from {@code src} into {@code dst} (CV_8UC1, src's size at the
+     * program's {@link Program#pyramidLevel()}). Results between segments live in
+     * arena slots {@code scratchSlot} and {@code scratchSlot + 1}.
+     */
+    public void run(Program p, Mat src, Mat dst, MatArena arena, int scratchSlot) {
+        Segment[] segments = p.segments;
+        if (segments.length == 0) {
+            src.copyTo(dst);
+            return;
+        }
+        Mat in = src;
+        for (int i = 0; i < segments.length; i++) {
+            Segment s = segments[i];
+            Mat out = i == segments.length - 1
+                    ? dst
+                    : arena.obtain(scratchSlot + (i & 1), scaledSize(in.rows(), s.pyramidLevels),
+                            scaledSize(in.cols(), s.pyramidLevels), CvType.CV_8UC1);
+            if (s.isNative()) {
+                runner.runStages(in.getNativeObjAddr(), out.getNativeObjAddr(), s.ops, s.params, s.nanos,
+                        s.first, p.id);
+                if (s.nanos != p.lastNanos) {
+                    System.arraycopy(s.nanos, 0, p.lastNanos, s.first, s.nanos.length);
+                }
+            } else {
+                long start = System.nanoTime();
+                s.stage.process(in, out);
+                p.lastNanos[s.first] = System.nanoTime() - start;
+            }
+            in = out;
+        }
+        p.recordFrame();
+    }
+
+    /**
+     * A compiled stage list plus its running per-stage timings. Immutable apart from
+     * the thresholds of {@link FrameProcessor.NativeStage#autoThresholds} stages.
+     */
+    public static final class Program {
+
+        private static final int[] NO_OPS = new int[0];
+        private static final float[] NO_PARAMS = new float[0];
+        private static final AtomicInteger ids = new AtomicInteger();
+
+        public static final Program EMPTY = new Program(new FrameProcessor[0]);
+
+        private final int id = ids.incrementAndGet();
+        private final FrameProcessor[] stages;
+        private final Segment[] segments;
+        private final long[] lastNanos;
+        private final long[] totalNanos;
+        private final int pyramidLevel;
+        // Where auto-threshold stages keep their low threshold: params array and offset
+        private final float[][] autoParams;
+        private final int[] autoOffsets;
+        private long frames = 0;
+
+        Program(FrameProcessor[] stages) {
+            if (stages.length > MAX_STAGES) {
+                throw new IllegalArgumentException("at most " + MAX_STAGES + " stages, got " + stages.length);
+            }
+            this.stages = stages;
+            lastNanos = new long[stages.length];
+            totalNanos = new long[stages.length];
+
+            for (FrameProcessor stage : stages) {
+                if (!(stage instanceof FrameProcessor.NativeStage) && !(stage instanceof FrameProcessor.JavaStage)) {
+                    throw new IllegalArgumentException(stage.name() + " is neither a native nor a Java stage");
+                }
+            }
+
+            List<Segment> list = new ArrayList<>();
+            int i = 0;
+            while (i < stages.length) {
+                if (!(stages[i] instanceof FrameProcessor.NativeStage)) {
+                    list.add(new Segment(i, (FrameProcessor.JavaStage) stages[i]));
+                    i++;
+                    continue;
+                }
+                int end = i;
+                while (end < stages.length && stages[end] instanceof FrameProcessor.NativeStage) end++;
+                // A fully native program times straight into lastNanos
+                long[] nanos = end - i == stages.length ? lastNanos : new long[end - i];
+                list.add(new Segment(stages, i, end, nanos));
+                i = end;
+            }
+            segments = list.toArray(new Segment[0]);
+            List<float[]> autoArrays = new ArrayList<>();
+            List<Integer> offsets = new ArrayList<>();
+            for (Segment s : segments) {
+                if (!s.isNative()) continue;
+                for (int j = 0; j < s.ops.length; j++) {
+                    if (!((FrameProcessor.NativeStage) stages[s.first + j]).autoThresholds()) continue;
+                    autoArrays.add(s.params);
+                    offsets.add(j * PARAMS_PER_STAGE);
+                }
+            }
+            autoParams = autoArrays.toArray(new float[0][]);
+            autoOffsets = new int[offsets.size()];
+            for (int j = 0; j < autoOffsets.length; j++) autoOffsets[j] = offsets.get(j);
+            int levels = 0;
+            for (Segment s : segments) levels += s.pyramidLevels;
+            pyramidLevel = levels;
+        }
+
+        /** Unique per compiled program, for native code to tell when the program changed. */
+        public int id() {
+            return id;
+        }
+
+        /** Pyramid level the output is at: 0 for input size, 1 for half, and so on. */
+        public int pyramidLevel() {
+            return pyramidLevel;
+        }
+
+        /** Output width or height for an input {@code size}. */
+        public int outputSize(int size) {
+            return scaledSize(size, pyramidLevel);
+        }
+
+        public boolean isEmpty() {
+            return stages.length == 0;
+        }
+
+        /** True if a stage takes its thresholds from {@link #setAutoThresholds}. */
+        public boolean hasAutoThresholds() {
+            return autoOffsets.length > 0;
+        }
+
+        /**
+         * Thresholds of the {@link FrameProcessor.NativeStage#autoThresholds} stages from the next
+         * run on. Call from the thread that runs the program, between frames.
+         */
+        public void setAutoThresholds(float low, float high) {
+            for (int i = 0; i < autoOffsets.length; i++) {
+                autoParams[i][autoOffsets[i]] = low;
+                autoParams[i][autoOffsets[i] + 1] = high;
+            }
+        }
+
+        /** True if the whole program is one native call (or nothing at all). */
+        public boolean isFullyNative() {
+            return segments.length == 0 || (segments.length == 1 && segments[0].isNative());
+        }
+
+        /** Op codes of a {@link #isFullyNative() fully native} program. */
+        public int[] ops() {
+            return segments.length == 0 ? NO_OPS : segments[0].ops;
+        }
+
+        /** Parameters of a fully native program, {@link #PARAMS_PER_STAGE} per stage. */
+        public float[] params() {
+            return segments.length == 0 ? NO_PARAMS : segments[0].params;
+        }
+
+        /** Array a fully native program's native call writes stage timings to. */
+        public long[] stageNanos() {
+            return lastNanos;
+        }
+
+        /** Call after a fully native program ran outside {@link FramePipeline#run}. */
+        void recordFrame() {
+            for (int i = 0; i < lastNanos.length; i++) totalNanos[i] += lastNanos[i];
+            frames++;
+        }
+
+        public int stageCount() {
+            return stages.length;
+        }
+
+        /** Number of separate calls a frame takes: one per fused native run or Java stage. */
+        public int segmentCount() {
+            return segments.length;
+        }
+
+        public String stageName(int stage) {
+            return stages[stage].name();
+        }
+
+        public long lastStageNanos(int stage) {
+            return lastNanos[stage];
+        }
+
+        /** Sum of the last frame's stage times. */
+        public long lastFrameNanos() {
+            long sum = 0;
+            for (long nanos : lastNanos) sum += nanos;
+            return sum;
+        }
+
+        public long averageStageNanos(int stage) {
+            return frames == 0 ? 0 : totalNanos[stage] / frames;
+        }
+
+        public long frames() {
+            return frames;
+        }
+    }
+
+    private static final class Segment {
+        final int first;
+        final FrameProcessor.JavaStage stage; // null for a native run
+        final int[] ops;
+        final float[] params;
+        final long[] nanos;
+        final int pyramidLevels;
+
+        Segment(int first, FrameProcessor.JavaStage stage) {
+            this.first = first;
+            this.stage = stage;
+            ops = null;
+            params = null;
+            nanos = null;
+            pyramidLevels = stage.pyramidLevels();
+        }
+
+        Segment(FrameProcessor[] stages, int first, int end, long[] nanos) {
+            this.first = first;
+            this.stage = null;
+            this.nanos = nanos;
+            ops = new int[end - first];
+            params = new float[ops.length * PARAMS_PER_STAGE];
+            int levels = 0;
+            for (int i = 0; i < ops.length; i++) {
+                FrameProcessor.NativeStage stage = (FrameProcessor.NativeStage) stages[first + i];
+                ops[i] = stage.nativeOp();
+                stage.writeParams(params, i * PARAMS_PER_STAGE);
+                levels += stage.pyramidLevels();
+            }
+            pyramidLevels = levels;
+        }
+
+        boolean isNative() {
+            return ops != null;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.wintershade.opencvandroid;
+
+import org.opencv.core.Mat;
+
+/**
+ * One stage of the {@link FramePipeline}: single-channel 8-bit image in, single-channel
+ * 8-bit image out, the same size unless the stage {@link #pyramidLevels() downscales}.
+ *
+ * A stage is either a {@link NativeStage}, implemented in {@code opencvandroid.cpp}
+ * and described by an op code and parameters, or a {@link JavaStage} with its own
+ * {@link JavaStage#process}. Consecutive native stages are run in one JNI call.
+ */
+public interface FrameProcessor {
+
+    String name();
+
+    /**
+     * Number of Gaussian pyramid levels the stage goes down: its output is halved this
+     * many times, each rounding up like {@code pyrDown}. Later stages run at that size.
+     */
+    default int pyramidLevels() {
+        return 0;
+    }
+
+    /** Stage implemented in {@code applyStage} in {@code opencvandroid.cpp}. */
+    interface NativeStage extends FrameProcessor {
+
+        /** Op code understood by the native stage runner. */
+        int nativeOp();
+
+        /** Writes up to {@link FramePipeline#PARAMS_PER_STAGE} parameters for the native op. */
+        void writeParams(float[] params, int offset);
+
+        /**
+         * True if the stage's first two parameters are thresholds that
+         * {@link FramePipeline.Program#setAutoThresholds} overrides frame by frame.
+         */
+        default boolean autoThresholds() {
+            return false;
+        }
+    }
+
+    /** Stage run in Java through OpenCV's Java API, on the processing thread. */
+    interface JavaStage extends FrameProcessor {
+
+        void process(Mat src, Mat dst);
+    }
+}
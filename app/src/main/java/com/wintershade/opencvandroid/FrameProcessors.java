@@ -0,0 +1,142 @@
+package com.wintershade.opencvandroid;
+
+import java.util.Locale;
+
+/**
+ * Built-in {@link FrameProcessor.NativeStage}s. Op codes and parameter order must match
+ * {@code applyStage} in {@code opencvandroid.cpp}.
+ */
+public final class FrameProcessors {
+
+    static final int OP_GAUSSIAN_BLUR = 1; // ksize, sigma
+    static final int OP_SOBEL = 2;         // ksize
+    static final int OP_THRESHOLD = 3;     // value, otsu (0/1)
+    static final int OP_MORPHOLOGY = 4;    // morph op, ksize, iterations
+    static final int OP_CANNY = 5;         // low, high, aperture, change threshold (0: whole frame)
+    static final int OP_CONTOURS = 6;      // thickness
+    static final int OP_PYR_DOWN = 7;      // levels
+
+    /** Deepest level {@link #pyramidDown} goes to; the native side pools one buffer per level. */
+    public static final int MAX_PYRAMID_LEVELS = 4;
+
+    private FrameProcessors() {}
+
+    public static FrameProcessor canny(double low, double high) {
+        return new BuiltIn(String.format(Locale.US, "Canny(%.0f,%.0f)", low, high),
+                OP_CANNY, (float) low, (float) high, 3);
+    }
+
+    /**
+     * Canny whose thresholds are set per frame through
+     * {@link FramePipeline.Program#setAutoThresholds}, e.g. from a {@code CannyAutoTuner};
+     * 50/150 until then.
+     */
+    public static FrameProcessor autoCanny() {
+        return new BuiltIn("Canny(auto)", OP_CANNY, new float[]{50, 150, 3}, 0, true);
+    }
+
+    /**
+     * Canny that only recomputes the 32x32 tiles whose input changed since they were
+     * last computed, reusing the previous edges elsewhere. A tile counts as changed
+     * when its 4x4 block means moved by more than {@code changeThreshold} grey levels
+     * on average; a few levels above the sensor noise suits a static camera. CPU time
+     * then follows the amount of motion rather than the resolution.
+     */
+    public static FrameProcessor incrementalCanny(double low, double high, double changeThreshold) {
+        if (!(changeThreshold > 0)) throw new IllegalArgumentException("change threshold must be positive");
+        return new BuiltIn(String.format(Locale.US, "Canny(%.0f,%.0f, changed > %.1f)", low, high, changeThreshold),
+                OP_CANNY, (float) low, (float) high, 3, (float) changeThreshold);
+    }
+
+    /**
+     * Gaussian pyramid level {@code levels}: the frame halved that many times with
+     * {@code pyrDown}, so the stages after it cost roughly 4^-levels of full resolution.
+     * Edges found there are coarser but the blur also drops the noise Canny would
+     * otherwise trace; the renderer scales the result back up with texture filtering.
+     */
+    public static FrameProcessor pyramidDown(int levels) {
+        if (levels < 1 || levels > MAX_PYRAMID_LEVELS) {
+            throw new IllegalArgumentException("pyramid levels must be 1.." + MAX_PYRAMID_LEVELS + ", got " + levels);
+        }
+        return new BuiltIn("Pyramid(1/" + (1 << levels) + ")", OP_PYR_DOWN, new float[]{levels}, levels, false);
+    }
+
+    public static FrameProcessor gaussianBlur(int ksize, double sigma) {
+        return new BuiltIn("GaussianBlur(" + ksize + ")", OP_GAUSSIAN_BLUR, ksize, (float) sigma);
+    }
+
+    /** L1 gradient magnitude |dx| + |dy|, saturated to 8 bits. */
+    public static FrameProcessor sobel(int ksize) {
+        return new BuiltIn("Sobel(" + ksize + ")", OP_SOBEL, ksize);
+    }
+
+    public static FrameProcessor threshold(double value) {
+        return new BuiltIn(String.format(Locale.US, "Threshold(%.0f)", value), OP_THRESHOLD, (float) value, 0);
+    }
+
+    public static FrameProcessor otsuThreshold() {
+        return new BuiltIn("Threshold(Otsu)", OP_THRESHOLD, 0, 1);
+    }
+
+    /**
+     * @param morphOp one of OpenCV's {@code Imgproc.MORPH_*} operations (erode, dilate,
+     *                open, close, ...)
+     */
+    public static FrameProcessor morphology(int morphOp, int ksize, int iterations) {
+        return new BuiltIn("Morphology(" + morphOp + "," + ksize + ")", OP_MORPHOLOGY,
+                morphOp, ksize, iterations);
+    }
+
+    /** Outlines of the external contours of a binary image. */
+    public static FrameProcessor contours(int thickness) {
+        return new BuiltIn("Contours", OP_CONTOURS, thickness);
+    }
+
+    private static final class BuiltIn implements FrameProcessor.NativeStage {
+        private final String name;
+        private final int op;
+        private final float[] params;
+        private final int pyramidLevels;
+        private final boolean autoThresholds;
+
+        BuiltIn(String name, int op, float... params) {
+            this(name, op, params, 0, false);
+        }
+
+        BuiltIn(String name, int op, float[] params, int pyramidLevels, boolean autoThresholds) {
+            if (params.length > FramePipeline.PARAMS_PER_STAGE) {
+                throw new IllegalArgumentException("too many parameters for " + name);
+            }
+            this.name = name;
+            this.op = op;
+            this.params = params;
+            this.pyramidLevels = pyramidLevels;
+            this.autoThresholds = autoThresholds;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public int nativeOp() {
+            return op;
+        }
+
+        @Override
+        public void writeParams(float[] dst, int offset) {
+            System.arraycopy(params, 0, dst, offset, params.length);
+        }
+
+        @Override
+        public int pyramidLevels() {
+            return pyramidLevels;
+        }
+
+        @Override
+        public boolean autoThresholds() {
+            return autoThresholds;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.wintershade.opencvandroid;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records camera frames as they were delivered (raw Y, U and V plane bytes plus
+ * timestamp, size and strides) into a ring of fixed-size slots in a memory-mapped
+ * file. The newest frames overwrite the oldest.
+ *
+ * The file is sized and mapped once up front, so recording a frame is three bulk
+ * copies into the mapping and a few header writes: no locks, no allocation, no
+ * system calls; the kernel writes the pages back in the background. One thread
+ * records; {@link FrameRingReader} reads the file once recording has stopped.
+ *
+ * Layout (native byte order): a {@link #FILE_HEADER_BYTES} file header, then
+ * {@code slots} slots of {@link #SLOT_HEADER_BYTES} + {@code slotCapacity} bytes.
+ * A slot's sequence number is written last, so an interrupted write leaves it
+ * marked {@link #WRITING} rather than holding a torn frame.
+ */
+public class FrameRecorder implements Closeable {
+
+    static final int MAGIC = 0x52555659; // "YVUR"
+    static final int VERSION = 1;
+    static final int FILE_HEADER_BYTES = 64;
+    static final int SLOT_HEADER_BYTES = 64;
+
+    // File header fields
+    static final int H_MAGIC = 0, H_VERSION = 4, H_SLOTS = 8, H_CAPACITY = 12, H_WRITTEN = 16;
+    // Slot header fields
+    static final int S_SEQUENCE = 0, S_TIMESTAMP = 8, S_WIDTH = 16, S_HEIGHT = 20,
+            S_Y_STRIDE = 24, S_UV_STRIDE = 28, S_UV_PIXEL_STRIDE = 32,
+            S_Y_BYTES = 36, S_U_BYTES = 40, S_V_BYTES = 44;
+
+    /** Sequence of a slot whose write has not completed. */
+    static final long WRITING = -1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int slots;
+    private final int slotCapacity;
+    private long written = 0;
+    private long oversized = 0;
+
+    /**
+     * Creates (or truncates) {@code file} and maps all of it.
+     *
+     * @param slotCapacity payload bytes per slot; must hold all three planes of the
+     *                     largest frame that will be recorded
+     */
+    public FrameRecorder(File file, int slots, int slotCapacity) throws IOException {
+        if (slots < 1 || slotCapacity < 1) throw new IllegalArgumentException("empty ring");
+        long size = fileSize(slots, slotCapacity);
+        if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("ring of " + size + " bytes is too large to map");
+        this.slots = slots;
+        this.slotCapacity = slotCapacity;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        map.order(ByteOrder.nativeOrder());
+        map.putInt(H_MAGIC, MAGIC);
+        map.putInt(H_VERSION, VERSION);
+        map.putInt(H_SLOTS, slots);
+        map.putInt(H_CAPACITY, slotCapacity);
+        map.putLong(H_WRITTEN, 0);
+    }
+
+    public static long fileSize(int slots, int slotCapacity) {
+        return FILE_HEADER_BYTES + (long) slots * (SLOT_HEADER_BYTES + slotCapacity);
+    }
+
+    /**
+     * Records one frame's planes as handed out by {@code Image.getPlanes()}. The
+     * buffers' positions and limits are left as they were.
+     *
+     * @return false if the planes don't fit in a slot; the frame is counted in
+     * {@link #oversized()} and skipped
+     */
+    public boolean record(long timestampNanos, int width, int height,
+                          ByteBuffer y, int yRowStride,
+                          ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride) {
+        int yBytes = y.capacity(), uBytes = u.capacity(), vBytes = v.capacity();
+        if ((long) yBytes + uBytes + vBytes > slotCapacity) {
+            oversized++;
+            return false;
+        }
+        int slot = (int) (written % slots);
+        int base = FILE_HEADER_BYTES + slot * (SLOT_HEADER_BYTES + slotCapacity);
+        map.putLong(base + S_SEQUENCE, WRITING);
+        map.putLong(base + S_TIMESTAMP, timestampNanos);
+        map.putInt(base + S_WIDTH, width);
+        map.putInt(base + S_HEIGHT, height);
+        map.putInt(base + S_Y_STRIDE, yRowStride);
+        map.putInt(base + S_UV_STRIDE, uvRowStride);
+        map.putInt(base + S_UV_PIXEL_STRIDE, uvPixelStride);
+        map.putInt(base + S_Y_BYTES, yBytes);
+        map.putInt(base + S_U_BYTES, uBytes);
+        map.putInt(base + S_V_BYTES, vBytes);
+        int offset = base + SLOT_HEADER_BYTES;
+        copy(y, offset);
+        copy(u, offset + yBytes);
+        copy(v, offset + yBytes + uBytes);
+        written++;
+        map.putLong(base + S_SEQUENCE, written);
+        map.putLong(H_WRITTEN, written);
+        return true;
+    }
+
+    private void copy(ByteBuffer src, int offset) {
+        int position = src.position();
+        int limit = src.limit();
+        src.limit(src.capacity());
+        src.position(0);
+        map.position(offset);
+        map.put(src);
+        src.limit(limit);
+        src.position(position);
+    }
+
+    /** Frames recorded so far, including ones the ring has since overwritten. */
+    public long framesWritten() {
+        return written;
+    }
+
+    /** Frames skipped because they didn't fit in a slot. */
+    public long oversized() {
+        return oversized;
+    }
+
+    public int slots() {
+        return slots;
+    }
+
+    /** Flushes the mapping to the file and closes it. */
+    @Override
+    public void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,100 @@
+package com.wintershade.opencvandroid;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds the frames of a {@link FrameRingReader} to a sink on its own thread, either
+ * paced by their recorded timestamps or as fast as the sink accepts them.
+ */
+public class FrameReplayer {
+
+    public interface Sink {
+        /**
+         * Called on the replay thread for each frame, in recording order. May block
+         * to apply backpressure.
+         */
+        void onFrame(FrameRingReader.Frame frame) throws InterruptedException;
+    }
+
+    private final FrameRingReader reader;
+    private final boolean originalSpeed;
+    private final boolean loop;
+    private final Sink sink;
+    private Thread thread;
+    private volatile long replayed = 0;
+
+    /**
+     * @param originalSpeed keep the recorded spacing between frames; otherwise replay
+     *                      as fast as {@code sink} returns
+     * @param loop          start over after the last frame until {@link #stop()}ped
+     */
+    public FrameReplayer(FrameRingReader reader, boolean originalSpeed, boolean loop, Sink sink) {
+        this.reader = reader;
+        this.originalSpeed = originalSpeed;
+        this.loop = loop;
+        this.sink = sink;
+    }
+
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(() -> {
+            try {
+                replay();
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }, "FrameReplayer");
+        thread.start();
+    }
+
+    /** Stops the replay thread and waits for it to finish. */
+    public synchronized void stop() {
+        if (thread == null) return;
+        thread.interrupt();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        thread = null;
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /** Replays on the calling thread; returns when done (never, if looping). */
+    public void replay() throws InterruptedException {
+        int count = reader.frameCount();
+        if (count == 0) return;
+        do {
+            long firstTimestamp = reader.frame(0).timestampNanos;
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                FrameRingReader.Frame frame = reader.frame(i);
+                if (originalSpeed) waitUntil(start + frame.timestampNanos - firstTimestamp);
+                sink.onFrame(frame);
+                replayed++;
+            }
+        } while (loop);
+    }
+
+    private static void waitUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    /** Frames handed to the sink so far. */
+    public long replayed() {
+        return replayed;
+    }
+
+    public boolean isRunning() {
+        Thread t = thread;
+        return t != null && t.isAlive();
+    }
+}
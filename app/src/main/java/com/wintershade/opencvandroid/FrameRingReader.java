@@ -0,0 +1,115 @@
+package com.wintershade.opencvandroid;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static com.wintershade.opencvandroid.FrameRecorder.*;
+
+/**
+ * Reads a ring file written by {@link FrameRecorder}, oldest frame first. Plane
+ * buffers are read-only views into the mapped file, so nothing is copied until
+ * the frames are repacked.
+ */
+public class FrameRingReader implements Closeable {
+
+    /** One recorded frame, in the shape {@code Image.getPlanes()} handed it out. */
+    public static final class Frame {
+        public final long sequence;
+        public final long timestampNanos;
+        public final int width, height;
+        public final ByteBuffer y, u, v;
+        public final int yRowStride, uvRowStride, uvPixelStride;
+
+        Frame(long sequence, long timestampNanos, int width, int height,
+              ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride) {
+            this.sequence = sequence;
+            this.timestampNanos = timestampNanos;
+            this.width = width;
+            this.height = height;
+            this.y = y;
+            this.u = u;
+            this.v = v;
+            this.yRowStride = yRowStride;
+            this.uvRowStride = uvRowStride;
+            this.uvPixelStride = uvPixelStride;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Frame[] frames;
+
+    public FrameRingReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.nativeOrder());
+            frames = readFrames(map, file);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Frame[] readFrames(ByteBuffer map, File file) throws IOException {
+        if (map.capacity() < FILE_HEADER_BYTES || map.getInt(H_MAGIC) != MAGIC) {
+            throw new IOException(file + " is not a frame ring file");
+        }
+        if (map.getInt(H_VERSION) != VERSION) {
+            throw new IOException(file + ": unsupported version " + map.getInt(H_VERSION));
+        }
+        int slots = map.getInt(H_SLOTS);
+        int capacity = map.getInt(H_CAPACITY);
+        if (map.capacity() < FrameRecorder.fileSize(slots, capacity)) {
+            throw new IOException(file + " is truncated");
+        }
+
+        Frame[] found = new Frame[slots];
+        int count = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            int base = FILE_HEADER_BYTES + slot * (SLOT_HEADER_BYTES + capacity);
+            long sequence = map.getLong(base + S_SEQUENCE);
+            if (sequence <= 0) continue; // never written, or the write was interrupted
+            int yBytes = map.getInt(base + S_Y_BYTES);
+            int uBytes = map.getInt(base + S_U_BYTES);
+            int vBytes = map.getInt(base + S_V_BYTES);
+            if (yBytes < 0 || uBytes < 0 || vBytes < 0 || (long) yBytes + uBytes + vBytes > capacity) continue;
+            int offset = base + SLOT_HEADER_BYTES;
+            found[count++] = new Frame(sequence, map.getLong(base + S_TIMESTAMP),
+                    map.getInt(base + S_WIDTH), map.getInt(base + S_HEIGHT),
+                    view(map, offset, yBytes), map.getInt(base + S_Y_STRIDE),
+                    view(map, offset + yBytes, uBytes), view(map, offset + yBytes + uBytes, vBytes),
+                    map.getInt(base + S_UV_STRIDE), map.getInt(base + S_UV_PIXEL_STRIDE));
+        }
+        Frame[] ordered = Arrays.copyOf(found, count);
+        Arrays.sort(ordered, (a, b) -> Long.compare(a.sequence, b.sequence));
+        return ordered;
+    }
+
+    private static ByteBuffer view(ByteBuffer map, int offset, int length) {
+        ByteBuffer view = map.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice().asReadOnlyBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    public int frameCount() {
+        return frames.length;
+    }
+
+    /** The {@code index}-th oldest frame still in the ring. */
+    public Frame frame(int index) {
+        return frames[index];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
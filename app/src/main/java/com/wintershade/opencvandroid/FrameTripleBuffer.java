@@ -0,0 +1,129 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free single-producer/single-consumer handoff of whole frames.
+ *
+ * Three preallocated direct buffers rotate between a writer slot, a ready slot and a
+ * reader slot. The producer fills its slot in place and {@link #publish}es it, which
+ * swaps it with the ready slot; the consumer {@link #acquireLatest}s, which swaps its
+ * slot with the ready one if a newer frame is there. Each side only ever touches the
+ * slot it owns, so a frame can't be torn and neither side waits for the other. Frames
+ * the consumer didn't get to in time are overwritten.
+ *
+ * A producer that fills buffers of its own can {@link #publish(ByteBuffer, int, int, int, long)
+ * exchange} them instead: the filled buffer becomes the ready frame and the producer
+ * takes the slot's previous buffer in return, so nothing is copied.
+ */
+public class FrameTripleBuffer {
+
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;
+
+    private final ByteBuffer[] slots = new ByteBuffer[3];
+    private final int[] widths = new int[3];
+    private final int[] heights = new int[3];
+    private final int[] formats = new int[3];
+    private final long[] timestamps = new long[3];
+
+    // Ready slot index, plus FRESH while it holds a frame the reader hasn't taken.
+    private final AtomicInteger ready = new AtomicInteger(2);
+    private int writeSlot = 0; // producer-owned
+    private int readSlot = 1;  // consumer-owned
+
+    /**
+     * Producer: returns the writer slot, cleared and sized to {@code capacity} bytes.
+     * The slot is only reallocated when the capacity changes.
+     */
+    public ByteBuffer beginWrite(int capacity) {
+        ByteBuffer buffer = slots[writeSlot];
+        if (buffer == null || buffer.capacity() != capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+            slots[writeSlot] = buffer;
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /** Producer: index (0..2) of the slot returned by the last {@link #beginWrite}. */
+    public int writeIndex() {
+        return writeSlot;
+    }
+
+    /** Producer: makes the writer slot the newest complete frame. */
+    public void publish(int width, int height) {
+        publish(width, height, 0);
+    }
+
+    /**
+     * Producer: as {@link #publish(int, int)}, tagging the frame with a
+     * caller-defined pixel layout the consumer reads back via {@link #readFormat()}.
+     */
+    public void publish(int width, int height, int format) {
+        publish(width, height, format, 0);
+    }
+
+    /**
+     * Producer: as {@link #publish(int, int, int)}, also passing along the frame's
+     * capture timestamp for {@link #readTimestamp()}.
+     */
+    public void publish(int width, int height, int format, long timestampNanos) {
+        widths[writeSlot] = width;
+        heights[writeSlot] = height;
+        formats[writeSlot] = format;
+        timestamps[writeSlot] = timestampNanos;
+        writeSlot = ready.getAndSet(writeSlot | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Producer: publishes {@code filled} as the newest frame in place of the writer
+     * slot's buffer, without copying it. The producer gives {@code filled} up and gets
+     * the buffer of its next writer slot back, null while fewer than three buffers have
+     * gone round; it owns that one until it passes it to this method again.
+     */
+    public ByteBuffer publish(ByteBuffer filled, int width, int height, int format, long timestampNanos) {
+        filled.clear();
+        slots[writeSlot] = filled;
+        publish(width, height, format, timestampNanos);
+        ByteBuffer next = slots[writeSlot];
+        slots[writeSlot] = null;
+        return next;
+    }
+
+    /**
+     * Consumer: takes the newest published frame if there is one the consumer hasn't
+     * seen yet. The frame stays readable until the next successful call.
+     *
+     * @return true if {@link #readBuffer()} now holds a new frame
+     */
+    public boolean acquireLatest() {
+        if ((ready.get() & FRESH) == 0) return false;
+        readSlot = ready.getAndSet(readSlot) & INDEX_MASK;
+        return true;
+    }
+
+    /** Consumer: the frame taken by the last successful {@link #acquireLatest}. */
+    public ByteBuffer readBuffer() {
+        return slots[readSlot];
+    }
+
+    public int readWidth() {
+        return widths[readSlot];
+    }
+
+    public int readHeight() {
+        return heights[readSlot];
+    }
+
+    public int readFormat() {
+        return formats[readSlot];
+    }
+
+    /** Consumer: capture timestamp the frame was published with, 0 if none. */
+    public long readTimestamp() {
+        return timestamps[readSlot];
+    }
+}
@@ -0,0 +1,49 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.Buffer;
+
+/**
+ * The slice of OpenGL ES the renderer's upload and shader code calls, so that logic
+ * can run against a stand-in on a plain JVM. {@link AndroidGles} forwards to
+ * {@code GLES20}/{@code GLES30}.
+ */
+public interface GlesApi {
+
+    String glGetString(int name);
+
+    void glBindTexture(int target, int texture);
+
+    void glTexImage2D(int target, int level, int internalFormat, int width, int height,
+                      int border, int format, int type, Buffer pixels);
+
+    void glTexSubImage2D(int target, int level, int xOffset, int yOffset, int width, int height,
+                         int format, int type, Buffer pixels);
+
+    void glPixelStorei(int name, int value);
+
+    void glUseProgram(int program);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glUniform1i(int location, int value);
+
+    void glUniform4f(int location, float x, float y, float z, float w);
+
+    // ES 3.0 only
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    Buffer glMapBufferRange(int target, int offset, int length, int access);
+
+    boolean glUnmapBuffer(int target);
+
+    /** glTexSubImage2D sourcing pixels from the bound pixel unpack buffer at {@code offset}. */
+    void glTexSubImage2D(int target, int level, int xOffset, int yOffset, int width, int height,
+                         int format, int type, int offset);
+}
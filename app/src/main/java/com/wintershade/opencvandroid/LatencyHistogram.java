@@ -0,0 +1,97 @@
+package com.wintershade.opencvandroid;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size log-linear histogram of nanosecond durations, in the style of
+ * HdrHistogram: every power of two is split into {@link #SUB_BUCKETS} linear
+ * buckets, so any recorded value is known to within about 3% from 1 ns up to
+ * about 18 minutes.
+ *
+ * Recording is a single atomic increment and never allocates, so it can run on
+ * every frame from any number of threads while another thread reads percentiles
+ * or {@link #drainInto drains} the counts.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40; // 2^40 ns, about 18 minutes
+    static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+            // retry
+        }
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int mantissa = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + mantissa;
+    }
+
+    /** Largest value that lands in {@code bucket}. */
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        long mantissa = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + mantissa + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += counts.get(i);
+        return total;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Value at quantile {@code q} (0..1): the upper bound of the bucket holding it,
+     * capped at the recorded maximum. 0 when empty.
+     */
+    public long percentile(double q) {
+        long total = count();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(bucketUpperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Moves all counts into {@code target}, leaving this histogram empty. A value
+     * recorded concurrently ends up in exactly one of the two.
+     */
+    public void drainInto(LatencyHistogram target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.getAndSet(i, 0);
+            if (c != 0) target.counts.addAndGet(i, c);
+        }
+        long m = max.getAndSet(0);
+        long t;
+        while (m > (t = target.max.get()) && !target.max.compareAndSet(t, m)) {
+            // retry
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        max.set(0);
+    }
+}
@@ -5,7 +5,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.ImageFormat;
-import android.graphics.SurfaceTexture;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.Image.Plane;
@@ -13,7 +12,10 @@ import android.media.ImageReader;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.view.Surface;
 import android.view.View;
@@ -34,16 +36,52 @@ import org.opencv.imgproc.Imgproc;
 
 import android.hardware.camera2.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 
 public class MainActivity extends Activity {
     private static final String TAG = "MainActivity";
     private static final int REQUEST_CAMERA_PERMISSION = 200;
     private static final int PREVIEW_WIDTH = 1280;
     private static final int PREVIEW_HEIGHT = 720;
+    // Quality governor: 30 fps budget for the vision stage, up to 1080p, down to 1 in 3 frames
+    private static final long FRAME_BUDGET_NANOS = 33_000_000L;
+    private static final long MAX_STREAM_PIXELS = 1920 * 1080;
+    private static final int MAX_FRAME_SKIP = 3;
+    // Frames not on screen within 100 ms (3 frames at 30 fps) of capture are dropped instead
+    private static final long PRESENT_DEADLINE_NANOS = 100_000_000L;
+    // Frame rate the camera has to stream at; sizes and exposure are picked to hold it
+    private static final int TARGET_FPS = 30;
+    private static final long OVERLAY_REFRESH_MS = 500;
+    // Raw frame recording: the last 2 s at 30 fps; slots hold a 1080p frame with padded rows
+    private static final String RECORDING_FILE = "frames.yuvring";
+    private static final int RECORD_SLOTS = 60;
+    private static final int RECORD_SLOT_CAPACITY = 2 * 2048 * 1080;
+    // Web viewer: ws://<address>:EDGE_STREAM_PORT/?token=<logged token>
+    private static final int EDGE_STREAM_PORT = 8765;
+    // Grey levels of mean block change before a tile's edges are recomputed
+    private static final double CHANGE_THRESHOLD = 4.0;
+    // Pyramid level the "Canny 1/2" preset finds edges at; the GPU scales them back up
+    private static final int PYRAMID_LEVEL = 1;
+    // Edge statistics: density per cell of a 4x4 grid, contours from 8 pixels up
+    private static final int FEATURE_GRID = 4;
+    private static final int MIN_CONTOUR_PIXELS = 8;
+    // Intent extra (boolean): start without the display, for deployments that only
+    // consume the edge features and the edge stream
+    public static final String EXTRA_HEADLESS = "headless";
+    // Intent extras (boolean): serve the edge stream, on loopback only (reach it through
+    // adb forward) unless the LAN one is set too
+    public static final String EXTRA_EDGE_STREAM = "edgeStream";
+    public static final String EXTRA_EDGE_STREAM_LAN = "edgeStreamLan";
 
     static {
         // Make sure OpenCV is initialized early
@@ -56,6 +94,7 @@ public class MainActivity extends Activity {
 
     private MyGLSurfaceView glSurfaceView;
     private MyGLRenderer glRenderer;
+    private FramePacer framePacer; // publish stage and GL thread
     private CameraManager cameraManager;
     private CameraDevice cameraDevice;
     private CameraCaptureSession previewSession;
@@ -64,16 +103,205 @@ public class MainActivity extends Activity {
     private HandlerThread backgroundThread;
 
     private ImageReader imageReader;
-    private boolean showCanny = true;
+    private CameraConfigurator.Config cameraConfig;
+    // Set per camera in openCamera; the stream size follows its level
+    private volatile QualityGovernor governor;
+    private int streamWidth, streamHeight; // camera thread
+    private boolean showFilters = true;
+    // Run Canny on the Y plane (through VideoRangeLuma) instead of converting to RGBA and back to gray
+    private boolean lumaDirect = true;
+    // Upload Y + VU and convert in the fragment shader instead of cvtColor on the CPU
+    private boolean gpuConversion = false;
+    // Render frames at all; without it nothing is converted for or uploaded to the screen
+    private volatile boolean display = true;
+
+    // Camera frames go through two stages on their own threads: vision -> publish. The
+    // vision stage reads the Image's planes in place and writes its output buffer, which
+    // the publish stage trades for a free one with the renderer. A frame can be queued and
+    // one in work per stage, plus the Images the ImageReader holds.
+    private static final int FRAMES_IN_FLIGHT = 6;
+    private static final int MAX_IMAGES = 4;
+    private final ArrayBlockingQueue<PipelineFrame> freeFrames = new ArrayBlockingQueue<>(FRAMES_IN_FLIGHT);
+    private final StagedExecutor<PipelineFrame> cameraPipeline;
+
+    // Per-frame Mats, kept across frames; the yuv and luma slots wrap each pipeline frame's own NV21
+    private static final int MAT_GRAY = 0;
+    private static final int MAT_RGBA = 1; // one per pipeline frame
+    private static final int MAT_YUV = MAT_RGBA + FRAMES_IN_FLIGHT;
+    private static final int MAT_LUMA = MAT_YUV + FRAMES_IN_FLIGHT;
+    private static final int MAT_EDGES = MAT_LUMA + FRAMES_IN_FLIGHT;
+    private static final int MAT_COLOR = MAT_EDGES + 1; // RGBA on the way to gray when filtering
+    private static final int MAT_LUMA_TABLE = MAT_COLOR + 1; // wraps lumaTable
+    private static final int MAT_STAGES = MAT_LUMA_TABLE + 1; // two scratch Mats between stages
+    private final MatArena matArena = new MatArena(MAT_STAGES + 2);
+    private final ByteBuffer lumaTable = VideoRangeLuma.newTable();
+    private ByteBuffer edgeMask; // byte mask behind MAT_EDGES, packed into the frame's EdgeFrame
+
+    // Filter chains the toggle button's long press cycles through
+    private static final String[] PIPELINE_NAMES = {"Canny auto", "Canny", "Canny 1/" + (1 << PYRAMID_LEVEL),
+            "Changed tiles", "Blur + Canny", "Sobel", "Contours"};
+    private static final FrameProcessor[][] PIPELINE_PRESETS = {
+            {FrameProcessors.autoCanny()},
+            {FrameProcessors.canny(50, 150)},
+            {FrameProcessors.pyramidDown(PYRAMID_LEVEL), FrameProcessors.canny(50, 150)},
+            {FrameProcessors.incrementalCanny(50, 150, CHANGE_THRESHOLD)},
+            {FrameProcessors.gaussianBlur(5, 1.5), FrameProcessors.canny(30, 90)},
+            {FrameProcessors.sobel(3), FrameProcessors.otsuThreshold()},
+            {FrameProcessors.gaussianBlur(5, 0), FrameProcessors.otsuThreshold(),
+                    FrameProcessors.morphology(Imgproc.MORPH_OPEN, 3, 1), FrameProcessors.contours(2)}
+    };
+    private int pipelinePreset = 0;
+    // Leave cores for the other pipeline stages and the render thread
+    private static final int CANNY_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 2));
+    // Swapped from the UI thread, read by the vision stage once per frame
+    private final FramePipeline pipeline = new FramePipeline(MainActivity::RunStages);
+    // Thresholds for "Canny auto" from the Y plane; vision stage, read by the overlay
+    private final CannyAutoTuner cannyTuner = new CannyAutoTuner(CannyAutoTuner.Rule.MEDIAN);
+
+    // Stage latencies and frame rates; the overlay drains it every OVERLAY_REFRESH_MS
+    private final FrameMetrics frameMetrics = new FrameMetrics();
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+    // Recorder is opened, used and closed on the camera thread; replay replaces the camera
+    private volatile FrameRecorder recorder;
+    private boolean recording; // UI thread's view of it
+    private volatile FrameReplayer replayer; // started and stopped on the UI thread
+    private FrameRingReader replayReader;
+    private boolean replayOriginalSpeed;
+    // Started and stopped on the UI thread, fed by the publish stage; null unless asked for
+    private volatile EdgeStreamServer edgeStream;
+    private final String edgeStreamToken = EdgeStreamServer.newToken(); // one per activity
+    private final EdgeFrame streamEdges = new EdgeFrame(); // publish stage only
+    // Same lifecycle, fed by the publish stage; the overlay is one of its subscribers
+    private volatile EdgeFeatureStream featureStream;
+    private final EdgeFeatures overlayFeatures = new EdgeFeatures(); // guarded by itself
+    private final EdgeFeatureStream.Subscriber overlaySubscriber = features -> {
+        synchronized (overlayFeatures) {
+            overlayFeatures.copyFrom(features);
+        }
+    };
+    private final Runnable overlayRefresh = new Runnable() {
+        @Override
+        public void run() {
+            updateOverlay(frameMetrics.snapshot(), edgeStream);
+            uiHandler.postDelayed(this, OVERLAY_REFRESH_MS);
+        }
+    };
+
+    /** Per-frame state handed from stage to stage; pooled in {@link #freeFrames}. */
+    private static final class PipelineFrame {
+        final int index;
+        Image image; // open until the vision stage is done with it
+        int width, height;
+        // Planes of the Image or recorded frame, read in place
+        ByteBuffer y, u, v;
+        int yRowStride, uvRowStride, uvPixelStride;
+        ByteBuffer nv21; // tight copy of the planes, only for chains with Java stages
+        // RGBA, an EdgeFrame, or NV21 + edge mask with GPU conversion; traded with the
+        // renderer's triple buffer on publish, so it is a different buffer from frame to frame
+        ByteBuffer out;
+        int format;
+        // Pyramid level and size of the RGBA image or the edges; level 0 is width x height
+        int outLevel, outWidth, outHeight;
+        boolean edges; // out holds filter output rather than the plain image
+        boolean shown; // out goes to the renderer; false while the display is off
+        final EdgeFeatures features = new EdgeFeatures();
+        boolean hasFeatures; // features were extracted from this frame's edges
+        long sensorTimestamp; // Image.getTimestamp()
+        FrameRingReader.Frame recorded; // replayed instead of an Image
+
+        private ByteBuffer ownNv21;
+
+        PipelineFrame(int index) {
+            this.index = index;
+        }
+
+        /** This frame's own tight NV21 buffer, reallocated only when the size changes. */
+        ByteBuffer ownNv21(int width, int height) {
+            int size = FramePacker.nv21Size(width, height);
+            if (ownNv21 == null || ownNv21.capacity() != size) {
+                ownNv21 = ByteBuffer.allocateDirect(size);
+            }
+            return ownNv21;
+        }
+
+        ByteBuffer output(int size) {
+            if (out == null || out.capacity() != size) {
+                out = ByteBuffer.allocateDirect(size);
+            }
+            out.clear();
+            return out;
+        }
+
+        /** Releases the frame's source, camera Image or recorded frame. */
+        void closeImage() {
+            if (image != null) {
+                image.close();
+                image = null;
+            }
+            recorded = null;
+            y = u = v = null;
+        }
+    }
 
     private TextView fpsText;
     private Button toggleButton;
+    private Button lumaButton;
+    private Button renderButton;
+    private Button recordButton;
 
     // native binding
     static {
         System.loadLibrary("app"); // C++ native lib
     }
-    public native void FindFeatures(long matGrayAddr, long matRgbaAddr);
+    public static native void RunStages(long matSrcAddr, long matDstAddr,
+                                        int[] ops, float[] params, long[] stageNanos,
+                                        int firstStage, int programId);
+    // Canny runs in this many horizontal bands in parallel; 1 = plain cv::Canny
+    public static native void SetCannyThreads(int threads);
+    // out[0] = tiles recomputed, out[1] = tiles seen by change-threshold Canny stages
+    public static native void GetCannyTileStats(long[] out);
+    // out[0] = native Mat allocations, out[1] = reuses
+    public static native void GetNativeArenaStats(long[] out);
+    public static native void ProcessYuvPlanes(ByteBuffer y, int yRowStride,
+                                               ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                                               int width, int height,
+                                               int[] ops, float[] params, long[] stageNanos, int programId,
+                                               boolean lumaDirect, ByteBuffer out, ByteBuffer features);
+    // EdgeFeatures from an EdgeFrame at offset, or from a byte mask with packed false;
+    // IllegalArgumentException if edges doesn't hold that much past offset
+    public static native void ExtractEdgeFeatures(ByteBuffer edges, int offset, boolean packed,
+                                                  int width, int height, ByteBuffer features);
+    public static native void PackNv21Frame(ByteBuffer y, int yRowStride,
+                                            ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                                            int width, int height,
+                                            int[] ops, float[] params, long[] stageNanos, int programId,
+                                            ByteBuffer out);
+
+    public MainActivity() {
+        cameraPipeline = new StagedExecutor<>("CameraPipeline", 1,
+                new StagedExecutor.FrameSink<PipelineFrame>() {
+                    @Override
+                    public void onCompleted(PipelineFrame frame) {
+                        freeFrames.offer(frame);
+                    }
+
+                    @Override
+                    public void onDropped(PipelineFrame frame, Throwable error) {
+                        if (error != null) Log.e(TAG, "frame processing failed", error);
+                        frame.closeImage();
+                        freeFrames.offer(frame);
+                    }
+                },
+                this::visionStage, this::publishStage);
+        for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+            PipelineFrame frame = new PipelineFrame(i);
+            frame.features.setGrid(FEATURE_GRID, FEATURE_GRID);
+            frame.features.setMinContourPixels(MIN_CONTOUR_PIXELS);
+            freeFrames.add(frame);
+        }
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -85,13 +313,18 @@ public class MainActivity extends Activity {
         // 1. GL Surface
         glSurfaceView = new MyGLSurfaceView(this);
         glRenderer = glSurfaceView.getRenderer();
+        glRenderer.setFrameMetrics(frameMetrics);
+        framePacer = new FramePacer(PRESENT_DEADLINE_NANOS, glSurfaceView::requestRender);
+        glRenderer.setPacer(framePacer);
         content.addView(glSurfaceView);
+        display = !getIntent().getBooleanExtra(EXTRA_HEADLESS, false);
+        glSurfaceView.setVisibility(display ? View.VISIBLE : View.GONE);
 
         // 2. FPS Text (bottom-right)
         fpsText = new TextView(this);
         fpsText.setText("FPS: --");
         fpsText.setTextColor(0xFFFFFFFF);
-        fpsText.setTextSize(18f);
+        fpsText.setTextSize(12f);
         fpsText.setPadding(8,8,8,8);
         fpsText.setBackgroundColor(0x80000000);
         FrameLayout.LayoutParams fpsLp = new FrameLayout.LayoutParams(
@@ -104,7 +337,9 @@ public class MainActivity extends Activity {
 
         // 3. Toggle button (bottom-center)
         toggleButton = new Button(this);
-        toggleButton.setText("Toggle Canny");
+        SetCannyThreads(CANNY_THREADS);
+        pipeline.setStages(PIPELINE_PRESETS[pipelinePreset]);
+        toggleButton.setText(PIPELINE_NAMES[pipelinePreset]);
         toggleButton.setBackgroundTintList(android.content.res.ColorStateList.valueOf(0xFF4CAF50));
         toggleButton.setTextColor(0xFFFFFFFF);
         FrameLayout.LayoutParams btnLp = new FrameLayout.LayoutParams(
@@ -115,20 +350,114 @@ public class MainActivity extends Activity {
         btnLp.setMargins(0,0,0,32); // bottom margin
         content.addView(toggleButton, btnLp);
 
-        toggleButton.setOnClickListener(v -> showCanny = !showCanny);
+        toggleButton.setOnClickListener(v -> showFilters = !showFilters);
+        // Long press swaps the filter chain; the camera session keeps running
+        toggleButton.setOnLongClickListener(v -> {
+            logPipelineStats();
+            pipelinePreset = (pipelinePreset + 1) % PIPELINE_PRESETS.length;
+            pipeline.setStages(PIPELINE_PRESETS[pipelinePreset]);
+            toggleButton.setText(PIPELINE_NAMES[pipelinePreset]);
+            showFilters = true;
+            return true;
+        });
+
+        // 4. Edge source button (bottom-start)
+        lumaButton = new Button(this);
+        lumaButton.setText(lumaDirect ? "Edges: Luma" : "Edges: RGBA");
+        lumaButton.setBackgroundTintList(android.content.res.ColorStateList.valueOf(0xFF607D8B));
+        lumaButton.setTextColor(0xFFFFFFFF);
+        FrameLayout.LayoutParams lumaLp = new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.WRAP_CONTENT,
+                FrameLayout.LayoutParams.WRAP_CONTENT
+        );
+        lumaLp.gravity = android.view.Gravity.BOTTOM | android.view.Gravity.START;
+        lumaLp.setMargins(16,0,0,32); // start, bottom margin
+        content.addView(lumaButton, lumaLp);
+
+        lumaButton.setOnClickListener(v -> {
+            lumaDirect = !lumaDirect;
+            lumaButton.setText(lumaDirect ? "Edges: Luma" : "Edges: RGBA");
+        });
+
+        // 5. Colour conversion button (top-end)
+        renderButton = new Button(this);
+        renderButton.setText(renderLabel());
+        renderButton.setBackgroundTintList(android.content.res.ColorStateList.valueOf(0xFF607D8B));
+        renderButton.setTextColor(0xFFFFFFFF);
+        FrameLayout.LayoutParams renderLp = new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.WRAP_CONTENT,
+                FrameLayout.LayoutParams.WRAP_CONTENT
+        );
+        renderLp.gravity = android.view.Gravity.TOP | android.view.Gravity.END;
+        renderLp.setMargins(0,16,16,0); // top, end margin
+        content.addView(renderButton, renderLp);
+
+        renderButton.setOnClickListener(v -> {
+            gpuConversion = !gpuConversion;
+            renderButton.setText(renderLabel());
+        });
+        // Long press turns the display off and on; features and the edge stream keep going
+        renderButton.setOnLongClickListener(v -> {
+            display = !display;
+            glSurfaceView.setVisibility(display ? View.VISIBLE : View.GONE);
+            renderButton.setText(renderLabel());
+            return true;
+        });
+
+        // 6. Record / replay button (top-start)
+        recordButton = new Button(this);
+        recordButton.setText("Rec: off");
+        recordButton.setBackgroundTintList(android.content.res.ColorStateList.valueOf(0xFF607D8B));
+        recordButton.setTextColor(0xFFFFFFFF);
+        FrameLayout.LayoutParams recordLp = new FrameLayout.LayoutParams(
+                FrameLayout.LayoutParams.WRAP_CONTENT,
+                FrameLayout.LayoutParams.WRAP_CONTENT
+        );
+        recordLp.gravity = android.view.Gravity.TOP | android.view.Gravity.START;
+        recordLp.setMargins(16,16,0,0); // top, start margin
+        content.addView(recordButton, recordLp);
+
+        // Click records raw camera frames; long press replays the recording: 1x, max speed, off
+        recordButton.setOnClickListener(v -> {
+            stopReplay();
+            Handler handler = backgroundHandler;
+            if (handler == null) return;
+            recording = !recording;
+            handler.post(recording ? this::startRecording : this::stopRecording);
+            recordButton.setText(recording ? "Rec: on" : "Rec: off");
+        });
+        recordButton.setOnLongClickListener(v -> {
+            if (replayer == null) {
+                startReplay(true);
+            } else if (replayOriginalSpeed) {
+                stopReplay();
+                startReplay(false);
+            } else {
+                stopReplay();
+            }
+            return true;
+        });
 
         cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
 
         // Ensure overlays appear above GL
         fpsText.bringToFront();
         toggleButton.bringToFront();
+        lumaButton.bringToFront();
+        renderButton.bringToFront();
+        recordButton.bringToFront();
     }
 
     @Override
     protected void onResume() {
         super.onResume();
         startBackgroundThread();
+        cameraPipeline.start();
         glSurfaceView.onResume();
+        frameMetrics.snapshot(); // start a fresh interval
+        uiHandler.postDelayed(overlayRefresh, OVERLAY_REFRESH_MS);
+        startEdgeStream();
+        startFeatureStream();
 
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED) {
             openCamera();
@@ -139,21 +468,161 @@ public class MainActivity extends Activity {
 
     @Override
     protected void onPause() {
+        uiHandler.removeCallbacks(overlayRefresh);
+        stopReplay();
         closeCamera();
         stopBackgroundThread();
+        stopRecording(); // camera thread is gone
+        recording = false;
+        recordButton.setText("Rec: off");
+        // No more submits now; closes the Images still in flight before their reader goes
+        cameraPipeline.stop();
+        closeImageReader();
+        stopEdgeStream(); // publish stage is done with it
+        stopFeatureStream();
         glSurfaceView.onPause();
+        logPipelineCounters();
+        logArenaStats();
+        logPipelineStats();
+        logFrameMetrics();
+        matArena.release();
         super.onPause();
     }
 
+    private void startEdgeStream() {
+        if (!getIntent().getBooleanExtra(EXTRA_EDGE_STREAM, false)) return;
+        boolean lan = getIntent().getBooleanExtra(EXTRA_EDGE_STREAM_LAN, false);
+        try {
+            EdgeStreamServer server = lan
+                    ? new EdgeStreamServer(EDGE_STREAM_PORT, null, edgeStreamToken)
+                    : new EdgeStreamServer(EDGE_STREAM_PORT, edgeStreamToken);
+            server.start();
+            edgeStream = server;
+            Log.i(TAG, "Streaming edges on ws://" + (lan ? localAddress() : "localhost") + ":" + server.port()
+                    + "/?token=" + edgeStreamToken);
+        } catch (IOException e) {
+            Log.w(TAG, "Edge stream unavailable", e);
+        }
+    }
+
+    private void stopEdgeStream() {
+        EdgeStreamServer server = edgeStream;
+        if (server == null) return;
+        edgeStream = null;
+        Log.d(TAG, "Edge stream: " + server.framesSent() + " frames, " + server.bytesSent() + " bytes sent, "
+                + server.framesSkipped() + " skipped for slow viewers");
+        server.close();
+    }
+
+    private void startFeatureStream() {
+        EdgeFeatureStream stream = new EdgeFeatureStream();
+        stream.subscribe(overlaySubscriber);
+        stream.start();
+        featureStream = stream;
+    }
+
+    private void stopFeatureStream() {
+        EdgeFeatureStream stream = featureStream;
+        if (stream == null) return;
+        featureStream = null;
+        stream.close();
+        Log.d(TAG, "Edge features: " + stream.published() + " published, " + stream.delivered() + " delivered, "
+                + stream.failures() + " subscriber failures");
+    }
+
+    private String renderLabel() {
+        if (!display) return "Render: off";
+        return gpuConversion ? "Render: GPU" : "Render: CPU";
+    }
+
+    // First non-loopback IPv4 address, for the log line the viewer URL is taken from
+    private static String localAddress() {
+        try {
+            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!nif.isUp() || nif.isLoopback()) continue;
+                for (InetAddress address : Collections.list(nif.getInetAddresses())) {
+                    if (address instanceof Inet4Address) return address.getHostAddress();
+                }
+            }
+        } catch (SocketException e) {
+            Log.w(TAG, "Can't list network interfaces", e);
+        }
+        return "<device address>";
+    }
+
+    private void logPipelineCounters() {
+        Log.d(TAG, "Camera pipeline: " + cameraPipeline.completed() + " completed, "
+                + cameraPipeline.dropped() + " dropped of " + cameraPipeline.submitted() + " frames");
+        Log.d(TAG, "Display: " + framePacer.presented() + " presented, " + framePacer.dropped()
+                + " dropped late, " + framePacer.renderRequests() + " draws requested");
+    }
+
+    private void logArenaStats() {
+        long[] nativeStats = new long[2];
+        GetNativeArenaStats(nativeStats);
+        Log.d(TAG, "Mat arena: java " + matArena.allocations() + " allocs / " + matArena.reuses()
+                + " reuses, native " + nativeStats[0] + " allocs / " + nativeStats[1] + " reuses");
+    }
+
+    private void logPipelineStats() {
+        FramePipeline.Program program = pipeline.current();
+        for (int i = 0; i < program.stageCount(); i++) {
+            Log.d(TAG, "Stage " + program.stageName(i) + ": "
+                    + program.averageStageNanos(i) / 1000 + " us avg over " + program.frames() + " frames");
+        }
+        if (cannyTuner.tunes() + cannyTuner.hits() > 0) {
+            Log.d(TAG, "Canny auto: " + cannyTuner.tunes() + " scenes tuned, " + cannyTuner.hits()
+                    + " from the " + cannyTuner.profiles() + " cached profiles");
+        }
+        long[] tiles = new long[2];
+        GetCannyTileStats(tiles);
+        if (tiles[1] > 0) {
+            Log.d(TAG, "Incremental Canny: recomputed " + tiles[0] + " of " + tiles[1] + " tiles ("
+                    + tiles[0] * 100 / tiles[1] + "%)");
+        }
+    }
+
+    // Whatever the overlay hasn't drained yet
+    private void logFrameMetrics() {
+        FrameMetrics.Snapshot snapshot = frameMetrics.snapshot();
+        for (FrameMetrics.Stage stage : FrameMetrics.Stage.values()) {
+            String line = snapshot.describe(stage);
+            if (line != null) Log.d(TAG, "Latency " + line + " over " + snapshot.count(stage) + " frames");
+        }
+    }
+
     private void openCamera() {
         try {
-            String cameraId = cameraManager.getCameraIdList()[0];
+            String[] ids = cameraManager.getCameraIdList();
+            CameraConfigurator.Camera[] cameras = new CameraConfigurator.Camera[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                cameras[i] = describeCamera(ids[i], cameraManager.getCameraCharacteristics(ids[i]));
+            }
+            // No analysis stream: nothing would consume its frames
+            CameraConfigurator.Config config = new CameraConfigurator(PREVIEW_WIDTH, PREVIEW_HEIGHT,
+                    MAX_STREAM_PIXELS, TARGET_FPS, 0).select(cameras);
+            if (config == null) {
+                Log.e(TAG, "No camera");
+                return;
+            }
+            Log.i(TAG, "Using " + config);
+            cameraConfig = config;
+            String cameraId = config.cameraId;
             CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
-            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-            Size previewSize = Collections.max(Arrays.asList(map.getOutputSizes(ImageReader.class)),
-                    (o1, o2) -> Integer.compare(o1.getWidth() * o1.getHeight(), o2.getWidth() * o2.getHeight()));
+            QualityGovernor g = new QualityGovernor(config.sizes, PREVIEW_WIDTH, PREVIEW_HEIGHT,
+                    FRAME_BUDGET_NANOS, MAX_FRAME_SKIP);
+            governor = g;
 
-            setupImageReader(PREVIEW_WIDTH, PREVIEW_HEIGHT);
+            // Image timestamps are CLOCK_BOOTTIME when REALTIME, else (in practice) CLOCK_MONOTONIC
+            Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            long sensorClockOffset =
+                    timestampSource != null && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME
+                            ? System.nanoTime() - SystemClock.elapsedRealtimeNanos() : 0;
+            frameMetrics.setSensorClockOffset(sensorClockOffset);
+            framePacer.setSensorClockOffset(sensorClockOffset);
+            frameMetrics.resetSensorTimeline();
+
+            setupImageReader(g.level().width, g.level().height);
 
             if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
                 return;
@@ -164,15 +633,63 @@ public class MainActivity extends Activity {
         }
     }
 
+    private static CameraConfigurator.Camera describeCamera(String id, CameraCharacteristics characteristics) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] outputSizes = map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null;
+        if (outputSizes == null) outputSizes = new Size[0];
+        int[][] sizes = new int[outputSizes.length][];
+        long[] minFrameNanos = new long[outputSizes.length];
+        for (int i = 0; i < outputSizes.length; i++) {
+            sizes[i] = new int[]{outputSizes[i].getWidth(), outputSizes[i].getHeight()};
+            minFrameNanos[i] = map.getOutputMinFrameDuration(ImageFormat.YUV_420_888, outputSizes[i]);
+        }
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        int[][] fpsRanges = new int[ranges != null ? ranges.length : 0][];
+        for (int i = 0; i < fpsRanges.length; i++) {
+            fpsRanges[i] = new int[]{ranges[i].getLower(), ranges[i].getUpper()};
+        }
+        int[] afModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+        return new CameraConfigurator.Camera(id,
+                facing != null ? facing : CameraMetadata.LENS_FACING_EXTERNAL,
+                level != null ? level : CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY,
+                sizes, minFrameNanos, fpsRanges, afModes != null ? afModes : new int[0]);
+    }
+
     private void setupImageReader(int w, int h) {
-        imageReader = ImageReader.newInstance(w, h, ImageFormat.YUV_420_888, 2);
+        streamWidth = w;
+        streamHeight = h;
+        // Room for the Images waiting for or in the vision stage, plus the one being acquired
+        imageReader = ImageReader.newInstance(w, h, ImageFormat.YUV_420_888, MAX_IMAGES);
         imageReader.setOnImageAvailableListener(reader -> {
             Image image = null;
             try {
+                long acquireStart = System.nanoTime();
                 image = reader.acquireLatestImage();
-                if (image != null) {
-                    processImage(image);
+                if (image == null) return;
+                frameMetrics.record(FrameMetrics.Stage.ACQUIRE, System.nanoTime() - acquireStart);
+                long timestamp = image.getTimestamp();
+                frameMetrics.onSensorFrame(timestamp);
+                FrameRecorder rec = recorder;
+                if (rec != null) {
+                    long recordStart = System.nanoTime();
+                    Plane[] planes = image.getPlanes();
+                    rec.record(timestamp, image.getWidth(), image.getHeight(),
+                            planes[0].getBuffer(), planes[0].getRowStride(),
+                            planes[1].getBuffer(), planes[2].getBuffer(),
+                            planes[1].getRowStride(), planes[1].getPixelStride());
+                    frameMetrics.record(FrameMetrics.Stage.RECORD, System.nanoTime() - recordStart);
                 }
+                if (replayer != null) return; // replayed frames own the pipeline
+                QualityGovernor g = governor;
+                if (g != null && !g.shouldProcess()) return; // skipped at this quality level
+                PipelineFrame frame = freeFrames.poll();
+                if (frame == null) return; // every frame is in flight, skip this one
+                frame.image = image;
+                frame.sensorTimestamp = timestamp;
+                image = null; // owned by the pipeline now
+                cameraPipeline.submit(frame);
             } catch (Exception e) {
                 Log.e(TAG, "image avail error: " + e.getMessage(), e);
             } finally {
@@ -197,22 +714,28 @@ public class MainActivity extends Activity {
 
     private void createCameraPreviewSession() {
         try {
-            SurfaceTexture texture = new SurfaceTexture(0);
-            // We do not use SurfaceTexture for preview on camera2 path here; instead attach ImageReader surface and a dummy SurfaceTexture to camera
-            Surface surface = imageReader.getSurface();
+            List<Surface> surfaces = new ArrayList<>();
+            surfaces.add(imageReader.getSurface());
 
-            previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            previewRequestBuilder.addTarget(surface);
+            // RECORD favours a steady frame rate over per-frame image quality
+            previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            for (Surface surface : surfaces) previewRequestBuilder.addTarget(surface);
+            CameraConfigurator.Config config = cameraConfig;
 
-            cameraDevice.createCaptureSession(Arrays.asList(surface),
+            cameraDevice.createCaptureSession(surfaces,
                     new CameraCaptureSession.StateCallback() {
                         @Override
                         public void onConfigured(CameraCaptureSession session) {
                             if (cameraDevice == null) return;
                             previewSession = session;
                             try {
-                                previewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-                                previewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+                                previewRequestBuilder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+                                previewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, config.afMode);
+                                previewRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+                                if (config.fpsMax > 0) {
+                                    previewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                                            new Range<>(config.fpsMin, config.fpsMax));
+                                }
                                 previewSession.setRepeatingRequest(previewRequestBuilder.build(), null, backgroundHandler);
                             } catch (CameraAccessException e) {
                                 Log.e(TAG, "Session config failed", e);
@@ -227,90 +750,324 @@ public class MainActivity extends Activity {
         }
     }
 
-    private float avgFps = 0f;
-    private final float fpsSmoothing = 0.1f; // adjust 0.05..0.2
+    private File recordingFile() {
+        File dir = getExternalFilesDir(null);
+        return new File(dir != null ? dir : getFilesDir(), RECORDING_FILE);
+    }
 
-    private void processImage(Image image) {
-        long start = System.currentTimeMillis();
+    // Camera thread
+    private void startRecording() {
+        if (recorder != null) return;
+        try {
+            recorder = new FrameRecorder(recordingFile(), RECORD_SLOTS, RECORD_SLOT_CAPACITY);
+        } catch (IOException e) {
+            Log.e(TAG, "cannot start recording", e);
+            runOnUiThread(() -> {
+                recording = false;
+                recordButton.setText("Rec: off");
+            });
+        }
+    }
 
-        int width = image.getWidth();
-        int height = image.getHeight();
+    // Camera thread, or the UI thread once the camera thread has stopped
+    private void stopRecording() {
+        FrameRecorder rec = recorder;
+        if (rec == null) return;
+        recorder = null;
+        try {
+            rec.close();
+            Log.d(TAG, "Recorded " + rec.framesWritten() + " frames (" + rec.oversized()
+                    + " too large), last " + Math.min(rec.framesWritten(), rec.slots()) + " kept in " + recordingFile());
+        } catch (IOException e) {
+            Log.e(TAG, "cannot finish recording", e);
+        }
+    }
 
-        Plane[] planes = image.getPlanes();
-        ByteBuffer yBuffer = planes[0].getBuffer();
-        ByteBuffer uBuffer = planes[1].getBuffer();
-        ByteBuffer vBuffer = planes[2].getBuffer();
+    // UI thread: replays the last recording through the pipeline instead of the camera
+    private void startReplay(boolean originalSpeed) {
+        Handler handler = backgroundHandler;
+        if (recording && handler != null) {
+            // The ring must be closed before it is read back
+            recording = false;
+            handler.post(() -> {
+                stopRecording();
+                runOnUiThread(() -> startReplay(originalSpeed));
+            });
+            return;
+        }
+        File file = recordingFile();
+        if (!file.exists()) {
+            Toast.makeText(this, "Nothing recorded yet", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        try {
+            replayReader = new FrameRingReader(file);
+        } catch (IOException e) {
+            Log.e(TAG, "cannot replay " + file, e);
+            return;
+        }
+        replayOriginalSpeed = originalSpeed;
+        replayer = new FrameReplayer(replayReader, originalSpeed, true, recorded -> {
+            // At 1x frames are skipped like camera frames; at max speed wait for a free one
+            PipelineFrame frame = originalSpeed ? freeFrames.poll() : freeFrames.take();
+            if (frame == null) return;
+            frame.recorded = recorded;
+            frame.sensorTimestamp = 0; // from an earlier session's clock
+            cameraPipeline.submit(frame);
+        });
+        replayer.start();
+        recordButton.setText(originalSpeed ? "Replay: 1x" : "Replay: max");
+    }
 
-        int ySize = yBuffer.remaining();
-        byte[] yBytes = new byte[ySize];
-        yBuffer.get(yBytes);
+    private void stopReplay() {
+        FrameReplayer r = replayer;
+        if (r == null) return;
+        r.stop();
+        replayer = null;
+        Log.d(TAG, "Replayed " + r.replayed() + " frames");
+        try {
+            replayReader.close();
+        } catch (IOException e) {
+            Log.e(TAG, "closing replay", e);
+        }
+        replayReader = null;
+        recordButton.setText("Rec: off");
+    }
 
-        byte[] nv21Bytes = new byte[ySize + ySize / 2];
-        System.arraycopy(yBytes, 0, nv21Bytes, 0, ySize);
+    // Points the frame at its source's planes; nothing is copied
+    private static void readPlanes(PipelineFrame frame) {
+        FrameRingReader.Frame recorded = frame.recorded;
+        if (recorded != null) {
+            frame.width = recorded.width;
+            frame.height = recorded.height;
+            frame.y = recorded.y;
+            frame.u = recorded.u;
+            frame.v = recorded.v;
+            frame.yRowStride = recorded.yRowStride;
+            frame.uvRowStride = recorded.uvRowStride;
+            frame.uvPixelStride = recorded.uvPixelStride;
+        } else {
+            Image image = frame.image;
+            frame.width = image.getWidth();
+            frame.height = image.getHeight();
+            Plane[] planes = image.getPlanes();
+            frame.y = planes[0].getBuffer();
+            frame.u = planes[1].getBuffer();
+            frame.v = planes[2].getBuffer();
+            frame.yRowStride = planes[0].getRowStride();
+            frame.uvRowStride = planes[1].getRowStride();
+            frame.uvPixelStride = planes[1].getPixelStride();
+        }
+    }
+
+    // Stage 1: colour conversion and the filter pipeline, from the Image's planes into the
+    // frame's output buffer; the Image goes back to the camera when it is done
+    private void visionStage(PipelineFrame frame) {
+        long start = System.nanoTime();
+        readPlanes(frame);
+        long filterNanos = processFrame(frame);
+        frame.closeImage();
+        long elapsed = System.nanoTime() - start;
+        frameMetrics.record(FrameMetrics.Stage.CONVERT, elapsed - filterNanos);
+        if (filterNanos > 0) frameMetrics.record(FrameMetrics.Stage.FILTER, filterNanos);
+        // The heaviest stage sets the pipeline's throughput, so it is what the governor watches
+        QualityGovernor g = governor;
+        if (g != null && g.onFrameProcessed(elapsed)) {
+            Log.d(TAG, "Quality level: " + g.level());
+            Handler handler = backgroundHandler;
+            if (handler != null) handler.post(this::applyGovernorResolution);
+        }
+    }
+
+    // Returns the time spent in filter stages; the rest of the call is conversion and packing
+    private long processFrame(PipelineFrame frame) {
+        int width = frame.width;
+        int height = frame.height;
+        FramePipeline.Program program = showFilters ? pipeline.current() : FramePipeline.Program.EMPTY;
+        frame.outLevel = program.pyramidLevel();
+        frame.outWidth = program.outputSize(width);
+        frame.outHeight = program.outputSize(height);
+        if (program.hasAutoThresholds()) {
+            cannyTuner.update(frame.y, frame.yRowStride, width, height);
+            program.setAutoThresholds(cannyTuner.low(), cannyTuner.high());
+        }
+        EdgeFeatureStream stream = featureStream;
+        frame.hasFeatures = !program.isEmpty() && stream != null && stream.hasSubscribers();
+        ByteBuffer features = frame.hasFeatures ? frame.features.block() : null;
+        boolean shown = display;
+        frame.shown = shown;
+        if (!shown && program.isEmpty()) {
+            // Headless without filters: nothing to compute
+            frame.edges = false;
+            return 0;
+        }
 
-        int uvIndex = ySize;
-        uBuffer.rewind();
-        vBuffer.rewind();
-        int rowStride = planes[1].getRowStride();
-        int uvPixelStride = planes[1].getPixelStride();
-        int uvRowBytes = (width / 2) * uvPixelStride;
-        for (int row = 0; row < height / 2; row++) {
-            for (int col = 0; col < width / 2; col++) {
-                nv21Bytes[uvIndex++] = (byte) uBuffer.get();  // U
-                nv21Bytes[uvIndex++] = (byte) vBuffer.get();  // V
+        // Chains with Java stages need Mats, so they take the CPU path
+        if (shown && gpuConversion && program.isFullyNative()) {
+            // 1.5 bytes/pixel (+1 for the edge mask) instead of 4; the shader does the rest
+            boolean edges = !program.isEmpty();
+            int maskOffset = width * height * 3 / 2;
+            ByteBuffer out = frame.output(maskOffset + (edges ? frame.outWidth * frame.outHeight : 0));
+            PackNv21Frame(frame.y, frame.yRowStride, frame.u, frame.v, frame.uvRowStride, frame.uvPixelStride,
+                    width, height, program.ops(), program.params(), program.stageNanos(), program.id(), out);
+            if (edges) program.recordFrame();
+            if (edges && features != null) {
+                ExtractEdgeFeatures(out, maskOffset, false, frame.outWidth, frame.outHeight, features);
             }
-            if (rowStride > uvRowBytes) {
-                uBuffer.position(uBuffer.position() + (rowStride - uvRowBytes));
-                vBuffer.position(vBuffer.position() + (rowStride - uvRowBytes));
+            frame.format = edges ? MyGLRenderer.FORMAT_NV21_EDGES : MyGLRenderer.FORMAT_NV21;
+            frame.edges = edges;
+        } else {
+            // Filter output is a binary mask: 1 bit per pixel, coloured in the shader
+            boolean edges = !program.isEmpty();
+            ByteBuffer out = frame.output(edges ? EdgeFrame.size(frame.outWidth, frame.outHeight)
+                    : frame.outWidth * frame.outHeight * 4);
+            if (program.isFullyNative()) {
+                // Conversion, every filter stage and the features in one JNI call
+                ProcessYuvPlanes(frame.y, frame.yRowStride, frame.u, frame.v, frame.uvRowStride,
+                        frame.uvPixelStride, width, height, program.ops(), program.params(),
+                        program.stageNanos(), program.id(), lumaDirect, out, features);
+                if (edges) program.recordFrame();
+            } else {
+                // OpenCV's Java API needs the frame as one Mat: pack a tight NV21 copy
+                long packStart = System.nanoTime();
+                FramePipeline.Program none = FramePipeline.Program.EMPTY;
+                frame.nv21 = frame.ownNv21(width, height);
+                PackNv21Frame(frame.y, frame.yRowStride, frame.u, frame.v, frame.uvRowStride,
+                        frame.uvPixelStride, width, height, none.ops(), none.params(), none.stageNanos(),
+                        none.id(), frame.nv21);
+                frameMetrics.record(FrameMetrics.Stage.REPACK, System.nanoTime() - packStart);
+                processOnJavaStage(frame, program, out);
+                if (features != null) {
+                    ExtractEdgeFeatures(out, 0, true, frame.outWidth, frame.outHeight, features);
+                }
             }
+            frame.format = edges ? MyGLRenderer.FORMAT_EDGE_BITS : MyGLRenderer.FORMAT_RGBA;
+            frame.edges = edges;
         }
+        return program.isEmpty() ? 0 : program.lastFrameNanos();
+    }
 
-        Mat yuvMat = new Mat(height * 3 / 2, width, CvType.CV_8UC1);
-        yuvMat.put(0, 0, nv21Bytes);
-        Mat rgbaMat = new Mat(height, width, CvType.CV_8UC4);
-        Imgproc.cvtColor(yuvMat, rgbaMat, Imgproc.COLOR_YUV2RGBA_NV21);
-
-        Mat grayMat = new Mat();
-        Imgproc.cvtColor(rgbaMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
+    // Camera thread: restarts the stream if the governor picked another size
+    private void applyGovernorResolution() {
+        QualityGovernor g = governor;
+        if (g == null || cameraDevice == null) return;
+        QualityGovernor.Level level = g.level();
+        if (level.width == streamWidth && level.height == streamHeight) return;
 
-        if (showCanny) {
-            FindFeatures(grayMat.getNativeObjAddr(), rgbaMat.getNativeObjAddr());
+        if (previewSession != null) {
+            previewSession.close();
+            previewSession = null;
         }
+        // Frames of the old reader must be gone before it closes
+        cameraPipeline.stop();
+        closeImageReader();
+        frameMetrics.resetSensorTimeline();
+        cameraPipeline.start();
+        setupImageReader(level.width, level.height);
+        createCameraPreviewSession();
+    }
 
-        // Prepare byte array
-        byte[] processedBytes = new byte[rgbaMat.rows() * rgbaMat.cols() * 4];
-        rgbaMat.get(0, 0, processedBytes);
-        ByteBuffer processedByteBuffer = ByteBuffer.allocateDirect(processedBytes.length).order(ByteOrder.nativeOrder());
-        processedByteBuffer.put(processedBytes);
-        processedByteBuffer.position(0);
-
-        int frameWidth = rgbaMat.cols();
-        int frameHeight = rgbaMat.rows();
+    // Stage 2: hand the finished frame to the render thread and the frame's results to
+    // their subscribers
+    private void publishStage(PipelineFrame frame) {
+        long start = System.nanoTime();
+        ByteBuffer out = frame.out;
+        // A frame that is already past its deadline isn't worth a texture upload
+        if (frame.shown && framePacer.admit(frame.sensorTimestamp)) {
+            // The renderer takes out as it is and gives back a buffer it is done with;
+            // the frame reallocates only if that one is missing or the wrong size
+            FrameTripleBuffer frames = glRenderer.getFrameBuffer();
+            if (frame.format == MyGLRenderer.FORMAT_RGBA || frame.format == MyGLRenderer.FORMAT_EDGE_BITS) {
+                frame.out = frames.publish(out, frame.outWidth, frame.outHeight, frame.format,
+                        frame.sensorTimestamp);
+            } else {
+                int format = frame.format == MyGLRenderer.FORMAT_NV21_EDGES
+                        ? MyGLRenderer.nv21EdgesFormat(frame.outLevel) : frame.format;
+                frame.out = frames.publish(out, frame.width, frame.height, format, frame.sensorTimestamp);
+            }
+            framePacer.onPublished();
+        }
+        EdgeFeatureStream features = featureStream;
+        if (features != null && frame.hasFeatures) features.publish(frame.features, frame.sensorTimestamp);
+        frameMetrics.record(FrameMetrics.Stage.PUBLISH, System.nanoTime() - start);
 
-        // Release mats
-        grayMat.release();
-        rgbaMat.release();
-        yuvMat.release();
+        // out may be the renderer's now; both sides only read it, and it cannot come back
+        // to a frame before this stage's next publish
+        EdgeStreamServer stream = edgeStream;
+        if (stream != null && frame.edges && stream.hasClients()) {
+            start = System.nanoTime();
+            int width = frame.outWidth;
+            if (frame.format == MyGLRenderer.FORMAT_NV21_EDGES) {
+                // The mask follows the NV21 planes
+                stream.publish(out, frame.width * frame.height * 3 / 2, 1, width, width, frame.outHeight);
+            } else {
+                stream.publish(streamEdges.wrap(out, 0, width, frame.outHeight));
+            }
+            frameMetrics.record(FrameMetrics.Stage.STREAM, System.nanoTime() - start);
+        }
+    }
 
-        // Send to GL thread
-        glSurfaceView.queueEvent(() -> {
-            glRenderer.updateTexture(processedByteBuffer, frameWidth, frameHeight);
-        });
+    // UI thread: camera rate from sensor timestamps, shown rate, frames dropped late, then
+    // p50/p95/p99 per stage
+    private void updateOverlay(FrameMetrics.Snapshot snapshot, EdgeStreamServer stream) {
+        StringBuilder text = new StringBuilder(String.format("in %.1f  shown %.1f fps  late %d",
+                snapshot.inputFps, snapshot.displayFps, framePacer.dropped()));
+        QualityGovernor g = governor;
+        if (g != null) text.append("  ").append(g.level());
+        for (FrameMetrics.Stage stage : FrameMetrics.Stage.values()) {
+            if (stage == FrameMetrics.Stage.INPUT_INTERVAL) continue;
+            String line = snapshot.describe(stage);
+            if (line != null) text.append('\n').append(line);
+        }
+        if (pipeline.current().hasAutoThresholds()) text.append('\n').append(cannyTuner.describe());
+        String streaming = stream != null ? stream.describe() : null;
+        if (streaming != null) text.append('\n').append(streaming);
+        synchronized (overlayFeatures) {
+            if (overlayFeatures.sequence() > 0) text.append('\n').append(overlayFeatures.describe());
+        }
+        fpsText.setText(text);
+    }
 
-        long end = System.currentTimeMillis();
-        float currentFps = 1000f / Math.max(1, (end - start));
+    // Chains with Java stages: convert and filter the frame's NV21 through OpenCV's Java API.
+    // out gets RGBA without filters and an EdgeFrame with them.
+    private void processOnJavaStage(PipelineFrame frame, FramePipeline.Program program, ByteBuffer out) {
+        int width = frame.width;
+        int height = frame.height;
+        ByteBuffer nv21Buffer = frame.nv21;
 
-        if (avgFps == 0f) {
-            avgFps = currentFps;
-        } else {
-            avgFps = avgFps * (1 - fpsSmoothing) + currentFps * fpsSmoothing;
+        // All wrap existing buffers, no copy
+        if (!program.isEmpty() && lumaDirect) {
+            // The first height rows of NV21 are the Y plane; stretched to full range it
+            // is the gray image the colour conversions below would produce
+            Mat lumaMat = matArena.wrap(MAT_LUMA + frame.index, nv21Buffer,
+                    height, width, CvType.CV_8UC1);
+            Mat grayMat = matArena.obtain(MAT_GRAY, height, width, CvType.CV_8UC1);
+            Core.LUT(lumaMat, matArena.wrap(MAT_LUMA_TABLE, lumaTable, 1, 256, CvType.CV_8UC1), grayMat);
+            filterToEdgeFrame(frame, program, grayMat, out);
+            return;
         }
 
-        runOnUiThread(() -> {
-            fpsText.setText(String.format("FPS: %.1f", avgFps));
-            fpsText.invalidate(); // force redraw
-        });
+        Mat yuvMat = matArena.wrap(MAT_YUV + frame.index, nv21Buffer,
+                height * 3 / 2, width, CvType.CV_8UC1);
+        if (program.isEmpty()) {
+            Mat rgbaMat = matArena.wrap(MAT_RGBA + frame.index, out, height, width, CvType.CV_8UC4);
+            Imgproc.cvtColor(yuvMat, rgbaMat, Imgproc.COLOR_YUV2RGBA_NV21);
+            return;
+        }
+        // With filters the colour image is only an intermediate
+        Mat colorMat = matArena.obtain(MAT_COLOR, height, width, CvType.CV_8UC4);
+        Imgproc.cvtColor(yuvMat, colorMat, Imgproc.COLOR_YUV2RGBA_NV21);
+        Mat grayMat = matArena.obtain(MAT_GRAY, height, width, CvType.CV_8UC1);
+        Imgproc.cvtColor(colorMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
+        filterToEdgeFrame(frame, program, grayMat, out);
+    }
 
+    private void filterToEdgeFrame(PipelineFrame frame, FramePipeline.Program program, Mat gray, ByteBuffer out) {
+        int size = frame.outWidth * frame.outHeight;
+        if (edgeMask == null || edgeMask.capacity() != size) edgeMask = ByteBuffer.allocateDirect(size);
+        Mat edgesMat = matArena.wrap(MAT_EDGES, edgeMask, frame.outHeight, frame.outWidth, CvType.CV_8UC1);
+        pipeline.run(program, gray, edgesMat, matArena, MAT_STAGES);
+        EdgeFrame.pack(edgeMask, 0, frame.outWidth, frame.outWidth, frame.outHeight, out, 0);
     }
 
     private void startBackgroundThread() {
@@ -341,12 +1098,12 @@ public class MainActivity extends Activity {
             cameraDevice.close();
             cameraDevice = null;
         }
+    }
+
+    private void closeImageReader() {
         if (imageReader != null) {
             imageReader.close();
             imageReader = null;
         }
     }
-
-    // simple fallback used to get a SurfaceTexture if needed (not used for rendering here)
-    // keep a minimal access in renderer
 }
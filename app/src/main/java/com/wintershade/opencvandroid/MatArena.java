@@ -0,0 +1,80 @@
+package com.wintershade.opencvandroid;
+
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed set of {@link Mat}s that live across frames. Each slot keeps its native
+ * storage until it is asked for a different size or type, so in steady state a
+ * frame neither mallocs nor frees pixel memory.
+ *
+ * Not thread-safe; use one arena per processing thread.
+ */
+public class MatArena {
+
+    private final Mat[] mats;
+    private final ByteBuffer[] wrappedBuffers;
+    private long allocations = 0;
+    private long reuses = 0;
+
+    public MatArena(int slots) {
+        mats = new Mat[slots];
+        wrappedBuffers = new ByteBuffer[slots];
+    }
+
+    /** Returns the Mat in {@code slot}, (re)allocating it only if its shape changed. */
+    public Mat obtain(int slot, int rows, int cols, int type) {
+        Mat mat = mats[slot];
+        if (mat == null || wrappedBuffers[slot] != null) {
+            if (mat != null) mat.release();
+            mats[slot] = mat = new Mat(rows, cols, type);
+            wrappedBuffers[slot] = null;
+            allocations++;
+        } else if (mat.rows() != rows || mat.cols() != cols || mat.type() != type) {
+            mat.create(rows, cols, type);
+            allocations++;
+        } else {
+            reuses++;
+        }
+        return mat;
+    }
+
+    /**
+     * Returns a Mat header over {@code buffer} (no pixel copy). The header is cached
+     * in {@code slot} and rebuilt only when a different buffer or shape is passed.
+     */
+    public Mat wrap(int slot, ByteBuffer buffer, int rows, int cols, int type) {
+        Mat mat = mats[slot];
+        if (mat != null && wrappedBuffers[slot] == buffer
+                && mat.rows() == rows && mat.cols() == cols && mat.type() == type) {
+            reuses++;
+            return mat;
+        }
+        if (mat != null) mat.release();
+        mats[slot] = mat = new Mat(rows, cols, type, buffer);
+        wrappedBuffers[slot] = buffer;
+        allocations++;
+        return mat;
+    }
+
+    /** Number of times a slot had to allocate (or re-wrap) native memory. */
+    public long allocations() {
+        return allocations;
+    }
+
+    /** Number of times a slot was handed out without touching native memory. */
+    public long reuses() {
+        return reuses;
+    }
+
+    public void release() {
+        for (int i = 0; i < mats.length; i++) {
+            if (mats[i] != null) {
+                mats[i].release();
+                mats[i] = null;
+            }
+            wrappedBuffers[i] = null;
+        }
+    }
+}
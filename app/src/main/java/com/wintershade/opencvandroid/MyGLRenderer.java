@@ -32,33 +32,60 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
             1.0f, 0.0f
     };
 
+    /** Frame layouts the producer can publish (see {@link FrameTripleBuffer#publish(int, int, int)}). */
+    public static final int FORMAT_RGBA = 0;       // w*h*4 RGBA
+    public static final int FORMAT_NV21 = 1;       // w*h Y, then w*h/2 interleaved VU
+    public static final int FORMAT_NV21_EDGES = 2; // NV21 followed by a w*h edge mask (0/255)
+    public static final int FORMAT_EDGE_BITS = 3;  // an EdgeFrame: rows of EdgeFrame.rowBytes(w), 1 bit per pixel
+    // Bits above the layout: pyramid level of the edge mask in FORMAT_NV21_EDGES frames
+    private static final int LAYOUT_MASK = 0xff, MASK_LEVEL_SHIFT = 8;
+
+    /**
+     * {@link #FORMAT_NV21_EDGES} with the mask at pyramid level {@code maskLevel}, i.e.
+     * {@link FramePipeline#scaledSize} of the frame's width and height.
+     */
+    public static int nv21EdgesFormat(int maskLevel) {
+        return FORMAT_NV21_EDGES | maskLevel << MASK_LEVEL_SHIFT;
+    }
+
+    // Textures, and which of them each format's program samples (in sampler order)
+    private static final int TEX_RGBA = 0, TEX_Y = 1, TEX_VU = 2, TEX_EDGES = 3, TEX_EDGE_BITS = 4;
+    private static final int[][] FORMAT_TEXTURES = {
+            {TEX_RGBA},
+            {TEX_Y, TEX_VU},
+            {TEX_Y, TEX_VU, TEX_EDGES},
+            {TEX_EDGE_BITS}
+    };
+
     private FloatBuffer vertexBuffer, texBuffer;
-    private int program;
-    private int positionHandle, texCoordHandle, samplerHandle;
-
-    private int textureId = -1;
-
-    // Buffer update mechanism
-    private ByteBuffer pendingPixelBuffer = null;
-    private int pendingWidth = 0, pendingHeight = 0;
-    private final Object bufferLock = new Object();
-
-    private final String vertexShaderCode =
-            "attribute vec4 aPosition;" +
-                    "attribute vec2 aTexCoord;" +
-                    "varying vec2 vTexCoord;" +
-                    "void main() {" +
-                    "  gl_Position = aPosition;" +
-                    "  vTexCoord = vec2(aTexCoord.y, 1.0 - aTexCoord.x);" +
-                    "}";
-
-    private final String fragmentShaderCode =
-            "precision mediump float;\n" +
-                    "varying vec2 vTexCoord;\n" +
-                    "uniform sampler2D uTexture;\n" +
-                    "void main() {\n" +
-                    "  gl_FragColor = texture2D(uTexture, vTexCoord);\n" +
-                    "}";
+    private final GlesApi gles = new AndroidGles();
+    private final ShaderProgramSpec[] specs = {
+            ShaderProgramSpec.rgba(), ShaderProgramSpec.nv21(false), ShaderProgramSpec.nv21(true),
+            ShaderProgramSpec.edgeBits()
+    };
+    private final int[] programs = new int[specs.length];
+    private final int[] positionHandles = new int[specs.length];
+    private final int[] texCoordHandles = new int[specs.length];
+    private final int[] edgeColorHandles = new int[specs.length];
+    private int bitsSizeHandle = -1;
+
+    private final int[] textures = new int[5];
+    private final TextureUploader[] uploaders = {
+            new TextureUploader(gles, GLES20.GL_RGBA, 4),
+            new TextureUploader(gles, GLES20.GL_LUMINANCE, 1),
+            new TextureUploader(gles, GLES20.GL_LUMINANCE_ALPHA, 2),
+            new TextureUploader(gles, GLES20.GL_LUMINANCE, 1),
+            new TextureUploader(gles, GLES20.GL_LUMINANCE, 1)  // packed bytes of an EdgeFrame
+    };
+    // Format of the frame currently held by the textures, -1 until the first one
+    private int shownFormat = -1;
+    private int shownWidth;
+    private volatile float[] edgeColor = {1f, 1f, 1f, 1f};
+
+    // Frames arrive from the camera thread through a lock-free triple buffer
+    private final FrameTripleBuffer frames = new FrameTripleBuffer();
+    private volatile FrameMetrics metrics;
+    private volatile FramePacer pacer;
 
     public MyGLRenderer(Context ctx) {
         this.context = ctx;
@@ -76,25 +103,34 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-        program = createProgram(vertexShaderCode, fragmentShaderCode);
-        positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
-        texCoordHandle = GLES20.glGetAttribLocation(program, "aTexCoord");
-        samplerHandle = GLES20.glGetUniformLocation(program, "uTexture");
+        for (int i = 0; i < specs.length; i++) {
+            programs[i] = createProgram(specs[i].vertexSource(), specs[i].fragmentSource());
+            positionHandles[i] = GLES20.glGetAttribLocation(programs[i], "aPosition");
+            texCoordHandles[i] = GLES20.glGetAttribLocation(programs[i], "aTexCoord");
+            edgeColorHandles[i] = specs[i].wireUniforms(gles, programs[i]);
+        }
+        bitsSizeHandle = GLES20.glGetUniformLocation(programs[FORMAT_EDGE_BITS], ShaderProgramSpec.BITS_SIZE_UNIFORM);
 
         GLES20.glClearColor(0f, 0f, 0f, 1f);
 
-        // create texture
-        int[] tex = new int[1];
-        GLES20.glGenTextures(1, tex, 0);
-        textureId = tex[0];
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-        // params
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-
-        // leave texture blank until first upload
+        // create textures
+        GLES20.glGenTextures(textures.length, textures, 0);
+        for (int i = 0; i < textures.length; i++) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[i]);
+            // params; chroma is half resolution and filter output may be at a pyramid
+            // level, so let the sampler interpolate those up to the frame. Packed bits
+            // can't be interpolated.
+            int filter = i == TEX_Y || i == TEX_EDGE_BITS ? GLES20.GL_NEAREST : GLES20.GL_LINEAR;
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, filter);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, filter);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+            // leave texture blank until first upload; storage is allocated on the first frame
+            uploaders[i].onSurfaceCreated(textures[i]);
+        }
+        shownFormat = -1;
+        Log.d(TAG, "Texture upload path: " + uploaders[TEX_RGBA].path());
     }
 
     @Override
@@ -106,19 +142,25 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
     public void onDrawFrame(GL10 gl) {
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
-        // If there's a pending pixel buffer, upload it to the texture
-        synchronized (bufferLock) {
-            if (pendingPixelBuffer != null && pendingWidth > 0 && pendingHeight > 0) {
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-                pendingPixelBuffer.position(0);
-                GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
-                        pendingWidth, pendingHeight, 0,
-                        GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pendingPixelBuffer);
-                // clear pending buffer reference (we keep the ByteBuffer for reuse GC-wise)
-                pendingPixelBuffer = null;
-            }
+        // If a new frame has been published and isn't stale yet, upload it to the texture(s)
+        FrameMetrics m = metrics;
+        FramePacer p = pacer;
+        if (p != null) p.onDrawStarted();
+        boolean fresh = false;
+        long uploaded = 0;
+        if (frames.acquireLatest() && frames.readWidth() > 0 && frames.readHeight() > 0
+                && (p == null || p.onDraw(frames.readTimestamp()))) {
+            long start = System.nanoTime();
+            uploadFrame(frames.readBuffer(), frames.readWidth(), frames.readHeight(), frames.readFormat());
+            uploaded = System.nanoTime();
+            if (m != null) m.record(FrameMetrics.Stage.UPLOAD, uploaded - start);
+            fresh = true;
         }
+        if (shownFormat < 0) return;
 
+        int program = programs[shownFormat];
+        int positionHandle = positionHandles[shownFormat];
+        int texCoordHandle = texCoordHandles[shownFormat];
         GLES20.glUseProgram(program);
 
         vertexBuffer.position(0);
@@ -129,14 +171,51 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
         GLES20.glEnableVertexAttribArray(texCoordHandle);
         GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 0, texBuffer);
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-        GLES20.glUniform1i(samplerHandle, 0);
+        int[] sampled = FORMAT_TEXTURES[shownFormat];
+        for (int unit = 0; unit < sampled.length; unit++) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[sampled[unit]]);
+        }
+        if (edgeColorHandles[shownFormat] >= 0) {
+            float[] c = edgeColor;
+            GLES20.glUniform4f(edgeColorHandles[shownFormat], c[0], c[1], c[2], c[3]);
+        }
+        if (shownFormat == FORMAT_EDGE_BITS) {
+            GLES20.glUniform2f(bitsSizeHandle, shownWidth, EdgeFrame.rowBytes(shownWidth));
+        }
 
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, 4);
 
         GLES20.glDisableVertexAttribArray(positionHandle);
         GLES20.glDisableVertexAttribArray(texCoordHandle);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+
+        // GLSurfaceView swaps right after this returns; waiting for the GPU here would stall it
+        if (fresh && m != null) {
+            long now = System.nanoTime();
+            m.record(FrameMetrics.Stage.PRESENT, now - uploaded);
+            m.onFramePresented(frames.readTimestamp(), now);
+        }
+    }
+
+    private void uploadFrame(ByteBuffer pixels, int width, int height, int format) {
+        int layout = format & LAYOUT_MASK;
+        if (layout == FORMAT_RGBA) {
+            uploaders[TEX_RGBA].upload(pixels, 0, width, height);
+        } else if (layout == FORMAT_EDGE_BITS) {
+            uploaders[TEX_EDGE_BITS].upload(pixels, 0, EdgeFrame.rowBytes(width), height);
+        } else {
+            int ySize = width * height;
+            uploaders[TEX_Y].upload(pixels, 0, width, height);
+            uploaders[TEX_VU].upload(pixels, ySize, width / 2, height / 2);
+            if (layout == FORMAT_NV21_EDGES) {
+                int level = format >>> MASK_LEVEL_SHIFT;
+                uploaders[TEX_EDGES].upload(pixels, ySize + ySize / 2,
+                        FramePipeline.scaledSize(width, level), FramePipeline.scaledSize(height, level));
+            }
+        }
+        shownFormat = layout;
+        shownWidth = width;
     }
 
     private int loadShader(int type, String shaderSrc) {
@@ -173,17 +252,39 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
         return prog;
     }
 
-    public void updateTexture(ByteBuffer rgbaBuffer, int width, int height) {
-        // We expect direct buffer in native order
-        ByteBuffer copy = ByteBuffer.allocateDirect(rgbaBuffer.capacity()).order(ByteOrder.nativeOrder());
-        rgbaBuffer.position(0);
-        copy.put(rgbaBuffer);
-        copy.position(0);
-
-        synchronized (bufferLock) {
-            pendingPixelBuffer = copy;
-            pendingWidth = width;
-            pendingHeight = height;
-        }
+    /**
+     * Producer side of the frame handoff: write a frame in one of the FORMAT_* layouts
+     * into {@code beginWrite(size)} and then {@code publish(width, height, format)}.
+     */
+    public FrameTripleBuffer getFrameBuffer() {
+        return frames;
+    }
+
+    /** Receives per-frame texture upload timings on the GL thread. */
+    public void setUploadMetrics(TextureUploader.UploadMetrics metrics) {
+        for (TextureUploader uploader : uploaders) uploader.setMetrics(metrics);
+    }
+
+    /** Receives upload and present timings for each newly shown frame; null to stop. */
+    public void setFrameMetrics(FrameMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** Drops frames that went stale in the buffer and counts the ones shown; null to show all. */
+    public void setPacer(FramePacer pacer) {
+        this.pacer = pacer;
+    }
+
+    /** Allow the ES 3.0 double-PBO upload path; applies from the next surface. */
+    public void setPboUploadsAllowed(boolean allowed) {
+        for (TextureUploader uploader : uploaders) uploader.setPboAllowed(allowed);
+    }
+
+    /**
+     * Colour (RGBA, 0..1) blended over {@link #FORMAT_NV21_EDGES} frames where the mask
+     * is set, and of the edges of {@link #FORMAT_EDGE_BITS} frames.
+     */
+    public void setEdgeColor(float r, float g, float b, float a) {
+        edgeColor = new float[]{r, g, b, a};
     }
 }
@@ -12,7 +12,8 @@ public class MyGLSurfaceView extends GLSurfaceView {
         setEGLContextClientVersion(2); // OpenGL ES 2.0
         renderer = new MyGLRenderer(context);
         setRenderer(renderer);
-        setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+        // Draws when a new frame is published (FramePacer) or the surface changes, not per vsync
+        setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
     }
 
     public MyGLRenderer getRenderer() {
@@ -0,0 +1,178 @@
+package com.wintershade.opencvandroid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps per-frame processing within a time budget by moving along a ladder of
+ * quality levels: every candidate resolution from largest to smallest, then the
+ * smallest resolution with only every 2nd, 3rd, ... frame processed.
+ *
+ * Timings are averaged over a window of frames. The governor steps down as soon as
+ * one window is over budget, but only steps up after several consecutive windows
+ * predict the next level up would still leave headroom. Frames right after a
+ * change are ignored while the pipeline settles. Together these keep it from
+ * oscillating between two levels.
+ *
+ * {@link #onFrameProcessed} is called from one processing thread and
+ * {@link #shouldProcess} from the camera thread; {@link #level()} from anywhere.
+ */
+public class QualityGovernor {
+
+    static final int WINDOW_FRAMES = 30;
+    static final int SETTLE_FRAMES = 10;
+    static final int UP_WINDOWS = 3;
+    // Step up only if the level above is predicted to use at most this much of the budget
+    static final double UP_HEADROOM = 0.7;
+
+    public static final class Level {
+        public final int width;
+        public final int height;
+        /** Process one frame out of every {@code skip}. */
+        public final int skip;
+
+        Level(int width, int height, int skip) {
+            this.width = width;
+            this.height = height;
+            this.skip = skip;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + (skip > 1 ? " 1/" + skip : "");
+        }
+    }
+
+    private final Level[] ladder;
+    private final long budgetNanos;
+    private volatile int levelIndex;
+
+    // Processing thread only
+    private long windowSum = 0;
+    private int windowCount = 0;
+    private int settleLeft = 0;
+    private int headroomWindows = 0;
+
+    // Camera thread only
+    private long frameCounter = 0;
+
+    /**
+     * Starts at the largest of {@code sizes} with at most {@code startWidth * startHeight}
+     * pixels.
+     *
+     * @param sizes   candidate {width, height} resolutions, in any order
+     * @param maxSkip the lowest level processes 1 in {@code maxSkip} frames
+     */
+    public QualityGovernor(int[][] sizes, int startWidth, int startHeight, long budgetNanos, int maxSkip) {
+        if (sizes.length == 0) throw new IllegalArgumentException("no sizes");
+        int[][] sorted = sizes.clone();
+        Arrays.sort(sorted, (a, b) -> Long.compare((long) b[0] * b[1], (long) a[0] * a[1]));
+
+        List<Level> levels = new ArrayList<>();
+        for (int[] size : sorted) {
+            Level last = levels.isEmpty() ? null : levels.get(levels.size() - 1);
+            if (last != null && (long) last.width * last.height == (long) size[0] * size[1]) continue;
+            levels.add(new Level(size[0], size[1], 1));
+        }
+        Level smallest = levels.get(levels.size() - 1);
+        for (int skip = 2; skip <= maxSkip; skip++) {
+            levels.add(new Level(smallest.width, smallest.height, skip));
+        }
+        ladder = levels.toArray(new Level[0]);
+        this.budgetNanos = budgetNanos;
+
+        long startPixels = (long) startWidth * startHeight;
+        int start = 0;
+        while (start < ladder.length - 1 && ladder[start].skip == 1 && pixels(ladder[start]) > startPixels) start++;
+        levelIndex = start;
+        settleLeft = SETTLE_FRAMES;
+    }
+
+    /**
+     * Keeps only sizes with the aspect ratio {@code aspectWidth:aspectHeight} and at
+     * most {@code maxPixels} pixels.
+     */
+    public static int[][] candidateSizes(int[][] supported, int aspectWidth, int aspectHeight, long maxPixels) {
+        List<int[]> out = new ArrayList<>();
+        for (int[] size : supported) {
+            if ((long) size[0] * aspectHeight == (long) size[1] * aspectWidth
+                    && (long) size[0] * size[1] <= maxPixels) {
+                out.add(size);
+            }
+        }
+        return out.toArray(new int[0][]);
+    }
+
+    /** Camera thread: whether to process this frame at the current skip level. */
+    public boolean shouldProcess() {
+        return frameCounter++ % ladder[levelIndex].skip == 0;
+    }
+
+    /**
+     * Processing thread: reports how long one processed frame took.
+     *
+     * @return true if the level changed; read the new one from {@link #level()}
+     */
+    public boolean onFrameProcessed(long processingNanos) {
+        if (settleLeft > 0) {
+            settleLeft--;
+            return false;
+        }
+        windowSum += processingNanos;
+        if (++windowCount < WINDOW_FRAMES) return false;
+
+        // Share of the frame budget used per camera frame, skipped frames included
+        int index = levelIndex;
+        double load = windowSum / (double) windowCount / (budgetNanos * (double) ladder[index].skip);
+        windowSum = 0;
+        windowCount = 0;
+
+        if (load > 1.0) {
+            headroomWindows = 0;
+            return index + 1 < ladder.length && moveTo(index + 1);
+        }
+        if (index > 0 && predictedLoad(index, index - 1, load) <= UP_HEADROOM) {
+            if (++headroomWindows >= UP_WINDOWS) {
+                headroomWindows = 0;
+                return moveTo(index - 1);
+            }
+        } else {
+            headroomWindows = 0;
+        }
+        return false;
+    }
+
+    private boolean moveTo(int index) {
+        levelIndex = index;
+        settleLeft = SETTLE_FRAMES;
+        return true;
+    }
+
+    // Processing time scales with pixel count; load also with how many frames are skipped
+    private double predictedLoad(int from, int to, double load) {
+        Level a = ladder[from], b = ladder[to];
+        return load * pixels(b) / pixels(a) * a.skip / b.skip;
+    }
+
+    private static double pixels(Level level) {
+        return (double) level.width * level.height;
+    }
+
+    public Level level() {
+        return ladder[levelIndex];
+    }
+
+    /** 0 is the best quality. */
+    public int levelIndex() {
+        return levelIndex;
+    }
+
+    public int levelCount() {
+        return ladder.length;
+    }
+
+    public Level levelAt(int index) {
+        return ladder[index];
+    }
+}
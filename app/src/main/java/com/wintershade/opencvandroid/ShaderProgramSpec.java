@@ -0,0 +1,188 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source and uniform layout of one of the renderer's shader programs.
+ *
+ * Samplers are bound to texture units in the order of {@link #samplers()}, so the
+ * renderer binds textures to {@code GL_TEXTURE0 + i} in that same order.
+ */
+public final class ShaderProgramSpec {
+
+    public static final String EDGE_COLOR_UNIFORM = "uEdgeColor";
+    /** vec2 of an {@link #edgeBits()} frame: width in pixels, texture width in bytes. */
+    public static final String BITS_SIZE_UNIFORM = "uBitsSize";
+
+    // BT.601 video range, the same matrix OpenCV's COLOR_YUV2RGB_NV21 uses
+    static final float Y_OFFSET = 16f / 255f;
+    static final float C_OFFSET = 128f / 255f;
+    static final float Y_SCALE = 1.164f;
+    static final float V_TO_R = 1.596f;
+    static final float U_TO_G = -0.391f;
+    static final float V_TO_G = -0.813f;
+    static final float U_TO_B = 2.018f;
+
+    private static final String VERTEX_SHADER =
+            "attribute vec4 aPosition;" +
+                    "attribute vec2 aTexCoord;" +
+                    "varying vec2 vTexCoord;" +
+                    "void main() {" +
+                    "  gl_Position = aPosition;" +
+                    "  vTexCoord = vec2(aTexCoord.y, 1.0 - aTexCoord.x);" +
+                    "}";
+
+    private final String fragmentSource;
+    private final String[] samplers;
+    private final boolean edgeOverlay;
+
+    private ShaderProgramSpec(String fragmentSource, String[] samplers, boolean edgeOverlay) {
+        this.fragmentSource = fragmentSource;
+        this.samplers = samplers;
+        this.edgeOverlay = edgeOverlay;
+    }
+
+    /** Samples a CPU-produced RGBA texture as-is. */
+    public static ShaderProgramSpec rgba() {
+        return new ShaderProgramSpec(
+                "precision mediump float;\n" +
+                        "varying vec2 vTexCoord;\n" +
+                        "uniform sampler2D uTexture;\n" +
+                        "void main() {\n" +
+                        "  gl_FragColor = texture2D(uTexture, vTexCoord);\n" +
+                        "}",
+                new String[]{"uTexture"}, false);
+    }
+
+    /**
+     * Converts NV21 in the shader: Y from a full-size GL_LUMINANCE texture and V/U
+     * from a half-size GL_LUMINANCE_ALPHA texture (V lands in .r, U in .a). With
+     * {@code edgeOverlay}, a single-channel edge mask is blended over the image in
+     * {@link #EDGE_COLOR_UNIFORM}, its alpha scaling the blend.
+     */
+    public static ShaderProgramSpec nv21(boolean edgeOverlay) {
+        StringBuilder src = new StringBuilder()
+                .append("precision mediump float;\n")
+                .append("varying vec2 vTexCoord;\n")
+                .append("uniform sampler2D uTexY;\n")
+                .append("uniform sampler2D uTexVU;\n");
+        if (edgeOverlay) {
+            src.append("uniform sampler2D uTexEdges;\n")
+                    .append("uniform vec4 ").append(EDGE_COLOR_UNIFORM).append(";\n");
+        }
+        src.append("void main() {\n")
+                .append("  float y = ").append(glsl(Y_SCALE))
+                .append(" * (texture2D(uTexY, vTexCoord).r - ").append(glsl(Y_OFFSET)).append(");\n")
+                .append("  vec4 vu = texture2D(uTexVU, vTexCoord);\n")
+                .append("  float v = vu.r - ").append(glsl(C_OFFSET)).append(";\n")
+                .append("  float u = vu.a - ").append(glsl(C_OFFSET)).append(";\n")
+                .append("  vec3 rgb = vec3(y + ").append(glsl(V_TO_R)).append(" * v,\n")
+                .append("                  y + ").append(glsl(U_TO_G)).append(" * u + ")
+                .append(glsl(V_TO_G)).append(" * v,\n")
+                .append("                  y + ").append(glsl(U_TO_B)).append(" * u);\n")
+                .append("  rgb = clamp(rgb, 0.0, 1.0);\n");
+        if (edgeOverlay) {
+            src.append("  float edge = texture2D(uTexEdges, vTexCoord).r;\n")
+                    .append("  rgb = mix(rgb, ").append(EDGE_COLOR_UNIFORM).append(".rgb, edge * ")
+                    .append(EDGE_COLOR_UNIFORM).append(".a);\n");
+        }
+        src.append("  gl_FragColor = vec4(rgb, 1.0);\n")
+                .append("}");
+        String[] samplers = edgeOverlay
+                ? new String[]{"uTexY", "uTexVU", "uTexEdges"}
+                : new String[]{"uTexY", "uTexVU"};
+        return new ShaderProgramSpec(src.toString(), samplers, edgeOverlay);
+    }
+
+    /**
+     * Colours an {@link EdgeFrame} in {@link #EDGE_COLOR_UNIFORM} on black, sampling
+     * its packed bytes from a GL_LUMINANCE texture {@link EdgeFrame#rowBytes} wide,
+     * which needs GL_NEAREST filtering. GLSL ES 1.0 has no integer bit operations, so
+     * the pixel's bit (MSB first) is taken out of its byte with floor and mod; highp
+     * keeps that exact for 4K widths where the device has it.
+     */
+    public static ShaderProgramSpec edgeBits() {
+        String src = "#ifdef GL_FRAGMENT_PRECISION_HIGH\n" +
+                "precision highp float;\n" +
+                "#else\n" +
+                "precision mediump float;\n" +
+                "#endif\n" +
+                "varying vec2 vTexCoord;\n" +
+                "uniform sampler2D uTexBits;\n" +
+                "uniform vec4 " + EDGE_COLOR_UNIFORM + ";\n" +
+                "uniform vec2 " + BITS_SIZE_UNIFORM + ";\n" +
+                "void main() {\n" +
+                "  float x = floor(vTexCoord.x * " + BITS_SIZE_UNIFORM + ".x);\n" +
+                "  float byteIndex = floor(x / 8.0);\n" +
+                "  vec2 at = vec2((byteIndex + 0.5) / " + BITS_SIZE_UNIFORM + ".y, vTexCoord.y);\n" +
+                "  float bits = floor(texture2D(uTexBits, at).r * 255.0 + 0.5);\n" +
+                "  float edge = mod(floor(bits / exp2(7.0 - (x - 8.0 * byteIndex))), 2.0);\n" +
+                "  gl_FragColor = vec4(" + EDGE_COLOR_UNIFORM + ".rgb * (edge * " + EDGE_COLOR_UNIFORM + ".a), 1.0);\n" +
+                "}";
+        return new ShaderProgramSpec(src, new String[]{"uTexBits"}, true);
+    }
+
+    public String vertexSource() {
+        return VERTEX_SHADER;
+    }
+
+    public String fragmentSource() {
+        return fragmentSource;
+    }
+
+    /** Sampler uniform names; the i-th one reads texture unit i. */
+    public String[] samplers() {
+        return samplers.clone();
+    }
+
+    public boolean hasEdgeOverlay() {
+        return edgeOverlay;
+    }
+
+    /**
+     * Points every sampler at its texture unit and returns the edge colour uniform
+     * location (-1 without overlay). Call once after linking.
+     */
+    public int wireUniforms(GlesApi gl, int program) {
+        gl.glUseProgram(program);
+        for (int unit = 0; unit < samplers.length; unit++) {
+            gl.glUniform1i(gl.glGetUniformLocation(program, samplers[unit]), unit);
+        }
+        return edgeOverlay ? gl.glGetUniformLocation(program, EDGE_COLOR_UNIFORM) : -1;
+    }
+
+    /** Reference of the shader's conversion for one pixel, in 0..255 per channel. */
+    static int[] toRgb(int y, int u, int v) {
+        float yf = Y_SCALE * (y / 255f - Y_OFFSET);
+        float uf = u / 255f - C_OFFSET;
+        float vf = v / 255f - C_OFFSET;
+        return new int[]{
+                to8Bit(yf + V_TO_R * vf),
+                to8Bit(yf + U_TO_G * uf + V_TO_G * vf),
+                to8Bit(yf + U_TO_B * uf)
+        };
+    }
+
+    /**
+     * Reference of the edge bits shader at texture x coordinate {@code s} of one packed
+     * row {@code width} pixels wide starting at {@code row}'s index 0; 1 on an edge.
+     */
+    static int edgeBit(ByteBuffer row, int width, float s) {
+        float x = (float) Math.floor(s * width);
+        float byteIndex = (float) Math.floor(x / 8f);
+        // GL_NEAREST: the texel whose centre the coordinate falls on
+        int texel = (int) Math.floor((byteIndex + 0.5f) / EdgeFrame.rowBytes(width) * EdgeFrame.rowBytes(width));
+        float bits = row.get(texel) & 0xff;
+        return (int) (Math.floor(bits / Math.pow(2, 7 - (x - 8 * byteIndex))) % 2);
+    }
+
+    private static int to8Bit(float c) {
+        return Math.round(Math.max(0f, Math.min(1f, c)) * 255f);
+    }
+
+    private static String glsl(float f) {
+        // Locale-independent and always with a decimal point, as GLSL ES requires
+        String s = Float.toString(f);
+        return s.contains(".") || s.contains("E") ? s : s + ".0";
+    }
+}
@@ -0,0 +1,160 @@
+package com.wintershade.opencvandroid;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs frames through a fixed sequence of stages, one worker thread per stage, so
+ * consecutive frames overlap instead of queueing behind each other's full latency.
+ *
+ * Stages are connected by bounded queues. When a queue is full the oldest frame in
+ * it is dropped, never the new one, so under overload the pipeline keeps working on
+ * the freshest frames and latency stays at roughly one frame per queue slot.
+ *
+ * Every submitted frame ends up in exactly one {@link FrameSink} callback, which is
+ * where pooled frames and their resources are returned. That holds when a stage throws
+ * an {@code Error} too: the frame is dropped first, then the Error ends that worker.
+ */
+public class StagedExecutor<F> {
+
+    /** One step of the pipeline; runs on that stage's own worker thread. */
+    public interface Stage<F> {
+        void process(F frame);
+    }
+
+    public interface FrameSink<F> {
+        /** The frame went through every stage. Called on the last worker. */
+        void onCompleted(F frame);
+
+        /**
+         * The frame was discarded: pushed out of a full queue, submitted while
+         * stopped, or a stage threw {@code error} (null otherwise).
+         */
+        void onDropped(F frame, Throwable error);
+    }
+
+    private final String name;
+    private final Stage<F>[] stages;
+    private final ArrayBlockingQueue<F>[] queues; // queues[i] feeds stages[i]
+    private final FrameSink<F> sink;
+    private final Thread[] workers;
+    private volatile boolean running = false;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @SafeVarargs
+    @SuppressWarnings({"unchecked", "rawtypes", "varargs"})
+    public StagedExecutor(String name, int queueCapacity, FrameSink<F> sink, Stage<F>... stages) {
+        if (stages.length == 0) throw new IllegalArgumentException("no stages");
+        this.name = name;
+        this.stages = stages.clone();
+        this.sink = sink;
+        queues = new ArrayBlockingQueue[stages.length];
+        for (int i = 0; i < stages.length; i++) queues[i] = new ArrayBlockingQueue<>(queueCapacity);
+        workers = new Thread[stages.length];
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        for (int i = 0; i < stages.length; i++) {
+            final int stage = i;
+            workers[i] = new Thread(() -> work(stage), name + "-" + i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Stops the workers and drops whatever is still queued. Blocks until they exit;
+     * stop the submitting thread first so nothing arrives after the final drain.
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        for (Thread worker : workers) worker.interrupt();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (ArrayBlockingQueue<F> queue : queues) {
+            F frame;
+            while ((frame = queue.poll()) != null) drop(frame, null);
+        }
+    }
+
+    /** Hands a frame to the first stage; never blocks. */
+    public void submit(F frame) {
+        submitted.incrementAndGet();
+        if (!running) {
+            drop(frame, null);
+            return;
+        }
+        enqueue(0, frame);
+    }
+
+    private void enqueue(int stage, F frame) {
+        ArrayBlockingQueue<F> queue = queues[stage];
+        while (!queue.offer(frame)) {
+            F oldest = queue.poll();
+            if (oldest != null) drop(oldest, null);
+        }
+    }
+
+    private void work(int stage) {
+        ArrayBlockingQueue<F> in = queues[stage];
+        while (running) {
+            F frame;
+            try {
+                frame = in.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                stages[stage].process(frame);
+            } catch (Throwable e) {
+                failed.incrementAndGet();
+                drop(frame, e);
+                if (e instanceof Error) throw (Error) e; // only once the frame is back
+                continue;
+            }
+            if (stage + 1 < stages.length) {
+                enqueue(stage + 1, frame);
+            } else {
+                completed.incrementAndGet();
+                sink.onCompleted(frame);
+            }
+        }
+    }
+
+    private void drop(F frame, Throwable error) {
+        dropped.incrementAndGet();
+        sink.onDropped(frame, error);
+    }
+
+    public int stageCount() {
+        return stages.length;
+    }
+
+    public long submitted() {
+        return submitted.get();
+    }
+
+    public long completed() {
+        return completed.get();
+    }
+
+    /** Frames discarded for any reason, including {@link #failed()} ones. */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+}
@@ -0,0 +1,170 @@
+package com.wintershade.opencvandroid;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Streams frames into one GL texture. Storage is allocated with glTexImage2D only
+ * when the frame size changes; every other frame is a glTexSubImage2D into the
+ * existing storage.
+ *
+ * On ES 3.0+ contexts frames can instead go through two pixel unpack buffers used
+ * alternately: the frame is written into a freshly invalidated PBO and the texture is
+ * updated from it, so the driver copies asynchronously and the next frame writes the
+ * other PBO rather than waiting for that transfer.
+ */
+public class TextureUploader {
+
+    public enum Path { SUB_IMAGE, PBO }
+
+    /** Receives the cost of every upload; called on the GL thread. */
+    public interface UploadMetrics {
+        UploadMetrics NONE = (path, bytes, nanos) -> { };
+
+        void onTextureUploaded(Path path, int bytes, long nanos);
+    }
+
+    private final GlesApi gl;
+    private final int format;
+    private final int bytesPerPixel;
+    private volatile UploadMetrics metrics = UploadMetrics.NONE;
+    private volatile boolean pboAllowed = true;
+
+    private Path path = Path.SUB_IMAGE;
+    private int textureId = 0;
+    private int texWidth = 0, texHeight = 0;
+    private final int[] pbos = new int[2];
+    private int pboSize = 0;
+    private int nextPbo = 0;
+
+    /**
+     * @param format GL pixel format of the frames, used for both storage and uploads
+     *               (e.g. {@code GL_RGBA}, {@code GL_LUMINANCE})
+     */
+    public TextureUploader(GlesApi gl, int format, int bytesPerPixel) {
+        this.gl = gl;
+        this.format = format;
+        this.bytesPerPixel = bytesPerPixel;
+    }
+
+    public void setMetrics(UploadMetrics metrics) {
+        this.metrics = metrics != null ? metrics : UploadMetrics.NONE;
+    }
+
+    /** Whether the PBO path may be picked on ES 3.0+; takes effect at the next surface. */
+    public void setPboAllowed(boolean allowed) {
+        this.pboAllowed = allowed;
+    }
+
+    /**
+     * Call from {@code onSurfaceCreated} with a freshly generated texture. Picks the
+     * upload path for this context; all previous GL state is assumed lost.
+     */
+    public void onSurfaceCreated(int textureId) {
+        this.textureId = textureId;
+        texWidth = texHeight = 0;
+        pboSize = 0;
+        nextPbo = 0;
+        path = pboAllowed && majorVersion(gl.glGetString(GLES20.GL_VERSION)) >= 3
+                ? Path.PBO : Path.SUB_IMAGE;
+        if (path == Path.PBO) {
+            gl.glGenBuffers(2, pbos, 0);
+        }
+        // Single-channel rows are not 4-byte aligned in general
+        gl.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public int width() {
+        return texWidth;
+    }
+
+    public int height() {
+        return texHeight;
+    }
+
+    /** Uploads a tightly packed frame; {@code pixels} is read from position 0. */
+    public void upload(ByteBuffer pixels, int width, int height) {
+        upload(pixels, 0, width, height);
+    }
+
+    /** Uploads a tightly packed image that starts {@code offset} bytes into {@code pixels}. */
+    public void upload(ByteBuffer pixels, int offset, int width, int height) {
+        long start = System.nanoTime();
+        int bytes = width * height * bytesPerPixel;
+
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        if (width != texWidth || height != texHeight) {
+            gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                    format, GLES20.GL_UNSIGNED_BYTE, null);
+            texWidth = width;
+            texHeight = height;
+        }
+
+        pixels.limit(offset + bytes);
+        pixels.position(offset);
+        if (path == Path.PBO && uploadThroughPbo(pixels, bytes)) {
+            metrics.onTextureUploaded(Path.PBO, bytes, System.nanoTime() - start);
+            return;
+        }
+        gl.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                format, GLES20.GL_UNSIGNED_BYTE, pixels);
+        metrics.onTextureUploaded(Path.SUB_IMAGE, bytes, System.nanoTime() - start);
+    }
+
+    private boolean uploadThroughPbo(ByteBuffer pixels, int bytes) {
+        int offset = pixels.position();
+        if (bytes != pboSize) {
+            for (int pbo : pbos) {
+                gl.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, pbo);
+                gl.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, bytes, null, GLES30.GL_STREAM_DRAW);
+            }
+            pboSize = bytes;
+        }
+
+        gl.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, pbos[nextPbo]);
+        nextPbo ^= 1;
+        Buffer mapped = gl.glMapBufferRange(GLES30.GL_PIXEL_UNPACK_BUFFER, 0, bytes,
+                GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (!(mapped instanceof ByteBuffer)) {
+            // Driver refused the mapping; stay on plain sub-image uploads from now on
+            gl.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+            gl.glDeleteBuffers(2, pbos, 0);
+            path = Path.SUB_IMAGE;
+            return false;
+        }
+        ((ByteBuffer) mapped).put(pixels);
+        boolean intact = gl.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+        if (intact) {
+            gl.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, texWidth, texHeight,
+                    format, GLES20.GL_UNSIGNED_BYTE, 0);
+        }
+        gl.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+        if (!intact) {
+            // Buffer contents were lost (e.g. display mode change); send this frame directly
+            pixels.position(offset);
+            return false;
+        }
+        return true;
+    }
+
+    /** Major version from a GL_VERSION string such as "OpenGL ES 3.2 V@415.0"; 0 if unknown. */
+    static int majorVersion(String glVersion) {
+        if (glVersion == null) return 0;
+        String prefix = "OpenGL ES ";
+        int i = glVersion.indexOf(prefix);
+        if (i < 0) return 0;
+        i += prefix.length();
+        int major = 0;
+        while (i < glVersion.length() && Character.isDigit(glVersion.charAt(i))) {
+            major = major * 10 + (glVersion.charAt(i++) - '0');
+        }
+        return major;
+    }
+}
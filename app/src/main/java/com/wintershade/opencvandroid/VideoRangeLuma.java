@@ -0,0 +1,37 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The gray level {@code COLOR_YUV2RGBA_NV21} followed by {@code COLOR_RGBA2GRAY}
+ * gives a pixel, from its Y value alone.
+ *
+ * Camera Y is BT.601 video range (16..235), which the conversion stretches to full
+ * range: gray = 1.164 (Y - 16). Filtering the Y plane as it is would see gradients
+ * 14% weaker than the RGBA path and a lifted black level, so the luma-direct paths
+ * run Y through this table first. It follows OpenCV's fixed-point arithmetic and is
+ * exact for neutral chroma; elsewhere chroma only enters the gray level through the
+ * rounding of each RGB channel, within one level, unless a channel clips.
+ *
+ * {@code opencvandroid.cpp} has the same table for the native paths.
+ */
+public final class VideoRangeLuma {
+
+    // OpenCV's ITUR_BT_601_CY and ITUR_BT_601_SHIFT: 1.164 in 20-bit fixed point
+    static final int CY = 1220542;
+    static final int SHIFT = 20;
+
+    private VideoRangeLuma() {}
+
+    /** Gray level of a pixel with luma {@code y} (0..255) and neutral chroma. */
+    public static int expand(int y) {
+        return Math.min(255, (Math.max(0, y - 16) * CY + (1 << (SHIFT - 1))) >> SHIFT);
+    }
+
+    /** The 256-entry table, as a direct buffer for a {@code Core.LUT} Mat. */
+    public static ByteBuffer newTable() {
+        ByteBuffer table = ByteBuffer.allocateDirect(256);
+        for (int y = 0; y < 256; y++) table.put(y, (byte) expand(y));
+        return table;
+    }
+}
@@ -0,0 +1,22 @@
+package com.wintershade.opencvandroid;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/** Reads the bytes allocated by the current thread, where the host JVM supports it. */
+final class AllocationMeter {
+
+    // Looked up once so that reading the meter doesn't itself allocate
+    private static final ThreadMXBean BEAN = ManagementFactory.getThreadMXBean();
+
+    private AllocationMeter() {}
+
+    static boolean isSupported() {
+        return BEAN instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) BEAN).isThreadAllocatedMemorySupported();
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
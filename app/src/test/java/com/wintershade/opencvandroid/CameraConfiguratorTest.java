@@ -0,0 +1,124 @@
+package com.wintershade.opencvandroid;
+
+import android.hardware.camera2.CameraMetadata;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CameraConfiguratorTest {
+
+    private static final long NS_30 = 33_333_333L;
+    private static final long NS_60 = 16_666_666L;
+    private static final long NS_15 = 66_666_666L;
+
+    private static final int[][] SIZES = {{4000, 3000}, {1920, 1080}, {1280, 720}, {960, 540}, {640, 480},
+            {640, 360}, {320, 180}};
+    private static final int[] ALL_AF = {CameraMetadata.CONTROL_AF_MODE_OFF, CameraMetadata.CONTROL_AF_MODE_AUTO,
+            CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE};
+
+    /** Typical FULL back camera: 60 fps up to 720p, 30 fps at 1080p, 15 fps at full sensor. */
+    private static CameraConfigurator.Camera back(String id) {
+        return new CameraConfigurator.Camera(id, CameraMetadata.LENS_FACING_BACK,
+                CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL, SIZES,
+                new long[]{NS_15, NS_30, NS_60, NS_60, NS_60, NS_60, NS_60},
+                new int[][]{{15, 30}, {30, 30}, {7, 60}, {60, 60}}, ALL_AF);
+    }
+
+    /** Front camera that streams everything at 30 fps but only has floating ranges and fixed focus. */
+    private static CameraConfigurator.Camera front(String id) {
+        return new CameraConfigurator.Camera(id, CameraMetadata.LENS_FACING_FRONT,
+                CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED, SIZES,
+                new long[]{NS_30, NS_30, NS_30, NS_30, NS_30, NS_30, NS_30},
+                new int[][]{{7, 30}, {15, 30}}, new int[]{CameraMetadata.CONTROL_AF_MODE_OFF});
+    }
+
+    private static CameraConfigurator configurator(int fps, long analysisPixels) {
+        return new CameraConfigurator(1280, 720, 1920 * 1080, fps, analysisPixels);
+    }
+
+    @Test
+    public void prefersBackCameraAndFixedRangeAtTarget() {
+        CameraConfigurator.Config c = configurator(30, 0).select(
+                new CameraConfigurator.Camera[]{front("1"), back("0")});
+        assertEquals("camera 0 1280x720 @30-30 fps af " + CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO,
+                c.toString());
+        assertFalse(c.hasAnalysisStream());
+    }
+
+    @Test
+    public void governorSizesOnlyIncludeThoseThatKeepUp() {
+        CameraConfigurator.Config c = configurator(60, 0).select(new CameraConfigurator.Camera[]{back("0")});
+        // 1080p tops out at 30 fps; 640x480 has the wrong aspect ratio
+        assertArrayEquals(new int[]{1280, 720}, c.sizes[0]);
+        assertEquals(4, c.sizes.length);
+        assertArrayEquals(new int[]{320, 180}, c.sizes[3]);
+        assertEquals(60, c.fpsMin);
+        assertEquals(60, c.fpsMax);
+    }
+
+    @Test
+    public void rangeSuitsTheSlowestSizeTheGovernorMayPick() {
+        CameraConfigurator.Config c = configurator(30, 0).select(new CameraConfigurator.Camera[]{back("0")});
+        // 60 fps would be out of reach at 1080p
+        assertArrayEquals(new int[]{1920, 1080}, c.sizes[0]);
+        assertEquals(30, c.fpsMin);
+        assertEquals(30, c.fpsMax);
+    }
+
+    @Test
+    public void fallsBackToFloatingRangeWithHighestMinimum() {
+        CameraConfigurator.Config c = configurator(30, 0).select(new CameraConfigurator.Camera[]{front("1")});
+        assertEquals(15, c.fpsMin);
+        assertEquals(30, c.fpsMax);
+        assertEquals(CameraMetadata.CONTROL_AF_MODE_OFF, c.afMode);
+    }
+
+    @Test
+    public void cameraThatKeepsUpBeatsBackCameraThatDoesnt() {
+        CameraConfigurator.Camera slowBack = new CameraConfigurator.Camera("0", CameraMetadata.LENS_FACING_BACK,
+                CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY, new int[][]{{1280, 720}},
+                new long[]{NS_15}, new int[][]{{15, 15}}, ALL_AF);
+        CameraConfigurator.Config c = configurator(30, 0).select(
+                new CameraConfigurator.Camera[]{slowBack, front("1")});
+        assertEquals("1", c.cameraId);
+        assertEquals("camera 1 1280x720 @15-30 fps af 0", c.toString());
+    }
+
+    @Test
+    public void keepsPreferredSizeWhenNothingKeepsUp() {
+        CameraConfigurator.Camera slow = new CameraConfigurator.Camera("0", CameraMetadata.LENS_FACING_BACK,
+                CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY, new int[][]{{1280, 720}},
+                new long[]{NS_15}, new int[][]{{15, 15}}, new int[]{CameraMetadata.CONTROL_AF_MODE_AUTO});
+        CameraConfigurator.Config c = configurator(30, 0).select(new CameraConfigurator.Camera[]{slow});
+        assertEquals("camera 0 1280x720 af " + CameraMetadata.CONTROL_AF_MODE_AUTO, c.toString());
+        assertEquals(0, c.fpsMax);
+    }
+
+    @Test
+    public void analysisStreamIsSmallestSameAspectSizeAboveTarget() {
+        CameraConfigurator.Config c = configurator(30, 500 * 300).select(new CameraConfigurator.Camera[]{back("0")});
+        assertTrue(c.hasAnalysisStream());
+        assertEquals(640, c.analysisWidth);
+        assertEquals(360, c.analysisHeight);
+    }
+
+    @Test
+    public void noAnalysisStreamOnLegacyDevices() {
+        CameraConfigurator.Camera legacy = new CameraConfigurator.Camera("0", CameraMetadata.LENS_FACING_BACK,
+                CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY, SIZES, new long[SIZES.length],
+                new int[][]{{30, 30}}, ALL_AF);
+        assertFalse(configurator(30, 500 * 300).select(new CameraConfigurator.Camera[]{legacy}).hasAnalysisStream());
+    }
+
+    @Test
+    public void noCamerasGiveNoConfig() {
+        assertNull(configurator(30, 0).select(new CameraConfigurator.Camera[0]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMismatchedFrameDurations() {
+        new CameraConfigurator.Camera("0", CameraMetadata.LENS_FACING_BACK,
+                CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_FULL, SIZES, new long[1], new int[0][], ALL_AF);
+    }
+}
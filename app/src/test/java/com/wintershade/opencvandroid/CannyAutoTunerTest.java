@@ -0,0 +1,138 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CannyAutoTunerTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    /** A Y plane of {@code mean - spread} and {@code mean + spread} pixels at random. */
+    private static ByteBuffer scene(int mean, int spread, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer luma = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            luma.put(i, (byte) (random.nextBoolean() ? mean - spread : mean + spread));
+        }
+        return luma;
+    }
+
+    private static void run(CannyAutoTuner tuner, ByteBuffer luma, int frames) {
+        for (int i = 0; i < frames; i++) tuner.update(luma, WIDTH, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void medianRuleBracketsTheMedianLuma() {
+        // A ramp: the median is the middle value, 120
+        ByteBuffer luma = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) luma.put(i, (byte) (i % WIDTH * 240 / WIDTH));
+        CannyAutoTuner tuner = new CannyAutoTuner(CannyAutoTuner.Rule.MEDIAN);
+        run(tuner, luma, CannyAutoTuner.SETTLE_FRAMES);
+        assertEquals(80f, tuner.low(), 2f);
+        assertEquals(160f, tuner.high(), 2f);
+    }
+
+    @Test
+    public void histogramCountsTheStretchedLuma() {
+        // Y 200 is gray 214 once stretched to full range, the level Canny sees
+        ByteBuffer luma = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) luma.put(i, (byte) 200);
+        CannyAutoTuner tuner = new CannyAutoTuner(CannyAutoTuner.Rule.MEDIAN);
+        run(tuner, luma, 1);
+        assertEquals(Math.round((1 - CannyAutoTuner.MEDIAN_SIGMA) * VideoRangeLuma.expand(200)), tuner.low(), 0f);
+        assertEquals(255f, tuner.high(), 0f);
+    }
+
+    @Test
+    public void otsuRuleSplitsTwoPopulations() {
+        float[] histogram = new float[256];
+        for (int v = 30; v <= 50; v++) histogram[v] = 10;
+        for (int v = 190; v <= 210; v++) histogram[v] = 30;
+        int t = CannyAutoTuner.otsu(histogram, 21 * 40);
+        assertTrue("threshold " + t, t >= 50 && t < 190);
+
+        CannyAutoTuner tuner = new CannyAutoTuner(CannyAutoTuner.Rule.OTSU);
+        run(tuner, scene(120, 80, 1), CannyAutoTuner.SETTLE_FRAMES);
+        // Between the two populations once stretched to full range
+        assertTrue("high " + tuner.high(),
+                tuner.high() >= VideoRangeLuma.expand(40) && tuner.high() < VideoRangeLuma.expand(200));
+        assertEquals(tuner.high() / 2, tuner.low(), 0.5f);
+    }
+
+    @Test
+    public void thresholdsFollowTheLighting() {
+        CannyAutoTuner tuner = new CannyAutoTuner(CannyAutoTuner.Rule.MEDIAN);
+        run(tuner, scene(200, 30, 1), CannyAutoTuner.SETTLE_FRAMES);
+        float bright = tuner.high();
+        run(tuner, scene(40, 10, 2), CannyAutoTuner.SETTLE_FRAMES);
+        assertTrue(bright + " vs " + tuner.high(), tuner.high() < bright / 3);
+    }
+
+    @Test
+    public void flatBlackSceneKeepsAHysteresisBand() {
+        CannyAutoTuner tuner = new CannyAutoTuner(CannyAutoTuner.Rule.MEDIAN);
+        run(tuner, ByteBuffer.allocateDirect(WIDTH * HEIGHT), 1);
+        assertEquals(1f, tuner.low(), 0f);
+        assertEquals(2f, tuner.high(), 0f);
+    }
+
+    @Test
+    public void recurringSceneTakesItsCachedProfileAtOnce() {
+        CannyAutoTuner tuner = new CannyAutoTuner(CannyAutoTuner.Rule.MEDIAN);
+        ByteBuffer day = scene(180, 40, 1), night = scene(50, 15, 2);
+        run(tuner, day, CannyAutoTuner.SETTLE_FRAMES);
+        float dayLow = tuner.low(), dayHigh = tuner.high();
+        run(tuner, night, CannyAutoTuner.SETTLE_FRAMES);
+        assertEquals(2, tuner.tunes());
+        assertEquals(2, tuner.profiles());
+        assertEquals(0, tuner.hits());
+
+        run(tuner, day, 1);
+        assertEquals(1, tuner.hits());
+        assertEquals(dayLow, tuner.low(), 0f);
+        assertEquals(dayHigh, tuner.high(), 0f);
+        assertTrue(tuner.describe(), tuner.describe().contains("(cached)"));
+        run(tuner, day, 2 * CannyAutoTuner.SETTLE_FRAMES);
+        assertEquals(2, tuner.tunes()); // not tuned again
+    }
+
+    @Test
+    public void cacheEvictsTheLeastRecentlyUsedScene() {
+        // Neighbouring scenes differ by 30 in mean or 15 in spread, more than one bucket
+        ByteBuffer[] scenes = new ByteBuffer[CannyAutoTuner.MAX_PROFILES + 1];
+        for (int i = 0; i < scenes.length; i++) {
+            scenes[i] = scene(40 + 30 * (i % 6), 5 + 15 * (i / 6), i);
+        }
+        CannyAutoTuner tuner = new CannyAutoTuner(CannyAutoTuner.Rule.MEDIAN);
+        for (int i = 0; i < CannyAutoTuner.MAX_PROFILES; i++) run(tuner, scenes[i], CannyAutoTuner.SETTLE_FRAMES);
+        assertEquals(CannyAutoTuner.MAX_PROFILES, tuner.profiles());
+        run(tuner, scenes[0], 1); // scene 1 is now the oldest
+        assertEquals(1, tuner.hits());
+        run(tuner, scenes[CannyAutoTuner.MAX_PROFILES], CannyAutoTuner.SETTLE_FRAMES);
+        assertEquals(CannyAutoTuner.MAX_PROFILES, tuner.profiles());
+
+        run(tuner, scenes[0], 1);
+        assertEquals(2, tuner.hits());
+        run(tuner, scenes[1], 1);
+        assertEquals(2, tuner.hits()); // evicted, tuned again
+        run(tuner, scenes[1], CannyAutoTuner.SETTLE_FRAMES);
+        assertEquals(CannyAutoTuner.MAX_PROFILES + 2, tuner.tunes());
+    }
+
+    @Test
+    public void updateDoesNotAllocate() {
+        if (!AllocationMeter.isSupported()) return;
+        CannyAutoTuner tuner = new CannyAutoTuner(CannyAutoTuner.Rule.OTSU);
+        ByteBuffer a = scene(180, 40, 1), b = scene(50, 15, 2);
+        run(tuner, a, 100);
+        long before = AllocationMeter.allocatedBytes();
+        for (int i = 0; i < 50; i++) run(tuner, i % 2 == 0 ? a : b, 10);
+        long allocated = AllocationMeter.allocatedBytes() - before;
+        assertTrue("allocated " + allocated + " bytes over 500 frames", allocated < 1024);
+    }
+}
@@ -0,0 +1,118 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EdgeFeatureStreamTest {
+
+    private final EdgeFeatureStream stream = new EdgeFeatureStream();
+
+    @After
+    public void tearDown() {
+        stream.close();
+    }
+
+    private static EdgeFeatures frame(int edges) {
+        EdgeFeatures f = new EdgeFeatures();
+        f.putInt(EdgeFeatures.WIDTH, 320);
+        f.putInt(EdgeFeatures.HEIGHT, 240);
+        f.putInt(EdgeFeatures.EDGE_PIXELS, edges);
+        return f;
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        assertTrue("timed out", latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void everySubscriberGetsTheStampedCopy() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(2);
+        List<String> seen = new CopyOnWriteArrayList<>();
+        EdgeFeatureStream.Subscriber record = f -> {
+            seen.add(f.sequence() + ":" + f.edgePixels() + "@" + f.timestampNanos());
+            received.countDown();
+        };
+        stream.subscribe(record);
+        stream.subscribe(record);
+        assertTrue(stream.hasSubscribers());
+        stream.start();
+
+        EdgeFeatures features = frame(99);
+        stream.publish(features, 5_000L);
+        features.putInt(EdgeFeatures.EDGE_PIXELS, 0); // the stream has its own copy
+        await(received);
+        assertEquals(2, seen.size());
+        assertEquals("1:99@5000", seen.get(0));
+        assertEquals(seen.get(0), seen.get(1));
+    }
+
+    @Test
+    public void slowSubscriberGetsTheLatestAndNeverBlocksThePublisher() throws InterruptedException {
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+        stream.subscribe(f -> {
+            seen.add(f.edgePixels());
+            first.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        stream.start();
+
+        stream.publish(frame(1), 0);
+        await(first);
+        long start = System.nanoTime();
+        for (int i = 2; i <= 100; i++) stream.publish(frame(i), 0); // subscriber is stuck on 1
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        release.countDown();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!seen.contains(100) && System.nanoTime() < deadline) Thread.sleep(5);
+        assertEquals(Integer.valueOf(1), seen.get(0));
+        assertEquals(Integer.valueOf(100), seen.get(seen.size() - 1));
+        assertTrue("backlog delivered: " + seen, seen.size() <= 3);
+        assertEquals(100, stream.published());
+    }
+
+    @Test
+    public void failingSubscriberDoesNotStopTheOthers() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(1);
+        stream.subscribe(f -> {
+            throw new IllegalStateException("broken consumer");
+        });
+        stream.subscribe(f -> received.countDown());
+        stream.start();
+        stream.publish(frame(3), 0);
+        await(received);
+        assertEquals(1, stream.failures());
+    }
+
+    @Test
+    public void unsubscribedGetsNothing() throws InterruptedException {
+        CountDownLatch received = new CountDownLatch(1);
+        List<Integer> removed = new CopyOnWriteArrayList<>();
+        EdgeFeatureStream.Subscriber gone = f -> removed.add(f.edgePixels());
+        stream.subscribe(gone);
+        stream.subscribe(f -> received.countDown());
+        stream.unsubscribe(gone);
+        stream.start();
+        stream.publish(frame(4), 0);
+        await(received);
+        assertTrue(removed.isEmpty());
+    }
+
+    @Test
+    public void closeWithoutStartReturns() {
+        new EdgeFeatureStream().close();
+    }
+}
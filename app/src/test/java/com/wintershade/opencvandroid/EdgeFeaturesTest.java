@@ -0,0 +1,114 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class EdgeFeaturesTest {
+
+    /** Fills the fields edge_features.cpp writes, the way it lays them out. */
+    private static void nativeResult(EdgeFeatures f, int width, int height, int edges, int[] links,
+                                     int[] regionEdges, int[] regionPixels, int contours, int[][] boxes) {
+        f.putInt(EdgeFeatures.WIDTH, width);
+        f.putInt(EdgeFeatures.HEIGHT, height);
+        f.putInt(EdgeFeatures.EDGE_PIXELS, edges);
+        for (int i = 0; i < 4; i++) f.putInt(EdgeFeatures.LINKS + i, links[i]);
+        for (int i = 0; i < regionEdges.length; i++) {
+            f.putInt(EdgeFeatures.REGION_EDGES + i, regionEdges[i]);
+            f.putInt(EdgeFeatures.REGION_PIXELS + i, regionPixels[i]);
+        }
+        f.putInt(EdgeFeatures.CONTOUR_COUNT, contours);
+        f.putInt(EdgeFeatures.BOX_COUNT, boxes.length);
+        for (int i = 0; i < boxes.length; i++) {
+            f.putInt(EdgeFeatures.BOX_X + i, boxes[i][0]);
+            f.putInt(EdgeFeatures.BOX_Y + i, boxes[i][1]);
+            f.putInt(EdgeFeatures.BOX_W + i, boxes[i][2]);
+            f.putInt(EdgeFeatures.BOX_H + i, boxes[i][3]);
+            f.putInt(EdgeFeatures.BOX_PIXELS + i, boxes[i][4]);
+        }
+    }
+
+    @Test
+    public void layoutMatchesTheNativeHeader() {
+        // edge_features.h: 16 header ints, 4 float and 2 int arrays of 16 regions, 5 arrays of 64 boxes
+        assertEquals(4 * (16 + 6 * 16 + 5 * 64), EdgeFeatures.BYTES);
+        assertEquals(16, EdgeFeatures.REGION_X);
+        assertEquals(80, EdgeFeatures.REGION_EDGES);
+        assertEquals(112, EdgeFeatures.BOX_X);
+        assertEquals(368, EdgeFeatures.BOX_PIXELS);
+        assertEquals(0, (4 * EdgeFeatures.TIMESTAMP) % 8);
+        assertTrue(EdgeFeatures.SEQUENCE < EdgeFeatures.TIMESTAMP);
+    }
+
+    @Test
+    public void gridCoversTheFrameRowByRow() {
+        EdgeFeatures f = new EdgeFeatures();
+        assertEquals(1, f.regionCount());
+        f.setGrid(4, 2);
+        assertEquals(8, f.regionCount());
+        assertEquals(0.75f, f.regionX(3), 0);
+        assertEquals(0f, f.regionY(3), 0);
+        assertEquals(0.25f, f.regionX(5), 0);
+        assertEquals(0.5f, f.regionY(5), 0);
+        assertEquals(0.25f, f.regionWidth(5), 0);
+        assertEquals(0.5f, f.regionHeight(5), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMoreThanMaxRegions() {
+        new EdgeFeatures().setGrid(5, 4);
+    }
+
+    @Test
+    public void readsDensitiesOrientationAndBoxes() {
+        EdgeFeatures f = new EdgeFeatures();
+        f.setGrid(2, 1);
+        nativeResult(f, 100, 50, 250, new int[]{10, 3, 180, 2}, new int[]{200, 50}, new int[]{2500, 2500},
+                3, new int[][]{{10, 5, 4, 40, 120}, {60, 2, 30, 3, 60}});
+        assertEquals(0.05f, f.density(), 1e-6);
+        assertEquals(0.08f, f.regionDensity(0), 1e-6);
+        assertEquals(0.02f, f.regionDensity(1), 1e-6);
+        assertEquals(90, f.dominantOrientation());
+        assertEquals(3, f.contourCount());
+        assertEquals(2, f.boxCount());
+        assertEquals(60, f.boxX(1));
+        assertEquals(3, f.boxHeight(1));
+        assertEquals(120, f.boxPixels(0));
+        assertEquals("edges 5.0%, mostly 90\u00b0, 3 contours", f.describe());
+    }
+
+    @Test
+    public void emptyFrameHasNoOrientationAndNoDensity() {
+        EdgeFeatures f = new EdgeFeatures();
+        assertEquals(-1, f.dominantOrientation());
+        assertEquals(0f, f.density(), 0);
+        assertEquals(0f, f.regionDensity(0), 0);
+    }
+
+    @Test
+    public void copyAndViewShareOneLayout() {
+        EdgeFeatures f = new EdgeFeatures();
+        f.setMinContourPixels(12);
+        nativeResult(f, 64, 48, 7, new int[]{0, 0, 0, 6}, new int[]{7}, new int[]{3072}, 1,
+                new int[][]{{1, 2, 3, 4, 7}});
+        f.stamp(42, 123_456_789L);
+
+        ByteBuffer slot = ByteBuffer.allocateDirect(EdgeFeatures.BYTES).order(ByteOrder.nativeOrder());
+        EdgeFeatures view = EdgeFeatures.view(slot);
+        view.copyFrom(f);
+        assertEquals(42, view.sequence());
+        assertEquals(123_456_789L, view.timestampNanos());
+        assertEquals(135, view.dominantOrientation());
+        assertEquals(7, view.boxPixels(0));
+        assertEquals(12, slot.getInt(4 * EdgeFeatures.MIN_CONTOUR_PIXELS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void viewNeedsTheWholeBlockInNativeOrder() {
+        ByteOrder other = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        EdgeFeatures.view(ByteBuffer.allocateDirect(EdgeFeatures.BYTES).order(other));
+    }
+}
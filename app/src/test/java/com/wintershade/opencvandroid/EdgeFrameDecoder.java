@@ -0,0 +1,44 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** Test-side mirror of the web viewer's decoder for {@link EdgeFrameEncoder} messages. */
+final class EdgeFrameDecoder {
+
+    int type, width, height, sequence;
+    private byte[] bits = new byte[0];
+
+    /** Applies one message; returns the full packed frame it describes. */
+    byte[] decode(byte[] message, int length) throws DataFormatException {
+        ByteBuffer header = ByteBuffer.wrap(message, 0, EdgeFrameEncoder.HEADER_BYTES);
+        if (header.get() != EdgeFrameEncoder.VERSION) throw new DataFormatException("version");
+        type = header.get();
+        width = header.getShort() & 0xffff;
+        height = header.getShort() & 0xffff;
+        sequence = header.getInt();
+        int size = EdgeFrameEncoder.packedSize(width, height);
+        byte[] payload = new byte[size];
+        Inflater inflater = new Inflater();
+        inflater.setInput(message, EdgeFrameEncoder.HEADER_BYTES, length - EdgeFrameEncoder.HEADER_BYTES);
+        int n = inflater.inflate(payload);
+        boolean finished = inflater.finished();
+        inflater.end();
+        if (n != size || !finished) throw new DataFormatException("payload of " + n + " bytes, expected " + size);
+        if (type == EdgeFrameEncoder.TYPE_KEY) {
+            bits = payload;
+        } else {
+            if (bits.length != size) throw new DataFormatException("delta without a key frame");
+            for (int i = 0; i < size; i++) bits[i] ^= payload[i];
+        }
+        return bits.clone();
+    }
+
+    /** A mask plane (0 or 255 per pixel) packed the way {@link EdgeStreamServer#publish} packs it. */
+    static byte[] pack(byte[] mask, int width, int height) {
+        ByteBuffer packed = ByteBuffer.allocate(EdgeFrameEncoder.packedSize(width, height));
+        EdgeFrameEncoder.pack(ByteBuffer.wrap(mask), 0, 1, width, width, height, packed);
+        return packed.array();
+    }
+}
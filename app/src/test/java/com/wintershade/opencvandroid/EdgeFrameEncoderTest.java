@@ -0,0 +1,111 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EdgeFrameEncoderTest {
+
+    private static byte[] edges(int width, int height, int shift) {
+        byte[] mask = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((x + shift) % 17 == 0 || (y * 3 + x) % 41 == 0) mask[y * width + x] = (byte) 255;
+            }
+        }
+        return mask;
+    }
+
+    @Test
+    public void packsOneBitPerPixelMsbFirst() {
+        byte[] mask = {(byte) 255, 0, 0, 0, 0, 0, 0, (byte) 200, 127, (byte) 128};
+        byte[] packed = EdgeFrameDecoder.pack(mask, 5, 2);
+        assertArrayEquals(new byte[]{(byte) 0x81, (byte) 0x40}, packed);
+    }
+
+    @Test
+    public void packsFromAPixelStrideAndRowStride() {
+        // 3x2 RGBA with 4 bytes of row padding; only R decides
+        int rowStride = 3 * 4 + 4;
+        ByteBuffer rgba = ByteBuffer.allocate(rowStride * 2);
+        rgba.put(0, (byte) 255).put(4 + 1, (byte) 255).put(rowStride + 8, (byte) 255).put(12, (byte) 255);
+        ByteBuffer packed = ByteBuffer.allocate(1);
+        EdgeFrameEncoder.pack(rgba, 0, 4, rowStride, 3, 2, packed);
+        assertEquals((byte) 0b10000100, packed.get(0));
+    }
+
+    @Test
+    public void deltasRoundTripAndShrinkForStaticScenes() throws Exception {
+        int w = 320, h = 240;
+        EdgeFrameEncoder encoder = new EdgeFrameEncoder();
+        EdgeFrameDecoder decoder = new EdgeFrameDecoder();
+
+        byte[] first = EdgeFrameDecoder.pack(edges(w, h, 0), w, h);
+        int keyLength = encoder.encode(first, w, h);
+        assertArrayEquals(first, decoder.decode(encoder.buffer(), keyLength));
+        assertEquals(EdgeFrameEncoder.TYPE_KEY, decoder.type);
+        assertEquals(w, decoder.width);
+        assertEquals(h, decoder.height);
+        assertEquals(1, decoder.sequence);
+
+        int staticLength = encoder.encode(first, w, h);
+        assertArrayEquals(first, decoder.decode(encoder.buffer(), staticLength));
+        assertEquals(EdgeFrameEncoder.TYPE_DELTA, decoder.type);
+        assertTrue("static delta " + staticLength + " vs key " + keyLength, staticLength * 10 < keyLength);
+
+        byte[] moved = EdgeFrameDecoder.pack(edges(w, h, 1), w, h);
+        int movedLength = encoder.encode(moved, w, h);
+        assertArrayEquals(moved, decoder.decode(encoder.buffer(), movedLength));
+        assertEquals(3, decoder.sequence);
+    }
+
+    @Test
+    public void noiseRoundTripsWithinTheOutputBound() throws Exception {
+        int w = 97, h = 31;
+        Random random = new Random(7);
+        EdgeFrameEncoder encoder = new EdgeFrameEncoder();
+        EdgeFrameDecoder decoder = new EdgeFrameDecoder();
+        for (int i = 0; i < 5; i++) {
+            byte[] packed = new byte[EdgeFrameEncoder.packedSize(w, h)];
+            random.nextBytes(packed);
+            packed[packed.length - 1] &= (byte) 0x80; // 97 * 31 % 8 == 1 valid bit in the last byte
+            int length = encoder.encode(packed, w, h);
+            assertArrayEquals(packed, decoder.decode(encoder.buffer(), length));
+        }
+    }
+
+    private static byte[] roundTrip(EdgeFrameEncoder encoder, EdgeFrameDecoder decoder,
+                                    byte[] packed, int w, int h) throws Exception {
+        int length = encoder.encode(packed, w, h);
+        return decoder.decode(encoder.buffer(), length);
+    }
+
+    @Test
+    public void keyFramesOnResizeRequestAndInterval() throws Exception {
+        EdgeFrameEncoder encoder = new EdgeFrameEncoder();
+        EdgeFrameDecoder decoder = new EdgeFrameDecoder();
+        byte[] small = EdgeFrameDecoder.pack(edges(64, 48, 0), 64, 48);
+        byte[] large = EdgeFrameDecoder.pack(edges(128, 96, 0), 128, 96);
+
+        roundTrip(encoder, decoder, small, 64, 48);
+        roundTrip(encoder, decoder, small, 64, 48);
+        assertEquals(EdgeFrameEncoder.TYPE_DELTA, decoder.type);
+
+        assertArrayEquals(large, roundTrip(encoder, decoder, large, 128, 96));
+        assertEquals(EdgeFrameEncoder.TYPE_KEY, decoder.type);
+
+        encoder.requestKeyframe();
+        roundTrip(encoder, decoder, large, 128, 96);
+        assertEquals(EdgeFrameEncoder.TYPE_KEY, decoder.type);
+
+        int keys = 0;
+        for (int i = 0; i < EdgeFrameEncoder.KEYFRAME_INTERVAL; i++) {
+            roundTrip(encoder, decoder, large, 128, 96);
+            if (decoder.type == EdgeFrameEncoder.TYPE_KEY) keys++;
+        }
+        assertEquals(1, keys);
+    }
+}
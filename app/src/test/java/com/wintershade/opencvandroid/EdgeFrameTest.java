@@ -0,0 +1,106 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EdgeFrameTest {
+
+    private static ByteBuffer mask(int width, int height, int rowStride) {
+        ByteBuffer mask = ByteBuffer.allocateDirect(rowStride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (x % 13 == y % 5 || (x + 2 * y) % 29 == 0) mask.put(y * rowStride + x, (byte) 255);
+            }
+            // Row padding that must not leak into the frame
+            for (int x = width; x < rowStride; x++) mask.put(y * rowStride + x, (byte) 255);
+        }
+        return mask;
+    }
+
+    private static EdgeFrame packed(ByteBuffer mask, int width, int height, int rowStride, ByteOrder order) {
+        ByteBuffer bits = ByteBuffer.allocateDirect(3 + EdgeFrame.size(width, height)).order(order);
+        EdgeFrame.pack(mask, 0, rowStride, width, height, bits, 3);
+        return new EdgeFrame().wrap(bits, 3, width, height);
+    }
+
+    @Test
+    public void packsMsbFirstWithZeroPadding() {
+        ByteBuffer mask = ByteBuffer.allocate(10);
+        mask.put(0, (byte) 255).put(7, (byte) 200).put(8, (byte) 127).put(9, (byte) 128);
+        ByteBuffer bits = ByteBuffer.allocate(2);
+        EdgeFrame.pack(mask, 0, 10, 10, 1, bits, 0);
+        assertEquals((byte) 0x81, bits.get(0));
+        assertEquals((byte) 0x40, bits.get(1));
+        assertEquals(2, EdgeFrame.rowBytes(10));
+        assertEquals(3 * 2, EdgeFrame.size(10, 3));
+    }
+
+    @Test
+    public void getAndCountMatchTheMask() {
+        int width = 83, height = 7, rowStride = 96;
+        ByteBuffer mask = mask(width, height, rowStride);
+        EdgeFrame frame = packed(mask, width, height, rowStride, ByteOrder.BIG_ENDIAN);
+        int expected = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean edge = mask.get(y * rowStride + x) != 0;
+                assertEquals(x + "," + y, edge, frame.get(x, y));
+                if (edge) expected++;
+            }
+        }
+        assertEquals(expected, frame.count());
+    }
+
+    @Test
+    public void forEachVisitsEdgesInRowOrderForBothByteOrders() {
+        // 150 wide: two full longs per row and a 3-byte tail
+        int width = 150, height = 9;
+        ByteBuffer mask = mask(width, height, width);
+        List<Integer> expected = new ArrayList<>();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (mask.get(y * width + x) != 0) expected.add(y * width + x);
+            }
+        }
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            List<Integer> seen = new ArrayList<>();
+            packed(mask, width, height, width, order).forEach((x, y) -> seen.add(y * width + x));
+            assertEquals(order.toString(), expected, seen);
+        }
+    }
+
+    @Test
+    public void unpackRestoresTheMask() {
+        int width = 21, height = 4;
+        ByteBuffer mask = mask(width, height, width);
+        ByteBuffer out = ByteBuffer.allocate(width * height + 1);
+        packed(mask, width, height, width, ByteOrder.nativeOrder()).unpack(out, 1);
+        for (int i = 0; i < width * height; i++) {
+            assertEquals(mask.get(i) != 0 ? (byte) 255 : 0, out.get(1 + i));
+        }
+    }
+
+    @Test
+    public void packContiguousMatchesTheStreamEncoder() {
+        for (int width : new int[]{64, 61}) {
+            int height = 5;
+            ByteBuffer mask = mask(width, height, width);
+            ByteBuffer expected = ByteBuffer.allocate(EdgeFrameEncoder.packedSize(width, height));
+            EdgeFrameEncoder.pack(mask, 0, 1, width, width, height, expected);
+            ByteBuffer actual = ByteBuffer.allocate(expected.capacity());
+            packed(mask, width, height, width, ByteOrder.nativeOrder()).packContiguous(actual);
+            assertArrayEquals("width " + width, expected.array(), actual.array());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrapRejectsFramesLargerThanTheBuffer() {
+        new EdgeFrame().wrap(ByteBuffer.allocate(EdgeFrame.size(640, 480) - 1), 0, 640, 480);
+    }
+}
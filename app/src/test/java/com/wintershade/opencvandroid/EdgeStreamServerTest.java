@@ -0,0 +1,272 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class EdgeStreamServerTest {
+
+    private static final int W = 160, H = 120;
+    private static final String TOKEN = "0123456789abcdef";
+
+    private EdgeStreamServer server;
+
+    @After
+    public void tearDown() {
+        if (server != null) server.close();
+    }
+
+    private EdgeStreamServer startServer() throws IOException {
+        server = new EdgeStreamServer(0, TOKEN);
+        server.start();
+        return server;
+    }
+
+    /** Connects and completes the upgrade; the caller reads messages from the returned stream. */
+    private static Socket connect(EdgeStreamServer server, int receiveBuffer) throws IOException {
+        Socket socket = new Socket();
+        if (receiveBuffer > 0) socket.setReceiveBufferSize(receiveBuffer);
+        String response = upgrade(socket, server, "/?token=" + TOKEN);
+        assertTrue(response, response.startsWith("HTTP/1.1 101"));
+        assertTrue(response, response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+        return socket;
+    }
+
+    /** Sends an upgrade request for {@code target} and returns the response headers. */
+    private static String upgrade(Socket socket, EdgeStreamServer server, String target) throws IOException {
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port()));
+        socket.setSoTimeout(5000);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + target + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        return readHeaders(socket.getInputStream());
+    }
+
+    private static String readHeaders(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (!sb.toString().endsWith("\r\n\r\n")) {
+            int c = in.read();
+            if (c < 0) break;
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readMessage(DataInputStream in) throws IOException {
+        int b0 = in.readUnsignedByte();
+        assertEquals("FIN + binary", 0x82, b0);
+        int b1 = in.readUnsignedByte();
+        assertEquals("server frames are unmasked", 0, b1 & 0x80);
+        long length = b1 & 0x7f;
+        if (length == 126) length = in.readUnsignedShort();
+        else if (length == 127) length = in.readLong();
+        byte[] payload = new byte[(int) length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    private static void awaitClients(EdgeStreamServer server, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (server.clientCount() != count && System.nanoTime() < deadline) Thread.sleep(5);
+        assertEquals(count, server.clientCount());
+    }
+
+    private static byte[] mask(int shift) {
+        byte[] mask = new byte[W * H];
+        for (int i = shift; i < mask.length; i += 13) mask[i] = (byte) 255;
+        return mask;
+    }
+
+    @Test
+    public void acceptKeyMatchesTheRfcExample() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", EdgeStreamServer.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    public void frameHeaderUsesTheShortestLengthEncoding() {
+        byte[] header = new byte[10];
+        assertEquals(2, EdgeStreamServer.writeFrameHeader(header, 2, 125));
+        assertEquals(125, header[1]);
+        assertEquals(4, EdgeStreamServer.writeFrameHeader(header, 2, 65535));
+        assertEquals(126, header[1]);
+        assertEquals(10, EdgeStreamServer.writeFrameHeader(header, 2, 65536));
+        assertEquals(127, header[1]);
+        assertEquals(1, header[7]);
+        assertEquals(0, header[8]);
+    }
+
+    private static void awaitSent(EdgeStreamServer server, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (server.framesSent() < count && System.nanoTime() < deadline) Thread.sleep(1);
+        assertEquals(count, server.framesSent());
+    }
+
+    @Test
+    public void viewerReceivesEveryFrameItKeepsUpWith() throws Exception {
+        startServer();
+        try (Socket socket = connect(server, 0)) {
+            awaitClients(server, 1);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            EdgeFrameDecoder decoder = new EdgeFrameDecoder();
+            for (int i = 0; i < 5; i++) {
+                byte[] mask = mask(i);
+                server.publish(ByteBuffer.wrap(mask), 0, 1, W, W, H);
+                byte[] message = readMessage(in);
+                assertArrayEquals(EdgeFrameDecoder.pack(mask, W, H), decoder.decode(message, message.length));
+                assertEquals(i == 0 ? EdgeFrameEncoder.TYPE_KEY : EdgeFrameEncoder.TYPE_DELTA, decoder.type);
+                awaitSent(server, i + 1);
+            }
+            assertEquals(0, server.framesSkipped());
+            assertTrue(server.bytesSent() > 0);
+            assertNotNull(server.describe());
+        }
+    }
+
+    @Test
+    public void stalledViewerNeitherBlocksPublishNorStarvesOthers() throws Exception {
+        startServer();
+        // Never read from; only there to fill up
+        Socket stalled = connect(server, 4096);
+        try (Socket live = connect(server, 0)) {
+            awaitClients(server, 2);
+            AtomicReference<byte[]> received = new AtomicReference<>();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                try {
+                    DataInputStream in = new DataInputStream(live.getInputStream());
+                    EdgeFrameDecoder decoder = new EdgeFrameDecoder();
+                    while (true) {
+                        byte[] message = readMessage(in);
+                        received.set(decoder.decode(message, message.length));
+                    }
+                } catch (IOException e) {
+                    // socket closed at the end of the test
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            reader.start();
+
+            // Noise doesn't compress, so the stalled socket's buffers fill within a few frames
+            Random random = new Random(3);
+            byte[] mask = new byte[W * H];
+            long slowestPublish = 0;
+            for (int i = 0; i < 200; i++) {
+                random.nextBytes(mask);
+                long start = System.nanoTime();
+                server.publish(ByteBuffer.wrap(mask), 0, 1, W, W, H);
+                slowestPublish = Math.max(slowestPublish, System.nanoTime() - start);
+                Thread.sleep(1);
+            }
+            byte[] expected = EdgeFrameDecoder.pack(mask, W, H);
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (!Arrays.equals(expected, received.get()) && failure.get() == null && System.nanoTime() < deadline) {
+                server.publish(ByteBuffer.wrap(mask), 0, 1, W, W, H);
+                Thread.sleep(5);
+            }
+            live.shutdownInput();
+            reader.join();
+
+            assertNull(failure.get());
+            assertArrayEquals("live viewer should catch up with the latest frame", expected, received.get());
+            assertTrue("publish took " + slowestPublish + " ns", slowestPublish < 50_000_000L);
+            assertTrue("stalled viewer should have been skipped", server.framesSkipped() > 0);
+        } finally {
+            stalled.close();
+        }
+    }
+
+    @Test
+    public void closedViewerIsDropped() throws Exception {
+        startServer();
+        Socket socket = connect(server, 0);
+        awaitClients(server, 1);
+        socket.close();
+        byte[] mask = mask(0);
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (server.hasClients() && System.nanoTime() < deadline) {
+            server.publish(ByteBuffer.wrap(mask), 0, 1, W, W, H);
+            Thread.sleep(5);
+        }
+        assertFalse(server.hasClients());
+        assertNull(server.describe());
+    }
+
+    @Test
+    public void nonWebSocketRequestIsRejected() throws Exception {
+        startServer();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(("GET /?token=" + TOKEN + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(readHeaders(socket.getInputStream()).startsWith("HTTP/1.1 400"));
+        }
+        assertEquals(0, server.clientCount());
+    }
+
+    @Test
+    public void viewerWithoutTheTokenIsRejected() throws Exception {
+        startServer();
+        for (String target : new String[]{"/", "/?token=", "/?token=fedcba9876543210", "/?ws=1&token=" + TOKEN + "0"}) {
+            try (Socket socket = new Socket()) {
+                String response = upgrade(socket, server, target);
+                assertTrue(target + ": " + response, response.startsWith("HTTP/1.1 403"));
+            }
+        }
+        assertEquals(0, server.clientCount());
+    }
+
+    @Test
+    public void stalledHandshakeDoesNotHoldUpOtherViewers() throws Exception {
+        startServer();
+        try (Socket silent = new Socket(InetAddress.getLoopbackAddress(), server.port())) {
+            // Starts its request and never finishes it
+            silent.getOutputStream().write("GET /?tok".getBytes(StandardCharsets.ISO_8859_1));
+            long start = System.nanoTime();
+            Socket viewer = connect(server, 0);
+            try {
+                awaitClients(server, 1);
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                assertTrue(elapsedMs + " ms", elapsedMs < 1000);
+            } finally {
+                viewer.close();
+            }
+        }
+    }
+
+    @Test
+    public void tokenIsReadFromTheQuery() {
+        assertEquals("abc", EdgeStreamServer.queryParameter("GET /?token=abc HTTP/1.1", "token"));
+        assertEquals("abc", EdgeStreamServer.queryParameter("GET /live?x=1&token=abc HTTP/1.1", "token"));
+        assertNull(EdgeStreamServer.queryParameter("GET / HTTP/1.1", "token"));
+        assertNull(EdgeStreamServer.queryParameter("GET /?tokens=abc HTTP/1.1", "token"));
+    }
+
+    @Test
+    public void newTokensAreLongAndDistinct() {
+        String a = EdgeStreamServer.newToken(), b = EdgeStreamServer.newToken();
+        assertTrue(a, a.matches("[0-9a-f]{32}"));
+        assertNotEquals(a, b);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyTokenIsRefused() throws IOException {
+        new EdgeStreamServer(0, "").close();
+    }
+}
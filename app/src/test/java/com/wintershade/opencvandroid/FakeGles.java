@@ -0,0 +1,116 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Records GL calls by name so renderer logic can be checked on the host JVM. */
+class FakeGles implements GlesApi {
+
+    final List<String> calls = new ArrayList<>();
+    final List<Integer> boundBuffers = new ArrayList<>();
+    final Map<String, Integer> uniformLocations = new HashMap<>();
+    final Map<Integer, Integer> uniformInts = new HashMap<>();
+    String version = "OpenGL ES 2.0";
+    boolean mapFails = false;
+    ByteBuffer lastMapped;
+    private int nextName = 1;
+
+    int count(String call) {
+        int n = 0;
+        for (String c : calls) if (c.equals(call)) n++;
+        return n;
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return version;
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        calls.add("glBindTexture");
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalFormat, int width, int height,
+                             int border, int format, int type, Buffer pixels) {
+        calls.add("glTexImage2D");
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xOffset, int yOffset, int width, int height,
+                                int format, int type, Buffer pixels) {
+        calls.add("glTexSubImage2D");
+    }
+
+    @Override
+    public void glPixelStorei(int name, int value) {
+        calls.add("glPixelStorei");
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        calls.add("glUseProgram");
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return uniformLocations.computeIfAbsent(name, n -> uniformLocations.size());
+    }
+
+    @Override
+    public void glUniform1i(int location, int value) {
+        uniformInts.put(location, value);
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        calls.add("glUniform4f");
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) buffers[offset + i] = nextName++;
+        calls.add("glGenBuffers");
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        calls.add("glDeleteBuffers");
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        calls.add("glBindBuffer");
+        if (buffer != 0) boundBuffers.add(buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        calls.add("glBufferData");
+    }
+
+    @Override
+    public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+        calls.add("glMapBufferRange");
+        if (mapFails) return null;
+        lastMapped = ByteBuffer.allocateDirect(length);
+        return lastMapped;
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target) {
+        calls.add("glUnmapBuffer");
+        return true;
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xOffset, int yOffset, int width, int height,
+                                int format, int type, int offset) {
+        calls.add("glTexSubImage2D(pbo)");
+    }
+}
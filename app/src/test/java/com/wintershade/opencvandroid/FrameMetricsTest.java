@@ -0,0 +1,62 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameMetricsTest {
+
+    private static final long FRAME_30FPS = 33_333_333L;
+
+    @Test
+    public void inputRateComesFromSensorTimestampsDespiteDrops() {
+        FrameMetrics metrics = new FrameMetrics();
+        long t = 1_000_000_000L;
+        for (int i = 0; i < 60; i++) {
+            // Every fourth frame was dropped before we acquired it
+            t += i % 4 == 3 ? 2 * FRAME_30FPS : FRAME_30FPS;
+            metrics.onSensorFrame(t);
+        }
+        FrameMetrics.Snapshot s = metrics.snapshot();
+        assertEquals(30.0, s.inputFps, 1.0);
+        assertEquals(59, s.count(FrameMetrics.Stage.INPUT_INTERVAL));
+    }
+
+    @Test
+    public void timelineResetSkipsTheGap() {
+        FrameMetrics metrics = new FrameMetrics();
+        metrics.onSensorFrame(1_000_000_000L);
+        metrics.resetSensorTimeline();
+        metrics.onSensorFrame(9_000_000_000L);
+        assertEquals(0, metrics.snapshot().count(FrameMetrics.Stage.INPUT_INTERVAL));
+    }
+
+    @Test
+    public void sensorToDisplayUsesClockOffset() {
+        FrameMetrics metrics = new FrameMetrics();
+        // Sensor clock runs 5 s behind nanoTime
+        metrics.setSensorClockOffset(5_000_000_000L);
+        metrics.onFramePresented(1_000_000_000L, 6_040_000_000L);
+        metrics.onFramePresented(0, 7_000_000_000L); // no timestamp: counted, not timed
+        FrameMetrics.Snapshot s = metrics.snapshot();
+        assertEquals(1, s.count(FrameMetrics.Stage.SENSOR_TO_DISPLAY));
+        assertEquals(40_000_000L, s.p50(FrameMetrics.Stage.SENSOR_TO_DISPLAY), 40_000_000L / 32);
+        assertTrue(s.displayFps > 0);
+    }
+
+    @Test
+    public void snapshotCoversOneIntervalOnly() {
+        FrameMetrics metrics = new FrameMetrics();
+        for (int i = 0; i < 10; i++) metrics.record(FrameMetrics.Stage.FILTER, 5_000_000L);
+        FrameMetrics.Snapshot first = metrics.snapshot();
+        assertEquals(10, first.count(FrameMetrics.Stage.FILTER));
+        assertEquals("filter 5.0/5.0/5.0 ms", first.describe(FrameMetrics.Stage.FILTER));
+        assertNull(first.describe(FrameMetrics.Stage.UPLOAD));
+
+        metrics.record(FrameMetrics.Stage.FILTER, 1_000_000L);
+        FrameMetrics.Snapshot second = metrics.snapshot();
+        assertEquals(1, second.count(FrameMetrics.Stage.FILTER));
+        assertEquals(1_000_000L, second.p99(FrameMetrics.Stage.FILTER));
+        assertEquals(10, first.count(FrameMetrics.Stage.FILTER)); // earlier snapshot unchanged
+    }
+}
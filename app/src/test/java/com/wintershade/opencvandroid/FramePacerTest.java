@@ -0,0 +1,114 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FramePacerTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long DEADLINE = 100 * MS;
+
+    private long now = 1_000 * MS;
+    private final AtomicInteger renders = new AtomicInteger();
+    private final FramePacer pacer = new FramePacer(DEADLINE, renders::incrementAndGet, () -> now);
+
+    @Test
+    public void freshFrameIsPublishedAndDrawnOnce() {
+        long captured = now - 20 * MS;
+        assertTrue(pacer.admit(captured));
+        pacer.onPublished();
+        assertEquals(1, renders.get());
+
+        pacer.onDrawStarted();
+        assertTrue(pacer.onDraw(captured));
+        assertEquals(1, pacer.presented());
+        assertEquals(0, pacer.dropped());
+    }
+
+    @Test
+    public void frameFinishedAfterTheDeadlineIsDroppedWithoutARender() {
+        assertFalse(pacer.admit(now - DEADLINE - 1));
+        assertTrue(pacer.admit(now - DEADLINE)); // exactly on the deadline still counts
+        assertEquals(1, pacer.dropped());
+        assertEquals(0, renders.get());
+    }
+
+    @Test
+    public void frameThatGoesStaleWaitingForTheGlThreadIsNotShown() {
+        long captured = now - 60 * MS;
+        assertTrue(pacer.admit(captured));
+        pacer.onPublished();
+        now += 50 * MS; // the draw comes late
+        pacer.onDrawStarted();
+        assertFalse(pacer.onDraw(captured));
+        assertEquals(0, pacer.presented());
+        assertEquals(1, pacer.dropped());
+    }
+
+    @Test
+    public void framesPublishedBeforeTheDrawShareOneRequest() {
+        pacer.onPublished();
+        pacer.onPublished();
+        assertEquals(1, renders.get());
+        pacer.onDrawStarted();
+        pacer.onPublished(); // after the draw took its frame
+        assertEquals(2, renders.get());
+        assertEquals(2, pacer.renderRequests());
+    }
+
+    @Test
+    public void sensorTimestampsAreShiftedToTheClock() {
+        // Sensor clock (e.g. BOOTTIME) runs 5 s ahead of the pacer's clock
+        pacer.setSensorClockOffset(-5_000 * MS);
+        assertTrue(pacer.admit(now + 5_000 * MS - 30 * MS));
+        assertFalse(pacer.admit(now - 30 * MS));
+    }
+
+    @Test
+    public void framesWithoutTimestampAreNeverLate() {
+        now = Long.MAX_VALUE / 2;
+        assertTrue(pacer.admit(0));
+        assertTrue(pacer.onDraw(0));
+    }
+
+    @Test
+    public void drawsFollowTheCameraNotTheDisplay() {
+        // 1 s of a 60 Hz display and a 30 fps camera; every frame takes 40 ms to process,
+        // except a 150 ms stall on one of them
+        FrameTripleBuffer frames = new FrameTripleBuffer();
+        long start = now;
+        int captures = 0, vsyncs = 0, draws = 0;
+        for (long t = 0; t < 1_000 * MS; t += MS) {
+            now = start + t;
+            if (t >= captures * 1_000 * MS / 30) {
+                long captured = now - (captures == 15 ? 150 : 40) * MS;
+                captures++;
+                if (pacer.admit(captured)) {
+                    frames.beginWrite(1);
+                    frames.publish(1, 1, 0, captured);
+                    pacer.onPublished();
+                }
+            }
+            if (t >= vsyncs * 1_000 * MS / 60) {
+                vsyncs++;
+                if (renders.get() > draws) {
+                    draws = renders.get();
+                    pacer.onDrawStarted();
+                    if (frames.acquireLatest()) pacer.onDraw(frames.readTimestamp());
+                }
+            }
+        }
+        assertEquals(60, vsyncs); // continuous rendering would draw each of these
+        assertEquals(29, draws);
+        assertEquals(29, pacer.presented());
+        assertEquals(1, pacer.dropped());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveDeadline() {
+        new FramePacer(0, () -> { });
+    }
+}
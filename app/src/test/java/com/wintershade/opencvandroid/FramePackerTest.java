@@ -0,0 +1,95 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FramePackerTest {
+
+    private static byte[] pack(FramePacker packer, YuvTestFrames f) {
+        ByteBuffer out = packer.pack(f.width, f.height, f.y, f.yRowStride, f.u, f.v,
+                f.uvRowStride, f.uvPixelStride);
+        byte[] bytes = new byte[out.remaining()];
+        out.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void semiPlanarTightRows() {
+        YuvTestFrames f = YuvTestFrames.semiPlanar(64, 48, 64, 1);
+        assertArrayEquals(f.expectedNv21(), pack(new FramePacker(2), f));
+    }
+
+    @Test
+    public void semiPlanarPaddedRows() {
+        YuvTestFrames f = YuvTestFrames.semiPlanar(60, 40, 64, 2);
+        assertArrayEquals(f.expectedNv21(), pack(new FramePacker(2), f));
+    }
+
+    @Test
+    public void separatePlanesThatLookInterleavedAreGathered() {
+        YuvTestFrames f = YuvTestFrames.separatePaddedChroma(64, 48, 64, 9);
+        assertArrayEquals(f.expectedNv21(), pack(new FramePacker(2), f));
+    }
+
+    @Test
+    public void planarChroma() {
+        YuvTestFrames f = YuvTestFrames.planar(64, 48, 80, 40, 3);
+        assertArrayEquals(f.expectedNv21(), pack(new FramePacker(2), f));
+    }
+
+    @Test
+    public void sourcePlanesAreLeftUntouched() {
+        YuvTestFrames f = YuvTestFrames.semiPlanar(32, 16, 48, 4);
+        f.y.position(3);
+        f.u.position(5).limit(9);
+        pack(new FramePacker(1), f);
+        assertEquals(3, f.y.position());
+        assertEquals(f.y.capacity(), f.y.limit());
+        assertEquals(5, f.u.position());
+        assertEquals(9, f.u.limit());
+        assertEquals(0, f.v.position());
+    }
+
+    @Test
+    public void poolIsReusedUntilResolutionChanges() {
+        FramePacker packer = new FramePacker(3);
+        YuvTestFrames small = YuvTestFrames.semiPlanar(32, 16, 32, 5);
+        ByteBuffer first = null;
+        for (int i = 0; i < 7; i++) {
+            ByteBuffer out = packer.pack(small.width, small.height, small.y, small.yRowStride,
+                    small.u, small.v, small.uvRowStride, small.uvPixelStride);
+            if (i == 0) first = out;
+            if (i == 3) assertSame(first, out);
+        }
+        assertEquals(3, packer.allocations());
+
+        YuvTestFrames large = YuvTestFrames.semiPlanar(64, 32, 64, 6);
+        assertArrayEquals(large.expectedNv21(), pack(packer, large));
+        assertEquals(6, packer.allocations());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        if (!AllocationMeter.isSupported()) return;
+        FramePacker packer = new FramePacker(2);
+        YuvTestFrames f = YuvTestFrames.semiPlanar(640, 480, 640, 7);
+        YuvTestFrames p = YuvTestFrames.planar(640, 480, 704, 352, 8);
+        for (int i = 0; i < 200; i++) {
+            packer.pack(f.width, f.height, f.y, f.yRowStride, f.u, f.v, f.uvRowStride, f.uvPixelStride);
+            packer.pack(p.width, p.height, p.y, p.yRowStride, p.u, p.v, p.uvRowStride, p.uvPixelStride);
+        }
+
+        FramePacker steady = new FramePacker(2);
+        steady.pack(f.width, f.height, f.y, f.yRowStride, f.u, f.v, f.uvRowStride, f.uvPixelStride);
+        long before = AllocationMeter.allocatedBytes();
+        for (int i = 0; i < 1000; i++) {
+            steady.pack(f.width, f.height, f.y, f.yRowStride, f.u, f.v, f.uvRowStride, f.uvPixelStride);
+        }
+        long allocated = AllocationMeter.allocatedBytes() - before;
+        // Allow a little slack for the meter itself.
+        assertTrue("allocated " + allocated + " bytes over 1000 frames", allocated < 1024);
+    }
+}
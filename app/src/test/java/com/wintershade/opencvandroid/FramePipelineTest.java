@@ -0,0 +1,218 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FramePipelineTest {
+
+    private static final FramePipeline.NativeRunner NO_RUNNER = (src, dst, ops, params, nanos, first, program) -> {
+        throw new AssertionError("native runner not expected");
+    };
+
+    private static FrameProcessor javaStage(String name) {
+        return new FrameProcessor.JavaStage() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public void process(Mat src, Mat dst) {
+            }
+        };
+    }
+
+    @Test
+    public void consecutiveNativeStagesFuseIntoOneCall() {
+        FramePipeline pipeline = new FramePipeline(NO_RUNNER);
+        pipeline.setStages(FrameProcessors.gaussianBlur(5, 1.5),
+                FrameProcessors.canny(30, 90),
+                FrameProcessors.morphology(1, 3, 2));
+        FramePipeline.Program p = pipeline.current();
+
+        assertEquals(3, p.stageCount());
+        assertEquals(1, p.segmentCount());
+        assertTrue(p.isFullyNative());
+        assertArrayEquals(new int[]{FrameProcessors.OP_GAUSSIAN_BLUR, FrameProcessors.OP_CANNY,
+                FrameProcessors.OP_MORPHOLOGY}, p.ops());
+        float[] params = p.params();
+        assertEquals(3 * FramePipeline.PARAMS_PER_STAGE, params.length);
+        assertEquals(5f, params[0], 0f);
+        assertEquals(1.5f, params[1], 0f);
+        assertEquals(30f, params[4], 0f);
+        assertEquals(90f, params[5], 0f);
+        assertEquals(3f, params[6], 0f); // Canny aperture
+        assertEquals(1f, params[8], 0f);
+        assertEquals(2f, params[10], 0f);
+    }
+
+    @Test
+    public void incrementalCannyPassesItsChangeThreshold() {
+        FramePipeline pipeline = new FramePipeline(NO_RUNNER);
+        pipeline.setStages(FrameProcessors.canny(50, 150), FrameProcessors.incrementalCanny(50, 150, 4));
+        float[] params = pipeline.current().params();
+        assertEquals(0f, params[3], 0f); // whole frame
+        assertEquals(3f, params[6], 0f);
+        assertEquals(4f, params[7], 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void incrementalCannyRejectsAThresholdThatWouldMeanWholeFrame() {
+        FrameProcessors.incrementalCanny(50, 150, 0);
+    }
+
+    @Test
+    public void pyramidStageSetsTheOutputLevel() {
+        FramePipeline pipeline = new FramePipeline(NO_RUNNER);
+        pipeline.setStages(FrameProcessors.pyramidDown(2), FrameProcessors.canny(50, 150));
+        FramePipeline.Program p = pipeline.current();
+        assertEquals(1, p.segmentCount());
+        assertArrayEquals(new int[]{FrameProcessors.OP_PYR_DOWN, FrameProcessors.OP_CANNY}, p.ops());
+        assertEquals(2f, p.params()[0], 0f);
+        assertEquals(2, p.pyramidLevel());
+        assertEquals(320, p.outputSize(1280));
+        assertEquals(180, p.outputSize(720));
+        assertEquals(0, FramePipeline.Program.EMPTY.pyramidLevel());
+        assertEquals(1080, FramePipeline.Program.EMPTY.outputSize(1080));
+    }
+
+    @Test
+    public void pyramidSizesRoundUpLikePyrDown() {
+        assertEquals(135, FramePipeline.scaledSize(1080, 3));
+        assertEquals(2, FramePipeline.scaledSize(5, 2)); // 5 -> 3 -> 2
+        assertEquals(1, FramePipeline.scaledSize(1, 4));
+    }
+
+    @Test
+    public void pyramidLevelsAddUpAcrossStages() {
+        FramePipeline pipeline = new FramePipeline(NO_RUNNER);
+        pipeline.setStages(FrameProcessors.pyramidDown(1), javaStage("custom"), FrameProcessors.pyramidDown(1));
+        assertEquals(2, pipeline.current().pyramidLevel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pyramidRejectsLevelsTheNativeSideDoesNotPool() {
+        FrameProcessors.pyramidDown(FrameProcessors.MAX_PYRAMID_LEVELS + 1);
+    }
+
+    @Test
+    public void javaStageSplitsNativeRuns() {
+        FramePipeline pipeline = new FramePipeline(NO_RUNNER);
+        pipeline.setStages(FrameProcessors.gaussianBlur(3, 0), FrameProcessors.sobel(3),
+                javaStage("custom"),
+                FrameProcessors.otsuThreshold());
+        FramePipeline.Program p = pipeline.current();
+
+        assertEquals(4, p.stageCount());
+        assertEquals(3, p.segmentCount());
+        assertFalse(p.isFullyNative());
+        assertEquals("custom", p.stageName(2));
+    }
+
+    @Test
+    public void autoThresholdsOverrideOnlyTheAutoCannyStages() {
+        FramePipeline pipeline = new FramePipeline(NO_RUNNER);
+        pipeline.setStages(FrameProcessors.gaussianBlur(3, 0), FrameProcessors.autoCanny(),
+                FrameProcessors.canny(50, 150));
+        FramePipeline.Program p = pipeline.current();
+        assertTrue(p.hasAutoThresholds());
+        assertEquals(50f, p.params()[4], 0f); // until the first override
+        assertEquals(150f, p.params()[5], 0f);
+
+        p.setAutoThresholds(21, 42);
+        float[] params = p.params();
+        assertEquals(3f, params[0], 0f);
+        assertEquals(21f, params[4], 0f);
+        assertEquals(42f, params[5], 0f);
+        assertEquals(3f, params[6], 0f);
+        assertEquals(50f, params[8], 0f); // fixed Canny untouched
+        assertEquals(150f, params[9], 0f);
+    }
+
+    @Test
+    public void onlyProgramsWithAutoCannyHaveAutoThresholds() {
+        FramePipeline pipeline = new FramePipeline(NO_RUNNER);
+        pipeline.setStages(javaStage("custom"), FrameProcessors.autoCanny());
+        FramePipeline.Program p = pipeline.current();
+        assertTrue(p.hasAutoThresholds());
+        p.setAutoThresholds(10, 30); // a Java stage before it is left alone
+        assertFalse(new FramePipeline(NO_RUNNER).current().hasAutoThresholds());
+        pipeline.setStages(FrameProcessors.canny(50, 150));
+        assertFalse(pipeline.current().hasAutoThresholds());
+    }
+
+    @Test
+    public void emptyProgramIsFullyNativeAndHasNoStages() {
+        FramePipeline.Program p = new FramePipeline(NO_RUNNER).current();
+        assertTrue(p.isEmpty());
+        assertTrue(p.isFullyNative());
+        assertEquals(0, p.ops().length);
+        assertEquals(0, p.params().length);
+        assertEquals(0, p.stageNanos().length);
+    }
+
+    @Test
+    public void reconfiguringLeavesProgramInFlightIntact() {
+        FramePipeline pipeline = new FramePipeline(NO_RUNNER);
+        pipeline.setStages(FrameProcessors.canny(50, 150));
+        FramePipeline.Program inFlight = pipeline.current();
+
+        pipeline.setStages(Arrays.asList(FrameProcessors.sobel(3), FrameProcessors.threshold(40)));
+
+        assertNotSame(inFlight, pipeline.current());
+        assertArrayEquals(new int[]{FrameProcessors.OP_CANNY}, inFlight.ops());
+        assertArrayEquals(new int[]{FrameProcessors.OP_SOBEL, FrameProcessors.OP_THRESHOLD},
+                pipeline.current().ops());
+    }
+
+    @Test
+    public void everyCompiledProgramHasItsOwnId() {
+        FramePipeline pipeline = new FramePipeline(NO_RUNNER);
+        pipeline.setStages(FrameProcessors.incrementalCanny(50, 150, 4));
+        int first = pipeline.current().id();
+        assertEquals(first, pipeline.current().id());
+        // The same stages again still make a new program: native state starts over
+        pipeline.setStages(FrameProcessors.incrementalCanny(50, 150, 4));
+        assertNotEquals(first, pipeline.current().id());
+        assertNotEquals(first, FramePipeline.Program.EMPTY.id());
+    }
+
+    @Test
+    public void stageTimesAverageOverRecordedFrames() {
+        FramePipeline pipeline = new FramePipeline(NO_RUNNER);
+        pipeline.setStages(FrameProcessors.gaussianBlur(5, 0), FrameProcessors.canny(50, 150));
+        FramePipeline.Program p = pipeline.current();
+
+        // What the native call does for a fully native program
+        long[] nanos = p.stageNanos();
+        nanos[0] = 1000;
+        nanos[1] = 3000;
+        p.recordFrame();
+        nanos[0] = 3000;
+        nanos[1] = 5000;
+        p.recordFrame();
+
+        assertEquals(2, p.frames());
+        assertEquals(3000, p.lastStageNanos(0));
+        assertEquals(2000, p.averageStageNanos(0));
+        assertEquals(4000, p.averageStageNanos(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMoreStagesThanNativeSideHolds() {
+        FrameProcessor[] stages = new FrameProcessor[FramePipeline.MAX_STAGES + 1];
+        Arrays.fill(stages, FrameProcessors.canny(50, 150));
+        new FramePipeline(NO_RUNNER).setStages(stages);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsStageThatIsNeitherNativeNorJava() {
+        FrameProcessor bare = () -> "bare";
+        new FramePipeline(NO_RUNNER).setStages(FrameProcessors.canny(50, 150), bare);
+    }
+}
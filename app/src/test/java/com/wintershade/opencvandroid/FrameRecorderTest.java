@@ -0,0 +1,160 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class FrameRecorderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static int capacityFor(YuvTestFrames f) {
+        return f.y.capacity() + f.u.capacity() + f.v.capacity();
+    }
+
+    private static void record(FrameRecorder recorder, YuvTestFrames f, long timestamp) {
+        assertTrue(recorder.record(timestamp, f.width, f.height, f.y, f.yRowStride,
+                f.u, f.v, f.uvRowStride, f.uvPixelStride));
+    }
+
+    @Test
+    public void roundTripsPlanesAndMetadata() throws IOException {
+        File file = tmp.newFile();
+        YuvTestFrames f = YuvTestFrames.semiPlanar(64, 48, 80, 1);
+        try (FrameRecorder recorder = new FrameRecorder(file, 4, capacityFor(f))) {
+            record(recorder, f, 123_000L);
+        }
+        try (FrameRingReader reader = new FrameRingReader(file)) {
+            assertEquals(1, reader.frameCount());
+            FrameRingReader.Frame r = reader.frame(0);
+            assertEquals(1, r.sequence);
+            assertEquals(123_000L, r.timestampNanos);
+            assertEquals(64, r.width);
+            assertEquals(48, r.height);
+            assertEquals(80, r.yRowStride);
+            assertEquals(80, r.uvRowStride);
+            assertEquals(2, r.uvPixelStride);
+            assertEquals(f.y, r.y);
+            assertEquals(f.u, r.u);
+            assertEquals(f.v, r.v);
+        }
+    }
+
+    @Test
+    public void replayedFramePacksLikeTheOriginal() throws IOException {
+        File file = tmp.newFile();
+        YuvTestFrames f = YuvTestFrames.semiPlanar(64, 48, 64, 2);
+        try (FrameRecorder recorder = new FrameRecorder(file, 2, capacityFor(f))) {
+            record(recorder, f, 1);
+        }
+        try (FrameRingReader reader = new FrameRingReader(file)) {
+            FrameRingReader.Frame r = reader.frame(0);
+            ByteBuffer packed = new FramePacker(1).pack(r.width, r.height, r.y, r.yRowStride,
+                    r.u, r.v, r.uvRowStride, r.uvPixelStride);
+            byte[] actual = new byte[packed.remaining()];
+            packed.get(actual);
+            assertArrayEquals(f.expectedNv21(), actual);
+        }
+    }
+
+    @Test
+    public void ringKeepsNewestFramesOldestFirst() throws IOException {
+        File file = tmp.newFile();
+        YuvTestFrames f = YuvTestFrames.planar(32, 16, 32, 16, 3);
+        try (FrameRecorder recorder = new FrameRecorder(file, 3, capacityFor(f))) {
+            for (int i = 1; i <= 7; i++) record(recorder, f, i * 1000L);
+            assertEquals(7, recorder.framesWritten());
+        }
+        try (FrameRingReader reader = new FrameRingReader(file)) {
+            assertEquals(3, reader.frameCount());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(5 + i, reader.frame(i).sequence);
+                assertEquals((5 + i) * 1000L, reader.frame(i).timestampNanos);
+            }
+        }
+    }
+
+    @Test
+    public void oversizedFramesAreSkipped() throws IOException {
+        File file = tmp.newFile();
+        YuvTestFrames small = YuvTestFrames.semiPlanar(32, 16, 32, 4);
+        YuvTestFrames big = YuvTestFrames.semiPlanar(64, 32, 64, 5);
+        try (FrameRecorder recorder = new FrameRecorder(file, 2, capacityFor(small))) {
+            assertFalse(recorder.record(1, big.width, big.height, big.y, big.yRowStride,
+                    big.u, big.v, big.uvRowStride, big.uvPixelStride));
+            record(recorder, small, 2);
+            assertEquals(1, recorder.oversized());
+            assertEquals(1, recorder.framesWritten());
+        }
+    }
+
+    @Test
+    public void sourceBuffersAreLeftUntouched() throws IOException {
+        YuvTestFrames f = YuvTestFrames.semiPlanar(32, 16, 48, 6);
+        f.y.position(5);
+        f.u.limit(f.u.capacity() - 3);
+        try (FrameRecorder recorder = new FrameRecorder(tmp.newFile(), 2, capacityFor(f))) {
+            record(recorder, f, 1);
+        }
+        assertEquals(5, f.y.position());
+        assertEquals(f.y.capacity(), f.y.limit());
+        assertEquals(0, f.u.position());
+        assertEquals(f.u.capacity() - 3, f.u.limit());
+    }
+
+    @Test
+    public void interruptedWriteIsNotReplayed() throws IOException {
+        File file = tmp.newFile();
+        YuvTestFrames f = YuvTestFrames.planar(32, 16, 32, 16, 7);
+        int capacity = capacityFor(f);
+        try (FrameRecorder recorder = new FrameRecorder(file, 2, capacity)) {
+            record(recorder, f, 1);
+            record(recorder, f, 2);
+        }
+        // Mark the second slot as mid-write, as if the process died during record()
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            ByteBuffer writing = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+            writing.putLong(0, FrameRecorder.WRITING);
+            raf.getChannel().write(writing, FrameRecorder.FILE_HEADER_BYTES
+                    + FrameRecorder.SLOT_HEADER_BYTES + capacity + FrameRecorder.S_SEQUENCE);
+        }
+        try (FrameRingReader reader = new FrameRingReader(file)) {
+            assertEquals(1, reader.frameCount());
+            assertEquals(1, reader.frame(0).sequence);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = tmp.newFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[256]);
+        }
+        new FrameRingReader(file).close();
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() throws IOException {
+        if (!AllocationMeter.isSupported()) return;
+        YuvTestFrames f = YuvTestFrames.semiPlanar(320, 240, 320, 8);
+        try (FrameRecorder recorder = new FrameRecorder(tmp.newFile(), 4, capacityFor(f))) {
+            for (int i = 0; i < 10_000; i++) record(recorder, f, i);
+            long before = AllocationMeter.allocatedBytes();
+            for (int i = 0; i < 1000; i++) {
+                recorder.record(i, f.width, f.height, f.y, f.yRowStride, f.u, f.v, f.uvRowStride, f.uvPixelStride);
+            }
+            long allocated = AllocationMeter.allocatedBytes() - before;
+            // Allow a little slack for the meter itself.
+            assertTrue("allocated " + allocated + " bytes over 1000 frames", allocated < 1024);
+        }
+    }
+}
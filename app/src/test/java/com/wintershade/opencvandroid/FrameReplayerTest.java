@@ -0,0 +1,75 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FrameReplayerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final long FRAME_NANOS = 20_000_000L;
+
+    private File recording(int frames) throws IOException {
+        File file = tmp.newFile();
+        YuvTestFrames f = YuvTestFrames.planar(32, 16, 32, 16, 1);
+        try (FrameRecorder recorder = new FrameRecorder(file, frames,
+                f.y.capacity() + f.u.capacity() + f.v.capacity())) {
+            for (int i = 0; i < frames; i++) {
+                recorder.record(5_000_000_000L + i * FRAME_NANOS, f.width, f.height, f.y, f.yRowStride,
+                        f.u, f.v, f.uvRowStride, f.uvPixelStride);
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void maximumSpeedDeliversEveryFrameInOrder() throws Exception {
+        try (FrameRingReader reader = new FrameRingReader(recording(5))) {
+            List<Long> sequences = new ArrayList<>();
+            FrameReplayer replayer = new FrameReplayer(reader, false, false, f -> sequences.add(f.sequence));
+            long start = System.nanoTime();
+            replayer.replay();
+            assertTrue(System.nanoTime() - start < 4 * FRAME_NANOS);
+            assertEquals(List.of(1L, 2L, 3L, 4L, 5L), sequences);
+            assertEquals(5, replayer.replayed());
+        }
+    }
+
+    @Test
+    public void originalSpeedKeepsRecordedSpacing() throws Exception {
+        try (FrameRingReader reader = new FrameRingReader(recording(4))) {
+            List<Long> arrivals = new ArrayList<>();
+            FrameReplayer replayer = new FrameReplayer(reader, true, false, f -> arrivals.add(System.nanoTime()));
+            replayer.replay();
+            assertEquals(4, arrivals.size());
+            long elapsed = arrivals.get(3) - arrivals.get(0);
+            assertTrue("replayed 3 intervals in " + elapsed + " ns", elapsed >= 3 * FRAME_NANOS);
+        }
+    }
+
+    @Test
+    public void loopingReplayStopsOnRequest() throws Exception {
+        try (FrameRingReader reader = new FrameRingReader(recording(3))) {
+            CountDownLatch twoRounds = new CountDownLatch(6);
+            FrameReplayer replayer = new FrameReplayer(reader, false, true, f -> twoRounds.countDown());
+            replayer.start();
+            assertTrue(twoRounds.await(5, TimeUnit.SECONDS));
+            replayer.stop();
+            assertFalse(replayer.isRunning());
+            long replayed = replayer.replayed();
+            Thread.sleep(20);
+            assertEquals(replayed, replayer.replayed());
+        }
+    }
+}
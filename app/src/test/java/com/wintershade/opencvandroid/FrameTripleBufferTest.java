@@ -0,0 +1,129 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FrameTripleBufferTest {
+
+    @Test
+    public void readerSeesNothingBeforeFirstPublish() {
+        FrameTripleBuffer frames = new FrameTripleBuffer();
+        assertFalse(frames.acquireLatest());
+    }
+
+    @Test
+    public void readerGetsNewestFrameOnce() {
+        FrameTripleBuffer frames = new FrameTripleBuffer();
+        for (int i = 1; i <= 3; i++) {
+            frames.beginWrite(4).put(0, (byte) i);
+            frames.publish(i, 1);
+        }
+        assertTrue(frames.acquireLatest());
+        assertEquals(3, frames.readBuffer().get(0));
+        assertEquals(3, frames.readWidth());
+        assertFalse(frames.acquireLatest());
+        assertEquals(3, frames.readBuffer().get(0));
+    }
+
+    @Test
+    public void timestampTravelsWithTheFrame() {
+        FrameTripleBuffer frames = new FrameTripleBuffer();
+        frames.beginWrite(4);
+        frames.publish(2, 2, 1, 123_456_789L);
+        assertTrue(frames.acquireLatest());
+        assertEquals(123_456_789L, frames.readTimestamp());
+        frames.beginWrite(4);
+        frames.publish(2, 2);
+        assertTrue(frames.acquireLatest());
+        assertEquals(0, frames.readTimestamp());
+    }
+
+    @Test
+    public void onlyThreeBuffersEverCirculate() {
+        FrameTripleBuffer frames = new FrameTripleBuffer();
+        Set<ByteBuffer> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 30; i++) {
+            seen.add(frames.beginWrite(16));
+            frames.publish(4, 1);
+            if (i % 3 == 0 && frames.acquireLatest()) seen.add(frames.readBuffer());
+        }
+        assertEquals(3, seen.size());
+    }
+
+    @Test
+    public void exchangeHandsBuffersBackWithoutCopying() {
+        FrameTripleBuffer frames = new FrameTripleBuffer();
+        ByteBuffer first = ByteBuffer.allocateDirect(4), second = ByteBuffer.allocateDirect(4);
+        first.put(0, (byte) 1).position(2);
+        assertNull(frames.publish(first, 1, 1, 7, 11L));
+        assertTrue(frames.acquireLatest());
+        assertSame(first, frames.readBuffer());
+        assertEquals(0, first.position());
+        assertEquals(7, frames.readFormat());
+        assertEquals(11L, frames.readTimestamp());
+
+        // Neither the reader's frame nor the ready one comes back to the producer
+        assertNull(frames.publish(second, 2, 1, 7, 12L));
+        ByteBuffer third = ByteBuffer.allocateDirect(4);
+        assertSame(second, frames.publish(third, 3, 1, 7, 13L));
+        assertTrue(frames.acquireLatest());
+        assertSame(third, frames.readBuffer());
+        assertEquals(3, frames.readWidth());
+        assertSame(first, frames.publish(second, 4, 1, 7, 14L));
+    }
+
+    @Test
+    public void stressNoTornOrStaleFrames() throws Exception {
+        final int frameBytes = 4 * 1024;
+        final int frameCount = 50000;
+        FrameTripleBuffer frames = new FrameTripleBuffer();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread producer = new Thread(() -> {
+            for (int n = 1; n <= frameCount; n++) {
+                ByteBuffer b = frames.beginWrite(frameBytes);
+                // Every int of a frame carries the frame number
+                for (int i = 0; i < frameBytes; i += 4) b.putInt(i, n);
+                frames.publish(n, 1);
+                // Give the consumer a chance to interleave even on few cores
+                if ((n & 7) == 0) Thread.yield();
+            }
+        }, "producer");
+
+        Thread consumer = new Thread(() -> {
+            int last = 0;
+            try {
+                while (last < frameCount) {
+                    if (!frames.acquireLatest()) {
+                        Thread.yield();
+                        continue;
+                    }
+                    ByteBuffer b = frames.readBuffer();
+                    int n = b.getInt(0);
+                    if (n != frames.readWidth()) throw new AssertionError("metadata mismatch " + n);
+                    if (n <= last) throw new AssertionError("frame " + n + " after " + last);
+                    for (int i = 0; i < frameBytes; i += 4) {
+                        if (b.getInt(i) != n) throw new AssertionError("torn frame " + n + " at " + i);
+                    }
+                    last = n;
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "consumer");
+
+        consumer.start();
+        producer.start();
+        producer.join(30000);
+        consumer.join(30000);
+        if (failure.get() != null) throw new AssertionError(failure.get());
+        assertFalse("consumer did not finish", consumer.isAlive());
+    }
+}
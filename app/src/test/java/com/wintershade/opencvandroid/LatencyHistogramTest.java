@@ -0,0 +1,93 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(0.99));
+    }
+
+    @Test
+    public void bucketsCoverEveryValueWithinThreePercent() {
+        for (long v = 0; v < 1L << 36; v = v < 64 ? v + 1 : v + v / 7 + 1) {
+            int bucket = LatencyHistogram.bucketOf(v);
+            long upper = LatencyHistogram.bucketUpperBound(bucket);
+            assertTrue(v + " above bucket bound " + upper, v <= upper);
+            if (bucket > 0) assertTrue(v + " fits a lower bucket", v > LatencyHistogram.bucketUpperBound(bucket - 1));
+            assertTrue(v + " -> " + upper, upper - v <= v / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void percentilesOfUniformMilliseconds() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int ms = 1; ms <= 100; ms++) h.record(ms * 1_000_000L);
+        assertEquals(100, h.count());
+        assertWithin(50_000_000L, h.percentile(0.50));
+        assertWithin(95_000_000L, h.percentile(0.95));
+        assertWithin(99_000_000L, h.percentile(0.99));
+        assertEquals(100_000_000L, h.percentile(1.0));
+        assertEquals(100_000_000L, h.max());
+    }
+
+    @Test
+    public void hugeAndNegativeValuesAreClamped() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(2, h.count());
+        assertEquals(0, h.percentile(0.5));
+        assertEquals(Long.MAX_VALUE, h.max());
+    }
+
+    @Test
+    public void drainMovesCountsAndEmptiesSource() {
+        LatencyHistogram live = new LatencyHistogram();
+        LatencyHistogram target = new LatencyHistogram();
+        live.record(10);
+        live.record(2_000);
+        live.drainInto(target);
+        assertEquals(0, live.count());
+        assertEquals(0, live.max());
+        assertEquals(2, target.count());
+        assertEquals(2_000, target.max());
+    }
+
+    @Test
+    public void concurrentDrainsLoseNothing() throws Exception {
+        LatencyHistogram live = new LatencyHistogram();
+        LatencyHistogram total = new LatencyHistogram();
+        int n = 200_000;
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < n; i++) live.record(i % 5000);
+        });
+        writer.start();
+        while (writer.isAlive()) live.drainInto(total);
+        writer.join();
+        live.drainInto(total);
+        assertEquals(n, total.count());
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        if (!AllocationMeter.isSupported()) return;
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < 10_000; i++) h.record(i * 1_000L);
+        long before = AllocationMeter.allocatedBytes();
+        for (int i = 0; i < 100_000; i++) h.record(i * 1_000L);
+        long allocated = AllocationMeter.allocatedBytes() - before;
+        // Allow a little slack for the meter itself.
+        assertTrue("allocated " + allocated + " bytes over 100000 records", allocated < 1024);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " got " + actual,
+                Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,144 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QualityGovernorTest {
+
+    private static final long BUDGET = 33_000_000L;
+    private static final int[][] SIZES = {{640, 360}, {1920, 1080}, {1280, 720}, {960, 540}};
+
+    private static QualityGovernor governor() {
+        return new QualityGovernor(SIZES, 1280, 720, BUDGET, 3);
+    }
+
+    /** Synthetic device: processing time proportional to pixel count. */
+    private static long cost(QualityGovernor g, double nanosPerPixel) {
+        QualityGovernor.Level l = g.level();
+        return (long) (nanosPerPixel * l.width * l.height);
+    }
+
+    /** Feeds frames at the given per-pixel cost; returns how many level changes happened. */
+    private static int feed(QualityGovernor g, int frames, double nanosPerPixel) {
+        int changes = 0;
+        for (int i = 0; i < frames; i++) {
+            if (g.onFrameProcessed(cost(g, nanosPerPixel))) changes++;
+        }
+        return changes;
+    }
+
+    private static int framesToFirstDecision() {
+        return QualityGovernor.SETTLE_FRAMES + QualityGovernor.WINDOW_FRAMES;
+    }
+
+    @Test
+    public void ladderRunsFromLargestSizeToSmallestWithSkips() {
+        QualityGovernor g = governor();
+        assertEquals(6, g.levelCount());
+        assertEquals("1920x1080", g.levelAt(0).toString());
+        assertEquals("640x360", g.levelAt(3).toString());
+        assertEquals("640x360 1/2", g.levelAt(4).toString());
+        assertEquals("640x360 1/3", g.levelAt(5).toString());
+    }
+
+    @Test
+    public void startsAtLargestSizeWithinStartResolution() {
+        assertEquals("1280x720", governor().level().toString());
+        assertEquals("640x360", new QualityGovernor(SIZES, 800, 600, BUDGET, 1).level().toString());
+    }
+
+    @Test
+    public void staysPutWhileWithinBudget() {
+        QualityGovernor g = governor();
+        // 1280x720 at 25 ms, 1920x1080 would be 56 ms: no room to go up, no need to go down
+        assertEquals(0, feed(g, 2000, 25e6 / (1280 * 720)));
+        assertEquals("1280x720", g.level().toString());
+    }
+
+    @Test
+    public void stepsDownAfterOneWindowOverBudget() {
+        QualityGovernor g = governor();
+        double slow = 40e6 / (1280 * 720);
+        assertEquals(0, feed(g, framesToFirstDecision() - 1, slow));
+        assertEquals(1, feed(g, 1, slow));
+        assertEquals("960x540", g.level().toString());
+    }
+
+    @Test
+    public void ignoresFramesWhileSettling() {
+        QualityGovernor g = governor();
+        // Huge timings during the settle period must not count
+        for (int i = 0; i < QualityGovernor.SETTLE_FRAMES; i++) assertFalse(g.onFrameProcessed(BUDGET * 100));
+        assertEquals(0, feed(g, QualityGovernor.WINDOW_FRAMES, 10e6 / (1280 * 720)));
+        assertEquals("1280x720", g.level().toString());
+    }
+
+    @Test
+    public void fallsBackToFrameSkippingAtSmallestSize() {
+        QualityGovernor g = governor();
+        // Even 640x360 takes 80 ms: ends up processing 1 in 3 frames
+        feed(g, 2000, 80e6 / (640 * 360));
+        assertEquals("640x360 1/3", g.level().toString());
+
+        int processed = 0;
+        for (int i = 0; i < 30; i++) if (g.shouldProcess()) processed++;
+        assertEquals(10, processed);
+    }
+
+    @Test
+    public void stepsUpOnlyAfterSustainedHeadroom() {
+        QualityGovernor g = governor();
+        // Stop right at the change into the lowest level, so no window is half full
+        while (g.levelIndex() < 5) g.onFrameProcessed(cost(g, 80e6 / (640 * 360)));
+
+        // Load drops to 4 ms at 640x360: at 1/3 skip that is a tiny share of the budget
+        double fast = 4e6 / (640 * 360);
+        int oneWindowShort = QualityGovernor.SETTLE_FRAMES
+                + QualityGovernor.UP_WINDOWS * QualityGovernor.WINDOW_FRAMES - 1;
+        assertEquals(0, feed(g, oneWindowShort, fast));
+        assertEquals(1, feed(g, 1, fast));
+        assertEquals(4, g.levelIndex());
+
+        // Climbs to the largest size that leaves headroom: 1280x720 at 16 ms, not
+        // 1920x1080 at 36 ms
+        feed(g, 5000, fast);
+        assertEquals("1280x720", g.level().toString());
+    }
+
+    @Test
+    public void doesNotClimbIntoALevelThatWouldBeOverBudget() {
+        QualityGovernor g = governor();
+        // 960x540 costs 25 ms; 1280x720 would cost 44 ms: must settle at 960x540 for good
+        double perPixel = 25e6 / (960 * 540);
+        feed(g, 200, perPixel);
+        assertEquals("960x540", g.level().toString());
+        assertEquals(0, feed(g, 5000, perPixel));
+    }
+
+    @Test
+    public void oscillationIsRateLimitedWhenPredictionIsWrong() {
+        QualityGovernor g = governor();
+        // A device where the larger size is disproportionately slow (e.g. cache effects):
+        // 960x540 looks cheap enough to step up, but 1280x720 blows the budget.
+        int changes = 0;
+        int frames = 10000;
+        for (int i = 0; i < frames; i++) {
+            long nanos = g.level().width >= 1280 ? 45_000_000L : 12_000_000L;
+            if (g.onFrameProcessed(nanos)) changes++;
+        }
+        // Every climb needs UP_WINDOWS windows of headroom, every drop costs a settle period
+        int cycle = 2 * QualityGovernor.SETTLE_FRAMES + (QualityGovernor.UP_WINDOWS + 1) * QualityGovernor.WINDOW_FRAMES;
+        assertTrue("changes: " + changes, changes <= 2 * (frames / cycle + 1));
+        assertTrue(g.levelIndex() >= 1);
+    }
+
+    @Test
+    public void candidateSizesKeepAspectAndPixelLimit() {
+        int[][] supported = {{4032, 3024}, {3840, 2160}, {1920, 1080}, {1440, 1080}, {1280, 720}, {640, 480}};
+        int[][] out = QualityGovernor.candidateSizes(supported, 16, 9, 1920 * 1080);
+        assertEquals(2, out.length);
+        assertArrayEquals(new int[]{1920, 1080}, out[0]);
+        assertArrayEquals(new int[]{1280, 720}, out[1]);
+    }
+}
@@ -0,0 +1,92 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class ShaderProgramSpecTest {
+
+    @Test
+    public void everySamplerIsDeclaredInTheSource() {
+        for (ShaderProgramSpec spec : new ShaderProgramSpec[]{
+                ShaderProgramSpec.rgba(), ShaderProgramSpec.nv21(false), ShaderProgramSpec.nv21(true),
+                ShaderProgramSpec.edgeBits()}) {
+            for (String sampler : spec.samplers()) {
+                assertTrue(sampler, spec.fragmentSource().contains("uniform sampler2D " + sampler + ";"));
+            }
+        }
+    }
+
+    @Test
+    public void overlayAddsMaskSamplerAndColour() {
+        ShaderProgramSpec plain = ShaderProgramSpec.nv21(false);
+        ShaderProgramSpec overlay = ShaderProgramSpec.nv21(true);
+        assertEquals(2, plain.samplers().length);
+        assertEquals(3, overlay.samplers().length);
+        assertFalse(plain.fragmentSource().contains(ShaderProgramSpec.EDGE_COLOR_UNIFORM));
+        assertTrue(overlay.fragmentSource().contains("uniform vec4 " + ShaderProgramSpec.EDGE_COLOR_UNIFORM));
+        assertTrue(overlay.hasEdgeOverlay());
+    }
+
+    @Test
+    public void samplersAreWiredToUnitsInOrder() {
+        FakeGles gl = new FakeGles();
+        ShaderProgramSpec spec = ShaderProgramSpec.nv21(true);
+        int colorLocation = spec.wireUniforms(gl, 7);
+        String[] samplers = spec.samplers();
+        for (int unit = 0; unit < samplers.length; unit++) {
+            int location = gl.uniformLocations.get(samplers[unit]);
+            assertEquals(Integer.valueOf(unit), gl.uniformInts.get(location));
+        }
+        assertEquals(gl.uniformLocations.get(ShaderProgramSpec.EDGE_COLOR_UNIFORM).intValue(), colorLocation);
+        assertEquals(-1, ShaderProgramSpec.nv21(false).wireUniforms(gl, 8));
+    }
+
+    @Test
+    public void numericLiteralsAreGlslFloats() {
+        // GLSL ES 1.0 has no implicit int -> float conversion
+        for (ShaderProgramSpec spec : new ShaderProgramSpec[]{ShaderProgramSpec.nv21(true), ShaderProgramSpec.edgeBits()}) {
+            Matcher m = Pattern.compile("(?<![\\w.])\\d+(\\.\\d*)?").matcher(spec.fragmentSource());
+            while (m.find()) {
+                assertNotNull("integer literal " + m.group(), m.group(1));
+            }
+        }
+    }
+
+    @Test
+    public void edgeBitsWiresColourAndDeclaresSize() {
+        ShaderProgramSpec spec = ShaderProgramSpec.edgeBits();
+        assertTrue(spec.hasEdgeOverlay());
+        assertTrue(spec.fragmentSource().contains("uniform vec2 " + ShaderProgramSpec.BITS_SIZE_UNIFORM + ";"));
+        FakeGles gl = new FakeGles();
+        int colorLocation = spec.wireUniforms(gl, 3);
+        assertEquals(gl.uniformLocations.get(ShaderProgramSpec.EDGE_COLOR_UNIFORM).intValue(), colorLocation);
+        assertEquals(Integer.valueOf(0), gl.uniformInts.get(gl.uniformLocations.get("uTexBits")));
+    }
+
+    @Test
+    public void edgeBitsSamplesEveryPixelsOwnBit() {
+        // 61 wide: a partial last byte, sampled at every pixel centre
+        int width = 61;
+        ByteBuffer mask = ByteBuffer.allocateDirect(width);
+        for (int x = 0; x < width; x++) mask.put(x, (byte) (x % 3 == 0 || x % 7 == 0 ? 0xff : 0));
+        ByteBuffer bits = ByteBuffer.allocateDirect(EdgeFrame.size(width, 1));
+        EdgeFrame.pack(mask, 0, width, width, 1, bits, 0);
+        for (int x = 0; x < width; x++) {
+            float s = (x + 0.5f) / width;
+            assertEquals("x " + x, mask.get(x) != 0 ? 1 : 0, ShaderProgramSpec.edgeBit(bits, width, s));
+        }
+    }
+
+    @Test
+    public void conversionMatchesBt601VideoRange() {
+        assertArrayEquals(new int[]{0, 0, 0}, ShaderProgramSpec.toRgb(16, 128, 128));
+        assertArrayEquals(new int[]{255, 255, 255}, ShaderProgramSpec.toRgb(235, 128, 128));
+        int[] red = ShaderProgramSpec.toRgb(81, 90, 240);
+        assertTrue(red[0] > 250 && red[1] < 5 && red[2] < 5);
+    }
+}
@@ -0,0 +1,148 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StagedExecutorTest {
+
+    /** Collects where every frame ended up. */
+    private static final class Recorder implements StagedExecutor.FrameSink<Integer> {
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> dropped = Collections.synchronizedList(new ArrayList<>());
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        @Override
+        public void onCompleted(Integer frame) {
+            completed.add(frame);
+        }
+
+        @Override
+        public void onDropped(Integer frame, Throwable e) {
+            dropped.add(frame);
+            if (e != null) error.set(e);
+        }
+
+        void awaitTotal(int total) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (completed.size() + dropped.size() < total && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    @Test
+    public void framesPassEveryStageInOrder() throws Exception {
+        Recorder sink = new Recorder();
+        List<String> trace = Collections.synchronizedList(new ArrayList<>());
+        StagedExecutor<Integer> executor = new StagedExecutor<>("test", 8, sink,
+                f -> trace.add("a" + f), f -> trace.add("b" + f), f -> trace.add("c" + f));
+        executor.start();
+        for (int i = 0; i < 5; i++) executor.submit(i);
+        sink.awaitTotal(5);
+        executor.stop();
+
+        assertEquals(List.of(0, 1, 2, 3, 4), sink.completed);
+        assertTrue(sink.dropped.isEmpty());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(trace.indexOf("a" + i) < trace.indexOf("b" + i));
+            assertTrue(trace.indexOf("b" + i) < trace.indexOf("c" + i));
+        }
+    }
+
+    @Test
+    public void fullQueueDropsOldestFrame() throws Exception {
+        Recorder sink = new Recorder();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StagedExecutor<Integer> executor = new StagedExecutor<>("test", 2, sink, f -> {
+            if (f == 0) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        executor.start();
+        executor.submit(0);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        // Stage is busy with 0; the queue holds two, so 1..3 are pushed out by 4 and 5
+        for (int i = 1; i <= 5; i++) executor.submit(i);
+        release.countDown();
+        sink.awaitTotal(6);
+        executor.stop();
+
+        assertEquals(List.of(0, 4, 5), sink.completed);
+        assertEquals(List.of(1, 2, 3), sink.dropped);
+        assertEquals(6, executor.submitted());
+        assertEquals(3, executor.dropped());
+    }
+
+    @Test
+    public void failingStageDropsFrameAndKeepsRunning() throws Exception {
+        Recorder sink = new Recorder();
+        StagedExecutor<Integer> executor = new StagedExecutor<>("test", 4, sink, f -> {
+            if (f == 1) throw new IllegalStateException("bad frame");
+        }, f -> { });
+        executor.start();
+        for (int i = 0; i < 3; i++) executor.submit(i);
+        sink.awaitTotal(3);
+        executor.stop();
+
+        assertEquals(List.of(0, 2), sink.completed);
+        assertEquals(List.of(1), sink.dropped);
+        assertEquals("bad frame", sink.error.get().getMessage());
+        assertEquals(1, executor.failed());
+    }
+
+    @Test
+    public void errorInStageReturnsFrameBeforeEndingWorker() throws Exception {
+        Recorder sink = new Recorder();
+        StagedExecutor<Integer> executor = new StagedExecutor<>("test", 4, sink, f -> {
+            if (f == 1) throw new StackOverflowError("deep frame");
+        });
+        executor.start();
+        executor.submit(0);
+        executor.submit(1);
+        sink.awaitTotal(2);
+        // The worker is gone; what is still queued goes back when the executor stops
+        executor.submit(2);
+        executor.stop();
+
+        assertEquals(List.of(0), sink.completed);
+        assertEquals(List.of(1, 2), sink.dropped);
+        assertTrue(sink.error.get() instanceof StackOverflowError);
+        assertEquals(1, executor.failed());
+    }
+
+    @Test
+    public void stopDropsQueuedFramesAndLaterSubmits() throws Exception {
+        Recorder sink = new Recorder();
+        CountDownLatch entered = new CountDownLatch(1);
+        StagedExecutor<Integer> executor = new StagedExecutor<>("test", 4, sink, f -> {
+            entered.countDown();
+            SyntheticFrameSource.work(TimeUnit.MILLISECONDS.toNanos(20));
+        });
+        executor.start();
+        for (int i = 0; i < 3; i++) executor.submit(i);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        executor.stop();
+        executor.submit(3);
+
+        // Every frame is accounted for exactly once
+        List<Integer> all = new ArrayList<>(sink.completed);
+        all.addAll(sink.dropped);
+        Collections.sort(all);
+        assertEquals(List.of(0, 1, 2, 3), all);
+        assertTrue(sink.dropped.contains(3));
+    }
+}
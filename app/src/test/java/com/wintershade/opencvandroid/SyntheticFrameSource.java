@@ -0,0 +1,45 @@
+package com.wintershade.opencvandroid;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stands in for the camera on a plain JVM: a thread that emits numbered, timestamped
+ * frames at a fixed rate into a {@link StagedExecutor}, the way the ImageReader
+ * callback does on the device.
+ */
+final class SyntheticFrameSource {
+
+    static final class Frame {
+        final int index;
+        final long capturedNanos;
+
+        Frame(int index, long capturedNanos) {
+            this.index = index;
+            this.capturedNanos = capturedNanos;
+        }
+    }
+
+    private final long periodNanos;
+
+    SyntheticFrameSource(double fps) {
+        periodNanos = (long) (1e9 / fps);
+    }
+
+    /** Emits {@code count} frames on the calling thread, paced to the source rate. */
+    void run(StagedExecutor<Frame> executor, int count) {
+        long next = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            executor.submit(new Frame(i, System.nanoTime()));
+            next += periodNanos;
+        }
+    }
+
+    /** Simulated stage cost. Parks rather than spins so stages overlap even on one core. */
+    static void work(long nanos) {
+        long end = System.nanoTime() + nanos;
+        long left;
+        while ((left = end - System.nanoTime()) > 0) LockSupport.parkNanos(left);
+    }
+}
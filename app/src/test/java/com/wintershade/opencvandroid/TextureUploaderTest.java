@@ -0,0 +1,110 @@
+package com.wintershade.opencvandroid;
+
+import android.opengl.GLES20;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class TextureUploaderTest {
+
+    private static final int RGBA = GLES20.GL_RGBA;
+
+    @Test
+    public void parsesGlVersion() {
+        assertEquals(2, TextureUploader.majorVersion("OpenGL ES 2.0 build 1.13"));
+        assertEquals(3, TextureUploader.majorVersion("OpenGL ES 3.2 V@415.0"));
+        assertEquals(0, TextureUploader.majorVersion("OpenGL ES-CM 1.1"));
+        assertEquals(0, TextureUploader.majorVersion(null));
+    }
+
+    @Test
+    public void picksSubImageOnEs2AndPboOnEs3() {
+        FakeGles gl = new FakeGles();
+        TextureUploader uploader = new TextureUploader(gl, RGBA, 4);
+        uploader.onSurfaceCreated(1);
+        assertEquals(TextureUploader.Path.SUB_IMAGE, uploader.path());
+
+        gl.version = "OpenGL ES 3.0";
+        uploader.onSurfaceCreated(1);
+        assertEquals(TextureUploader.Path.PBO, uploader.path());
+
+        uploader.setPboAllowed(false);
+        uploader.onSurfaceCreated(1);
+        assertEquals(TextureUploader.Path.SUB_IMAGE, uploader.path());
+    }
+
+    @Test
+    public void storageIsAllocatedOncePerResolution() {
+        FakeGles gl = new FakeGles();
+        TextureUploader uploader = new TextureUploader(gl, RGBA, 4);
+        uploader.onSurfaceCreated(1);
+        ByteBuffer small = ByteBuffer.allocateDirect(8 * 4 * 4);
+        ByteBuffer large = ByteBuffer.allocateDirect(16 * 8 * 4);
+
+        for (int i = 0; i < 5; i++) uploader.upload(small, 8, 4);
+        assertEquals(1, gl.count("glTexImage2D"));
+        assertEquals(5, gl.count("glTexSubImage2D"));
+
+        uploader.upload(large, 16, 8);
+        uploader.upload(large, 16, 8);
+        assertEquals(2, gl.count("glTexImage2D"));
+        assertEquals(16, uploader.width());
+
+        // A new context loses the storage
+        uploader.onSurfaceCreated(2);
+        uploader.upload(large, 16, 8);
+        assertEquals(3, gl.count("glTexImage2D"));
+    }
+
+    @Test
+    public void pboPathCopiesFrameAndAlternatesBuffers() {
+        FakeGles gl = new FakeGles();
+        gl.version = "OpenGL ES 3.1";
+        TextureUploader uploader = new TextureUploader(gl, RGBA, 4);
+        uploader.onSurfaceCreated(1);
+        ByteBuffer frame = ByteBuffer.allocateDirect(4 * 2 * 4);
+        frame.put(5, (byte) 42);
+
+        uploader.upload(frame, 4, 2);
+        int first = gl.boundBuffers.get(gl.boundBuffers.size() - 1);
+        uploader.upload(frame, 4, 2);
+        int second = gl.boundBuffers.get(gl.boundBuffers.size() - 1);
+        assertNotEquals(first, second);
+        assertEquals(2, gl.count("glBufferData"));
+        assertEquals(2, gl.count("glTexSubImage2D(pbo)"));
+        assertEquals(0, gl.count("glTexSubImage2D"));
+        assertEquals(42, gl.lastMapped.get(5));
+    }
+
+    @Test
+    public void fallsBackWhenMappingFails() {
+        FakeGles gl = new FakeGles();
+        gl.version = "OpenGL ES 3.0";
+        gl.mapFails = true;
+        TextureUploader uploader = new TextureUploader(gl, RGBA, 4);
+        uploader.onSurfaceCreated(1);
+        uploader.upload(ByteBuffer.allocateDirect(16), 2, 2);
+        assertEquals(TextureUploader.Path.SUB_IMAGE, uploader.path());
+        assertEquals(1, gl.count("glTexSubImage2D"));
+    }
+
+    @Test
+    public void reportsEveryUpload() {
+        FakeGles gl = new FakeGles();
+        TextureUploader uploader = new TextureUploader(gl, GLES20.GL_LUMINANCE, 1);
+        int[] reported = new int[2];
+        uploader.setMetrics((path, bytes, nanos) -> {
+            reported[0]++;
+            reported[1] += bytes;
+            assertTrue(nanos >= 0);
+        });
+        uploader.onSurfaceCreated(1);
+        uploader.upload(ByteBuffer.allocateDirect(6), 3, 2);
+        uploader.upload(ByteBuffer.allocateDirect(6), 3, 2);
+        assertEquals(2, reported[0]);
+        assertEquals(12, reported[1]);
+    }
+}
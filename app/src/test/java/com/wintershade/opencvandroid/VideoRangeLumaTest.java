@@ -0,0 +1,73 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class VideoRangeLumaTest {
+
+    // OpenCV's YUV420sp -> RGB and RGB -> gray coefficients (color_yuv.simd.hpp, color.hpp)
+    private static final int CUB = 2116026, CUG = -409993, CVG = -852492, CVR = 1673527;
+    private static final int R2Y = 4899, G2Y = 9617, B2Y = 1868, GRAY_SHIFT = 14;
+
+    private static int clip(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+
+    /** cvtColor NV21 -> RGBA -> GRAY for one pixel, or -1 if a channel clips. */
+    private static int cvtColorGray(int y, int u, int v, boolean allowClipping) {
+        int uu = u - 128, vv = v - 128;
+        int half = 1 << (VideoRangeLuma.SHIFT - 1);
+        int yy = Math.max(0, y - 16) * VideoRangeLuma.CY;
+        int r = (yy + half + CVR * vv) >> VideoRangeLuma.SHIFT;
+        int g = (yy + half + CVG * vv + CUG * uu) >> VideoRangeLuma.SHIFT;
+        int b = (yy + half + CUB * uu) >> VideoRangeLuma.SHIFT;
+        if (!allowClipping && (r != clip(r) || g != clip(g) || b != clip(b))) return -1;
+        return (clip(r) * R2Y + clip(g) * G2Y + clip(b) * B2Y + (1 << (GRAY_SHIFT - 1))) >> GRAY_SHIFT;
+    }
+
+    @Test
+    public void matchesTheConversionForNeutralChroma() {
+        for (int y = 0; y < 256; y++) {
+            assertEquals("Y " + y, cvtColorGray(y, 128, 128, true), VideoRangeLuma.expand(y));
+        }
+    }
+
+    @Test
+    public void expandsVideoRangeToFullRange() {
+        assertEquals(0, VideoRangeLuma.expand(0));
+        assertEquals(0, VideoRangeLuma.expand(16));
+        assertEquals(255, VideoRangeLuma.expand(235));
+        assertEquals(255, VideoRangeLuma.expand(255));
+        assertEquals(Math.round(1.164 * (128 - 16)), VideoRangeLuma.expand(128));
+    }
+
+    @Test
+    public void staysWithinOneLevelUnlessAChannelClips() {
+        int checked = 0;
+        for (int y = 0; y < 256; y++) {
+            int expected = VideoRangeLuma.expand(y);
+            for (int u = 0; u < 256; u++) {
+                for (int v = 0; v < 256; v++) {
+                    int gray = cvtColorGray(y, u, v, false);
+                    if (gray < 0) continue;
+                    checked++;
+                    if (Math.abs(gray - expected) > 1) {
+                        fail("Y " + y + " U " + u + " V " + v + ": " + gray + " vs " + expected);
+                    }
+                }
+            }
+        }
+        assertTrue(checked > 1_000_000);
+    }
+
+    @Test
+    public void tableHoldsEveryLevel() {
+        ByteBuffer table = VideoRangeLuma.newTable();
+        assertTrue(table.isDirect());
+        assertEquals(256, table.capacity());
+        for (int y = 0; y < 256; y++) assertEquals(VideoRangeLuma.expand(y), table.get(y) & 0xff);
+    }
+}
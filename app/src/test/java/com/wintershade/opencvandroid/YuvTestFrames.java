@@ -0,0 +1,97 @@
+package com.wintershade.opencvandroid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Builds synthetic YUV_420_888 planes laid out the way camera HALs hand them out,
+ * so frame code can be exercised on the host JVM without an {@code android.media.Image}.
+ */
+final class YuvTestFrames {
+
+    final int width, height;
+    final ByteBuffer y, u, v;
+    final int yRowStride, uvRowStride, uvPixelStride;
+
+    private YuvTestFrames(int width, int height, ByteBuffer y, ByteBuffer u, ByteBuffer v,
+                          int yRowStride, int uvRowStride, int uvPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.y = y;
+        this.u = u;
+        this.v = v;
+        this.yRowStride = yRowStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+    }
+
+    /** Semi-planar layout: U and V are views into one VU-interleaved block, U one byte after V. */
+    static YuvTestFrames semiPlanar(int width, int height, int rowStride, long seed) {
+        Random rnd = new Random(seed);
+        ByteBuffer y = plane(rowStride, width, height, rnd);
+        ByteBuffer vu = plane(rowStride, width, height / 2, rnd);
+        ByteBuffer v = vu.duplicate();
+        v.limit(vu.capacity() - 1);
+        v = v.slice();
+        ByteBuffer u = vu.duplicate();
+        u.position(1);
+        u = u.slice();
+        return new YuvTestFrames(width, height, y, u, v, rowStride, rowStride, 2);
+    }
+
+    /** Fully planar (I420) layout with separate U and V planes. */
+    static YuvTestFrames planar(int width, int height, int rowStride, int chromaRowStride, long seed) {
+        Random rnd = new Random(seed);
+        ByteBuffer y = plane(rowStride, width, height, rnd);
+        ByteBuffer u = plane(chromaRowStride, width / 2, height / 2, rnd);
+        ByteBuffer v = plane(chromaRowStride, width / 2, height / 2, rnd);
+        return new YuvTestFrames(width, height, y, u, v, rowStride, chromaRowStride, 1);
+    }
+
+    /**
+     * Separate U and V planes with a pixel stride of 2, as a HAL with padded planar
+     * chroma would hand out. The first chroma row is flat, and each plane's padding
+     * holds the other plane's value, so its bytes look interleaved without being so.
+     */
+    static YuvTestFrames separatePaddedChroma(int width, int height, int rowStride, long seed) {
+        Random rnd = new Random(seed);
+        ByteBuffer y = plane(rowStride, width, height, rnd);
+        ByteBuffer u = plane(rowStride, width, height / 2, rnd);
+        ByteBuffer v = plane(rowStride, width, height / 2, rnd);
+        for (int i = 0; i < width; i++) {
+            u.put(i, (byte) (i % 2 == 0 ? 90 : 160));
+            v.put(i, (byte) (i % 2 == 0 ? 160 : 90));
+        }
+        return new YuvTestFrames(width, height, y, u, v, rowStride, rowStride, 2);
+    }
+
+    /** Straightforward NV21 reference built pixel by pixel from the planes. */
+    byte[] expectedNv21() {
+        byte[] out = new byte[width * height * 3 / 2];
+        int i = 0;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                out[i++] = y.get(row * yRowStride + col);
+            }
+        }
+        for (int row = 0; row < height / 2; row++) {
+            for (int col = 0; col < width / 2; col++) {
+                int src = row * uvRowStride + col * uvPixelStride;
+                out[i++] = v.get(src);
+                out[i++] = u.get(src);
+            }
+        }
+        return out;
+    }
+
+    /** Android trims the padding after the last row, so the plane is one stride short. */
+    private static ByteBuffer plane(int rowStride, int rowBytes, int rows, Random rnd) {
+        byte[] data = new byte[rowStride * (rows - 1) + rowBytes];
+        rnd.nextBytes(data);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length).order(ByteOrder.nativeOrder());
+        buffer.put(data);
+        buffer.position(0);
+        return buffer;
+    }
+}
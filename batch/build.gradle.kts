@@ -0,0 +1,44 @@
+// Headless edge maps over directories of captured frames, against desktop OpenCV.
+// Run with ./gradlew :batch:run --args="<input dir> --out <dir>" (or --scaling).
+plugins {
+    java
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// The app's Android-free frame classes, compiled from the app sources rather than copied
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "com/wintershade/opencvandroid/BatchEngine.java",
+                "com/wintershade/opencvandroid/BatchMain.java",
+                "com/wintershade/opencvandroid/DesktopStageRunner.java",
+                "com/wintershade/opencvandroid/EdgeBatch.java",
+                "com/wintershade/opencvandroid/FramePacker.java",
+                "com/wintershade/opencvandroid/FramePipeline.java",
+                "com/wintershade/opencvandroid/FrameProcessor.java",
+                "com/wintershade/opencvandroid/FrameProcessors.java",
+                "com/wintershade/opencvandroid/FrameRecorder.java",
+                "com/wintershade/opencvandroid/FrameRingReader.java",
+                "com/wintershade/opencvandroid/MatArena.java",
+                "com/wintershade/opencvandroid/VideoRangeLuma.java"
+            )
+        }
+    }
+}
+
+dependencies {
+    // Desktop OpenCV Java bindings with the native libraries bundled
+    implementation(libs.opencv.desktop)
+    testImplementation(libs.junit)
+}
+
+application {
+    mainClass.set("com.wintershade.opencvandroid.BatchMain")
+}
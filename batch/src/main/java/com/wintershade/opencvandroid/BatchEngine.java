@@ -0,0 +1,128 @@
+package com.wintershade.opencvandroid;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs a stream of independent jobs on a fork-join pool, each pool thread with its
+ * own worker state ({@code W}: Mat arena, packer, stage runner) created on first use
+ * and released when the run ends.
+ *
+ * Jobs are pulled from the iterator only as permits free up, so at most
+ * {@code maxInFlight} are decoded or waiting at any time and memory stays bounded
+ * however long the input is. A job that throws is counted and the run goes on.
+ */
+final class BatchEngine<W> {
+
+    /** One unit of work, e.g. a file or a recorded frame; runs on a pool thread. */
+    interface Job<W> {
+        void run(W worker) throws Exception;
+    }
+
+    /** Outcome of one {@link #run}. */
+    static final class Result {
+        final long completed, failed, elapsedNanos;
+        final int workers;
+        final Throwable firstError;
+
+        Result(long completed, long failed, long elapsedNanos, int workers, Throwable firstError) {
+            this.completed = completed;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+            this.workers = workers;
+            this.firstError = firstError;
+        }
+
+        double jobsPerSecond() {
+            return elapsedNanos == 0 ? 0 : completed * 1e9 / elapsedNanos;
+        }
+    }
+
+    private final int threads;
+    private final int maxInFlight;
+    private final Supplier<W> newWorker;
+    private final Consumer<W> releaseWorker;
+
+    /**
+     * @param maxInFlight jobs submitted but not finished; 2 per thread keeps every
+     *                    thread busy while the next job is being pulled
+     */
+    BatchEngine(int threads, int maxInFlight, Supplier<W> newWorker, Consumer<W> releaseWorker) {
+        if (threads < 1 || maxInFlight < threads) {
+            throw new IllegalArgumentException("need threads >= 1 and maxInFlight >= threads");
+        }
+        this.threads = threads;
+        this.maxInFlight = maxInFlight;
+        this.newWorker = newWorker;
+        this.releaseWorker = releaseWorker;
+    }
+
+    int threads() {
+        return threads;
+    }
+
+    /** Runs every job the iterator yields; returns when all of them have finished. */
+    Result run(Iterator<? extends Job<W>> jobs) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Semaphore permits = new Semaphore(maxInFlight);
+        List<W> created = new ArrayList<>();
+        ThreadLocal<W> workers = ThreadLocal.withInitial(() -> {
+            W w = newWorker.get();
+            synchronized (created) {
+                created.add(w);
+            }
+            return w;
+        });
+        AtomicLong completed = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        Throwable[] firstError = new Throwable[1];
+
+        long start = System.nanoTime();
+        long elapsed;
+        try {
+            while (true) {
+                permits.acquire();
+                Job<W> job;
+                try {
+                    if (!jobs.hasNext()) break;
+                    job = jobs.next();
+                } catch (RuntimeException e) { // the source itself failed, e.g. an unreadable directory
+                    permits.release();
+                    throw e;
+                }
+                pool.execute(() -> {
+                    try {
+                        job.run(workers.get());
+                        completed.incrementAndGet();
+                    } catch (Throwable e) {
+                        failed.incrementAndGet();
+                        synchronized (firstError) {
+                            if (firstError[0] == null) firstError[0] = e;
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            permits.release();
+            permits.acquire(maxInFlight); // every job has finished
+            elapsed = System.nanoTime() - start;
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            synchronized (created) {
+                for (W w : created) releaseWorker.accept(w);
+            }
+        }
+        synchronized (firstError) {
+            return new Result(completed.get(), failed.get(), elapsed, created.size(), firstError[0]);
+        }
+    }
+}
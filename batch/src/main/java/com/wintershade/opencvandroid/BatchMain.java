@@ -0,0 +1,97 @@
+package com.wintershade.opencvandroid;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command line for {@link EdgeBatch}:
+ * <pre>
+ *   batch &lt;input dir&gt; [--out &lt;dir&gt;] [--threads N] [--pyramid L] [--scaling]
+ * </pre>
+ * Runs Canny(50, 150), after {@code pyramidDown(L)} when given, on every frame under
+ * the input directory. {@code --scaling} times the whole set at 1, 2, 4, ... threads
+ * up to the core count and prints frames per second and the speedup over one thread.
+ */
+public final class BatchMain {
+
+    private BatchMain() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path input = null, output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int pyramid = 0;
+        boolean scaling = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--out": output = Paths.get(value(args, ++i)); break;
+                case "--threads": threads = Integer.parseInt(value(args, ++i)); break;
+                case "--pyramid": pyramid = Integer.parseInt(value(args, ++i)); break;
+                case "--scaling": scaling = true; break;
+                default:
+                    if (args[i].startsWith("--") || input != null) usage("unknown argument " + args[i]);
+                    input = Paths.get(args[i]);
+            }
+        }
+        if (input == null) usage("no input directory");
+
+        nu.pattern.OpenCV.loadLocally();
+        FrameProcessor canny = FrameProcessors.canny(50, 150);
+        FrameProcessor[] stages = pyramid > 0
+                ? new FrameProcessor[]{FrameProcessors.pyramidDown(pyramid), canny}
+                : new FrameProcessor[]{canny};
+
+        if (!scaling) {
+            report(new EdgeBatch(input, output, stages).run(threads), 0);
+            return;
+        }
+        // Timing only: writing PNGs would measure the disk
+        EdgeBatch batch = new EdgeBatch(input, null, stages);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf(Locale.US, "%s %s, %d cores%n", System.getProperty("os.name"),
+                System.getProperty("os.arch"), cores);
+        batch.run(cores); // warm-up: JIT, page cache
+        double single = 0;
+        for (int n : threadCounts(cores)) {
+            BatchEngine.Result r = batch.run(n);
+            if (n == 1) single = r.jobsPerSecond();
+            report(r, single);
+        }
+    }
+
+    /** 1, 2, 4, ... and the core count itself. */
+    static List<Integer> threadCounts(int cores) {
+        List<Integer> counts = new ArrayList<>();
+        for (int n = 1; n < cores; n *= 2) counts.add(n);
+        counts.add(cores);
+        return counts;
+    }
+
+    private static void report(BatchEngine.Result r, double single) {
+        System.out.printf(Locale.US, "%2d threads: %d frames in %.2f s, %.1f frames/s", r.workers, r.completed,
+                r.elapsedNanos / 1e9, r.jobsPerSecond());
+        if (single > 0) {
+            double speedup = r.jobsPerSecond() / single;
+            System.out.printf(Locale.US, ", %.2fx (%.0f%% efficiency)", speedup, 100 * speedup / r.workers);
+        }
+        System.out.println();
+        if (r.failed > 0) {
+            System.out.println(r.failed + " failed, first: " + r.firstError);
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) usage(args[i - 1] + " needs a value");
+        return args[i];
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("usage: batch <input dir> [--out <dir>] [--threads N] [--pyramid L] [--scaling]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,157 @@
+package com.wintershade.opencvandroid;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link FramePipeline.NativeRunner} on desktop OpenCV's Java bindings, standing in
+ * for {@code runStages} in {@code opencvandroid.cpp}, which only builds for Android.
+ * Ops and parameters follow {@code applyStage}; Canny is plain single-threaded
+ * cv::Canny, which the banded native version matches bit for bit.
+ *
+ * The Java bindings can't borrow a Mat by address ({@code new Mat(addr)} deletes it
+ * when collected), so the Mats the pipeline passes in must be {@link #bind bound} first.
+ */
+final class DesktopStageRunner implements FramePipeline.NativeRunner {
+
+    private final Mat[] stages = {new Mat(), new Mat()};
+    private final Mat sobelX = new Mat(), sobelY = new Mat(), sobelAbs = new Mat();
+    private final Mat hierarchy = new Mat();
+    private final Mat[] pyramid = new Mat[FrameProcessors.MAX_PYRAMID_LEVELS];
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private Mat kernel = new Mat();
+    private final List<Mat> bound = new ArrayList<>();
+
+    /** Allows {@code mat} as a source or destination; cheap to repeat for every frame. */
+    void bind(Mat mat) {
+        for (int i = 0; i < bound.size(); i++) {
+            if (bound.get(i) == mat) return;
+        }
+        bound.add(mat);
+    }
+
+    /** Forgets a Mat bound with {@link #bind}, e.g. a decoded image about to be released. */
+    void unbind(Mat mat) {
+        for (int i = 0; i < bound.size(); i++) {
+            if (bound.get(i) == mat) {
+                bound.remove(i);
+                return;
+            }
+        }
+    }
+
+    /** Frees the scratch Mats; bound Mats belong to the caller. */
+    void release() {
+        for (Mat m : new Mat[]{stages[0], stages[1], sobelX, sobelY, sobelAbs, hierarchy, kernel}) m.release();
+        for (Mat m : pyramid) {
+            if (m != null) m.release();
+        }
+        for (MatOfPoint c : contours) c.release();
+        contours.clear();
+        bound.clear();
+    }
+
+    private Mat resolve(long addr) {
+        for (int i = 0; i < bound.size(); i++) {
+            if (bound.get(i).getNativeObjAddr() == addr) return bound.get(i);
+        }
+        throw new IllegalStateException("Mat at " + addr + " was not bound");
+    }
+
+    @Override
+    public void runStages(long srcAddr, long dstAddr, int[] ops, float[] params, long[] stageNanos,
+                          int firstStage, int programId) {
+        Mat src = resolve(srcAddr);
+        Mat dst = resolve(dstAddr);
+        Mat in = src;
+        for (int i = 0; i < ops.length; i++) {
+            long start = System.nanoTime();
+            Mat out = i == ops.length - 1 ? dst : stages[i & 1];
+            applyStage(ops[i], params, i * FramePipeline.PARAMS_PER_STAGE, in, out);
+            stageNanos[i] = System.nanoTime() - start;
+            in = out;
+        }
+    }
+
+    /**
+     * Parameters {@link #applyStage} takes for {@code op}, or -1 for an op it doesn't
+     * know. {@code enum StageOp} in {@code opencvandroid.cpp} lists the same ones in its
+     * comments; NativeOpTableTest checks that the two agree.
+     */
+    static int paramCount(int op) {
+        switch (op) {
+            case FrameProcessors.OP_SOBEL:
+            case FrameProcessors.OP_CONTOURS:
+            case FrameProcessors.OP_PYR_DOWN:
+                return 1;
+            case FrameProcessors.OP_GAUSSIAN_BLUR:
+            case FrameProcessors.OP_THRESHOLD:
+                return 2;
+            case FrameProcessors.OP_MORPHOLOGY:
+                return 3;
+            case FrameProcessors.OP_CANNY:
+                return 4;
+            default:
+                return -1;
+        }
+    }
+
+    private void applyStage(int op, float[] p, int o, Mat src, Mat dst) {
+        switch (op) {
+            case FrameProcessors.OP_GAUSSIAN_BLUR: {
+                int k = (int) p[o] | 1;
+                Imgproc.GaussianBlur(src, dst, new Size(k, k), p[o + 1]);
+                break;
+            }
+            case FrameProcessors.OP_SOBEL:
+                Imgproc.Sobel(src, sobelX, CvType.CV_16S, 1, 0, (int) p[o]);
+                Imgproc.Sobel(src, sobelY, CvType.CV_16S, 0, 1, (int) p[o]);
+                Core.convertScaleAbs(sobelX, dst);
+                Core.convertScaleAbs(sobelY, sobelAbs);
+                Core.add(dst, sobelAbs, dst);
+                break;
+            case FrameProcessors.OP_THRESHOLD:
+                Imgproc.threshold(src, dst, p[o], 255, p[o + 1] != 0
+                        ? Imgproc.THRESH_BINARY | Imgproc.THRESH_OTSU : Imgproc.THRESH_BINARY);
+                break;
+            case FrameProcessors.OP_MORPHOLOGY: {
+                int k = (int) p[o + 1];
+                if (kernel.rows() != k) kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(k, k));
+                Imgproc.morphologyEx(src, dst, (int) p[o], kernel, new Point(-1, -1), Math.max(1, (int) p[o + 2]));
+                break;
+            }
+            case FrameProcessors.OP_CANNY: // whole frame; the change threshold is an on-device optimisation
+                Imgproc.Canny(src, dst, p[o], p[o + 1], (int) p[o + 2], false);
+                break;
+            case FrameProcessors.OP_PYR_DOWN: {
+                int levels = Math.min(Math.max((int) p[o], 1), FrameProcessors.MAX_PYRAMID_LEVELS);
+                Mat level = src;
+                for (int i = 0; i < levels - 1; i++) {
+                    if (pyramid[i] == null) pyramid[i] = new Mat();
+                    Imgproc.pyrDown(level, pyramid[i]);
+                    level = pyramid[i];
+                }
+                Imgproc.pyrDown(level, dst);
+                break;
+            }
+            case FrameProcessors.OP_CONTOURS:
+                for (MatOfPoint c : contours) c.release();
+                contours.clear();
+                Imgproc.findContours(src, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+                dst.setTo(Scalar.all(0));
+                Imgproc.drawContours(dst, contours, -1, Scalar.all(255), (int) p[o]);
+                break;
+            default:
+                src.copyTo(dst);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.wintershade.opencvandroid;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Edge maps for a directory tree of captured frames, computed by the same frame code
+ * the app runs: every frame goes through {@link FramePipeline} with the given stages
+ * ({@link DesktopStageRunner} standing in for the JNI runner).
+ *
+ * Inputs, by extension:
+ * <ul>
+ *   <li>{@code .jpg}, {@code .jpeg}, {@code .png}: decoded straight to gray, which for
+ *       JPEG is its luma plane, as the app's luma-direct path uses the Y plane;</li>
+ *   <li>{@code .nv21}: a raw NV21 frame whose name carries its size, e.g.
+ *       {@code frame_1280x720.nv21};</li>
+ *   <li>{@code .yuvring}: a {@link FrameRecorder} recording, repacked by
+ *       {@link FramePacker} frame by frame like camera Images.</li>
+ * </ul>
+ * The Y plane of NV21 frames goes through {@link VideoRangeLuma}, as in the app.
+ * Edge maps are written as PNG under the output directory, mirroring the input tree
+ * (recordings become {@code <name>_<sequence>.png}); without one they are computed
+ * and dropped, for timing. Files are listed lazily and each one is only read by the
+ * job that processes it.
+ */
+final class EdgeBatch {
+
+    private static final Pattern SIZE = Pattern.compile("(\\d+)x(\\d+)");
+
+    // Worker arena slots
+    private static final int MAT_LUMA = 0;
+    private static final int MAT_EDGES = 1;
+    private static final int MAT_GRAY = 2; // full-range luma of NV21 frames
+    private static final int MAT_LUMA_TABLE = 3;
+    private static final int MAT_STAGES = 4; // two scratch Mats between stages
+
+    private static final ByteBuffer LUMA_TABLE = VideoRangeLuma.newTable(); // only read
+
+    /** Per-thread state: nothing here is shared between jobs running at the same time. */
+    static final class Worker {
+        final MatArena arena = new MatArena(MAT_STAGES + 2);
+        final FramePacker packer = new FramePacker(1);
+        final DesktopStageRunner runner = new DesktopStageRunner();
+        final FramePipeline pipeline = new FramePipeline(runner);
+        ByteBuffer raw; // last .nv21 file read
+
+        Worker(FrameProcessor[] stages) {
+            pipeline.setStages(stages);
+        }
+
+        void release() {
+            arena.release();
+            runner.release();
+        }
+    }
+
+    private final Path input;
+    private final Path output; // null: don't write
+    private final FrameProcessor[] stages;
+    private final List<FrameRingReader> recordings = new ArrayList<>();
+
+    EdgeBatch(Path input, Path output, FrameProcessor... stages) {
+        this.input = input;
+        this.output = output;
+        this.stages = stages.clone();
+    }
+
+    /** Processes the whole tree once on {@code threads} threads. */
+    BatchEngine.Result run(int threads) throws IOException, InterruptedException {
+        BatchEngine<Worker> engine = new BatchEngine<>(threads, 2 * threads,
+                () -> new Worker(stages), Worker::release);
+        try (Stream<Path> files = Files.walk(input)) {
+            return engine.run(jobs(files.filter(EdgeBatch::isFrameFile).iterator()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            closeRecordings();
+        }
+    }
+
+    private void closeRecordings() throws IOException {
+        IOException failure = null;
+        for (FrameRingReader reader : recordings) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        recordings.clear();
+        if (failure != null) throw failure;
+    }
+
+    private static String name(Path path) {
+        return path.getFileName().toString().toLowerCase(Locale.ROOT);
+    }
+
+    static boolean isFrameFile(Path path) {
+        String name = name(path);
+        return Files.isRegularFile(path) && (name.endsWith(".jpg") || name.endsWith(".jpeg")
+                || name.endsWith(".png") || name.endsWith(".nv21") || name.endsWith(".yuvring"));
+    }
+
+    /** One job per image or raw frame, and one per frame of each recording. */
+    private Iterator<BatchEngine.Job<Worker>> jobs(Iterator<Path> files) {
+        return new Iterator<BatchEngine.Job<Worker>>() {
+            private FrameRingReader recording;
+            private Path recordingPath;
+            private int nextFrame;
+
+            @Override
+            public boolean hasNext() {
+                return (recording != null && nextFrame < recording.frameCount()) || files.hasNext();
+            }
+
+            @Override
+            public BatchEngine.Job<Worker> next() {
+                if (recording != null && nextFrame < recording.frameCount()) {
+                    FrameRingReader.Frame frame = recording.frame(nextFrame++);
+                    Path path = recordingPath;
+                    return w -> processRecorded(w, path, frame);
+                }
+                recording = null;
+                if (!files.hasNext()) throw new NoSuchElementException();
+                Path path = files.next();
+                String name = name(path);
+                if (name.endsWith(".nv21")) return w -> processRaw(w, path);
+                if (!name.endsWith(".yuvring")) return w -> processImage(w, path);
+                try {
+                    recording = new FrameRingReader(path.toFile());
+                } catch (IOException e) {
+                    return w -> { throw e; };
+                }
+                recordings.add(recording); // mapped until the run ends
+                recordingPath = path;
+                nextFrame = 0;
+                return recording.frameCount() > 0 ? next() : w -> { };
+            }
+        };
+    }
+
+    private void processImage(Worker w, Path path) throws IOException {
+        Mat gray = Imgcodecs.imread(path.toString(), Imgcodecs.IMREAD_GRAYSCALE);
+        try {
+            if (gray.empty()) throw new IOException("cannot decode " + path);
+            detect(w, gray, outputFile(path, null));
+        } finally {
+            gray.release();
+        }
+    }
+
+    private void processRaw(Worker w, Path path) throws IOException {
+        Matcher size = SIZE.matcher(path.getFileName().toString());
+        if (!size.find()) throw new IOException(path + ": no WIDTHxHEIGHT in the name");
+        int width = Integer.parseInt(size.group(1));
+        int height = Integer.parseInt(size.group(2));
+        int bytes = FramePacker.nv21Size(width, height);
+        if (w.raw == null || w.raw.capacity() != bytes) {
+            w.raw = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        ByteBuffer raw = w.raw;
+        raw.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() != bytes) throw new IOException(path + ": " + channel.size() + " bytes, expected " + bytes);
+            while (raw.hasRemaining() && channel.read(raw) >= 0) { }
+        }
+        raw.clear();
+        // The first height rows of NV21 are the Y plane
+        detect(w, fullRange(w, w.arena.wrap(MAT_LUMA, raw, height, width, CvType.CV_8UC1)), outputFile(path, null));
+    }
+
+    private void processRecorded(Worker w, Path path, FrameRingReader.Frame f) throws IOException {
+        ByteBuffer nv21 = w.packer.pack(f.width, f.height, f.y.duplicate(), f.yRowStride,
+                f.u.duplicate(), f.v.duplicate(), f.uvRowStride, f.uvPixelStride);
+        detect(w, fullRange(w, w.arena.wrap(MAT_LUMA, nv21, f.height, f.width, CvType.CV_8UC1)),
+                outputFile(path, "_" + f.sequence));
+    }
+
+    // The gray image the app filters for a camera frame: its Y plane stretched to full range
+    private static Mat fullRange(Worker w, Mat luma) {
+        Mat gray = w.arena.obtain(MAT_GRAY, luma.rows(), luma.cols(), CvType.CV_8UC1);
+        Core.LUT(luma, w.arena.wrap(MAT_LUMA_TABLE, LUMA_TABLE, 1, 256, CvType.CV_8UC1), gray);
+        return gray;
+    }
+
+    private void detect(Worker w, Mat luma, Path out) throws IOException {
+        FramePipeline.Program program = w.pipeline.current();
+        Mat edges = w.arena.obtain(MAT_EDGES, program.outputSize(luma.rows()), program.outputSize(luma.cols()),
+                CvType.CV_8UC1);
+        w.runner.bind(luma);
+        w.runner.bind(edges);
+        try {
+            w.pipeline.run(program, luma, edges, w.arena, MAT_STAGES);
+        } finally {
+            // The arena may rewrap the next frame in a new header at the same address
+            w.runner.unbind(luma);
+        }
+        if (out == null) return;
+        Files.createDirectories(out.getParent());
+        if (!Imgcodecs.imwrite(out.toString(), edges)) throw new IOException("cannot write " + out);
+    }
+
+    /** Where the edges of {@code source} go, null when not writing. */
+    private Path outputFile(Path source, String suffix) {
+        if (output == null) return null;
+        String relative = input.relativize(source).toString();
+        if (relative.isEmpty()) relative = source.getFileName().toString(); // input is a single file
+        int dot = relative.lastIndexOf('.');
+        String stem = dot > 0 ? relative.substring(0, dot) : relative;
+        return output.resolve(stem + (suffix != null ? suffix : "") + ".png");
+    }
+}
@@ -0,0 +1,118 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchEngineTest {
+
+    /** Stand-in for per-thread Mats: records which thread uses it and whether it was released. */
+    private static final class Worker {
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        volatile boolean released;
+    }
+
+    private final List<Worker> workers = Collections.synchronizedList(new ArrayList<>());
+
+    private BatchEngine<Worker> engine(int threads, int maxInFlight) {
+        return new BatchEngine<>(threads, maxInFlight, () -> {
+            Worker w = new Worker();
+            workers.add(w);
+            return w;
+        }, w -> w.released = true);
+    }
+
+    private static List<BatchEngine.Job<Worker>> jobs(int n, BatchEngine.Job<Worker> job) {
+        return Collections.nCopies(n, job);
+    }
+
+    @Test
+    public void runsEveryJobOnce() throws InterruptedException {
+        Map<Integer, Integer> runs = new ConcurrentHashMap<>();
+        List<BatchEngine.Job<Worker>> jobs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int id = i;
+            jobs.add(w -> runs.merge(id, 1, Integer::sum));
+        }
+        BatchEngine.Result r = engine(4, 8).run(jobs.iterator());
+        assertEquals(200, r.completed);
+        assertEquals(0, r.failed);
+        assertEquals(200, runs.size());
+        for (int count : runs.values()) assertEquals(1, count);
+    }
+
+    @Test
+    public void neverPullsMoreThanMaxInFlight() throws InterruptedException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<BatchEngine.Job<Worker>> source = jobs(100, w -> {
+            Thread.sleep(1);
+            inFlight.decrementAndGet();
+        });
+        // Counts a job in flight from the moment it is pulled, like a decoded frame
+        Iterator<BatchEngine.Job<Worker>> it = source.iterator();
+        Iterator<BatchEngine.Job<Worker>> counting = new Iterator<BatchEngine.Job<Worker>>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public BatchEngine.Job<Worker> next() {
+                peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                return it.next();
+            }
+        };
+        engine(3, 5).run(counting);
+        assertTrue("peak " + peak.get(), peak.get() <= 5);
+    }
+
+    @Test
+    public void oneWorkerPerThreadAllReleased() throws InterruptedException {
+        BatchEngine.Result r = engine(3, 6).run(jobs(300, w -> {
+            w.threads.add(Thread.currentThread());
+            Thread.sleep(0, 100_000);
+        }).iterator());
+        assertEquals(workers.size(), r.workers);
+        assertTrue(r.workers >= 1 && r.workers <= 3);
+        Set<Thread> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Worker w : workers) {
+            assertTrue(w.released);
+            assertEquals(1, w.threads.size());
+            assertTrue("worker shared between threads", seen.addAll(w.threads));
+        }
+    }
+
+    @Test
+    public void countsFailuresAndKeepsGoing() throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        BatchEngine.Result r = engine(2, 4).run(jobs(10, w -> {
+            if (next.getAndIncrement() % 5 == 0) throw new IllegalStateException("bad frame");
+        }).iterator());
+        assertEquals(8, r.completed);
+        assertEquals(2, r.failed);
+        assertTrue(r.firstError instanceof IllegalStateException);
+    }
+
+    @Test
+    public void emptyInputCreatesNoWorkers() throws InterruptedException {
+        BatchEngine.Result r = engine(4, 8).run(Collections.<BatchEngine.Job<Worker>>emptyIterator());
+        assertEquals(0, r.completed);
+        assertEquals(0, r.workers);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFewerPermitsThanThreads() {
+        engine(4, 2);
+    }
+}
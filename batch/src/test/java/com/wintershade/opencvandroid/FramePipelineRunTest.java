@@ -0,0 +1,86 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** {@link FramePipeline#run} on desktop OpenCV: what each native call is told about its stages. */
+public class FramePipelineRunTest {
+
+    private static final int W = 64, H = 48;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    /** Records each call's first stage and program id, then runs it on desktop OpenCV. */
+    private static final class RecordingRunner implements FramePipeline.NativeRunner {
+        final DesktopStageRunner runner = new DesktopStageRunner();
+        final List<int[]> calls = new ArrayList<>();
+
+        @Override
+        public void runStages(long srcAddr, long dstAddr, int[] ops, float[] params, long[] stageNanos,
+                              int firstStage, int programId) {
+            calls.add(new int[]{firstStage, programId, ops.length});
+            runner.runStages(srcAddr, dstAddr, ops, params, stageNanos, firstStage, programId);
+        }
+    }
+
+    private static FrameProcessor.JavaStage invert() {
+        return new FrameProcessor.JavaStage() {
+            @Override
+            public String name() {
+                return "invert";
+            }
+
+            @Override
+            public void process(Mat src, Mat dst) {
+                Core.bitwise_not(src, dst);
+            }
+        };
+    }
+
+    @Test
+    public void segmentsAfterAJavaStageKeepTheirProgramWideIndex() {
+        RecordingRunner recording = new RecordingRunner();
+        FramePipeline pipeline = new FramePipeline(recording);
+        pipeline.setStages(FrameProcessors.incrementalCanny(50, 150, 4), invert(),
+                FrameProcessors.gaussianBlur(3, 0), FrameProcessors.incrementalCanny(50, 150, 4));
+        FramePipeline.Program program = pipeline.current();
+        MatArena arena = new MatArena(2);
+        Mat src = new Mat(H, W, CvType.CV_8UC1, Scalar.all(0));
+        Mat dst = new Mat(H, W, CvType.CV_8UC1);
+        for (Mat m : new Mat[]{src, dst, arena.obtain(0, H, W, CvType.CV_8UC1), arena.obtain(1, H, W, CvType.CV_8UC1)}) {
+            recording.runner.bind(m);
+        }
+
+        pipeline.run(program, src, dst, arena, 0);
+        pipeline.run(program, src, dst, arena, 0);
+
+        assertEquals(4, recording.calls.size());
+        for (int frame = 0; frame < 2; frame++) {
+            assertArrayEquals(new int[]{0, program.id(), 1}, recording.calls.get(2 * frame));
+            assertArrayEquals(new int[]{2, program.id(), 2}, recording.calls.get(2 * frame + 1));
+        }
+
+        pipeline.setStages(FrameProcessors.incrementalCanny(50, 150, 4));
+        pipeline.run(pipeline.current(), src, dst, arena, 0);
+        int[] last = recording.calls.get(4);
+        assertEquals(0, last[0]);
+        assertNotEquals(program.id(), last[1]);
+
+        recording.runner.release();
+        arena.release();
+        src.release();
+        dst.release();
+    }
+}
@@ -0,0 +1,118 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * The app's luma-direct path (Y plane through {@link VideoRangeLuma}, then Canny)
+ * against the colour path it replaces (NV21 to RGBA to gray, then Canny), on the
+ * camera frames in {@code web/frames}.
+ */
+public class LumaDirectTest {
+
+    private static File[] frames;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+        File dir = new File(System.getProperty("batch.frames", "../web/frames"));
+        frames = dir.listFiles((d, name) -> name.endsWith(".jpg"));
+        assertNotNull("no frames in " + dir.getAbsolutePath(), frames);
+        assertTrue(frames.length > 0);
+        Arrays.sort(frames);
+    }
+
+    /** The frame as NV21, as a camera would deliver it. */
+    private static Mat nv21(File file) {
+        Mat bgr = Imgcodecs.imread(file.getPath());
+        assertFalse("cannot decode " + file, bgr.empty());
+        int width = bgr.cols() & ~1, height = bgr.rows() & ~1;
+        Mat i420 = new Mat();
+        Imgproc.cvtColor(bgr.submat(0, height, 0, width), i420, Imgproc.COLOR_BGR2YUV_I420);
+        byte[] planar = new byte[width * height * 3 / 2];
+        i420.get(0, 0, planar);
+        byte[] nv21 = Arrays.copyOf(planar, planar.length);
+        int chroma = width * height / 4, u = width * height, v = u + chroma;
+        for (int i = 0; i < chroma; i++) {
+            nv21[u + 2 * i] = planar[v + i];
+            nv21[u + 2 * i + 1] = planar[u + i];
+        }
+        Mat out = new Mat(height * 3 / 2, width, CvType.CV_8UC1);
+        out.put(0, 0, nv21);
+        bgr.release();
+        i420.release();
+        return out;
+    }
+
+    private static Mat canny(Mat gray) {
+        Mat edges = new Mat();
+        Imgproc.Canny(gray, edges, 50, 150, 3, false);
+        return edges;
+    }
+
+    private static int differing(Mat a, Mat b, double by) {
+        Mat diff = new Mat();
+        Core.absdiff(a, b, diff);
+        Imgproc.threshold(diff, diff, by, 255, Imgproc.THRESH_BINARY);
+        int n = Core.countNonZero(diff);
+        diff.release();
+        return n;
+    }
+
+    @Test
+    public void lumaDirectEdgesMatchTheColourPath() {
+        Mat table = new Mat(1, 256, CvType.CV_8UC1, VideoRangeLuma.newTable());
+        for (File file : frames) {
+            Mat nv21 = nv21(file);
+            int height = nv21.rows() * 2 / 3;
+            Mat rgba = new Mat(), gray = new Mat(), luma = new Mat();
+            Imgproc.cvtColor(nv21, rgba, Imgproc.COLOR_YUV2RGBA_NV21);
+            Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+            Mat y = nv21.submat(0, height, 0, nv21.cols());
+            Core.LUT(y, table, luma);
+
+            // Chroma only reaches the gray level through per-channel rounding and clipping
+            int pixels = gray.rows() * gray.cols();
+            assertTrue(file.getName(), differing(gray, luma, 1) <= pixels / 1000);
+
+            Mat reference = canny(gray), direct = canny(luma), raw = canny(y);
+            int edges = Core.countNonZero(reference);
+            int directMisses = differing(reference, direct, 0), rawMisses = differing(reference, raw, 0);
+            assertTrue(file.getName() + ": " + edges + " edge pixels", edges > pixels / 200);
+            assertTrue(file.getName() + ": " + directMisses + " of " + edges,
+                    directMisses <= edges / 20);
+            assertTrue(file.getName() + ": " + directMisses + " vs " + rawMisses + " unscaled",
+                    directMisses < rawMisses);
+
+            for (Mat m : new Mat[]{nv21, rgba, gray, luma, reference, direct, raw}) m.release();
+        }
+        table.release();
+    }
+
+    @Test
+    public void neutralFrameMatchesExactly() {
+        // Gray ramp: U = V = 128 everywhere, where the table is exact
+        int width = 256, height = 64;
+        Mat nv21 = new Mat(height * 3 / 2, width, CvType.CV_8UC1, Scalar.all(128));
+        byte[] row = new byte[width];
+        for (int x = 0; x < width; x++) row[x] = (byte) x;
+        for (int r = 0; r < height; r++) nv21.put(r, 0, row);
+        Mat rgba = new Mat(), gray = new Mat(), luma = new Mat();
+        Imgproc.cvtColor(nv21, rgba, Imgproc.COLOR_YUV2RGBA_NV21);
+        Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+        Mat table = new Mat(1, 256, CvType.CV_8UC1, VideoRangeLuma.newTable());
+        Core.LUT(nv21.submat(0, height, 0, width), table, luma);
+        assertEquals(0, differing(gray, luma, 0));
+    }
+}
@@ -0,0 +1,175 @@
+package com.wintershade.opencvandroid;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link DesktopStageRunner} re-implements {@code applyStage} from
+ * {@code opencvandroid.cpp} on the Java bindings. This walks the native op table,
+ * {@code enum StageOp} with each op's parameters in its comment, and checks that
+ * {@link FrameProcessors} and the desktop runner agree with it on every op code and
+ * the parameters each op takes.
+ */
+public class NativeOpTableTest {
+
+    private static final Pattern ENUM = Pattern.compile("enum StageOp \\{(.*?)\\};", Pattern.DOTALL);
+    private static final Pattern OP = Pattern.compile("(OP_\\w+)\\s*=\\s*(\\d+),?\\s*//\\s*(.*)");
+    private static final Pattern CONSTANT = Pattern.compile("static const int (\\w+) = (\\d+);");
+
+    private static final int W = 64, H = 48;
+
+    /** Native op table: op code to its parameter names, by op name. */
+    private static final Map<String, Integer> nativeOps = new LinkedHashMap<>();
+    private static final Map<String, String[]> nativeParams = new LinkedHashMap<>();
+    private static final Map<String, Integer> nativeConstants = new TreeMap<>();
+
+    @BeforeClass
+    public static void readNativeTable() throws IOException {
+        nu.pattern.OpenCV.loadLocally();
+        File cpp = new File(System.getProperty("batch.cpp", "../app/src/main/cpp/opencvandroid.cpp"));
+        String source = new String(Files.readAllBytes(cpp.toPath()), StandardCharsets.UTF_8);
+        Matcher table = ENUM.matcher(source);
+        assertTrue("no enum StageOp in " + cpp.getAbsolutePath(), table.find());
+        for (String line : table.group(1).split("\n")) {
+            Matcher op = OP.matcher(line.trim());
+            if (!op.matches()) continue;
+            nativeOps.put(op.group(1), Integer.parseInt(op.group(2)));
+            // "low, high, aperture, change threshold (0: whole frame)": 4 parameters
+            String names = op.group(3).replaceAll("\\([^)]*\\)", "");
+            nativeParams.put(op.group(1), Arrays.stream(names.split(",")).map(String::trim).toArray(String[]::new));
+        }
+        assertFalse("empty enum StageOp", nativeOps.isEmpty());
+        Matcher constant = CONSTANT.matcher(source);
+        while (constant.find()) nativeConstants.put(constant.group(1), Integer.parseInt(constant.group(2)));
+    }
+
+    /** FrameProcessors' OP_ constants, by name. */
+    private static Map<String, Integer> javaOps() throws IllegalAccessException {
+        Map<String, Integer> ops = new LinkedHashMap<>();
+        for (Field field : FrameProcessors.class.getDeclaredFields()) {
+            if (field.getName().startsWith("OP_") && Modifier.isStatic(field.getModifiers())
+                    && field.getType() == int.class) {
+                field.setAccessible(true);
+                ops.put(field.getName(), field.getInt(null));
+            }
+        }
+        return ops;
+    }
+
+    /** One stage per native op, built the way the app builds them. */
+    private static FrameProcessor.NativeStage[] sampleStages() {
+        FrameProcessor[] stages = {
+                FrameProcessors.gaussianBlur(5, 1.5), FrameProcessors.sobel(3),
+                FrameProcessors.otsuThreshold(), FrameProcessors.morphology(2, 3, 2),
+                FrameProcessors.incrementalCanny(50, 150, 4), FrameProcessors.contours(2),
+                FrameProcessors.pyramidDown(2)
+        };
+        FrameProcessor.NativeStage[] natives = new FrameProcessor.NativeStage[stages.length];
+        for (int i = 0; i < stages.length; i++) natives[i] = (FrameProcessor.NativeStage) stages[i];
+        return natives;
+    }
+
+    @Test
+    public void opCodesMatchTheNativeTable() throws IllegalAccessException {
+        assertEquals(nativeOps, javaOps());
+    }
+
+    @Test
+    public void limitsMatchTheNativeTable() {
+        assertEquals(Integer.valueOf(FramePipeline.MAX_STAGES), nativeConstants.get("MAX_STAGES"));
+        assertEquals(Integer.valueOf(FramePipeline.PARAMS_PER_STAGE), nativeConstants.get("PARAMS_PER_STAGE"));
+        assertEquals(Integer.valueOf(FrameProcessors.MAX_PYRAMID_LEVELS), nativeConstants.get("MAX_PYRAMID_LEVELS"));
+    }
+
+    @Test
+    public void desktopRunnerTakesTheNativeParameters() {
+        for (Map.Entry<String, Integer> op : nativeOps.entrySet()) {
+            String[] params = nativeParams.get(op.getKey());
+            assertTrue(op.getKey(), params.length <= FramePipeline.PARAMS_PER_STAGE);
+            assertEquals(op.getKey() + " " + Arrays.toString(params),
+                    params.length, DesktopStageRunner.paramCount(op.getValue()));
+        }
+        // Nothing the native side would fall through to its default for
+        for (int op = -1; op <= 32; op++) {
+            if (!nativeOps.containsValue(op)) assertEquals("op " + op, -1, DesktopStageRunner.paramCount(op));
+        }
+    }
+
+    @Test
+    public void everyOpHasAFactoryThatWritesOnlyItsParameters() {
+        Map<Integer, String> uncovered = new TreeMap<>();
+        for (Map.Entry<String, Integer> op : nativeOps.entrySet()) uncovered.put(op.getValue(), op.getKey());
+        for (FrameProcessor.NativeStage stage : sampleStages()) {
+            uncovered.remove(stage.nativeOp());
+            float[] params = new float[FramePipeline.PARAMS_PER_STAGE];
+            stage.writeParams(params, 0);
+            int count = DesktopStageRunner.paramCount(stage.nativeOp());
+            for (int i = count; i < params.length; i++) assertEquals(stage.name() + " param " + i, 0f, params[i], 0f);
+        }
+        assertTrue("no sample stage for " + uncovered.values(), uncovered.isEmpty());
+    }
+
+    @Test
+    public void parametersPastAnOpsCountAreIgnored() {
+        DesktopStageRunner runner = new DesktopStageRunner();
+        Mat src = new Mat(H, W, CvType.CV_8UC1);
+        byte[] pixels = new byte[W * H];
+        Random random = new Random(7);
+        for (int i = 0; i < pixels.length; i++) {
+            // Blocks with noise: edges, contours and a bimodal histogram
+            int x = i % W, y = i / W;
+            pixels[i] = (byte) (((x / 16 + y / 12) % 2 == 0 ? 60 : 190) + random.nextInt(20));
+        }
+        src.put(0, 0, pixels);
+        Mat expected = new Mat(), actual = new Mat();
+        for (Mat m : new Mat[]{src, expected, actual}) runner.bind(m);
+        long[] nanos = new long[1];
+
+        for (FrameProcessor.NativeStage stage : sampleStages()) {
+            int[] ops = {stage.nativeOp()};
+            float[] params = new float[FramePipeline.PARAMS_PER_STAGE];
+            stage.writeParams(params, 0);
+            runner.runStages(src.getNativeObjAddr(), expected.getNativeObjAddr(), ops, params, nanos, 0, 1);
+            for (int i = DesktopStageRunner.paramCount(stage.nativeOp()); i < params.length; i++) params[i] = 99;
+            runner.runStages(src.getNativeObjAddr(), actual.getNativeObjAddr(), ops, params, nanos, 0, 1);
+            assertArrayEquals(stage.name(), bytes(expected), bytes(actual));
+        }
+
+        // Incremental Canny is an on-device shortcut that must match the whole frame
+        float[] whole = new float[FramePipeline.PARAMS_PER_STAGE];
+        ((FrameProcessor.NativeStage) FrameProcessors.canny(50, 150)).writeParams(whole, 0);
+        int[] canny = {FrameProcessors.OP_CANNY};
+        runner.runStages(src.getNativeObjAddr(), actual.getNativeObjAddr(), canny, whole, nanos, 0, 1);
+        float[] incremental = whole.clone();
+        incremental[3] = 4;
+        runner.runStages(src.getNativeObjAddr(), expected.getNativeObjAddr(), canny, incremental, nanos, 0, 1);
+        assertArrayEquals(bytes(expected), bytes(actual));
+
+        runner.release();
+        for (Mat m : new Mat[]{src, expected, actual}) m.release();
+    }
+
+    private static byte[] bytes(Mat mat) {
+        byte[] data = new byte[(int) mat.total() * mat.channels()];
+        mat.get(0, 0, data);
+        return data;
+    }
+}
@@ -0,0 +1,57 @@
+// Host (Linux/macOS) JMH benchmarks for the camera frame path, against desktop OpenCV.
+// Run with ./gradlew :benchmark:jmh; results land in build/results/jmh/results.json.
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+// The app's Android-free frame classes, compiled from the app sources rather than copied
+sourceSets {
+    main {
+        java {
+            // DesktopStageRunner is shared with :batch, SyntheticFrameSource with the app's tests
+            setSrcDirs(listOf("../app/src/main/java", "../batch/src/main/java", "../app/src/test/java"))
+            include(
+                "com/wintershade/opencvandroid/CannyAutoTuner.java",
+                "com/wintershade/opencvandroid/DesktopStageRunner.java",
+                "com/wintershade/opencvandroid/EdgeFrame.java",
+                "com/wintershade/opencvandroid/FramePacker.java",
+                "com/wintershade/opencvandroid/FramePipeline.java",
+                "com/wintershade/opencvandroid/FrameProcessor.java",
+                "com/wintershade/opencvandroid/FrameProcessors.java",
+                "com/wintershade/opencvandroid/FrameRecorder.java",
+                "com/wintershade/opencvandroid/FrameTripleBuffer.java",
+                "com/wintershade/opencvandroid/LatencyHistogram.java",
+                "com/wintershade/opencvandroid/MatArena.java",
+                "com/wintershade/opencvandroid/StagedExecutor.java",
+                "com/wintershade/opencvandroid/SyntheticFrameSource.java",
+                "com/wintershade/opencvandroid/VideoRangeLuma.java"
+            )
+        }
+    }
+}
+
+dependencies {
+    // Desktop OpenCV Java bindings with the native libraries bundled
+    implementation(libs.opencv.desktop)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    // gc.alloc.rate.norm: bytes allocated per frame, which should stay near 0
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    // -Pbench.frames=<dir> replays another JPEG corpus
+    val frames = providers.gradleProperty("bench.frames")
+        .getOrElse(rootProject.file("web/frames").absolutePath)
+    jvmArgsAppend.add("-Dbench.frames=$frames")
+    providers.gradleProperty("bench.include").orNull?.let { includes.add(it) }
+}
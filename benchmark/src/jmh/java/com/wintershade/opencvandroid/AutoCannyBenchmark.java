@@ -0,0 +1,144 @@
+package com.wintershade.opencvandroid;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Canny with fixed 50/150 thresholds against Canny with thresholds from
+ * {@link CannyAutoTuner}, per frame: {@link #canny} is the whole step, tuner update
+ * included, and {@link #tune} the tuner update alone. As in the app, Canny runs on the
+ * Y plane stretched through {@link VideoRangeLuma}. Each trial prints the
+ * thresholds the tuner settles on for every corpus frame and the edge pixels found
+ * with them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AutoCannyBenchmark {
+
+    static final String FIXED = "fixed";
+
+    private static final int MAT_EDGES = 0;
+    private static final int MAT_GRAY = 1; // full-range luma
+    private static final int MAT_LUMA_TABLE = 2;
+    private static final int MAT_STAGES = 3;
+
+    @Param({FIXED, "median", "otsu"})
+    public String thresholds;
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({FrameCorpus.SYNTHETIC, FrameCorpus.JPEG})
+    public String source;
+
+    private int width, height;
+    // Tight NV21 frames, as the vision stage gets them, and Mats over their Y planes
+    private final List<ByteBuffer> frames = new ArrayList<>();
+    private final List<Mat> lumas = new ArrayList<>();
+    private int next = 0;
+    private final ByteBuffer lumaTable = VideoRangeLuma.newTable();
+
+    private final MatArena arena = new MatArena(MAT_STAGES + 2);
+    private final DesktopStageRunner runner = new DesktopStageRunner();
+    private final FramePipeline pipeline = new FramePipeline(runner);
+    private CannyAutoTuner tuner; // null for the fixed thresholds
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        File jpegDir = new File(System.getProperty("bench.frames", "web/frames"));
+        FramePacker packer = new FramePacker(1);
+        for (FrameCorpus.Frame f : FrameCorpus.load(source, jpegDir, width, height)) {
+            ByteBuffer packed = packer.pack(f.width, f.height, f.y, f.rowStride, f.u, f.v,
+                    f.rowStride, f.pixelStride);
+            ByteBuffer own = ByteBuffer.allocateDirect(packed.capacity()); // the packer reuses its buffer
+            own.put(packed.duplicate()).clear();
+            Mat luma = new Mat(height, width, CvType.CV_8UC1, own);
+            frames.add(own);
+            lumas.add(luma);
+        }
+
+        if (FIXED.equals(thresholds)) {
+            pipeline.setStages(FrameProcessors.canny(50, 150));
+        } else {
+            tuner = new CannyAutoTuner(CannyAutoTuner.Rule.valueOf(thresholds.toUpperCase(Locale.US)));
+            pipeline.setStages(FrameProcessors.autoCanny());
+        }
+        printThresholds();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        arena.release();
+        for (Mat luma : lumas) luma.release();
+        lumas.clear();
+        frames.clear();
+    }
+
+    private Mat run(int frame) {
+        FramePipeline.Program program = pipeline.current();
+        if (tuner != null) {
+            tuner.update(frames.get(frame), width, width, height);
+            program.setAutoThresholds(tuner.low(), tuner.high());
+        }
+        Mat gray = arena.obtain(MAT_GRAY, height, width, CvType.CV_8UC1);
+        Core.LUT(lumas.get(frame), arena.wrap(MAT_LUMA_TABLE, lumaTable, 1, 256, CvType.CV_8UC1), gray);
+        Mat edges = arena.obtain(MAT_EDGES, height, width, CvType.CV_8UC1);
+        runner.bind(gray);
+        runner.bind(edges);
+        pipeline.run(program, gray, edges, arena, MAT_STAGES);
+        return edges;
+    }
+
+    /** Tuner update, if any, and Canny on the next corpus frame. */
+    @Benchmark
+    public Mat canny() {
+        Mat edges = run(next);
+        next = (next + 1) % lumas.size();
+        return edges;
+    }
+
+    /** Only the tuner update on the next corpus frame; nothing to do for fixed thresholds. */
+    @Benchmark
+    public float tune() {
+        if (tuner == null) return 0;
+        tuner.update(frames.get(next), width, width, height);
+        next = (next + 1) % frames.size();
+        return tuner.high();
+    }
+
+    // Each frame held long enough for its scene to settle, as a steady camera would
+    private void printThresholds() {
+        StringBuilder line = new StringBuilder(String.format(Locale.US, "%n%s %s, %s thresholds:",
+                resolution, source, thresholds));
+        for (int i = 0; i < lumas.size(); i++) {
+            Mat edges = null;
+            for (int j = 0; j < CannyAutoTuner.SETTLE_FRAMES; j++) edges = run(i);
+            float low = tuner != null ? tuner.low() : 50, high = tuner != null ? tuner.high() : 150;
+            line.append(String.format(Locale.US, " %.0f/%.0f (%d px)", low, high, Core.countNonZero(edges)));
+        }
+        System.out.println(line);
+    }
+}
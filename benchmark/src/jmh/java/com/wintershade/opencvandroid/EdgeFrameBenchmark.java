@@ -0,0 +1,109 @@
+package com.wintershade.opencvandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a filtered 1280x720 frame costs from the vision stage to the screen with the
+ * edges as RGBA (the previous output, 3.7 MB), as a byte mask (0.9 MB) and as an
+ * {@link EdgeFrame} (115 KB). {@link #publish} writes the frame into the vision
+ * stage's buffer, hands it to the renderer through {@link FrameTripleBuffer} and
+ * reads it back as the texture upload would. {@link #forEachBits} and
+ * {@link #scanMask} time reading the edge pixels back from the bits and from the mask.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EdgeFrameBenchmark {
+
+    static final String RGBA = "rgba";
+    static final String MASK = "mask";
+    static final String BITS = "bits";
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    /** One format's buffers on their way from the vision stage to the renderer. */
+    @State(Scope.Thread)
+    public static class Output {
+        @Param({RGBA, MASK, BITS})
+        public String format;
+
+        private int size;
+        private ByteBuffer frame, out, upload;
+        private final FrameTripleBuffer frames = new FrameTripleBuffer();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            size = RGBA.equals(format) ? WIDTH * HEIGHT * 4
+                    : MASK.equals(format) ? WIDTH * HEIGHT : EdgeFrame.size(WIDTH, HEIGHT);
+            frame = ByteBuffer.allocateDirect(size);
+            out = ByteBuffer.allocateDirect(size);
+            upload = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    private ByteBuffer mask;
+    private EdgeFrame edges;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Canny-like density: a few percent of the pixels, in thin lines
+        mask = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                if (x % 64 == 0 || (x + 3 * y) % 211 == 0 || y % 90 == 0) mask.put(y * WIDTH + x, (byte) 255);
+            }
+        }
+        ByteBuffer bits = ByteBuffer.allocateDirect(EdgeFrame.size(WIDTH, HEIGHT)).order(ByteOrder.nativeOrder());
+        EdgeFrame.pack(mask, 0, WIDTH, WIDTH, HEIGHT, bits, 0);
+        edges = new EdgeFrame().wrap(bits, 0, WIDTH, HEIGHT);
+    }
+
+    /** Vision stage write, hand-over to the renderer and the upload's read of one frame. */
+    @Benchmark
+    public ByteBuffer publish(Output o) {
+        o.out.clear();
+        o.frame.clear();
+        o.out.put(o.frame);
+        ByteBuffer next = o.frames.publish(o.out, WIDTH, HEIGHT, 0, 0L);
+        // Until three buffers go round the stage allocates, as the app's does
+        o.out = next != null ? next : ByteBuffer.allocateDirect(o.size);
+        if (o.frames.acquireLatest()) {
+            ByteBuffer read = o.frames.readBuffer();
+            read.clear();
+            o.upload.clear();
+            o.upload.put(read);
+        }
+        return o.upload;
+    }
+
+    /** Sum of the edge pixels' coordinates, visited from the bits. */
+    @Benchmark
+    public long forEachBits() {
+        long[] sum = new long[1];
+        edges.forEach((x, y) -> sum[0] += x + y);
+        return sum[0];
+    }
+
+    /** The same sum from a scan of the byte mask. */
+    @Benchmark
+    public long scanMask() {
+        long sum = 0;
+        for (int p = 0; p < WIDTH * HEIGHT; p++) {
+            if (mask.get(p) != 0) sum += p % WIDTH + p / WIDTH;
+        }
+        return sum;
+    }
+}
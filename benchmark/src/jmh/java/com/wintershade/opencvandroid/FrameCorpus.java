@@ -0,0 +1,150 @@
+package com.wintershade.opencvandroid;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Camera-like YUV_420_888 frames for the benchmarks: either JPEGs from a directory
+ * (scaled to the requested size) or synthetic scenes. Planes use the semi-planar
+ * layout most HALs deliver, U and V as views one byte apart into an interleaved VU
+ * block, with rows padded to a 64-byte stride.
+ */
+final class FrameCorpus {
+
+    static final String SYNTHETIC = "synthetic";
+    static final String JPEG = "jpeg";
+
+    private static final int STRIDE_ALIGN = 64;
+    private static final int SYNTHETIC_FRAMES = 4;
+
+    /** One frame as an {@code android.media.Image} would hand out its planes. */
+    static final class Frame {
+        final int width, height;
+        final ByteBuffer y, u, v;
+        final int rowStride;
+        final int pixelStride = 2;
+
+        Frame(int width, int height, ByteBuffer y, ByteBuffer u, ByteBuffer v, int rowStride) {
+            this.width = width;
+            this.height = height;
+            this.y = y;
+            this.u = u;
+            this.v = v;
+            this.rowStride = rowStride;
+        }
+    }
+
+    private FrameCorpus() {}
+
+    /**
+     * @param source {@link #SYNTHETIC}, or {@link #JPEG} to read every *.jpg in
+     *               {@code jpegDir}
+     */
+    static List<Frame> load(String source, File jpegDir, int width, int height) {
+        List<Frame> frames = new ArrayList<>();
+        if (JPEG.equals(source)) {
+            File[] files = jpegDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".jpg"));
+            if (files == null || files.length == 0) {
+                throw new IllegalStateException("no JPEG frames in " + jpegDir.getAbsolutePath());
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                Mat bgr = Imgcodecs.imread(file.getPath());
+                if (bgr.empty()) throw new IllegalStateException("cannot decode " + file);
+                Mat scaled = new Mat();
+                Imgproc.resize(bgr, scaled, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+                frames.add(fromBgr(scaled));
+                bgr.release();
+                scaled.release();
+            }
+        } else if (SYNTHETIC.equals(source)) {
+            for (int i = 0; i < SYNTHETIC_FRAMES; i++) {
+                Mat bgr = syntheticScene(width, height, i);
+                frames.add(fromBgr(bgr));
+                bgr.release();
+            }
+        } else {
+            throw new IllegalArgumentException("unknown frame source " + source);
+        }
+        return frames;
+    }
+
+    // Gradient background, overlapping shapes and sensor-like noise, so Canny has real work
+    private static Mat syntheticScene(int width, int height, long seed) {
+        Random rnd = new Random(seed);
+        Mat bgr = new Mat(height, width, CvType.CV_8UC3);
+        byte[] row = new byte[width * 3];
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                row[c * 3] = (byte) (c * 255 / width);
+                row[c * 3 + 1] = (byte) (r * 255 / height);
+                row[c * 3 + 2] = (byte) ((c + r) * 127 / (width + height) + 64);
+            }
+            bgr.put(r, 0, row);
+        }
+        int scale = Math.min(width, height);
+        for (int i = 0; i < 40; i++) {
+            Point center = new Point(rnd.nextInt(width), rnd.nextInt(height));
+            Scalar color = new Scalar(rnd.nextInt(256), rnd.nextInt(256), rnd.nextInt(256));
+            if (i % 2 == 0) {
+                Imgproc.circle(bgr, center, scale / 40 + rnd.nextInt(scale / 8), color, -1);
+            } else {
+                Point corner = new Point(center.x + rnd.nextInt(scale / 4), center.y + rnd.nextInt(scale / 4));
+                Imgproc.rectangle(bgr, center, corner, color, -1);
+            }
+        }
+        Mat noise = new Mat(height, width, CvType.CV_16SC3);
+        Core.randn(noise, 0, 6);
+        Core.add(bgr, noise, bgr, new Mat(), CvType.CV_8U);
+        noise.release();
+        return bgr;
+    }
+
+    private static Frame fromBgr(Mat bgr) {
+        int width = bgr.cols(), height = bgr.rows();
+        Mat i420 = new Mat();
+        Imgproc.cvtColor(bgr, i420, Imgproc.COLOR_BGR2YUV_I420);
+        byte[] planar = new byte[width * height * 3 / 2];
+        i420.get(0, 0, planar);
+        i420.release();
+
+        int stride = (width + STRIDE_ALIGN - 1) / STRIDE_ALIGN * STRIDE_ALIGN;
+        int chromaW = width / 2, chromaH = height / 2;
+        // Android trims the padding after the last row, so each plane is one stride short
+        ByteBuffer y = ByteBuffer.allocateDirect(stride * (height - 1) + width).order(ByteOrder.nativeOrder());
+        ByteBuffer vu = ByteBuffer.allocateDirect(stride * (chromaH - 1) + width).order(ByteOrder.nativeOrder());
+        for (int r = 0; r < height; r++) {
+            y.position(r * stride);
+            y.put(planar, r * width, width);
+        }
+        int uOffset = width * height, vOffset = uOffset + chromaW * chromaH;
+        for (int r = 0; r < chromaH; r++) {
+            for (int c = 0; c < chromaW; c++) {
+                vu.put(r * stride + 2 * c, planar[vOffset + r * chromaW + c]);
+                vu.put(r * stride + 2 * c + 1, planar[uOffset + r * chromaW + c]);
+            }
+        }
+        y.clear();
+        ByteBuffer v = vu.duplicate();
+        v.limit(vu.capacity() - 1);
+        v = v.slice();
+        ByteBuffer u = vu.duplicate();
+        u.position(1);
+        u = u.slice();
+        return new Frame(width, height, y, u, v, stride);
+    }
+}
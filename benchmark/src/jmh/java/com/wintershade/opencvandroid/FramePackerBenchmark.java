@@ -0,0 +1,91 @@
+package com.wintershade.opencvandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NV21 repacking: the byte-array repack {@code MainActivity.processImage} used to do
+ * inline against {@link FramePacker}, which {@code EdgeBatch} packs its frames with.
+ * gc.alloc.rate.norm shows the legacy repack's per-frame arrays and the packer's none.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FramePackerBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    private List<FrameCorpus.Frame> frames;
+    private int next = 0;
+    private final FramePacker packer = new FramePacker(2);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+        String[] size = resolution.split("x");
+        File jpegDir = new File(System.getProperty("bench.frames", "web/frames"));
+        frames = FrameCorpus.load(FrameCorpus.SYNTHETIC, jpegDir,
+                Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+    }
+
+    private FrameCorpus.Frame nextFrame() {
+        FrameCorpus.Frame frame = frames.get(next);
+        next = (next + 1) % frames.size();
+        return frame;
+    }
+
+    @Benchmark
+    public byte[] legacyRepack() {
+        return legacyRepack(nextFrame());
+    }
+
+    @Benchmark
+    public ByteBuffer pack() {
+        FrameCorpus.Frame f = nextFrame();
+        return packer.pack(f.width, f.height, f.y, f.rowStride, f.u, f.v, f.rowStride, f.pixelStride);
+    }
+
+    /** The repack that {@code MainActivity.processImage} used to do inline. */
+    private static byte[] legacyRepack(FrameCorpus.Frame f) {
+        ByteBuffer yBuffer = f.y, uBuffer = f.u, vBuffer = f.v;
+        yBuffer.rewind();
+        int ySize = yBuffer.remaining();
+        byte[] yBytes = new byte[ySize];
+        yBuffer.get(yBytes);
+
+        byte[] nv21Bytes = new byte[ySize + ySize / 2];
+        System.arraycopy(yBytes, 0, nv21Bytes, 0, ySize);
+
+        int uvIndex = ySize;
+        uBuffer.rewind();
+        vBuffer.rewind();
+        int uvRowBytes = (f.width / 2) * f.pixelStride;
+        for (int row = 0; row < f.height / 2; row++) {
+            for (int col = 0; col < f.width / 2 && uBuffer.hasRemaining(); col++) {
+                nv21Bytes[uvIndex++] = uBuffer.get();
+                nv21Bytes[uvIndex++] = vBuffer.get();
+            }
+            if (f.rowStride > uvRowBytes && uBuffer.remaining() > f.rowStride - uvRowBytes) {
+                uBuffer.position(uBuffer.position() + (f.rowStride - uvRowBytes));
+                vBuffer.position(vBuffer.position() + (f.rowStride - uvRowBytes));
+            }
+        }
+        uBuffer.rewind();
+        vBuffer.rewind();
+        yBuffer.rewind();
+        return nv21Bytes;
+    }
+}
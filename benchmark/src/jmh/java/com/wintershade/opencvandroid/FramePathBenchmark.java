@@ -0,0 +1,143 @@
+package com.wintershade.opencvandroid;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The app's Java frame path, stage by stage and end to end, replayed over a frame
+ * corpus. Throughput gives frames per millisecond, SampleTime the latency
+ * percentiles, and the gc profiler gc.alloc.rate.norm, the bytes allocated per frame.
+ *
+ * {@link #fullFrame} is what the vision pipeline does per frame with the Java
+ * repack, luma-direct edges and CPU colour conversion: repack, filter, gray to
+ * RGBA, then the copy into the renderer's triple buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FramePathBenchmark {
+
+    // Mat arena slots
+    private static final int MAT_YUV = 0;
+    private static final int MAT_GRAY = 1;
+    private static final int MAT_RGBA = 2;
+    private static final int MAT_EDGES = 3;
+    private static final int MAT_PACKED_LUMA = 4; // one per packer buffer
+    private static final int PACKER_POOL_SIZE = 2;
+    private static final int MAT_STAGES = MAT_PACKED_LUMA + PACKER_POOL_SIZE;
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({FrameCorpus.SYNTHETIC, FrameCorpus.JPEG})
+    public String source;
+
+    private int width, height;
+    private List<FrameCorpus.Frame> frames;
+    private int next = 0;
+
+    private final FramePacker packer = new FramePacker(PACKER_POOL_SIZE);
+    private final MatArena arena = new MatArena(MAT_STAGES + 2);
+    private final DesktopStageRunner runner = new DesktopStageRunner();
+    private final FramePipeline pipeline = new FramePipeline(runner);
+    private final FrameTripleBuffer handoff = new FrameTripleBuffer();
+    private ByteBuffer nv21; // first corpus frame, packed once for the single-stage benchmarks
+    private ByteBuffer rgba;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        File jpegDir = new File(System.getProperty("bench.frames", "web/frames"));
+        frames = FrameCorpus.load(source, jpegDir, width, height);
+
+        FrameCorpus.Frame first = frames.get(0);
+        nv21 = ByteBuffer.allocateDirect(FramePacker.nv21Size(width, height));
+        nv21.put(packer.pack(width, height, first.y, first.rowStride, first.u, first.v,
+                first.rowStride, first.pixelStride));
+        nv21.clear();
+        rgba = ByteBuffer.allocateDirect(width * height * 4);
+        pipeline.setStages(FrameProcessors.canny(50, 150));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        arena.release();
+    }
+
+    private FrameCorpus.Frame nextFrame() {
+        FrameCorpus.Frame frame = frames.get(next);
+        next = (next + 1) % frames.size();
+        return frame;
+    }
+
+    /** YUV_420_888 planes to NV21. */
+    @Benchmark
+    public ByteBuffer repack() {
+        FrameCorpus.Frame f = nextFrame();
+        return packer.pack(f.width, f.height, f.y, f.rowStride, f.u, f.v, f.rowStride, f.pixelStride);
+    }
+
+    /** NV21 to RGBA, the CPU colour conversion. */
+    @Benchmark
+    public Mat convert() {
+        Mat yuv = arena.wrap(MAT_YUV, nv21, height * 3 / 2, width, CvType.CV_8UC1);
+        Mat out = arena.wrap(MAT_RGBA, rgba, height, width, CvType.CV_8UC4);
+        Imgproc.cvtColor(yuv, out, Imgproc.COLOR_YUV2RGBA_NV21);
+        return out;
+    }
+
+    /** Canny(50, 150) on the Y plane through the filter pipeline. */
+    @Benchmark
+    public Mat canny() {
+        Mat gray = arena.wrap(MAT_GRAY, nv21, height, width, CvType.CV_8UC1);
+        Mat edges = arena.obtain(MAT_EDGES, height, width, CvType.CV_8UC1);
+        runner.bind(gray);
+        runner.bind(edges);
+        pipeline.run(pipeline.current(), gray, edges, arena, MAT_STAGES);
+        return edges;
+    }
+
+    /** Copy of a finished RGBA frame into the renderer's triple buffer. */
+    @Benchmark
+    public FrameTripleBuffer outputCopy() {
+        rgba.clear();
+        handoff.beginWrite(rgba.capacity()).put(rgba);
+        handoff.publish(width, height);
+        return handoff;
+    }
+
+    /** Repack, Canny on luma, gray to RGBA and the output copy. */
+    @Benchmark
+    public FrameTripleBuffer fullFrame() {
+        FrameCorpus.Frame f = nextFrame();
+        ByteBuffer packed = packer.pack(f.width, f.height, f.y, f.rowStride, f.u, f.v,
+                f.rowStride, f.pixelStride);
+        Mat luma = arena.wrap(MAT_PACKED_LUMA + packer.lastSlot(), packed, height, width, CvType.CV_8UC1);
+        Mat edges = arena.obtain(MAT_EDGES, height, width, CvType.CV_8UC1);
+        runner.bind(luma);
+        runner.bind(edges);
+        pipeline.run(pipeline.current(), luma, edges, arena, MAT_STAGES);
+        Mat out = arena.wrap(MAT_RGBA, rgba, height, width, CvType.CV_8UC4);
+        Imgproc.cvtColor(edges, out, Imgproc.COLOR_GRAY2RGBA);
+        return outputCopy();
+    }
+}
@@ -0,0 +1,68 @@
+package com.wintershade.opencvandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of {@link FrameRecorder} on the camera thread while recording:
+ * three bulk copies into a memory-mapped ring. {@link FramePackerBenchmark} times
+ * the NV21 pack of the same frames, for scale.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameRecorderBenchmark {
+
+    private static final int SLOTS = 30;
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    private List<FrameCorpus.Frame> frames;
+    private int next = 0;
+    private long timestamp = 0;
+    private File file;
+    private FrameRecorder recorder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        nu.pattern.OpenCV.loadLocally();
+        String[] size = resolution.split("x");
+        File jpegDir = new File(System.getProperty("bench.frames", "web/frames"));
+        frames = FrameCorpus.load(FrameCorpus.SYNTHETIC, jpegDir,
+                Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        FrameCorpus.Frame f = frames.get(0);
+        file = File.createTempFile("recorder-bench", ".yuvring");
+        recorder = new FrameRecorder(file, SLOTS, f.y.capacity() + f.u.capacity() + f.v.capacity());
+        // The first pass over the ring faults in the file's pages
+        for (int i = 0; i < SLOTS; i++) record();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        recorder.close();
+        if (!file.delete()) file.deleteOnExit();
+    }
+
+    /** Records the next corpus frame into the ring. */
+    @Benchmark
+    public boolean record() {
+        FrameCorpus.Frame f = frames.get(next);
+        next = (next + 1) % frames.size();
+        return recorder.record(timestamp++, f.width, f.height, f.y, f.rowStride,
+                f.u, f.v, f.rowStride, f.pixelStride);
+    }
+}
@@ -0,0 +1,141 @@
+package com.wintershade.opencvandroid;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Canny(50, 150) at each Gaussian pyramid level, {@code pyramidDown(level)} included,
+ * for picking the level: {@link #canny} gives the CPU time per frame, and each trial
+ * prints the edge F-score of that level against Canny at full resolution.
+ *
+ * The F-score matches edges within {@link #TOLERANCE} full-resolution pixels. Precision
+ * is taken on the level's own grid: an edge pixel counts if a full-resolution edge lies
+ * within the tolerance of the area it covers. Recall is the share of full-resolution
+ * edge pixels within the tolerance of a level edge scaled back up. Level 0 scores 1.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PyramidBenchmark {
+
+    /** Matching distance in full-resolution pixels. */
+    static final int TOLERANCE = 2;
+
+    private static final int MAT_EDGES = 0;
+    private static final int MAT_STAGES = 1;
+
+    @Param({"0", "1", "2", "3"})
+    public int level;
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({FrameCorpus.SYNTHETIC, FrameCorpus.JPEG})
+    public String source;
+
+    private final List<Mat> lumas = new ArrayList<>();
+    private int next = 0;
+
+    private final MatArena arena = new MatArena(MAT_STAGES + 2);
+    private final DesktopStageRunner runner = new DesktopStageRunner();
+    private final FramePipeline pipeline = new FramePipeline(runner);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nu.pattern.OpenCV.loadLocally();
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        File jpegDir = new File(System.getProperty("bench.frames", "web/frames"));
+        FramePacker packer = new FramePacker(1);
+        for (FrameCorpus.Frame f : FrameCorpus.load(source, jpegDir, width, height)) {
+            ByteBuffer packed = packer.pack(f.width, f.height, f.y, f.rowStride, f.u, f.v,
+                    f.rowStride, f.pixelStride);
+            Mat luma = new Mat(height, width, CvType.CV_8UC1, packed).clone(); // the packer reuses its buffer
+            runner.bind(luma);
+            lumas.add(luma);
+        }
+
+        pipeline.setStages(FrameProcessors.canny(50, 150));
+        FramePipeline.Program full = pipeline.current();
+        if (level > 0) {
+            pipeline.setStages(FrameProcessors.pyramidDown(level), FrameProcessors.canny(50, 150));
+        }
+        printFScore(full, pipeline.current());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        arena.release();
+        for (Mat luma : lumas) luma.release();
+        lumas.clear();
+    }
+
+    private Mat run(FramePipeline.Program program, Mat luma, int slot) {
+        Mat edges = arena.obtain(slot, program.outputSize(luma.rows()), program.outputSize(luma.cols()),
+                CvType.CV_8UC1);
+        runner.bind(edges);
+        pipeline.run(program, luma, edges, arena, MAT_STAGES);
+        return edges;
+    }
+
+    /** Pyramid level and Canny on the next corpus frame. */
+    @Benchmark
+    public Mat canny() {
+        Mat luma = lumas.get(next);
+        next = (next + 1) % lumas.size();
+        return run(pipeline.current(), luma, MAT_EDGES);
+    }
+
+    private void printFScore(FramePipeline.Program full, FramePipeline.Program scaled) {
+        Mat disk = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(2 * TOLERANCE + 1, 2 * TOLERANCE + 1));
+        Mat near = new Mat(), nearScaled = new Mat(), upscaled = new Mat(), hits = new Mat();
+        long matched = 0, found = 0, recalled = 0, reference = 0;
+        for (Mat luma : lumas) {
+            Mat truth = run(full, luma, MAT_EDGES).clone();
+            Mat edges = run(scaled, luma, MAT_EDGES);
+
+            // Precision: level edges whose area has a full-resolution edge within reach
+            Imgproc.dilate(truth, near, disk);
+            Imgproc.resize(near, nearScaled, edges.size(), 0, 0, Imgproc.INTER_AREA);
+            Core.bitwise_and(edges, nearScaled, hits);
+            matched += Core.countNonZero(hits);
+            found += Core.countNonZero(edges);
+
+            // Recall: full-resolution edges near a level edge scaled back up
+            Imgproc.resize(edges, upscaled, truth.size(), 0, 0, Imgproc.INTER_NEAREST);
+            Imgproc.dilate(upscaled, near, disk);
+            Core.bitwise_and(truth, near, hits);
+            recalled += Core.countNonZero(hits);
+            reference += Core.countNonZero(truth);
+            truth.release();
+        }
+        double precision = found == 0 ? 0 : (double) matched / found;
+        double recall = reference == 0 ? 0 : (double) recalled / reference;
+        double f = precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall);
+        System.out.printf(Locale.US, "%n%s %s, pyramid level %d: edge F-score %.3f (precision %.3f, recall %.3f)"
+                + " against full resolution, %d px tolerance%n", resolution, source, level, f, precision, recall,
+                TOLERANCE);
+        for (Mat m : new Mat[]{disk, near, nearScaled, upscaled, hits}) m.release();
+    }
+}
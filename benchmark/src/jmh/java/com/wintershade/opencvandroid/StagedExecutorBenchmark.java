@@ -0,0 +1,107 @@
+package com.wintershade.opencvandroid;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and capture-to-publish latency of the camera pipeline's stages run on
+ * their own threads against the same work done serially, fed by a
+ * {@link SyntheticFrameSource} that produces frames faster than either can finish
+ * them. Each operation is one run of {@link #FRAMES} frames; the secondary results
+ * are its completed frame rate and latency percentiles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class StagedExecutorBenchmark {
+
+    static final String SERIAL = "serial";
+
+    private static final double SOURCE_FPS = 120;
+    private static final int FRAMES = 360;
+    // vision, publish
+    private static final long[] STAGE_NANOS = {
+            TimeUnit.MILLISECONDS.toNanos(12), TimeUnit.MILLISECONDS.toNanos(3)
+    };
+
+    @Param({SERIAL, "pipelined"})
+    public String mode;
+
+    /** Frame rate and latency of the last run. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Run {
+        public double fps, p50Ms, p99Ms;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            fps = p50Ms = p99Ms = 0;
+        }
+    }
+
+    private static final class Result implements StagedExecutor.FrameSink<SyntheticFrameSource.Frame> {
+        final long[] latencies = new long[FRAMES];
+        int completed = 0;
+        long firstDone = 0, lastDone = 0;
+
+        @Override
+        public synchronized void onCompleted(SyntheticFrameSource.Frame frame) {
+            long now = System.nanoTime();
+            if (completed == 0) firstDone = now;
+            lastDone = now;
+            latencies[completed++] = now - frame.capturedNanos;
+        }
+
+        @Override
+        public void onDropped(SyntheticFrameSource.Frame frame, Throwable error) {
+        }
+
+        synchronized double fps() {
+            return completed < 2 ? 0 : (completed - 1) * 1e9 / (lastDone - firstDone);
+        }
+
+        synchronized double percentileMs(double p) {
+            if (completed == 0) return 0;
+            long[] sorted = Arrays.copyOf(latencies, completed);
+            Arrays.sort(sorted);
+            return sorted[Math.min(completed - 1, (int) (p * completed))] / 1e6;
+        }
+    }
+
+    /** Feeds {@link #FRAMES} frames through the stages and waits for the last one. */
+    @Benchmark
+    public int frames(Run run) {
+        Result result = new Result();
+        StagedExecutor<SyntheticFrameSource.Frame> executor = SERIAL.equals(mode)
+                ? new StagedExecutor<>(SERIAL, 1, result, f -> {
+                    for (long n : STAGE_NANOS) SyntheticFrameSource.work(n);
+                })
+                : new StagedExecutor<>(mode, 1, result,
+                        f -> SyntheticFrameSource.work(STAGE_NANOS[0]),
+                        f -> SyntheticFrameSource.work(STAGE_NANOS[1]));
+        executor.start();
+        new SyntheticFrameSource(SOURCE_FPS).run(executor, FRAMES);
+        // Let the frames still in the stages finish
+        SyntheticFrameSource.work(TimeUnit.MILLISECONDS.toNanos(100));
+        executor.stop();
+        run.fps = result.fps();
+        run.p50Ms = result.percentileMs(0.5);
+        run.p99Ms = result.percentileMs(0.99);
+        return result.completed;
+    }
+}
@@ -22,3 +22,5 @@ dependencyResolutionManagement {
 rootProject.name = "OpenCVandroid"
 include(":app")
 include(":OpenCV")
+include(":benchmark")
+include(":batch")
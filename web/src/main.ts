@@ -1,29 +1,82 @@
 import { StatsOverlay } from "./utils/stats";
+import { EdgeStreamDecoder, drawEdges } from "./stream";
 
 const frameEl = document.getElementById("frame") as HTMLImageElement;
+const canvasEl = document.getElementById("live") as HTMLCanvasElement;
 const fpsEl = document.getElementById("fps") as HTMLElement;
 const resolutionEl = document.getElementById("resolution") as HTMLElement;
+const bytesEl = document.getElementById("bytes") as HTMLElement;
 
-const frames: string[] = [];
+const overlay = new StatsOverlay(fpsEl, resolutionEl, bytesEl);
 
-for (let i = 1; i <= 10; i++) {
-  const padded = ("000" + i).slice(-3); 
-  frames.push(`frames/frame_${padded}.jpg`);
-}
+// index.html?ws=192.168.1.20:8765&token=... shows the phone's live edge stream; the
+// token is in the app's "Streaming edges on" log line
+const query = new URLSearchParams(location.search);
+const streamAddress = query.get("ws");
+const streamToken = query.get("token") || "";
+
+function playSampleFrames() {
+  const frames: string[] = [];
+
+  for (let i = 1; i <= 10; i++) {
+    const padded = ("000" + i).slice(-3);
+    frames.push(`frames/frame_${padded}.jpg`);
+  }
 
-let index = 0;
-const overlay = new StatsOverlay(fpsEl, resolutionEl);
+  let index = 0;
 
-function nextFrame() {
-  const start = performance.now();
-  frameEl.src = frames[index];
-  index = (index + 1) % frames.length;
+  function nextFrame() {
+    const start = performance.now();
+    frameEl.src = frames[index];
+    index = (index + 1) % frames.length;
 
-  
-  frameEl.onload = () => {
-    overlay.updateResolution(frameEl.naturalWidth, frameEl.naturalHeight);
-    overlay.updateFPS(performance.now() - start);
+    frameEl.onload = () => {
+      overlay.updateResolution(frameEl.naturalWidth, frameEl.naturalHeight);
+      overlay.updateFPS(performance.now() - start);
+    };
+  }
+
+  setInterval(nextFrame, 100);
+}
+
+function playLiveStream(address: string) {
+  frameEl.style.display = "none";
+  canvasEl.style.display = "block";
+  const ctx = canvasEl.getContext("2d") as CanvasRenderingContext2D;
+  let image: ImageData | null = null;
+  const decoder = new EdgeStreamDecoder();
+  let last = 0;
+  // Messages are decoded in arrival order; deltas depend on the previous frame
+  let decoding: Promise<void> = Promise.resolve();
+
+  const socket = new WebSocket(`ws://${address}/?token=${encodeURIComponent(streamToken)}`);
+  socket.binaryType = "arraybuffer";
+  socket.onmessage = (event) => {
+    const message = event.data as ArrayBuffer;
+    decoding = decoding.then(async () => {
+      const frame = await decoder.decode(message);
+      if (!frame) return;
+      if (!image || image.width !== frame.width || image.height !== frame.height) {
+        canvasEl.width = frame.width;
+        canvasEl.height = frame.height;
+        image = ctx.createImageData(frame.width, frame.height);
+        overlay.updateResolution(frame.width, frame.height);
+      }
+      drawEdges(ctx, frame, image);
+      const now = performance.now();
+      if (last > 0) overlay.updateFPS(now - last);
+      last = now;
+      overlay.updateBytes(frame.bytes);
+    });
+  };
+  socket.onclose = () => {
+    // Reconnect; the server starts every viewer with a key frame
+    setTimeout(() => playLiveStream(address), 1000);
   };
 }
 
-setInterval(nextFrame, 100); 
+if (streamAddress) {
+  playLiveStream(streamAddress);
+} else {
+  playSampleFrames();
+}
@@ -0,0 +1,58 @@
+// Decoder for the app's edge stream (EdgeStreamServer / EdgeFrameEncoder):
+// header = version u8, type u8, width u16, height u16, sequence u32 (big-endian),
+// then a zlib stream of the 1-bit packed frame, XORed with the previous one for deltas.
+
+const VERSION = 1;
+const TYPE_KEY = 0;
+const HEADER_BYTES = 10;
+
+export interface EdgeFrame {
+  width: number;
+  height: number;
+  sequence: number;
+  key: boolean;
+  bytes: number;
+  bits: Uint8Array;
+}
+
+async function inflate(message: ArrayBuffer, offset: number): Promise<Uint8Array> {
+  const stream = new Blob([new Uint8Array(message, offset)])
+    .stream()
+    .pipeThrough(new DecompressionStream("deflate"));
+  return new Uint8Array(await new Response(stream).arrayBuffer());
+}
+
+export class EdgeStreamDecoder {
+  private bits = new Uint8Array(0);
+
+  async decode(message: ArrayBuffer): Promise<EdgeFrame | null> {
+    const view = new DataView(message);
+    if (message.byteLength < HEADER_BYTES || view.getUint8(0) !== VERSION) return null;
+    const key = view.getUint8(1) === TYPE_KEY;
+    const width = view.getUint16(2);
+    const height = view.getUint16(4);
+    const sequence = view.getUint32(6);
+    const size = Math.ceil((width * height) / 8);
+
+    const payload = await inflate(message, HEADER_BYTES);
+    if (payload.length !== size) return null;
+    if (key) {
+      this.bits = payload;
+    } else {
+      if (this.bits.length !== size) return null; // joined mid-stream; wait for a key frame
+      for (let i = 0; i < size; i++) this.bits[i] ^= payload[i];
+    }
+    return { width, height, sequence, key, bytes: message.byteLength, bits: this.bits };
+  }
+}
+
+// Expands the packed bits (MSB first) into white-on-black pixels.
+export function drawEdges(ctx: CanvasRenderingContext2D, frame: EdgeFrame, image: ImageData) {
+  const pixels = new Uint32Array(image.data.buffer);
+  const bits = frame.bits;
+  const count = frame.width * frame.height;
+  for (let i = 0; i < count; i++) {
+    pixels[i] = (bits[i >> 3] >> (7 - (i & 7))) & 1 ? 0xffffffff : 0xff000000;
+  }
+  ctx.putImageData(image, 0, 0);
+}
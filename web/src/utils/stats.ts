@@ -1,10 +1,12 @@
 export class StatsOverlay {
   private fpsEl: HTMLElement;
   private resEl: HTMLElement;
+  private bytesEl: HTMLElement | null;
 
-  constructor(fpsEl: HTMLElement, resEl: HTMLElement) {
+  constructor(fpsEl: HTMLElement, resEl: HTMLElement, bytesEl: HTMLElement | null = null) {
     this.fpsEl = fpsEl;
     this.resEl = resEl;
+    this.bytesEl = bytesEl;
   }
 
   updateFPS(frameTimeMs: number) {
@@ -15,4 +17,8 @@ export class StatsOverlay {
   updateResolution(width: number, height: number) {
     this.resEl.textContent = `${width}x${height}`;
   }
+
+  updateBytes(bytes: number) {
+    if (this.bytesEl) this.bytesEl.textContent = `${(bytes / 1024).toFixed(1)} KB`;
+  }
 }